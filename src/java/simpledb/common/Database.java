@@ -1,6 +1,8 @@
 package simpledb.common;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.LruKReplacementPolicy;
+import simpledb.storage.PageArena;
 import simpledb.storage.LogFile;
 
 import java.io.*;
@@ -58,11 +60,24 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that keeps HeapFile pages in an off-heap arena of two frames per page
+     * and return it
+     */
+    public static BufferPool resetOffHeapBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages, new LruKReplacementPolicy(), new PageArena(2 * pages)));
+    }
+
+    private static BufferPool resetBufferPool(BufferPool bufferPool) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -28,6 +28,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(decodeInt(data, offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +51,11 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new StringField(decodeString(data, offset), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +74,31 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   decoded from the specified bytes, which are laid out as written by
+   *   {@link Field#serialize}.
+   * @param data the bytes to read from
+   * @param offset the offset of the first byte of the field in data
+   */
+    public abstract Field parse(byte[] data, int offset);
+
+  /**
+   * @return the value of the serialized INT_TYPE field at the specified
+   *   offset of data
+   */
+    public static int decodeInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+  /**
+   * @return the value of the serialized STRING_TYPE field at the specified
+   *   offset of data
+   */
+    public static String decodeString(byte[] data, int offset) {
+        int strLen = Math.max(0, Math.min(decodeInt(data, offset), STRING_LEN));
+        return new String(data, offset + 4, strLen);
+    }
+
 }
@@ -105,10 +105,8 @@ public class Utility {
     public static HeapFile createEmptyHeapFile(String path, int cols)
         throws IOException {
         File f = new File(path);
-        // touch the file
-        FileOutputStream fos = new FileOutputStream(f);
-        fos.write(new byte[0]);
-        fos.close();
+        // touch the file, dropping all segments of an existing one
+        SegmentedFile.newOutputStream(f).close();
 
         HeapFile hf = openHeapFile(cols, f);
         HeapPageId pid = new HeapPageId(hf.getId(), 0);
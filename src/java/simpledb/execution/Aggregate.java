@@ -2,38 +2,72 @@ package simpledb.execution;
 
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.io.IOException;
 import java.util.NoSuchElementException;
 
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). Aggregates are computed over single columns, grouped by a single
+ * column; one operator may compute several aggregates in the same pass.
+ * <p>
+ * Groups are kept in a hash table of at most the memory budget of the
+ * operator.  Once the table is full, tuples of groups that are not in it
+ * yet are partitioned on their group value into {@link SpillFile}s, and
+ * each partition is aggregated on its own after the groups in memory have
+ * been returned.
+ * <p>
+ * If the input is known to be ordered on the group field, e.g. because it
+ * is read from a B+ tree on that field, the operator can instead aggregate
+ * one group at a time as the tuples stream by, in constant memory.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
-    private int aggreateFiledNo;
+    /** The memory budget of an aggregate, in pages, when none is given explicitly. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+    /** The number of partitions tuples of groups that do not fit are split into. */
+    public static final int NUM_PARTITIONS = 16;
+
+    private final int[] aggregateFieldNos;
 
     private int groupByFieldNo = Aggregator.NO_GROUPING;
 
     private OpIterator[] children;
 
-    private Aggregator.Op aop;
+    private final Aggregator.Op[] aops;
 
-    Aggregator aggregator;
+    HashAggregator aggregator;
 
     private Type gbFieldType;
 
-    private Type aFieldType;
-
     private OpIterator it;
 
+    private final int memoryPages;
+    private final boolean groupOrdered;
+    private final int depth;
+
+    /** partitions of tuples whose groups did not fit, null if all did */
+    private transient SpillFile[] spills;
+    private transient int numSpilled;
+    /** the aggregate of the spilled partition being returned, if any */
+    private transient Aggregate spilledAggregate;
+    private transient int nextSpilled;
+
+    /** with ordered input: the first tuple of the next group, if read */
+    private transient Tuple pending;
+    private transient boolean inputDone;
+    private transient boolean returnedAny;
+    private transient TupleDesc resultTd;
+
     /**
      * Constructor.
      * <p>
@@ -48,15 +82,72 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[]{afield}, gfield, new Aggregator.Op[]{aop});
+    }
+
+    /**
+     * Constructor for an operator computing several aggregates at once, all
+     * grouped by the same column.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The columns over which we are computing aggregates.
+     * @param gfield  The column over which we are grouping the result, or -1
+     *                if there is no grouping
+     * @param aops    The aggregation operator to use for each of afields
+     * @throws IllegalArgumentException if afields and aops differ in length,
+     *                                  or an operator other than COUNT is
+     *                                  applied to a STRING_TYPE column
+     */
+    public Aggregate(OpIterator child, int[] afields, int gfield, Aggregator.Op[] aops) {
+        this(child, afields, gfield, aops, DEFAULT_MEMORY_PAGES, false);
+    }
+
+    /**
+     * Constructor with an explicit memory budget, and for input that is
+     * ordered on the group field.
+     *
+     * @param child        The OpIterator that is feeding us tuples.
+     * @param afields      The columns over which we are computing aggregates.
+     * @param gfield       The column over which we are grouping the result, or
+     *                     -1 if there is no grouping
+     * @param aops         The aggregation operator to use for each of afields
+     * @param memoryPages  The number of pages worth of groups to keep in memory
+     *                     before tuples are spilled to disk
+     * @param groupOrdered true if all tuples of a group are next to each other
+     *                     in the input, so that groups can be aggregated one
+     *                     at a time; groups are then returned in input order
+     */
+    public Aggregate(OpIterator child, int[] afields, int gfield, Aggregator.Op[] aops,
+                     int memoryPages, boolean groupOrdered) {
+        this(child, afields, gfield, aops, memoryPages, groupOrdered, 0);
+    }
+
+    private Aggregate(OpIterator child, int[] afields, int gfield, Aggregator.Op[] aops,
+                      int memoryPages, boolean groupOrdered, int depth) {
+        if (memoryPages < 1) {
+            throw new IllegalArgumentException("an aggregate needs at least one page of memory");
+        }
+        this.memoryPages = memoryPages;
+        this.groupOrdered = groupOrdered;
+        this.depth = depth;
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        }
+        TupleDesc childTd = child.getTupleDesc();
+        for (int i = 0; i < afields.length; i++) {
+            if (childTd.getFieldType(afields[i]) != Type.INT_TYPE && aops[i] != Aggregator.Op.COUNT) {
+                throw new IllegalArgumentException("unsupported aggregate " + aops[i]
+                        + " over a " + childTd.getFieldType(afields[i]) + " column");
+            }
+        }
         this.children = new OpIterator[1];
         children[0] = child;
-        aggreateFiledNo = afield;
+        aggregateFieldNos = afields.clone();
         groupByFieldNo = gfield;
-        this.aop = aop;
+        this.aops = aops.clone();
         if(groupByFieldNo != Aggregator.NO_GROUPING){
-            gbFieldType = child.getTupleDesc().getFieldType(groupByFieldNo);
+            gbFieldType = childTd.getFieldType(groupByFieldNo);
         }
-        aFieldType = child.getTupleDesc().getFieldType(afield);
     }
 
     /**
@@ -78,25 +169,69 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * @return the aggregate field
+     * @return the number of aggregates computed by this operator
+     */
+    public int numAggregates() {
+        return aops.length;
+    }
+
+    /**
+     * @return the aggregate field, or the first one if there are several
      */
     public int aggregateField() {
-        return aggreateFiledNo;
+        return aggregateFieldNos[0];
+    }
+
+    /**
+     * @return the field of the ith aggregate
+     */
+    public int aggregateField(int i) {
+        return aggregateFieldNos[i];
     }
 
     /**
      * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     * tuples
+     * tuples, or of the first one if there are several
      */
     public String aggregateFieldName() {
-        return children[0].getTupleDesc().getFieldName(aggreateFiledNo);
+        return aggregateFieldName(0);
+    }
+
+    /**
+     * @return return the name of the ith aggregate field in the <b>OUTPUT</b>
+     * tuples
+     */
+    public String aggregateFieldName(int i) {
+        return children[0].getTupleDesc().getFieldName(aggregateFieldNos[i]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the aggregate operator, or the first one if there are
+     * several
      */
     public Aggregator.Op aggregateOp() {
-        return aop;
+        return aops[0];
+    }
+
+    /**
+     * @return return the operator of the ith aggregate
+     */
+    public Aggregator.Op aggregateOp(int i) {
+        return aops[i];
+    }
+
+    /**
+     * @return true if the input is expected to be ordered on the group field
+     */
+    public boolean isGroupOrdered() {
+        return groupOrdered;
+    }
+
+    /**
+     * @return the number of partitions the last open spilled to disk
+     */
+    public int numSpilledPartitions() {
+        return numSpilled;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -107,51 +242,152 @@ public class Aggregate extends Operator {
             TransactionAbortedException {
         super.open();
         children[0].open();
-        if(aFieldType == Type.INT_TYPE){
-            aggregator = new IntegerAggregator(groupByFieldNo,
-                    gbFieldType,
-                    aggreateFiledNo,
-                    aop);
-        }else if( aFieldType == Type.STRING_TYPE){
-            aggregator = new StringAggregator(groupByFieldNo,
-                    gbFieldType,
-                    aggreateFiledNo,
-                    aop);
-        }
-
-        while(children[0].hasNext()){
-            Tuple tuple = children[0].next();
-            aggregator.mergeTupleIntoGroup(tuple);
+        start();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        aggregator = new HashAggregator(groupByFieldNo, gbFieldType, aggregateFieldNos, aops);
+        if (groupOrdered) {
+            resultTd = getTupleDesc();
+            pending = null;
+            inputDone = false;
+            returnedAny = false;
+            return;
+        }
+
+        long budget = (long) memoryPages * BufferPool.getPageSize();
+        numSpilled = 0;
+        try {
+            while(children[0].hasNext()){
+                Tuple tuple = children[0].next();
+                if (spills == null) {
+                    aggregator.mergeTupleIntoGroup(tuple);
+                    if (gbFieldType != null && aggregator.memoryFootprint() > budget) {
+                        spills = new SpillFile[NUM_PARTITIONS];
+                    }
+                } else if (!aggregator.mergeTupleIntoExistingGroup(tuple)) {
+                    int p = SpillFile.partitionOf(tuple.getField(groupByFieldNo), depth, NUM_PARTITIONS);
+                    if (spills[p] == null) {
+                        spills[p] = new SpillFile(children[0].getTupleDesc());
+                        numSpilled++;
+                    }
+                    spills[p].add(tuple);
+                }
+            }
+        } catch (IOException e) {
+            releaseSpills();
+            throw new DbException("unable to spill aggregate partition: " + e.getMessage());
         }
         it = aggregator.iterator();
         it.open();
+        nextSpilled = 0;
+    }
+
+    private void releaseSpills() {
+        if (spilledAggregate != null) {
+            spilledAggregate.close();
+            spilledAggregate = null;
+        }
+        if (spills != null) {
+            for (SpillFile f : spills) {
+                if (f != null) {
+                    f.delete();
+                }
+            }
+            spills = null;
+        }
     }
 
     /**
      * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * field is the field by which we are grouping, and the following fields
+     * are the results of computing the aggregates. If there is no group by
+     * field, then the result tuple should contain one field per aggregate.
+     * Should return null if there are no more tuples.
+     * <p>
+     * Groups of spilled partitions come after the groups kept in memory.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        while(it.hasNext()){
-            Tuple result = it.next();
-            return result;
+        if (groupOrdered) {
+            return fetchNextOrdered();
+        }
+        if (it.hasNext()) {
+            return it.next();
+        }
+        while (spills != null) {
+            if (spilledAggregate != null) {
+                if (spilledAggregate.hasNext()) {
+                    return spilledAggregate.next();
+                }
+                spilledAggregate.close();
+                spilledAggregate = null;
+                spills[nextSpilled - 1].delete();
+                spills[nextSpilled - 1] = null;
+            }
+            while (nextSpilled < NUM_PARTITIONS && spills[nextSpilled] == null) {
+                nextSpilled++;
+            }
+            if (nextSpilled == NUM_PARTITIONS) {
+                return null;
+            }
+            spilledAggregate = new Aggregate(spills[nextSpilled++].iterator(), aggregateFieldNos,
+                    groupByFieldNo, aops, memoryPages, false, depth + 1);
+            spilledAggregate.open();
         }
         return null;
     }
 
+    /** Aggregates the next group of input that is ordered on the group field. */
+    private Tuple fetchNextOrdered() throws TransactionAbortedException, DbException {
+        if (inputDone) {
+            return null;
+        }
+        Tuple t = pending;
+        pending = null;
+        if (t == null) {
+            if (!children[0].hasNext()) {
+                inputDone = true;
+                // without grouping, an empty input still has a result
+                if (gbFieldType == null && !returnedAny) {
+                    returnedAny = true;
+                    aggregator.clear();
+                    return aggregator.resultTuple(resultTd, 0);
+                }
+                return null;
+            }
+            t = children[0].next();
+        }
+        aggregator.clear();
+        aggregator.mergeTupleIntoGroup(t);
+        Field key = gbFieldType == null ? null : t.getField(groupByFieldNo);
+        while (children[0].hasNext()) {
+            Tuple next = children[0].next();
+            if (key != null && !key.equals(next.getField(groupByFieldNo))) {
+                pending = next;
+                break;
+            }
+            aggregator.mergeTupleIntoGroup(next);
+        }
+        returnedAny = true;
+        return aggregator.resultTuple(resultTd, 0);
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
-        children[0].rewind();
-        it.rewind();
+        if (groupOrdered || spills != null) {
+            // not all results are in memory: compute them again
+            releaseSpills();
+            children[0].rewind();
+            start();
+        } else {
+            it.rewind();
+        }
     }
 
     /**
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * this will have one field per aggregate. If there is a group by field,
+     * the first field will be the group by field, followed by the aggregate
+     * value columns.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -159,27 +395,35 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-        int len = 1;
+        TupleDesc childTd = children[0].getTupleDesc();
+        int len = aggregateFieldNos.length;
+        if(groupByFieldNo != Aggregator.NO_GROUPING){
+            len++;
+        }
         Type[] types = new Type[len];
         String[] fieldNames = new String[len];
         int cur = 0;
         if(groupByFieldNo != Aggregator.NO_GROUPING){
-            len = 2;
-            types = new Type[len];
-            fieldNames = new String[len];
-            types[cur] = children[0].getTupleDesc().getFieldType(groupByFieldNo);
-            fieldNames[cur] = children[0].getTupleDesc().getFieldName(groupByFieldNo);
+            types[cur] = childTd.getFieldType(groupByFieldNo);
+            fieldNames[cur] = childTd.getFieldName(groupByFieldNo);
+            cur++;
+        }
+        for (int afield : aggregateFieldNos) {
+            // every aggregate, COUNT over strings included, is an int
+            types[cur] = Type.INT_TYPE;
+            fieldNames[cur] = childTd.getFieldName(afield);
             cur++;
         }
-        types[cur] = children[0].getTupleDesc().getFieldType(aggreateFiledNo);
-        fieldNames[cur] = children[0].getTupleDesc().getFieldName(aggreateFiledNo);
-        TupleDesc td = new TupleDesc(types, fieldNames);
-        return td;
+        return new TupleDesc(types, fieldNames);
     }
 
     public void close() {
         children[0].close();
         super.close();
+        releaseSpills();
+        aggregator = null;
+        it = null;
+        pending = null;
     }
 
     @Override
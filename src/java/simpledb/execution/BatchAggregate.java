@@ -0,0 +1,123 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchAggregate is the batch counterpart of {@link Aggregate}: it computes
+ * MIN, MAX, SUM, AVG or COUNT over one column, optionally grouped by another,
+ * reading the aggregate column straight out of the batches' int arrays.
+ * Groups are kept in a {@link GroupTable}, like those of
+ * {@link IntegerAggregator}: AVG is rounded towards zero, and without
+ * grouping the result is a single row even if the input is empty.
+ * Only COUNT is supported over a STRING_TYPE column.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    private transient GroupTable groups;
+    private transient TupleBatch out;
+    private int nextGroup;
+
+    /**
+     * @param child the iterator to read batches from
+     * @param afield the column over which the aggregate is computed
+     * @param gfield the column to group by, or {@link Aggregator#NO_GROUPING}
+     * @param aop the aggregation operator to use
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc childtd = child.getTupleDesc();
+        if (aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG
+                || (childtd.getFieldType(afield) != Type.INT_TYPE && aop != Aggregator.Op.COUNT)) {
+            throw new IllegalArgumentException("unsupported aggregate " + aop + " over a "
+                    + childtd.getFieldType(afield) + " column");
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        String aggName = aop + " (" + childtd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING) {
+            td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{aggName});
+        } else {
+            td = new TupleDesc(new Type[]{childtd.getFieldType(gfield), Type.INT_TYPE},
+                    new String[]{childtd.getFieldName(gfield), aggName});
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        groups = new GroupTable(gfield == Aggregator.NO_GROUPING ? null
+                : child.getTupleDesc().getFieldType(gfield), new Aggregator.Op[]{aop});
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            merge(batch);
+        }
+        out = new TupleBatch(td);
+        nextGroup = 0;
+    }
+
+    private void merge(TupleBatch batch) {
+        int[] sel = batch.selection();
+        int n = batch.numSelected();
+        int[] values = batch.intColumn(afield);
+        int[] intKeys = gfield == Aggregator.NO_GROUPING ? null : batch.intColumn(gfield);
+        String[] stringKeys = gfield == Aggregator.NO_GROUPING ? null : batch.stringColumn(gfield);
+        for (int i = 0; i < n; i++) {
+            int row = sel[i];
+            int g = intKeys != null ? groups.groupOf(intKeys[row])
+                    : stringKeys != null ? groups.groupOf(stringKeys[row]) : 0;
+            if (values != null) {
+                groups.add(g, 0, values[row]);
+            } else {
+                groups.count(g, 0);
+            }
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null) {
+            throw new IllegalStateException("iterator not open");
+        }
+        out.clear();
+        while (!out.isFull() && nextGroup < groups.numGroups()) {
+            int g = nextGroup++;
+            int row = out.addRow();
+            int aggField = 0;
+            if (gfield != Aggregator.NO_GROUPING) {
+                if (groups.getKeyType() == Type.INT_TYPE) {
+                    out.setInt(0, row, groups.intKey(g));
+                } else {
+                    out.setString(0, row, groups.stringKey(g));
+                }
+                aggField = 1;
+            }
+            out.setInt(aggField, row, groups.intResult(g, 0));
+        }
+        return out.numSelected() > 0 ? out : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        nextGroup = 0;
+    }
+
+    public void close() {
+        child.close();
+        groups = null;
+        out = null;
+    }
+}
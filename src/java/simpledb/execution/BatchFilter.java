@@ -0,0 +1,134 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchFilter is the batch counterpart of {@link Filter}.  It evaluates its
+ * predicate over a whole column at a time and only narrows the selection
+ * vector of each batch; no row is copied.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private final BatchIterator child;
+
+    /**
+     * @param p the predicate to filter rows with
+     * @param child the iterator to read batches from
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void close() {
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            filter(p, batch);
+            if (batch.numSelected() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the rows that do not satisfy the specified predicate from the
+     * selection of the batch.
+     */
+    static void filter(Predicate p, TupleBatch batch) {
+        int field = p.getField();
+        int[] sel = batch.selection();
+        int n = batch.numSelected();
+        int kept = 0;
+        if (batch.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            int[] col = batch.intColumn(field);
+            int v = ((IntField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    for (int i = 0; i < n; i++) {
+                        if (col[sel[i]] == v) sel[kept++] = sel[i];
+                    }
+                    break;
+                case NOT_EQUALS:
+                    for (int i = 0; i < n; i++) {
+                        if (col[sel[i]] != v) sel[kept++] = sel[i];
+                    }
+                    break;
+                case GREATER_THAN:
+                    for (int i = 0; i < n; i++) {
+                        if (col[sel[i]] > v) sel[kept++] = sel[i];
+                    }
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    for (int i = 0; i < n; i++) {
+                        if (col[sel[i]] >= v) sel[kept++] = sel[i];
+                    }
+                    break;
+                case LESS_THAN:
+                    for (int i = 0; i < n; i++) {
+                        if (col[sel[i]] < v) sel[kept++] = sel[i];
+                    }
+                    break;
+                case LESS_THAN_OR_EQ:
+                    for (int i = 0; i < n; i++) {
+                        if (col[sel[i]] <= v) sel[kept++] = sel[i];
+                    }
+                    break;
+            }
+        } else {
+            String[] col = batch.stringColumn(field);
+            StringField operand = (StringField) p.getOperand();
+            for (int i = 0; i < n; i++) {
+                // same semantics as StringField.compare
+                if (matches(col[sel[i]], p.getOp(), operand.getValue())) sel[kept++] = sel[i];
+            }
+        }
+        batch.setNumSelected(kept);
+    }
+
+    private static boolean matches(String value, Predicate.Op op, String operand) {
+        if (op == Predicate.Op.LIKE) {
+            return value.contains(operand);
+        }
+        int cmp = value.compareTo(operand);
+        switch (op) {
+            case EQUALS: return cmp == 0;
+            case NOT_EQUALS: return cmp != 0;
+            case GREATER_THAN: return cmp > 0;
+            case GREATER_THAN_OR_EQ: return cmp >= 0;
+            case LESS_THAN: return cmp < 0;
+            case LESS_THAN_OR_EQ: return cmp <= 0;
+            default: return false;
+        }
+    }
+}
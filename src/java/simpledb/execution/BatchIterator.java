@@ -0,0 +1,53 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link OpIterator}.
+ * Instead of one Tuple per call, nextBatch() returns a {@link TupleBatch}
+ * of up to a thousand or so rows stored column by column, which amortizes
+ * the per-call overhead and lets operators work on primitive arrays.
+ * <p>
+ * {@link TupleToBatchIterator} and {@link BatchToTupleIterator} convert
+ * between the two interfaces, so a plan can mix batch and tuple operators.
+ */
+public interface BatchIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch.  A returned batch has at least one selected
+     * row.  It may be reused by the iterator, so it is only valid until the
+     * next call to nextBatch, rewind or close.
+     *
+     * @return the next batch, or null if the iteration is finished
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc associated with this BatchIterator.
+     * @return the TupleDesc associated with this BatchIterator.
+     */
+    TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    void close();
+}
@@ -0,0 +1,62 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+
+/**
+ * BatchProject is the batch counterpart of {@link Project}.  Projecting a
+ * batch only picks out column arrays; the values are not copied.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final TupleDesc td;
+    private final int[] outFieldIds;
+
+    /**
+     * @param fieldList the ids of the fields of the child's TupleDesc to
+     *        project out
+     * @param child the iterator to read batches from
+     */
+    public BatchProject(List<Integer> fieldList, BatchIterator child) {
+        this.child = child;
+        this.outFieldIds = new int[fieldList.size()];
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[outFieldIds.length];
+        String[] fieldAr = new String[outFieldIds.length];
+        for (int i = 0; i < outFieldIds.length; i++) {
+            outFieldIds[i] = fieldList.get(i);
+            types[i] = childtd.getFieldType(outFieldIds[i]);
+            fieldAr[i] = childtd.getFieldName(outFieldIds[i]);
+        }
+        this.td = new TupleDesc(types, fieldAr);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void close() {
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = child.nextBatch();
+        return batch == null ? null : batch.project(td, outFieldIds);
+    }
+}
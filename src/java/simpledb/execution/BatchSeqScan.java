@@ -0,0 +1,115 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TuplePage;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * BatchSeqScan is the batch counterpart of {@link SeqScan}.  Pages of a
+ * HeapFile are decoded straight into the columns of a {@link TupleBatch},
+ * without creating a Tuple or Field per value; other kinds of tables are
+ * read through their tuple iterator.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final int batchSize;
+
+    private transient TupleBatch batch;
+    /** position of the next tuple to read, when reading a HeapFile */
+    private int pageNo;
+    private int slot;
+    /** the tuple iterator, when reading any other kind of table */
+    private transient DbFileIterator tuples;
+
+    /**
+     * Creates a batch scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableId the table to scan
+     * @param tableAlias the alias of this table, used to prefix field names
+     *        as in {@link SeqScan}
+     */
+    public BatchSeqScan(TransactionId tid, int tableId, String tableAlias) {
+        this(tid, tableId, tableAlias, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param batchSize the maximum number of rows of the returned batches
+     */
+    public BatchSeqScan(TransactionId tid, int tableId, String tableAlias, int batchSize) {
+        this.tid = tid;
+        this.tableId = tableId;
+        this.tableAlias = tableAlias;
+        this.batchSize = batchSize;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return new SeqScan(tid, tableId, tableAlias).getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        batch = new TupleBatch(getTupleDesc(), batchSize);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            tuples = file.iterator(tid);
+            tuples.open();
+        }
+        pageNo = 0;
+        slot = 0;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            throw new IllegalStateException("iterator not open");
+        }
+        batch.clear();
+        if (tuples != null) {
+            while (!batch.isFull() && tuples.hasNext()) {
+                batch.addTuple(tuples.next());
+            }
+        } else {
+            HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+            while (!batch.isFull() && pageNo < file.numPages()) {
+                TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(tableId, pageNo), Permissions.READ_ONLY);
+                slot = page.readInto(batch, slot);
+                if (slot >= page.getNumSlots()) {
+                    pageNo++;
+                    slot = 0;
+                }
+            }
+        }
+        return batch.numSelected() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (tuples != null) {
+            tuples.rewind();
+        }
+        pageNo = 0;
+        slot = 0;
+    }
+
+    public void close() {
+        if (tuples != null) {
+            tuples.close();
+            tuples = null;
+        }
+        batch = null;
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Adapts a {@link BatchIterator} to the {@link OpIterator} interface by
+ * returning the selected rows of its batches one Tuple at a time.
+ */
+public class BatchToTupleIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private transient TupleBatch batch;
+    private int pos;
+
+    public BatchToTupleIterator(BatchIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        super.open();
+        batch = null;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (batch == null || pos >= batch.numSelected()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.getTuple(batch.selectedRow(pos++));
+    }
+
+    /**
+     * @return no children: the batch iterator this operator reads from is
+     *         not an OpIterator
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (children.length > 0) {
+            throw new UnsupportedOperationException("the child of a BatchToTupleIterator is a BatchIterator");
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.util.Arrays;
+
+/**
+ * GroupTable is the hash table behind hash aggregation.  It maps group
+ * values to a dense group number, in order of first appearance, and keeps
+ * the running state of one or more aggregates of every group.
+ * <p>
+ * Nothing is boxed: the table uses open addressing with linear probing over
+ * an int[] of group numbers, the group values are kept in an int[] (or, for
+ * STRING_TYPE group values, a String[]), and the accumulators of all groups
+ * are kept side by side in a single long[].  Accumulating in longs means
+ * that SUM and AVG do not overflow before the result is computed.
+ * <p>
+ * A table without a group type has a single group, number 0, which exists
+ * from the start so that an aggregate over an empty input has a result.
+ */
+public class GroupTable {
+
+    private static final int EMPTY = -1;
+    private static final int INITIAL_SLOTS = 64;
+
+    private final Type keyType;
+    private final Aggregator.Op[] ops;
+    /** offset of the accumulators of each aggregate within a group */
+    private final int[] offsets;
+    /** number of accumulators of a group */
+    private final int width;
+
+    /** group number of each slot, or EMPTY */
+    private int[] slots;
+    private int[] intKeys;
+    private String[] stringKeys;
+    private long[] acc;
+    private int numGroups;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param keyType the type of the group values, or null if there is no
+     *                grouping
+     * @param ops     the aggregates to compute for every group
+     * @throws IllegalArgumentException if there are no aggregates, or one of
+     *                                  them is SUM_COUNT or SC_AVG, which are
+     *                                  not supported
+     */
+    public GroupTable(Type keyType, Aggregator.Op[] ops) {
+        if (ops.length == 0) {
+            throw new IllegalArgumentException("no aggregates given");
+        }
+        this.keyType = keyType;
+        this.ops = ops.clone();
+        this.offsets = new int[ops.length];
+        int w = 0;
+        for (int i = 0; i < ops.length; i++) {
+            offsets[i] = w;
+            w += accumulatorsOf(ops[i]);
+        }
+        this.width = w;
+        clear();
+    }
+
+    private static int accumulatorsOf(Aggregator.Op op) {
+        switch (op) {
+            case MIN:
+            case MAX:
+            case SUM:
+            case COUNT:
+                return 1;
+            case AVG:
+                // sum and count
+                return 2;
+            default:
+                throw new IllegalArgumentException("unsupported aggregate " + op);
+        }
+    }
+
+    /** Removes all groups. */
+    public void clear() {
+        // keep the arrays of a small table, e.g. one that is cleared for
+        // every group of a sorted input
+        if (slots == null || slots.length != INITIAL_SLOTS) {
+            slots = new int[INITIAL_SLOTS];
+            intKeys = keyType == Type.INT_TYPE ? new int[INITIAL_SLOTS / 2] : null;
+            stringKeys = keyType == Type.STRING_TYPE ? new String[INITIAL_SLOTS / 2] : null;
+            acc = new long[INITIAL_SLOTS / 2 * width];
+        }
+        Arrays.fill(slots, EMPTY);
+        numGroups = 0;
+        if (keyType == null) {
+            newGroup();
+        }
+    }
+
+    /** @return the type of the group values, or null without grouping */
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /** @return the number of aggregates computed per group */
+    public int numAggregates() {
+        return ops.length;
+    }
+
+    /** @return the number of groups */
+    public int numGroups() {
+        return numGroups;
+    }
+
+    /**
+     * @return an estimate of the number of bytes the groups of the table
+     *         take, used by operators that have to stay within a memory budget
+     */
+    public long memoryFootprint() {
+        // two slots per group at the maximum load factor, the group value
+        // and the accumulators
+        long keyBytes = keyType == null ? 0 : keyType == Type.INT_TYPE ? 4 : 16 + Type.STRING_LEN;
+        return numGroups * (8 + keyBytes + 8L * width);
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the number of the group of the specified INT_TYPE value,
+     * creating the group if it does not exist yet.
+     */
+    public int groupOf(int key) {
+        int s = slotOf(key);
+        int g = slots[s];
+        if (g == EMPTY) {
+            g = newGroup();
+            intKeys[g] = key;
+            slots[s] = g;
+            growIfFull();
+        }
+        return g;
+    }
+
+    /**
+     * Returns the number of the group of the specified STRING_TYPE value,
+     * creating the group if it does not exist yet.
+     */
+    public int groupOf(String key) {
+        int s = slotOf(key);
+        int g = slots[s];
+        if (g == EMPTY) {
+            g = newGroup();
+            stringKeys[g] = key;
+            slots[s] = g;
+            growIfFull();
+        }
+        return g;
+    }
+
+    /**
+     * @return the number of the group of the specified INT_TYPE value, or -1
+     *         if there is no such group
+     */
+    public int find(int key) {
+        return slots[slotOf(key)];
+    }
+
+    /**
+     * @return the number of the group of the specified STRING_TYPE value, or
+     *         -1 if there is no such group
+     */
+    public int find(String key) {
+        return slots[slotOf(key)];
+    }
+
+    /** @return the slot holding the group of key, or the empty slot where it goes */
+    private int slotOf(int key) {
+        int mask = slots.length - 1;
+        int s = mix(key) & mask;
+        while (slots[s] != EMPTY && intKeys[slots[s]] != key) {
+            s = (s + 1) & mask;
+        }
+        return s;
+    }
+
+    private int slotOf(String key) {
+        int mask = slots.length - 1;
+        int s = mix(key.hashCode()) & mask;
+        while (slots[s] != EMPTY && !stringKeys[slots[s]].equals(key)) {
+            s = (s + 1) & mask;
+        }
+        return s;
+    }
+
+    private int newGroup() {
+        int g = numGroups++;
+        if ((long) numGroups * width > acc.length) {
+            int capacity = Math.max(numGroups, acc.length / Math.max(1, width)) * 2;
+            acc = Arrays.copyOf(acc, capacity * width);
+            if (intKeys != null) {
+                intKeys = Arrays.copyOf(intKeys, capacity);
+            }
+            if (stringKeys != null) {
+                stringKeys = Arrays.copyOf(stringKeys, capacity);
+            }
+        }
+        for (int i = 0; i < ops.length; i++) {
+            int o = g * width + offsets[i];
+            if (ops[i] == Aggregator.Op.MIN) {
+                acc[o] = Long.MAX_VALUE;
+            } else if (ops[i] == Aggregator.Op.MAX) {
+                acc[o] = Long.MIN_VALUE;
+            } else {
+                acc[o] = 0;
+                if (ops[i] == Aggregator.Op.AVG) {
+                    acc[o + 1] = 0;
+                }
+            }
+        }
+        return g;
+    }
+
+    /** Keeps the load factor of the slots at most one half. */
+    private void growIfFull() {
+        if (numGroups * 2 <= slots.length) {
+            return;
+        }
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, EMPTY);
+        int mask = slots.length - 1;
+        for (int g = 0; g < numGroups; g++) {
+            int h = intKeys != null ? intKeys[g] : stringKeys[g].hashCode();
+            int s = mix(h) & mask;
+            while (slots[s] != EMPTY) {
+                s = (s + 1) & mask;
+            }
+            slots[s] = g;
+        }
+    }
+
+    /**
+     * Adds a value to the specified aggregate of a group.
+     *
+     * @param group the group number
+     * @param agg   the index of the aggregate
+     * @param value the value; ignored by COUNT
+     */
+    public void add(int group, int agg, int value) {
+        int o = group * width + offsets[agg];
+        switch (ops[agg]) {
+            case MIN:
+                acc[o] = Math.min(acc[o], value);
+                break;
+            case MAX:
+                acc[o] = Math.max(acc[o], value);
+                break;
+            case SUM:
+                acc[o] += value;
+                break;
+            case COUNT:
+                acc[o]++;
+                break;
+            case AVG:
+                acc[o] += value;
+                acc[o + 1]++;
+                break;
+            default:
+                throw new IllegalStateException("impossible to reach here");
+        }
+    }
+
+    /**
+     * Counts a row in the specified aggregate of a group, for aggregates over
+     * a column whose values are not ints.  Only valid for COUNT.
+     */
+    public void count(int group, int agg) {
+        if (ops[agg] != Aggregator.Op.COUNT) {
+            throw new IllegalArgumentException(ops[agg] + " needs a value");
+        }
+        acc[group * width + offsets[agg]]++;
+    }
+
+    /** @return the INT_TYPE value of the specified group */
+    public int intKey(int group) {
+        return intKeys[group];
+    }
+
+    /** @return the STRING_TYPE value of the specified group */
+    public String stringKey(int group) {
+        return stringKeys[group];
+    }
+
+    /**
+     * Returns the result of an aggregate of a group.  AVG is rounded towards
+     * zero, and MIN, MAX and AVG of a group without values are 0.
+     *
+     * @param group the group number
+     * @param agg   the index of the aggregate
+     */
+    public long result(int group, int agg) {
+        int o = group * width + offsets[agg];
+        switch (ops[agg]) {
+            case MIN:
+                return acc[o] == Long.MAX_VALUE ? 0 : acc[o];
+            case MAX:
+                return acc[o] == Long.MIN_VALUE ? 0 : acc[o];
+            case SUM:
+            case COUNT:
+                return acc[o];
+            case AVG:
+                return acc[o + 1] == 0 ? 0 : acc[o] / acc[o + 1];
+            default:
+                throw new IllegalStateException("impossible to reach here");
+        }
+    }
+
+    /**
+     * Returns the result of an aggregate of a group as the value of an
+     * INT_TYPE field.
+     *
+     * @throws DbException if the result does not fit in an int
+     */
+    public int intResult(int group, int agg) throws DbException {
+        long v = result(group, agg);
+        if (v != (int) v) {
+            throw new DbException("aggregate value " + v + " does not fit in an INT_TYPE field");
+        }
+        return (int) v;
+    }
+}
@@ -0,0 +1,205 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Computes one or more aggregates over a set of tuples in a single pass,
+ * keeping the groups in a {@link GroupTable}.  Aggregates over IntFields may
+ * be any of MIN, MAX, SUM, AVG and COUNT; aggregates over StringFields only
+ * COUNT.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int gbfield;
+    private final Type gbfieldType;
+    private final int[] afields;
+    private final GroupTable groups;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param whats
+     *            the aggregation operator of each aggregate field
+     * @throws IllegalArgumentException if the numbers of fields and operators
+     *             differ, or an operator is not supported
+     */
+    public HashAggregator(int gbfield, Type gbfieldtype, int[] afields, Op[] whats) {
+        if (afields.length != whats.length) {
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        }
+        this.gbfield = gbfield;
+        this.gbfieldType = gbfield == NO_GROUPING ? null : gbfieldtype;
+        this.afields = afields.clone();
+        this.groups = new GroupTable(this.gbfieldType, whats);
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate fields and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int g;
+        if (gbfieldType == null) {
+            g = 0;
+        } else if (gbfieldType == Type.INT_TYPE) {
+            g = groups.groupOf(((IntField) tup.getField(gbfield)).getValue());
+        } else {
+            g = groups.groupOf(((StringField) tup.getField(gbfield)).getValue());
+        }
+        merge(g, tup);
+    }
+
+    /**
+     * Merges a tuple into its group only if the group already exists.
+     *
+     * @return false if the group of the tuple does not exist yet, in which
+     *         case the tuple was ignored
+     */
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        int g;
+        if (gbfieldType == null) {
+            g = 0;
+        } else if (gbfieldType == Type.INT_TYPE) {
+            g = groups.find(((IntField) tup.getField(gbfield)).getValue());
+        } else {
+            g = groups.find(((StringField) tup.getField(gbfield)).getValue());
+        }
+        if (g < 0) {
+            return false;
+        }
+        merge(g, tup);
+        return true;
+    }
+
+    private void merge(int g, Tuple tup) {
+        for (int i = 0; i < afields.length; i++) {
+            Field f = tup.getField(afields[i]);
+            if (f instanceof IntField) {
+                groups.add(g, i, ((IntField) f).getValue());
+            } else {
+                groups.count(g, i);
+            }
+        }
+    }
+
+    /** @return the number of groups seen so far */
+    public int numGroups() {
+        return groups.numGroups();
+    }
+
+    /** @return an estimate of the number of bytes the groups take */
+    public long memoryFootprint() {
+        return groups.memoryFootprint();
+    }
+
+    /** Removes all groups. */
+    public void clear() {
+        groups.clear();
+    }
+
+    /**
+     * @return the result of the specified group, as a tuple of the schema of
+     *         {@link #getResultTupleDesc()}
+     */
+    Tuple resultTuple(TupleDesc td, int g) throws DbException {
+        Tuple ans = new Tuple(td);
+        int field = 0;
+        if (gbfieldType == Type.INT_TYPE) {
+            ans.setField(field++, new IntField(groups.intKey(g)));
+        } else if (gbfieldType == Type.STRING_TYPE) {
+            ans.setField(field++, new StringField(groups.stringKey(g), Type.STRING_LEN));
+        }
+        for (int i = 0; i < afields.length; i++) {
+            ans.setField(field++, new IntField(groups.intResult(g, i)));
+        }
+        return ans;
+    }
+
+    /** @return the schema of the tuples returned by {@link #iterator()} */
+    public TupleDesc getResultTupleDesc() {
+        int n = afields.length + (gbfieldType == null ? 0 : 1);
+        Type[] types = new Type[n];
+        int i = 0;
+        if (gbfieldType != null) {
+            types[i++] = gbfieldType;
+        }
+        while (i < n) {
+            types[i++] = Type.INT_TYPE;
+        }
+        return new TupleDesc(types);
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group value followed by the
+     *         value of each aggregate if using group, or just the aggregate
+     *         values if no grouping. Groups are returned in the order they
+     *         were first seen.
+     */
+    public OpIterator iterator() {
+        return new OpIterator() {
+            private static final long serialVersionUID = 1L;
+
+            int g = 0;
+            boolean isOpen = false;
+            final TupleDesc td = getResultTupleDesc();
+
+            public void open() {
+                isOpen = true;
+                g = 0;
+            }
+
+            public boolean hasNext() {
+                if (!isOpen) {
+                    throw new IllegalStateException();
+                }
+                return g < groups.numGroups();
+            }
+
+            public Tuple next() throws DbException, NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return resultTuple(td, g++);
+            }
+
+            public void rewind() {
+                if (!isOpen) {
+                    throw new IllegalStateException();
+                }
+                g = 0;
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void close() {
+                isOpen = false;
+            }
+        };
+    }
+
+}
@@ -2,27 +2,74 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equi-join as a partitioned hybrid
+ * hash join.
+ * <p>
+ * The tuples of child1, the build side, are hashed on their join field into
+ * {@link #NUM_PARTITIONS} partitions, each with its own hash table.  Whenever
+ * the build side grows beyond the memory budget, the largest partition still
+ * in memory is written out to a {@link SpillFile} and all further build tuples
+ * of that partition go to the file as well.  The tuples of child2, the probe
+ * side, are then either joined right away, if their partition is in memory,
+ * or written to the probe spill file of their partition.  Finally each pair
+ * of spilled partitions is joined by a HashEquiJoin of its own, which
+ * partitions again with a different hash function.  Past
+ * {@link #MAX_DEPTH} levels of recursion, e.g. because a single join value
+ * does not fit in memory, a partition is joined in memory sized chunks of the
+ * build side, each followed by a scan of the probe side.
+ * <p>
+ * If the build side fits in memory, both children are read only once and
+ * nothing is written to disk.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The memory budget of a join, in pages, when none is given explicitly. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+    /** The number of partitions the build side is split into. */
+    public static final int NUM_PARTITIONS = 16;
+    /** The number of times a spilled partition is partitioned again. */
+    public static final int MAX_DEPTH = 3;
+
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
-    transient private Tuple t1 = null;
+    private final int memoryPages;
+    private final int depth;
+
+    /** in-memory hash table of each partition, null if it was spilled */
+    transient private Map<Field, List<Tuple>>[] tables;
+    transient private long[] partitionSizes;
+    transient private long memoryUsed;
+    transient private SpillFile[] buildSpills;
+    transient private SpillFile[] probeSpills;
+    /** true once the probe side has been read to its end */
+    transient private boolean probeDone;
+    /** true if the build side is joined in chunks, see {@link #MAX_DEPTH} */
+    transient private boolean chunked;
+    /** the join of the spilled partition being processed, if any */
+    transient private HashEquiJoin spilledJoin;
+    transient private int nextSpilled;
+    transient private int numSpilled;
+
     transient private Tuple t2 = null;
+    transient private Iterator<Tuple> listIt = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -31,9 +78,37 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor for a join with an explicit memory budget.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join, which is
+     *            the one held in memory
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryPages
+     *            The number of pages worth of build tuples the join may keep
+     *            in memory before it spills partitions to disk
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryPages) {
+        this(p, child1, child2, memoryPages, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+                         int memoryPages, int depth) {
+        if (memoryPages < 1) {
+            throw new IllegalArgumentException("a join needs at least one page of memory");
+        }
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryPages = memoryPages;
+        this.depth = depth;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -44,7 +119,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -54,29 +129,146 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
-
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+
+    /** @return the number of pages worth of build tuples kept in memory */
+    public int getMemoryPages() {
+        return memoryPages;
+    }
+
+    /** @return the number of partitions the last build wrote to disk */
+    public int numSpilledPartitions() {
+        return numSpilled;
+    }
+
+    private long memoryBudget() {
+        return (long) memoryPages * BufferPool.getPageSize();
+    }
+
+    private long tupleCost() {
+        // the in-memory footprint of a tuple is larger than its page
+        // footprint, but the latter is what the budget is counted in
+        return child1.getTupleDesc().getSize();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void build() throws DbException, TransactionAbortedException {
+        chunked = depth >= MAX_DEPTH;
+        int n = chunked ? 1 : NUM_PARTITIONS;
+        tables = new Map[n];
+        for (int i = 0; i < n; i++) {
+            tables[i] = new HashMap<>();
         }
-        return cnt > 0;
+        partitionSizes = new long[n];
+        buildSpills = new SpillFile[n];
+        probeSpills = new SpillFile[n];
+        memoryUsed = 0;
+        probeDone = false;
+        spilledJoin = null;
+        nextSpilled = 0;
+        numSpilled = 0;
+        t2 = null;
+        listIt = null;
 
+        if (chunked) {
+            loadChunk();
+            return;
+        }
+        try {
+            while (child1.hasNext()) {
+                Tuple t1 = child1.next();
+                Field key = t1.getField(pred.getField1());
+                int p = SpillFile.partitionOf(key, depth, NUM_PARTITIONS);
+                partitionSizes[p]++;
+                if (buildSpills[p] != null) {
+                    buildSpills[p].add(t1);
+                    continue;
+                }
+                tables[p].computeIfAbsent(key, k -> new ArrayList<>()).add(t1);
+                memoryUsed += tupleCost();
+                while (memoryUsed > memoryBudget()) {
+                    spillLargestPartition();
+                }
+            }
+            for (int p = 0; p < n; p++) {
+                if (buildSpills[p] != null) {
+                    probeSpills[p] = new SpillFile(child2.getTupleDesc());
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("unable to spill join partition: " + e.getMessage());
+        }
+    }
+
+    private void spillLargestPartition() throws IOException {
+        int victim = -1;
+        for (int p = 0; p < tables.length; p++) {
+            if (tables[p] != null && (victim < 0 || partitionSizes[p] > partitionSizes[victim])) {
+                victim = p;
+            }
+        }
+        SpillFile f = new SpillFile(child1.getTupleDesc());
+        for (List<Tuple> l : tables[victim].values()) {
+            for (Tuple t : l) {
+                f.add(t);
+            }
+        }
+        buildSpills[victim] = f;
+        numSpilled++;
+        tables[victim] = null;
+        memoryUsed -= partitionSizes[victim] * tupleCost();
+    }
+
+    /**
+     * Loads the next chunk of the build side that fits in memory.
+     *
+     * @return true if any tuples were loaded
+     */
+    private boolean loadChunk() throws DbException, TransactionAbortedException {
+        tables[0].clear();
+        memoryUsed = 0;
+        boolean loaded = false;
+        while (memoryUsed < memoryBudget() && child1.hasNext()) {
+            Tuple t1 = child1.next();
+            tables[0].computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>()).add(t1);
+            memoryUsed += tupleCost();
+            loaded = true;
+        }
+        return loaded;
+    }
+
+    private void deleteSpills(int p) {
+        if (buildSpills[p] != null) {
+            buildSpills[p].delete();
+            buildSpills[p] = null;
+        }
+        if (probeSpills[p] != null) {
+            probeSpills[p].delete();
+            probeSpills[p] = null;
+        }
+    }
+
+    private void releaseState() {
+        if (spilledJoin != null) {
+            spilledJoin.close();
+            spilledJoin = null;
+        }
+        if (buildSpills != null) {
+            for (int p = 0; p < buildSpills.length; p++) {
+                deleteSpills(p);
+            }
+        }
+        tables = null;
+        buildSpills = null;
+        probeSpills = null;
+        t2 = null;
+        listIt = null;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        build();
         super.open();
     }
 
@@ -84,24 +276,20 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        releaseState();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        releaseState();
         child1.rewind();
         child2.rewind();
+        build();
     }
 
-    transient Iterator<Tuple> listIt = null;
-
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -111,12 +299,14 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     * <p>
+     * Tuples of partitions that were spilled come after all others.
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
     private Tuple processList() {
-        t1 = listIt.next();
+        Tuple t1 = listIt.next();
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
@@ -132,32 +322,71 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            listIt = null;
 
-            return processList();
+            if (!probeDone) {
+                if (child2.hasNext()) {
+                    t2 = child2.next();
+                    Field key = t2.getField(pred.getField2());
+                    int p = chunked ? 0 : SpillFile.partitionOf(key, depth, NUM_PARTITIONS);
+                    if (tables[p] == null) {
+                        try {
+                            probeSpills[p].add(t2);
+                        } catch (IOException e) {
+                            throw new DbException("unable to spill join partition: " + e.getMessage());
+                        }
+                        continue;
+                    }
+                    List<Tuple> l = tables[p].get(key);
+                    if (l != null) {
+                        listIt = l.iterator();
+                    }
+                    continue;
+                }
+                // child2 is done: advance to the next chunk of child1, if any
+                if (chunked && loadChunk()) {
+                    child2.rewind();
+                    continue;
+                }
+                probeDone = true;
+                Arrays.fill(tables, null);
+            }
 
+            if (spilledJoin != null) {
+                if (spilledJoin.hasNext()) {
+                    return spilledJoin.next();
+                }
+                spilledJoin.close();
+                spilledJoin = null;
+                deleteSpills(nextSpilled - 1);
+            }
+            if (!openNextSpilledJoin()) {
+                return null;
+            }
         }
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    private boolean openNextSpilledJoin() throws DbException, TransactionAbortedException {
+        while (nextSpilled < buildSpills.length) {
+            int p = nextSpilled++;
+            if (buildSpills[p] == null) {
+                continue;
+            }
+            if (probeSpills[p].size() == 0) {
+                // nothing to join with
+                deleteSpills(p);
+                continue;
+            }
+            spilledJoin = new HashEquiJoin(pred, buildSpills[p].iterator(),
+                    probeSpills[p].iterator(), memoryPages, depth + 1);
+            spilledJoin.open();
+            return true;
         }
-
-        return null;
+        return false;
     }
 
     @Override
@@ -170,5 +399,5 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 }
@@ -2,18 +2,37 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * Tuples are sorted in memory as long as they fit in the memory budget of
+ * the operator.  Larger inputs are sorted externally: the input is cut into
+ * runs of at most the budget, each run is sorted and written to a
+ * {@link SpillFile}, and the runs are then merged.  If there are more runs
+ * than pages of memory, groups of runs are first merged into longer runs.
+ * <p>
+ * If only the first tuples of the ordering are wanted, i.e. a limit is given,
+ * and they fit in memory, the operator keeps them in a heap of that size
+ * instead of sorting the whole input.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The memory budget of a sort, in pages, when none is given explicitly. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+    /** The limit of an OrderBy that returns all of its input. */
+    public static final int NO_LIMIT = -1;
+
     private OpIterator child;
     private final TupleDesc td;
     private final List<Tuple> childTups = new ArrayList<>();
@@ -21,6 +40,14 @@ public class OrderBy extends Operator {
     private final String orderByFieldName;
     private Iterator<Tuple> it;
     private final boolean asc;
+    private final int limit;
+    private final int memoryPages;
+    private final Comparator<Tuple> comparator;
+
+    /** sorted runs on disk, empty if the input was sorted in memory */
+    private final List<SpillFile> runs = new ArrayList<>();
+    private transient PriorityQueue<RunCursor> merge;
+    private transient int returned;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -33,11 +60,56 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, NO_LIMIT, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node that returns only the first tuples of the
+     * ordering.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param limit
+     *            the maximum number of tuples to return, or {@link #NO_LIMIT}
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int limit) {
+        this(orderbyField, asc, child, limit, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node with an explicit memory budget.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param limit
+     *            the maximum number of tuples to return, or {@link #NO_LIMIT}
+     * @param memoryPages
+     *            the number of pages worth of tuples the sort may keep in
+     *            memory; at least 3, so that runs can be merged
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int limit, int memoryPages) {
+        if (limit < 0 && limit != NO_LIMIT) {
+            throw new IllegalArgumentException("invalid limit " + limit);
+        }
+        if (memoryPages < 3) {
+            throw new IllegalArgumentException("a sort needs at least three pages of memory");
+        }
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.limit = limit;
+        this.memoryPages = memoryPages;
+        this.comparator = new TupleComparator(orderbyField, asc);
     }
     
     public boolean isASC()
@@ -54,29 +126,172 @@ public class OrderBy extends Operator {
     {
 	return this.orderByFieldName;
     }
+
+    /** @return the maximum number of tuples returned, or {@link #NO_LIMIT} */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** @return the number of sorted runs the last open wrote to disk */
+    public int numRuns() {
+        return runs.size();
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /** @return the number of tuples that fit in the memory budget */
+    private long tuplesInMemory() {
+        return Math.max(1, (long) memoryPages * BufferPool.getPageSize() / td.getSize());
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        releaseState();
+        try {
+            if (limit != NO_LIMIT && limit <= tuplesInMemory()) {
+                topN();
+            } else {
+                sort();
+            }
+        } catch (IOException e) {
+            releaseState();
+            throw new DbException("unable to spill sorted run: " + e.getMessage());
+        }
         super.open();
+        rewind();
+    }
+
+    /** Keeps the first limit tuples of the ordering in a heap. */
+    private void topN() throws DbException, TransactionAbortedException {
+        // the root of the heap is the last of the tuples kept; ties are
+        // broken by input position, so that the result is the same as
+        // that of a stable sort
+        Comparator<Numbered> order = (a, b) -> {
+            int c = comparator.compare(a.t, b.t);
+            return c != 0 ? c : Long.compare(a.position, b.position);
+        };
+        PriorityQueue<Numbered> heap = new PriorityQueue<>(Math.max(1, limit), order.reversed());
+        long position = 0;
+        while (child.hasNext()) {
+            Numbered n = new Numbered(child.next(), position++);
+            if (heap.size() < limit) {
+                heap.add(n);
+            } else if (limit > 0 && order.compare(n, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(n);
+            }
+        }
+        List<Numbered> kept = new ArrayList<>(heap);
+        kept.sort(order);
+        for (Numbered n : kept) {
+            childTups.add(n.t);
+        }
+    }
+
+    /** Sorts the input in memory, or into runs on disk if it is too big. */
+    private void sort() throws DbException, TransactionAbortedException, IOException {
+        long max = tuplesInMemory();
+        while (child.hasNext()) {
+            childTups.add(child.next());
+            if (childTups.size() >= max) {
+                runs.add(writeRun(childTups));
+                childTups.clear();
+            }
+        }
+        if (runs.isEmpty()) {
+            childTups.sort(comparator);
+            return;
+        }
+        if (!childTups.isEmpty()) {
+            runs.add(writeRun(childTups));
+            childTups.clear();
+        }
+        // one page of memory per input run and one for the output run
+        int fanIn = memoryPages - 1;
+        while (runs.size() > fanIn) {
+            List<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+                merged.add(mergeRuns(group));
+                for (SpillFile f : group) {
+                    f.delete();
+                }
+            }
+            runs.clear();
+            runs.addAll(merged);
+        }
+    }
+
+    private SpillFile writeRun(List<Tuple> tuples) throws IOException {
+        tuples.sort(comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : tuples) {
+            run.add(t);
+        }
+        return run;
+    }
+
+    private SpillFile mergeRuns(List<SpillFile> group) throws DbException, IOException {
+        PriorityQueue<RunCursor> queue = openMerge(group);
+        SpillFile out = new SpillFile(td);
+        Tuple t;
+        while ((t = nextMerged(queue)) != null) {
+            out.add(t);
+        }
+        return out;
+    }
+
+    private PriorityQueue<RunCursor> openMerge(List<SpillFile> group) throws DbException {
+        PriorityQueue<RunCursor> queue = new PriorityQueue<>(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            RunCursor c = new RunCursor(group.get(i).iterator(), i);
+            if (c.open()) {
+                queue.add(c);
+            }
+        }
+        return queue;
+    }
+
+    private Tuple nextMerged(PriorityQueue<RunCursor> queue) throws DbException {
+        RunCursor c = queue.poll();
+        if (c == null) {
+            return null;
+        }
+        Tuple t = c.head;
+        if (c.advance()) {
+            queue.add(c);
+        } else {
+            c.it.close();
+        }
+        return t;
+    }
+
+    private void releaseState() {
+        childTups.clear();
+        for (SpillFile f : runs) {
+            f.delete();
+        }
+        runs.clear();
+        merge = null;
+        it = null;
     }
 
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        releaseState();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        returned = 0;
+        if (runs.isEmpty()) {
+            it = childTups.iterator();
+        } else {
+            merge = openMerge(runs);
+        }
     }
 
     /**
@@ -86,11 +301,20 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        if (limit != NO_LIMIT && returned >= limit) {
             return null;
+        }
+        Tuple t = null;
+        if (merge != null) {
+            t = nextMerged(merge);
+        } else if (it != null && it.hasNext()) {
+            t = it.next();
+        }
+        if (t != null) {
+            returned++;
+        }
+        return t;
     }
 
     @Override
@@ -103,6 +327,58 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
+    /** A tuple and its position in the input. */
+    private static class Numbered {
+        final Tuple t;
+        final long position;
+
+        Numbered(Tuple t, long position) {
+            this.t = t;
+            this.position = position;
+        }
+    }
+
+    /**
+     * The position of a merge in one sorted run.  Ties between runs go to the
+     * earlier run, so that the merge is as stable as the in-memory sort.
+     */
+    private class RunCursor implements Comparable<RunCursor> {
+        final OpIterator it;
+        final int index;
+        Tuple head;
+
+        RunCursor(OpIterator it, int index) {
+            this.it = it;
+            this.index = index;
+        }
+
+        /** Opens the run; returns false if it is empty. */
+        boolean open() throws DbException {
+            try {
+                it.open();
+            } catch (TransactionAbortedException e) {
+                // spill files are not locked, so this cannot happen
+                throw new DbException(e.getMessage());
+            }
+            return advance();
+        }
+
+        /** Moves to the next tuple of the run; returns false at its end. */
+        boolean advance() throws DbException {
+            try {
+                head = it.hasNext() ? it.next() : null;
+            } catch (TransactionAbortedException e) {
+                throw new DbException(e.getMessage());
+            }
+            return head != null;
+        }
+
+        public int compareTo(RunCursor o) {
+            int c = comparator.compare(head, o.head);
+            return c != 0 ? c : Integer.compare(index, o.index);
+        }
+    }
+
 }
 
 class TupleComparator implements Comparator<Tuple> {
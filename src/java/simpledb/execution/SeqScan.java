@@ -1,6 +1,8 @@
 package simpledb.execution;
 
 import simpledb.common.Database;
+import simpledb.storage.ColumnFile;
+import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -17,6 +19,14 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * A scan may be restricted to some of the columns of the table.  A
+ * {@link ColumnFile} then only reads the pages of those columns; for other
+ * files the tuples are projected after they were read.
+ * <p>
+ * Predicates may be pushed down into a scan, which then only returns the
+ * tuples satisfying all of them.  A {@link HeapFile} uses them to skip the
+ * pages its zone map rules out.
  */
 public class SeqScan implements OpIterator {
 
@@ -28,7 +38,18 @@ public class SeqScan implements OpIterator {
 
     private String tableAlias;
 
+    /** the fields of the table to return, or null for all of them */
+    private int[] columns;
+
+    /** predicates on the fields of the table that returned tuples satisfy */
+    private Predicate[] predicates;
+
     private DbFileIterator dbFileIterator;
+    /** the schema of the tuples projected after they were read, or null */
+    private TupleDesc projectedDesc;
+    /** the predicates to check on the tuples read, on their fields */
+    private Predicate[] checked;
+    private Tuple lookahead;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -47,9 +68,54 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan over some of the columns of the specified
+     * table.
+     *
+     * @param columns
+     *            the indexes of the fields of the table to return, in the
+     *            order they are returned in, or null for all fields
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
         this.transactionId = tid;
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.columns = columns == null ? null : columns.clone();
+        this.predicates = new Predicate[0];
+    }
+
+    /**
+     * Returns a scan of the same columns of the same table that only returns
+     * the tuples of this scan that also satisfy the specified predicate.
+     *
+     * @param p
+     *            a predicate on the fields of the tuples this scan returns
+     */
+    public SeqScan withPredicate(Predicate p) {
+        SeqScan scan = new SeqScan(transactionId, tableId, tableAlias, columns);
+        int field = columns == null ? p.getField() : columns[p.getField()];
+        scan.predicates = Arrays.copyOf(predicates, predicates.length + 1);
+        scan.predicates[predicates.length] = new Predicate(field, p.getOp(), p.getOperand());
+        return scan;
+    }
+
+    /**
+     * @return the predicates pushed down into this scan, on the fields of
+     *         the table (rather than of the tuples the scan returns)
+     */
+    public Predicate[] getPredicates() {
+        return predicates.clone();
+    }
+
+    /**
+     * @return the indexes of the fields of the table the scan returns, or
+     *         null if it returns all of them
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
     }
 
     /**
@@ -70,7 +136,8 @@ public class SeqScan implements OpIterator {
     }
 
     /**
-     * Reset the tableid, and tableAlias of this operator.
+     * Reset the tableid, and tableAlias of this operator.  The scan returns
+     * all fields of the new table.
      * @param tableid
      *            the table to scan.
      * @param tableAlias
@@ -84,6 +151,8 @@ public class SeqScan implements OpIterator {
     public void reset(int tableid, String tableAlias) {
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.columns = null;
+        this.predicates = new Predicate[0];
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -91,10 +160,37 @@ public class SeqScan implements OpIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
-        dbFileIterator = Database.getCatalog().getDatabaseFile(tableId).iterator(transactionId);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (columns != null && file instanceof ColumnFile) {
+            dbFileIterator = ((ColumnFile) file).iterator(transactionId, columns);
+            projectedDesc = null;
+            checked = projectedPredicates();
+        } else {
+            if (file instanceof HeapFile && predicates.length > 0) {
+                dbFileIterator = ((HeapFile) file).iterator(transactionId, predicates);
+            } else {
+                dbFileIterator = file.iterator(transactionId);
+            }
+            projectedDesc = columns == null ? null : getTupleDesc();
+            checked = predicates;
+        }
+        lookahead = null;
         dbFileIterator.open();
     }
 
+    /** @return the predicates on the fields of the projected tuples */
+    private Predicate[] projectedPredicates() {
+        Predicate[] projected = new Predicate[predicates.length];
+        for (int i = 0; i < predicates.length; i++) {
+            int field = 0;
+            while (columns[field] != predicates[i].getField()) {
+                field++;
+            }
+            projected[i] = new Predicate(field, predicates[i].getOp(), predicates[i].getOperand());
+        }
+        return projected;
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -107,12 +203,13 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         TupleDesc tupleDesc = Database.getCatalog().getTupleDesc(tableId);
-        int n = tupleDesc.numFields();
+        int n = columns == null ? tupleDesc.numFields() : columns.length;
         Type[] types = new Type[n];
         String[] fieldNames = new String[n];
         for(int i = 0 ; i < n ; i++){
-            types[i] = tupleDesc.getFieldType(i);
-            fieldNames[i] = this.tableAlias + "." + tupleDesc.getFieldName(i);
+            int field = columns == null ? i : columns[i];
+            types[i] = tupleDesc.getFieldType(field);
+            fieldNames[i] = this.tableAlias + "." + tupleDesc.getFieldName(field);
         }
         return new TupleDesc(types, fieldNames);
     }
@@ -121,15 +218,55 @@ public class SeqScan implements OpIterator {
         if(dbFileIterator == null) {
             throw new IllegalStateException();
         }
-        return dbFileIterator.hasNext();
+        if (lookahead == null) {
+            lookahead = fetchNext();
+        }
+        return lookahead != null;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if(dbFileIterator == null) {
-            throw new IllegalStateException();
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = lookahead;
+        lookahead = null;
+        return t;
+    }
+
+    /**
+     * @return the next tuple read that satisfies the predicates, projected,
+     *         or null if there are no more
+     */
+    private Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (dbFileIterator.hasNext()) {
+            Tuple t = dbFileIterator.next();
+            if (satisfies(t)) {
+                return project(t);
+            }
+        }
+        return null;
+    }
+
+    private boolean satisfies(Tuple t) {
+        for (Predicate p : checked) {
+            if (!p.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Tuple project(Tuple t) {
+        if (projectedDesc == null) {
+            return t;
+        }
+        Tuple projected = new Tuple(projectedDesc);
+        for (int i = 0; i < columns.length; i++) {
+            projected.setField(i, t.getField(columns[i]));
         }
-        return dbFileIterator.next();
+        projected.setRecordId(t.getRecordId());
+        return projected;
     }
 
     public void close() {
@@ -137,6 +274,7 @@ public class SeqScan implements OpIterator {
             throw new IllegalStateException();
         }
         dbFileIterator.close();
+        lookahead = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
@@ -145,5 +283,6 @@ public class SeqScan implements OpIterator {
             throw new IllegalStateException();
         }
         dbFileIterator.rewind();
+        lookahead = null;
     }
 }
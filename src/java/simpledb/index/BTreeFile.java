@@ -1,6 +1,7 @@
 package simpledb.index;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import simpledb.common.Database;
@@ -19,6 +20,10 @@ import simpledb.transaction.TransactionId;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * The pages are stored in a {@link SegmentedFile}, so that the tree may grow past
+ * the size limits of a single file.  Every page written has a
+ * {@link PageChecksums} record, the root pointer page under number 0 and the
+ * other pages under their page numbers, which is checked when it is read.
  * 
  * @see BTreeLeafPage#BTreeLeafPage
  * @see BTreeInternalPage#BTreeInternalPage
@@ -29,6 +34,8 @@ import simpledb.transaction.TransactionId;
 public class BTreeFile implements DbFile {
 
 	private final File f;
+	private final SegmentedFile segments;
+	private final PageChecksums checksums;
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
@@ -43,6 +50,8 @@ public class BTreeFile implements DbFile {
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
 		this.f = f;
+		this.segments = new SegmentedFile(f);
+		this.checksums = new PageChecksums(f, segments.length() == 0 ? 0 : numPages() + 1);
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
@@ -83,53 +92,71 @@ public class BTreeFile implements DbFile {
 	 * 
 	 * @param pid - the id of the page to read from disk
 	 * @return the page constructed from the contents on disk
+	 * @throws IllegalArgumentException if the page cannot be read, or does
+	 *         not match its checksum while the BufferPool verifies checksums
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
-            } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        // Close the file on success or error
-        // Ignore failures closing the file
-    }
+		try {
+			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+				byte[] pageBuf = readPageData(0, 0, BTreeRootPtrPage.getPageSize());
+				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				return new BTreeRootPtrPage(id, pageBuf);
+			} else {
+				byte[] pageBuf = readPageData(id.getPageNumber(), pageOffset(id.getPageNumber()), BufferPool.getPageSize());
+				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				if (id.pgcateg() == BTreePageId.INTERNAL) {
+					return new BTreeInternalPage(id, pageBuf, keyField);
+				} else if (id.pgcateg() == BTreePageId.LEAF) {
+					return new BTreeLeafPage(id, pageBuf, keyField);
+				} else { // id.pgcateg() == BTreePageId.HEADER
+					return new BTreeHeaderPage(id, pageBuf);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the offset of a page other than the root pointer page in this file
+	 */
+	private static long pageOffset(int pgNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pgNo - 1) * BufferPool.getPageSize();
+	}
+
+	/**
+	 * Reads the bytes of a page, checking them against the checksum of the
+	 * specified record number if the BufferPool verifies checksums.
+	 */
+	private byte[] readPageData(int recordNo, long offset, int size) throws IOException {
+		byte[] pageBuf = new byte[size];
+		int retval = segments.read(ByteBuffer.wrap(pageBuf), offset);
+		if (retval == -1) {
+			throw new IllegalArgumentException("Read past end of table");
+		}
+		if (retval < size) {
+			throw new IllegalArgumentException("Unable to read "
+					+ size + " bytes from BTreeFile");
+		}
+		if (Database.getBufferPool().getVerifyChecksums() && !checksums.verify(recordNo, pageBuf)) {
+			throw new IllegalArgumentException("page " + recordNo + " of " + f
+					+ " does not match its checksum");
+		}
+		return pageBuf;
+	}
+
+	/**
+	 * Writes the bytes of a page, stamping them as the checksum of the
+	 * specified record number.  Until they are stamped the record accepts
+	 * both the old and the new bytes, as the write may be cut short.
+	 */
+	private void writePageData(int recordNo, long offset, byte[] data) throws IOException {
+		checksums.expect(recordNo, data);
+		segments.write(ByteBuffer.wrap(data), offset);
+		checksums.stamp(recordNo, data);
+	}
 
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
@@ -141,15 +168,11 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			writePageData(0, 0, data);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			writePageData(id.getPageNumber(), pageOffset(id.getPageNumber()), data);
 		}
 	}
 	
@@ -158,7 +181,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return (int) ((segments.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
 	}
 
 	/**
@@ -830,15 +853,12 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(segments.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				writePageData(0, 0, emptyRootPtrData);
+				writePageData(1, pageOffset(1), emptyLeafData);
 			}
 		}
 
@@ -894,12 +914,9 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
-				emptyPageNo = numPages();
+				emptyPageNo = numPages() + 1;
+				writePageData(emptyPageNo, pageOffset(emptyPageNo), emptyData);
 			}
 		}
 
@@ -929,10 +946,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		writePageData(emptyPageNo, pageOffset(emptyPageNo), BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1062,6 +1076,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	/** leaf pages read since the iterator was opened */
+	int pagesRead = 0;
 
 	final TransactionId tid;
 	final BTreeFile f;
@@ -1085,6 +1101,20 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, null);
 		it = curp.iterator();
+		pagesRead = 1;
+	}
+
+	/**
+	 * Asks the buffer pool to read the leaf pages to the right of the current
+	 * one, by following their right sibling pointers in the background.
+	 */
+	private void readAhead() {
+		BTreePageId next = curp.getRightSiblingId();
+		if (next != null) {
+			BufferPool bufferPool = Database.getBufferPool();
+			bufferPool.readAhead(next, page -> ((BTreeLeafPage) page).getRightSiblingId(),
+					bufferPool.getReadAheadWindow());
+		}
 	}
 
 	/**
@@ -1106,6 +1136,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				if (++pagesRead >= BufferPool.READ_AHEAD_AFTER)
+					readAhead();
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -6,7 +6,10 @@ import java.util.*;
 import simpledb.common.Database;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
 import simpledb.execution.Predicate.Op;
+import simpledb.execution.SeqScan;
 import simpledb.common.DbException;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
@@ -16,11 +19,28 @@ import simpledb.transaction.TransactionId;
 /**
  * BTreeFileEncoder reads a comma delimited text file and converts it to
  * pages of binary data in the appropriate format for simpledb B+ tree
- * pages.
+ * pages.  The faster methods load the file into a heap file with a
+ * {@link BulkLoader}, sort it with an external sort, and build the tree
+ * bottom-up from the sorted tuples.
  */
 
 public class BTreeFileEncoder {
 
+	/** Default number of pages of memory to sort the tuples of a B+ tree in. */
+	public static final int DEFAULT_SORT_MEMORY_PAGES = 1024;
+
+	private static volatile int sortMemoryPages = DEFAULT_SORT_MEMORY_PAGES;
+
+	// THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+	public static void setSortMemoryPages(int pages) {
+		BTreeFileEncoder.sortMemoryPages = pages;
+	}
+
+	// THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+	public static void resetSortMemoryPages() {
+		BTreeFileEncoder.sortMemoryPages = DEFAULT_SORT_MEMORY_PAGES;
+	}
+
 	/**
 	 * Encode the file using the BTreeFile's Insert method.
 	 * 
@@ -202,20 +222,16 @@ public class BTreeFileEncoder {
 			int numFields, Type[] typeAr, char fieldSeparator, int keyField) 
 					throws IOException, DbException, TransactionAbortedException {
 		// convert the inFile to HeapFile first.
-		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields);
-		HeapFile heapf = Utility.openHeapFile(numFields, hFile);
+		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields, typeAr, fieldSeparator);
+		HeapFile heapf = Utility.openHeapFile(numFields, null, hFile,
+				new TupleDesc(Arrays.copyOf(typeAr, numFields)));
 
-		// read all the tuples from the heap file and sort them on the keyField
-		List<Tuple> tuples = new ArrayList<>();
+		// sort the tuples of the heap file on the keyField, in sorted runs
+		// on disk if they do not fit in the sort memory
 		TransactionId tid = new TransactionId();
-		DbFileIterator it = Database.getCatalog().getDatabaseFile(heapf.getId()).iterator(tid);
-		it.open();
-		while (it.hasNext()) {
-			Tuple tup = it.next();
-			tuples.add(tup);
-		}
-		it.close();
-		tuples.sort(new TupleComparator(keyField));
+		OpIterator tuples = new OrderBy(keyField, true, new SeqScan(tid, heapf.getId()),
+				OrderBy.NO_LIMIT, sortMemoryPages);
+		tuples.open();
 
 		// add the tuples to B+ tree file
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
@@ -249,7 +265,8 @@ public class BTreeFileEncoder {
 		List<Tuple> page1 = new ArrayList<>();
 		List<Tuple> page2 = new ArrayList<>();
 		BTreePageId leftSiblingId = null;
-		for(Tuple tup : tuples) {
+		while(tuples.hasNext()) {
+			Tuple tup = tuples.next();
 			if(page1.size() < nrecords) {
 				page1.add(tup);
 			}
@@ -275,6 +292,7 @@ public class BTreeFileEncoder {
 				page2.add(tup);
 			}
 		}
+		tuples.close();
 
 		// now we need to deal with the end cases. There are two options:
 		// 1. We have less than or equal to a full page of records. Because of the way the code
@@ -347,12 +365,13 @@ public class BTreeFileEncoder {
 	 */
 	private static void setRightSiblingPtrs(BTreeFile bf, BTreePageId pid, BTreePageId rightSiblingId) 
 			throws IOException, DbException {
-		BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
-		page.setRightSiblingId(rightSiblingId);
-		BTreePageId leftSiblingId = page.getLeftSiblingId();
-		bf.writePage(page);
-		if(leftSiblingId != null) {
-			setRightSiblingPtrs(bf, leftSiblingId, page.getId());
+		// a loop rather than recursion, as there may be millions of leaves
+		while(pid != null) {
+			BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
+			page.setRightSiblingId(rightSiblingId);
+			bf.writePage(page);
+			rightSiblingId = pid;
+			pid = page.getLeftSiblingId();
 		}
 	}
 
@@ -7,6 +7,7 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.Page;
+import simpledb.storage.LogFile;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
@@ -23,6 +24,7 @@ import java.util.Arrays;
 public class BTreeHeaderPage implements Page {
 	private volatile boolean dirty = false;
 	private volatile TransactionId dirtier = null;
+	private volatile long lsn = LogFile.NO_LSN;
 	
 	final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
@@ -263,6 +265,14 @@ public class BTreeHeaderPage implements Page {
 		if (dirty) this.dirtier = tid;
 	}
 
+	public long getLSN() {
+		return lsn;
+	}
+
+	public void setLSN(long lsn) {
+		this.lsn = lsn;
+	}
+
 	/**
 	 * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
 	 */
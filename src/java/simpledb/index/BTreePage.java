@@ -7,6 +7,7 @@ import simpledb.common.Type;
 import simpledb.storage.BufferPool;
 import simpledb.storage.Page;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.LogFile;
 import simpledb.transaction.TransactionId;
 
 /**
@@ -20,6 +21,7 @@ import simpledb.transaction.TransactionId;
 public abstract class BTreePage implements Page {
 	protected volatile boolean dirty = false;
 	protected volatile TransactionId dirtier = null;
+	protected volatile long lsn = LogFile.NO_LSN;
 
 	protected final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
@@ -124,6 +126,14 @@ public abstract class BTreePage implements Page {
 		if (dirty) this.dirtier = tid;
 	}
 
+	public long getLSN() {
+		return lsn;
+	}
+
+	public void setLSN(long lsn) {
+		this.lsn = lsn;
+	}
+
 	/**
 	 * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
 	 */
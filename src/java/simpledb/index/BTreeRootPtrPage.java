@@ -3,6 +3,7 @@ package simpledb.index;
 import simpledb.common.DbException;
 import simpledb.storage.BufferPool;
 import simpledb.storage.Page;
+import simpledb.storage.LogFile;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
@@ -19,6 +20,7 @@ public class BTreeRootPtrPage implements Page {
 
 	private boolean dirty = false;
 	private TransactionId dirtier = null;
+	private volatile long lsn = LogFile.NO_LSN;
 
 	private final BTreePageId pid;
 
@@ -133,6 +135,14 @@ public class BTreeRootPtrPage implements Page {
 		if (dirty) this.dirtier = tid;
 	}
 
+	public long getLSN() {
+		return lsn;
+	}
+
+	public void setLSN(long lsn) {
+		this.lsn = lsn;
+	}
+
 	public TransactionId isDirty() {
 		if (this.dirty)
 			return this.dirtier;
@@ -445,10 +445,8 @@ public class BTreeUtility {
 	public static BTreeFile createEmptyBTreeFile(String path, int cols, int keyField)
 			throws IOException {
 		File f = new File(path);
-		// touch the file
-		FileOutputStream fos = new FileOutputStream(f);
-		fos.write(new byte[0]);
-		fos.close();
+		// touch the file, dropping all segments of an existing one
+		SegmentedFile.newOutputStream(f).close();
 
         return openBTreeFile(cols, f, keyField);
 	}
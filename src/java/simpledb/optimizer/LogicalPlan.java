@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -38,6 +39,7 @@ public class LogicalPlan {
     private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = OrderBy.NO_LIMIT;
     private String query;
 //    private Query owner;
 
@@ -219,6 +221,18 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Limit the result of the query to its first tuples in the ORDER BY order, which
+        lets the sort keep only those tuples.  SimpleDb only supports a LIMIT together
+        with an ORDER BY.
+        @param limit the maximum number of tuples to return
+    */
+    public void setLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("invalid limit " + limit);
+        }
+        this.limit = limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -292,12 +306,18 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Map<String,Set<String>> referenced = referencedFields();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                 int[] columns = null;
+                 if (file instanceof ColumnFile && referenced != null) {
+                     columns = scanColumns(file.getTupleDesc(), referenced.get(table.alias));
+                 }
+                 ss = new SeqScan(t, file.getId(), table.alias, columns);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -335,7 +355,12 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (subplan instanceof SeqScan) {
+                // checked while scanning, so the scan can skip pages
+                subplanMap.put(lf.tableAlias, ((SeqScan) subplan).withPredicate(p));
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -461,10 +486,13 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
+                int gfield = groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField);
                 aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                                        new int[]{td.fieldNameToIndex(aggField)},
+                                        gfield,
+                                        new Aggregator.Op[]{getAggOp(aggOp)},
+                                        Aggregate.DEFAULT_MEMORY_PAGES,
+                                        gfield != Aggregator.NO_GROUPING && scansInKeyOrder(gfield));
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
@@ -472,12 +500,83 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node, limit);
+        } else if (limit != OrderBy.NO_LIMIT) {
+            throw new ParsingException("LIMIT is only supported together with ORDER BY");
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * @return true if the plan reads a single B+ tree, without joins, whose
+     *   key is the specified field of the scan, so that tuples come in key
+     *   order and the tuples of each group are next to each other
+     */
+    private boolean scansInKeyOrder(int field) {
+        if (tables.size() != 1 || !joins.isEmpty()) {
+            return false;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tables.get(0).t);
+        return file instanceof BTreeFile && ((BTreeFile) file).keyField() == field;
+    }
+
+    /**
+     * @return the pure names of the fields the plan uses of every table
+     *   alias, or null if the plan selects all fields with *
+     */
+    private Map<String,Set<String>> referencedFields() {
+        Map<String,Set<String>> fields = new HashMap<>();
+        for (LogicalFilterNode lf : filters) {
+            addReference(fields, lf.tableAlias, lf.fieldPureName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            addReference(fields, lj.t1Alias, lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                addReference(fields, lj.t2Alias, lj.f2PureName);
+            }
+        }
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith(".*")) {
+                return null;
+            }
+            addReference(fields, si.fname);
+        }
+        addReference(fields, aggField);
+        addReference(fields, groupByField);
+        addReference(fields, oByField);
+        return fields;
+    }
+
+    private static void addReference(Map<String,Set<String>> fields, String quantifiedName) {
+        if (quantifiedName != null && quantifiedName.contains(".")) {
+            int dot = quantifiedName.indexOf('.');
+            addReference(fields, quantifiedName.substring(0, dot), quantifiedName.substring(dot + 1));
+        }
+    }
+
+    private static void addReference(Map<String,Set<String>> fields, String alias, String pureName) {
+        fields.computeIfAbsent(alias, a -> new HashSet<>()).add(pureName);
+    }
+
+    /**
+     * @return the indexes, in increasing order, of the specified fields of a
+     *   table, or of its first field if the plan does not use any, so that the
+     *   scan still returns a tuple per row
+     */
+    private static int[] scanColumns(TupleDesc td, Set<String> names) {
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names != null && names.contains(td.getFieldName(i))) {
+                columns.add(i);
+            }
+        }
+        if (columns.isEmpty()) {
+            columns.add(0);
+        }
+        return columns.stream().mapToInt(Integer::intValue).toArray();
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -4,6 +4,7 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import simpledb.common.Database;
 import simpledb.execution.*;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
@@ -76,8 +77,19 @@ public class QueryPlanVisualizer {
                 alias = " " + alias;
             else
                 alias = "";
+            StringBuilder predicates = new StringBuilder();
+            TupleDesc td = Database.getCatalog().getTupleDesc(
+                    Database.getCatalog().getTableId(tableName));
+            for (Predicate p : s.getPredicates()) {
+                predicates.append(predicates.length() == 0 ? " " + SELECT + "(" : ",")
+                        .append(s.getAlias()).append(".")
+                        .append(td.getFieldName(p.getField())).append(p.getOp())
+                        .append(p.getOperand());
+            }
+            if (predicates.length() > 0)
+                predicates.append(")");
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
+                    .format("%1$s(%2$s)", SCAN, tableName + alias + predicates);
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -84,7 +84,8 @@ public class TableStats {
 
     public void fillMinAndMaxArray(int[] minArray, int[] maxArray){
         DbFile dbFile = Database.getCatalog().getDatabaseFile(this.tableId);
-        DbFileIterator dbFileIterator =  dbFile.iterator(new TransactionId());
+        TransactionId tid = new TransactionId();
+        DbFileIterator dbFileIterator =  dbFile.iterator(tid);
         int nfields =  dbFile.getTupleDesc().numFields();
         boolean isFirstTuple = true;
         intHistogramMap = new HashMap();
@@ -114,12 +115,14 @@ public class TableStats {
             e.printStackTrace();
         } finally {
             dbFileIterator.close();
+            Database.getBufferPool().transactionComplete(tid);
         }
     }
 
     public void addHistogramToMap(int[] minArray, int[] maxArray){
         DbFile dbFile = Database.getCatalog().getDatabaseFile(this.tableId);
-        DbFileIterator dbFileIterator =  dbFile.iterator(new TransactionId());
+        TransactionId tid = new TransactionId();
+        DbFileIterator dbFileIterator =  dbFile.iterator(tid);
         int nfields =  dbFile.getTupleDesc().numFields();
         try{
             dbFileIterator.open();
@@ -141,6 +144,7 @@ public class TableStats {
             e.printStackTrace();
         }finally {
             dbFileIterator.close();
+            Database.getBufferPool().transactionComplete(tid);
         }
     }
 
@@ -199,7 +203,12 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (file instanceof ColumnFile) {
+            // a scan reads all columns at worst
+            return ((ColumnFile) file).numPages() * ioCostPerPage;
+        }
+        HeapFile heapFile = (HeapFile) file;
         return heapFile.numPages()* ioCostPerPage;
     }
 
@@ -0,0 +1,346 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * ArenaHeapPage is a page in the {@link HeapPage} format whose image is kept
+ * in a frame of a {@link PageArena} rather than on the heap.  HeapFiles
+ * create them when the BufferPool has an arena.
+ * <p>
+ * Nothing but the frame refers to the page's tuples: the tuples handed out
+ * are decoded from copies of their slots, so they stay valid however the
+ * page changes later.  As with HeapPage, the image is copied to a new frame
+ * on the first write after the page was read or its before image was set,
+ * and the original frame becomes the before image; it goes back to the
+ * arena when the before image is set again.
+ * <p>
+ * The BufferPool {@link #release}s a page when it evicts or discards it,
+ * which moves the page to the heap and gives its frames back to the arena,
+ * so that a scan still holding the page keeps reading the same image.
+ * Before images and pages rebuilt from the log are short-lived and are
+ * kept on the heap.
+ *
+ * @see HeapPage
+ * @see BufferPool#getArena
+ */
+public class ArenaHeapPage implements TuplePage {
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final PageArena arena;
+    private final int headerSize;
+    private final int numSlots;
+
+    /** the page image; only accessed with absolute gets and puts */
+    private ByteBuffer frame;
+    private PageArena.Frame frameHandle;
+    /** the before image, or null while it is identical to frame */
+    private PageArena.Frame oldFrame;
+    /** true while frame may not be modified in place, as it is the before image */
+    private boolean shared;
+    /** set once the pool let go of the page, after which its frames are on the heap */
+    private boolean released = false;
+
+    private boolean dirty = false;
+    private TransactionId tid = null;
+    private volatile long lsn = LogFile.NO_LSN;
+
+    /**
+     * Create a page of a table in the catalog from its bytes, on the heap,
+     * as the log does for the page images it reads.
+     */
+    public ArenaHeapPage(HeapPageId id, byte[] data) {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()), null);
+    }
+
+    /**
+     * Create a page from its bytes on disk.
+     *
+     * @param arena the arena to keep the page image in, or null to keep it
+     *              on the heap
+     */
+    public ArenaHeapPage(HeapPageId id, byte[] data, TupleDesc td, PageArena arena) {
+        this.pid = id;
+        this.td = td;
+        this.arena = arena;
+        this.numSlots = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+        setFrame(newFrame());
+        int n = Math.min(data.length, BufferPool.getPageSize());
+        for (int i = 0; i < n; i++) {
+            frame.put(i, data[i]);
+        }
+        this.shared = true;
+    }
+
+    private PageArena.Frame newFrame() {
+        return arena != null && !released ? arena.allocate() : PageArena.heapFrame();
+    }
+
+    private void setFrame(PageArena.Frame handle) {
+        frameHandle = handle;
+        frame = handle.buffer;
+    }
+
+    private void freeFrame(PageArena.Frame handle) {
+        if (arena != null) {
+            arena.free(handle);
+        }
+    }
+
+    /** @return a copy of the specified frame on the heap */
+    private static PageArena.Frame copyToHeap(PageArena.Frame handle) {
+        PageArena.Frame copy = PageArena.heapFrame();
+        for (int i = 0; i < BufferPool.getPageSize(); i++) {
+            copy.buffer.put(i, handle.buffer.get(i));
+        }
+        return copy;
+    }
+
+    private static byte[] copy(ByteBuffer frame, int from, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = frame.get(from + i);
+        }
+        return bytes;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    private int slotOffset(int slot) {
+        return headerSize + slot * td.getSize();
+    }
+
+    public synchronized byte[] getPageData() {
+        return copy(frame, 0, BufferPool.getPageSize());
+    }
+
+    public synchronized ArenaHeapPage getBeforeImage() {
+        ByteBuffer before = oldFrame != null ? oldFrame.buffer : frame;
+        // only written to the log and dropped, so it takes no frame of the arena
+        return new ArenaHeapPage(pid, copy(before, 0, BufferPool.getPageSize()), td, null);
+    }
+
+    public synchronized void setBeforeImage() {
+        // the current image only needs to be copied once it is about to change
+        if (oldFrame != null) {
+            freeFrame(oldFrame);
+            oldFrame = null;
+        }
+        shared = true;
+    }
+
+    /**
+     * Moves the page image and the before image to the heap and gives their
+     * frames back to the arena.  Called by the BufferPool once it no longer
+     * caches the page; the page stays fully usable, on the heap.
+     */
+    public synchronized void release() {
+        if (released || arena == null) {
+            return;
+        }
+        released = true;
+        if (!frameHandle.onHeap()) {
+            PageArena.Frame inArena = frameHandle;
+            setFrame(copyToHeap(inArena));
+            freeFrame(inArena);
+        }
+        if (oldFrame != null && !oldFrame.onHeap()) {
+            PageArena.Frame inArena = oldFrame;
+            oldFrame = copyToHeap(inArena);
+            freeFrame(inArena);
+        }
+    }
+
+    /**
+     * Releases the frames of the specified page if it keeps its image in an
+     * arena; does nothing for other pages.
+     */
+    static void release(Page page) {
+        if (page instanceof ArenaHeapPage) {
+            ((ArenaHeapPage) page).release();
+        }
+    }
+
+    /**
+     * Called before the page image is modified, to switch to a frame of its
+     * own if the current one is the before image.
+     */
+    private void beforeWrite() {
+        if (shared) {
+            PageArena.Frame copy = newFrame();
+            for (int i = 0; i < BufferPool.getPageSize(); i++) {
+                copy.buffer.put(i, frame.get(i));
+            }
+            if (oldFrame == null) {
+                oldFrame = frameHandle;
+            }
+            setFrame(copy);
+            shared = false;
+        }
+    }
+
+    public synchronized boolean isSlotUsed(int slot) {
+        return (frame.get(slot / 8) >> (slot % 8) & 1) == 1;
+    }
+
+    private void markSlotUsed(int slot, boolean used) {
+        byte b = frame.get(slot / 8);
+        if (used) {
+            b |= (byte) (1 << (slot % 8));
+        } else {
+            b &= (byte) ~(1 << (slot % 8));
+        }
+        frame.put(slot / 8, b);
+    }
+
+    /** @return the number of empty slots on this page */
+    public synchronized int getNumEmptySlots() {
+        int used = 0;
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (isSlotUsed(slot)) {
+                used++;
+            }
+        }
+        return numSlots - used;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    public boolean isFull() {
+        return getNumEmptySlots() == 0;
+    }
+
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        int slot = 0;
+        while (slot < numSlots && isSlotUsed(slot)) {
+            slot++;
+        }
+        if (slot == numSlots) {
+            throw new DbException("the page is full");
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("unable to serialize tuple: " + e.getMessage());
+        }
+        byte[] bytes = baos.toByteArray();
+        beforeWrite();
+        int base = slotOffset(slot);
+        for (int i = 0; i < bytes.length; i++) {
+            frame.put(base + i, bytes[i]);
+        }
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pid) || rid.getTupleNumber() >= numSlots
+                || !isSlotUsed(rid.getTupleNumber())) {
+            throw new DbException("tuple is not on this page, or tuple slot is already empty");
+        }
+        beforeWrite();
+        int slot = rid.getTupleNumber();
+        markSlotUsed(slot, false);
+        for (int i = slotOffset(slot); i < slotOffset(slot + 1); i++) {
+            frame.put(i, (byte) 0);
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+
+    /** @return the tuple in the specified slot, decoded from a copy of it, or null if the slot is empty */
+    private synchronized Tuple readTuple(int slot) {
+        if (!isSlotUsed(slot)) {
+            return null;
+        }
+        Tuple t = new Tuple(td, copy(frame, slotOffset(slot), td.getSize()), 0);
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int slot = 0;
+            private Tuple next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && slot < numSlots) {
+                    next = readTuple(slot++);
+                }
+                return next != null;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = next;
+                next = null;
+                return t;
+            }
+        };
+    }
+
+    public synchronized int readInto(TupleBatch batch, int fromSlot) {
+        int nfields = td.numFields();
+        int slot = fromSlot;
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if (!isSlotUsed(slot)) {
+                continue;
+            }
+            int row = batch.addRow();
+            int base = slotOffset(slot);
+            for (int f = 0; f < nfields; f++) {
+                int offset = base + td.getFieldOffset(f);
+                if (td.getFieldType(f) == Type.INT_TYPE) {
+                    batch.setInt(f, row, frame.getInt(offset));
+                } else {
+                    batch.setString(f, row, Type.decodeString(copy(frame, offset, Type.STRING_TYPE.getLen()), 0));
+                }
+            }
+        }
+        return slot;
+    }
+}
@@ -1,15 +1,22 @@
 package simpledb.storage;
 
 import simpledb.common.*;
+import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
-import javax.xml.crypto.Data;
 import java.io.*;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -19,8 +26,57 @@ import java.util.concurrent.ThreadLocalRandom;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
- * 
- * @Threadsafe, all fields are final
+ * <p>
+ * Resident pages live in a page table split into {@link #NUM_STRIPES}
+ * stripes by PageId hash.  Lookups never block; reading a missing page in
+ * only locks the stripe it belongs to, so concurrent scans of different pages
+ * do not serialize on each other.  Which page to give up when the pool is
+ * full is decided by a pluggable {@link ReplacementPolicy}.
+ * <p>
+ * Once a scan reads the pages of a file in order, it asks the pool to read
+ * the next few pages ahead of it ({@link #readAhead}).  Those are read by
+ * background threads without taking any locks, so that the scan finds them
+ * cached instead of waiting for the disk.  The number of pages read ahead is
+ * set with {@link #setReadAheadWindow}.
+ * <p>
+ * Scans of files larger than the ring threshold ({@link #setRingThreshold},
+ * by default the size of the pool) read through a small {@link BufferRing}
+ * of their own ({@link #ringFor}), so that they recycle their own frames
+ * instead of evicting the working set of other sessions.
+ * <p>
+ * Optionally, HeapFile pages keep their images in frames of a preallocated
+ * off-heap {@link PageArena} ({@link #getArena}), so that a large pool does
+ * not burden the garbage collector.
+ * <p>
+ * A background cleaner keeps a few frames free ({@link #setFreeFrameTarget}),
+ * by evicting clean pages chosen by the replacement policy whenever a miss
+ * takes the pool below its target, so that a miss normally finds a free
+ * frame instead of running the replacement policy itself.  The cleaner only
+ * evicts clean pages.
+ * <p>
+ * Updates of transactions started with {@link simpledb.transaction.Transaction#start} are
+ * logged as they are made ({@link LogFile#logWrite}), and every page they
+ * dirty enters the dirty page table with the LSN of its first logged update
+ * since it was last written.  A page is only written once the log is on disk
+ * up to the LSN of its last update (write-ahead logging).  After a checkpoint
+ * the cleaner writes out the pages that were dirty at the checkpoint
+ * ({@link #writeDirtyPages}), so that checkpoints need not write any.  For such
+ * transactions the pool can run under STEAL ({@link #setSteal}), writing out
+ * their uncommitted pages to make room, and NO-FORCE ({@link #setForce}),
+ * leaving their committed pages dirty in the pool; recovery redoes and undoes
+ * their updates from the log.  Both default to the FORCE / NO STEAL policy
+ * of transactions that are not logged, which roll back by dropping the pages
+ * they dirtied.
+ * <p>
+ * The page table is split into stripes, each a concurrent map whose lock
+ * only serializes the loading, writing and dropping of the pages in it, so
+ * that a hit only reads the map.  Claiming a frame is an atomic count of
+ * the frames in use; only a miss that finds none free takes the eviction
+ * lock, which serializes the replacement policy and the cleaner.  Page
+ * locks are kept by the {@link LockManager}, the statistics are atomic
+ * counters, and the settings are volatile.
+ *
+ * @Threadsafe
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -33,11 +89,84 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private Map<PageId, Page> pages = new HashMap();
+    /** Number of page table stripes; a power of two so that a hash can be
+        mapped to its stripe with a mask. */
+    static final int NUM_STRIPES = 16;
+
+    /** Default number of pages read ahead of a sequential scan. */
+    public static final int DEFAULT_READ_AHEAD_WINDOW = 8;
+
+    /** Number of pages a scan reads in order before pages are read ahead
+        for it. */
+    public static final int READ_AHEAD_AFTER = 2;
+
+    /** Maximum number of frames of the ring of a large scan. */
+    public static final int MAX_RING_PAGES = 16;
+
+    /** Thread keeping frames free, shared by all pools. */
+    private static final ExecutorService cleanerThread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "page-cleaner");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Threads reading pages ahead, shared by all pools. */
+    private static final ExecutorService readAheadThreads = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** One stripe of the page table.  The lock serializes page loads within
+        the stripe so that a page is never read in twice. */
+    private static class PageTableStripe {
+        final Map<PageId, Page> pages = new ConcurrentHashMap<>();
+        final ReentrantLock loadLock = new ReentrantLock();
+    }
+
+    private final int numPages;
+
+    private final PageTableStripe[] stripes;
+
+    /** Frames in use, counting frames reserved for pages still being read. */
+    private final AtomicInteger usedFrames = new AtomicInteger();
+
+    /** Serializes frame reservation and eviction. Always acquired before a
+        stripe's loadLock, never after. */
+    private final Object evictionLock = new Object();
 
-    private int numPages;
+    private final ReplacementPolicy replacementPolicy;
 
-    private List<Page> dirtypages = new LinkedList();
+    private final LockManager lockManager = new LockManager();
+
+    private final PageArena arena;
+
+    private volatile int freeFrameTarget;
+    /** Set while a cleaning pass of this pool is scheduled or running. */
+    private final AtomicBoolean cleaning = new AtomicBoolean();
+    private final AtomicLong pagesCleaned = new AtomicLong();
+
+    private volatile boolean verifyChecksums = true;
+
+    private volatile int ringThreshold;
+    private final AtomicLong ringEvictions = new AtomicLong();
+
+    private volatile int readAheadWindow = DEFAULT_READ_AHEAD_WINDOW;
+    /** Pages with a pending read ahead, so that they are only read once. */
+    private final Set<PageId> readingAhead = ConcurrentHashMap.newKeySet();
+    /** Pages read ahead that were not requested by a transaction yet. */
+    private final Set<PageId> readAhead = ConcurrentHashMap.newKeySet();
+    private final AtomicLong pagesReadAhead = new AtomicLong();
+    private final AtomicLong readAheadHits = new AtomicLong();
+
+    private volatile boolean steal = false;
+    private volatile boolean force = true;
+    /** Dirty pages changed by logged updates, with the LSN of the first
+        update since they were last written, or an earlier one (the recLSN). */
+    private final Map<PageId, Long> dirtyPageTable = new ConcurrentHashMap<>();
+    /** Running transactions whose updates were logged. */
+    private final Set<TransactionId> loggedTransactions = ConcurrentHashMap.newKeySet();
+    private final AtomicLong pagesWrittenBehind = new AtomicLong();
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -45,7 +174,47 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new LruKReplacementPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts pages
+     * in the order chosen by the specified policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacementPolicy decides which page to evict when the pool is full
+     */
+    public BufferPool(int numPages, ReplacementPolicy replacementPolicy) {
+        this(numPages, replacementPolicy, null);
+    }
+
+    /**
+     * Creates a BufferPool whose HeapFile pages keep their images in frames
+     * of the specified off-heap arena, which should have room for about two
+     * frames per page: one for the page and one for its before image.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacementPolicy decides which page to evict when the pool is full
+     * @param arena the arena to keep page images in, or null to keep them on
+     *              the heap
+     * @see ArenaHeapPage
+     */
+    public BufferPool(int numPages, ReplacementPolicy replacementPolicy, PageArena arena) {
         this.numPages = numPages;
+        this.replacementPolicy = replacementPolicy;
+        this.arena = arena;
+        this.freeFrameTarget = numPages / 16;
+        this.ringThreshold = numPages;
+        this.stripes = new PageTableStripe[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            stripes[i] = new PageTableStripe();
+        }
+    }
+
+    private PageTableStripe stripeFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (NUM_STRIPES - 1)];
     }
     
     public static int getPageSize() {
@@ -62,6 +231,271 @@ public class BufferPool {
     	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * Sets the number of frames the background cleaner tries to keep free;
+     * 0 turns the cleaner off.  Defaults to a sixteenth of the pool.
+     *
+     * @throws IllegalArgumentException if frames is negative or not smaller
+     *         than the pool
+     */
+    public void setFreeFrameTarget(int frames) {
+        if (frames < 0 || frames >= numPages) {
+            throw new IllegalArgumentException("free frame target " + frames
+                    + " out of range for a pool of " + numPages + " pages");
+        }
+        freeFrameTarget = frames;
+    }
+
+    /** @return the number of frames the background cleaner tries to keep free */
+    public int getFreeFrameTarget() {
+        return freeFrameTarget;
+    }
+
+    /** @return the number of frames that are currently free */
+    public int getFreeFrames() {
+        return Math.max(numPages - usedFrames.get(), 0);
+    }
+
+    /** @return the number of pages the background cleaner evicted */
+    public long getPagesCleaned() {
+        return pagesCleaned.get();
+    }
+
+    /** @return the arena page images are kept in, or null if they are kept on the heap */
+    public PageArena getArena() {
+        return arena;
+    }
+
+    /**
+     * Turns verifying the checksums of pages read from disk on or off.  On by
+     * default; pages are checksummed when written either way.
+     *
+     * @see PageChecksums
+     */
+    public void setVerifyChecksums(boolean verify) {
+        verifyChecksums = verify;
+    }
+
+    /** @return true if files verify the checksums of the pages they read */
+    public boolean getVerifyChecksums() {
+        return verifyChecksums;
+    }
+
+    /**
+     * Sets whether pages dirtied by running logged transactions may be
+     * written to disk to make room for other pages (STEAL).  Off by default.
+     */
+    public void setSteal(boolean steal) {
+        this.steal = steal;
+    }
+
+    /** @return true if pages of running logged transactions may be evicted */
+    public boolean getSteal() {
+        return steal;
+    }
+
+    /**
+     * Sets whether the pages of a logged transaction are written to disk
+     * when it commits (FORCE).  On by default.  Without it, the commit record
+     * is all that is forced, and the pages are written when they are evicted
+     * or flushed.
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    /** @return true if the pages of logged transactions are written when they commit */
+    public boolean getForce() {
+        return force;
+    }
+
+    /**
+     * @return a snapshot of the dirty page table: the pages changed by
+     *         logged updates since they were last written, with the LSN of
+     *         the first such update or an earlier one
+     */
+    public Map<PageId, Long> getDirtyPageTable() {
+        return new HashMap<>(dirtyPageTable);
+    }
+
+    /**
+     * Sets the size above which a scanned file is read through a ring of its
+     * own instead of the shared pool.  Defaults to the size of the pool, so
+     * that files the pool can hold stay cached after a scan.
+     *
+     * @param pages the number of pages of the largest file scanned through
+     *              the shared pool
+     * @throws IllegalArgumentException if pages is negative
+     */
+    public void setRingThreshold(int pages) {
+        if (pages < 0) {
+            throw new IllegalArgumentException("negative ring threshold " + pages);
+        }
+        ringThreshold = pages;
+    }
+
+    /** @return the number of pages of the largest file scanned through the shared pool */
+    public int getRingThreshold() {
+        return ringThreshold;
+    }
+
+    /**
+     * Returns the ring a scan of a file should read its pages through, to be
+     * passed to {@link #getPage(TransactionId, PageId, Permissions, BufferRing)}.
+     *
+     * @param filePages the number of pages of the scanned file
+     * @return a new ring of an eighth of the pool, at most
+     *         {@link #MAX_RING_PAGES} frames, or null if the file is small
+     *         enough to be scanned through the shared pool
+     */
+    public BufferRing ringFor(int filePages) {
+        if (filePages <= ringThreshold) {
+            return null;
+        }
+        return new BufferRing(Math.max(1, Math.min(MAX_RING_PAGES, numPages / 8)));
+    }
+
+    /** @return the number of pages that scans evicted from their rings */
+    public long getRingEvictions() {
+        return ringEvictions.get();
+    }
+
+    /** @return true if the specified page is cached in the pool */
+    public boolean isResident(PageId pid) {
+        return stripeFor(pid).pages.containsKey(pid);
+    }
+
+    /**
+     * Sets the number of pages read ahead of a sequential scan; 0 turns read
+     * ahead off.
+     *
+     * @throws IllegalArgumentException if pages is negative
+     */
+    public void setReadAheadWindow(int pages) {
+        if (pages < 0) {
+            throw new IllegalArgumentException("negative read ahead window " + pages);
+        }
+        readAheadWindow = pages;
+    }
+
+    /**
+     * @return the number of pages read ahead of a sequential scan: the
+     *         configured window, but at most a quarter of the pool, so that
+     *         pages read ahead do not push out the pages in use
+     */
+    public int getReadAheadWindow() {
+        return Math.min(readAheadWindow, numPages / 4);
+    }
+
+    /** @return the number of pages read into the pool ahead of a scan */
+    public long getPagesReadAhead() {
+        return pagesReadAhead.get();
+    }
+
+    /** @return the number of pages read ahead that a transaction then found
+        in the pool */
+    public long getReadAheadHits() {
+        return readAheadHits.get();
+    }
+
+    /**
+     * Reads the specified page into the pool in the background, unless it is
+     * cached already.  No lock is acquired; a transaction still has to get
+     * the page with {@link #getPage}.
+     */
+    public void readAhead(PageId pid) {
+        readAhead(pid, (BufferRing) null);
+    }
+
+    /**
+     * Reads the specified page ahead of a scan that reads through a ring;
+     * the page is read into the ring.
+     *
+     * @param ring the ring of the scan, or null if it uses the shared pool
+     */
+    public void readAhead(PageId pid, BufferRing ring) {
+        if (!stripeFor(pid).pages.containsKey(pid)) {
+            readAhead(pid, page -> null, 1, ring);
+        }
+    }
+
+    /**
+     * Reads a chain of pages into the pool in the background: the specified
+     * page and then the page next returns for the previous one, until count
+     * pages were visited or next returns null.  Cached pages are followed
+     * without being read again.
+     */
+    public void readAhead(PageId pid, Function<Page, PageId> next, int count) {
+        readAhead(pid, next, count, null);
+    }
+
+    private void readAhead(PageId pid, Function<Page, PageId> next, int count, BufferRing ring) {
+        if (count <= 0 || !readingAhead.add(pid)) {
+            return;
+        }
+        readAheadThreads.execute(() -> {
+            try {
+                PageId cur = pid;
+                for (int i = 0; i < count && cur != null; i++) {
+                    Page page = stripeFor(cur).pages.get(cur);
+                    if (page == null) {
+                        page = loadAhead(cur, ring);
+                    }
+                    if (page == null) {
+                        return;
+                    }
+                    cur = next.apply(page);
+                }
+            } catch (RuntimeException e) {
+                // reading ahead is only a hint; the scan reads the page itself
+            } finally {
+                readingAhead.remove(pid);
+            }
+        });
+    }
+
+    /**
+     * Reads a page into the pool for {@link #readAhead}.
+     *
+     * @return the cached page, or null if it could not be read, e.g. because
+     *         all pages in the pool are dirty
+     */
+    private Page loadAhead(PageId pid, BufferRing ring) {
+        try {
+            if (ring != null) {
+                freeRingFrame(ring);
+            }
+            reserveFrame(null);
+        } catch (DbException e) {
+            return null;
+        }
+        PageTableStripe stripe = stripeFor(pid);
+        boolean installed = false;
+        stripe.loadLock.lock();
+        try {
+            Page page = stripe.pages.get(pid);
+            if (page == null) {
+                page = readFromDisk(pid);
+                stripe.pages.put(pid, page);
+                replacementPolicy.pageLoaded(pid);
+                readAhead.add(pid);
+                pagesReadAhead.incrementAndGet();
+                installed = true;
+                if (ring != null) {
+                    ring.add(pid);
+                }
+            }
+            return page;
+        } catch (DbException e) {
+            return null;
+        } finally {
+            stripe.loadLock.unlock();
+            if (!installed) {
+                usedFrames.decrementAndGet();
+            }
+        }
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -79,24 +513,207 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        Page page = null;
-        if(pages.containsKey(pid)){
-            return pages.get(pid);
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page for a scan that reads through a ring.  If
+     * the page is not cached, it is read into the ring, evicting the page the
+     * ring read longest ago if the ring is full.
+     *
+     * @param ring the ring of the scan, or null to use the shared pool
+     * @see #ringFor
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        if (tid != null) {
+            lockManager.acquire(tid, pid, perm);
+        }
+        PageTableStripe stripe = stripeFor(pid);
+        Page page = stripe.pages.get(pid);
+        if (page != null) {
+            replacementPolicy.pageAccessed(pid);
+            if (!readAhead.isEmpty() && readAhead.remove(pid)) {
+                readAheadHits.incrementAndGet();
+            }
+            if (perm == Permissions.READ_WRITE && tid != null && page.isDirty() != null
+                    && !tid.equals(page.isDirty()) && !Database.getLogFile().isRunning(tid)) {
+                // the page holds updates of a transaction committed under
+                // NO-FORCE, which an unlogged transaction must not roll back
+                // by dropping the page
+                try {
+                    flushPage(pid);
+                } catch (IOException e) {
+                    throw new DbException("unable to flush page " + pid + ": " + e.getMessage());
+                }
+            }
+            return page;
         }
-        if(pages.size() >= numPages){
-            evictPage();
+
+        if (ring != null) {
+            freeRingFrame(ring);
         }
-        try{
-            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            pages.put(pid, page);
+        reserveFrame(tid);
+        boolean installed = false;
+        stripe.loadLock.lock();
+        try {
+            // somebody else may have read the page while we waited
+            page = stripe.pages.get(pid);
+            if (page != null) {
+                replacementPolicy.pageAccessed(pid);
+                if (readAhead.remove(pid)) {
+                    readAheadHits.incrementAndGet();
+                }
+            } else {
+                page = readFromDisk(pid);
+                stripe.pages.put(pid, page);
+                replacementPolicy.pageLoaded(pid);
+                installed = true;
+                if (ring != null) {
+                    ring.add(pid);
+                }
+            }
+        } finally {
+            stripe.loadLock.unlock();
+            if (!installed) {
+                usedFrames.decrementAndGet();
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Evicts the page a full ring read longest ago, unless it was dirtied
+     * since, so that the next page of the ring takes its frame.
+     */
+    private void freeRingFrame(BufferRing ring) {
+        PageId victim = ring.nextVictim();
+        if (victim == null) {
+            return;
+        }
+        PageTableStripe stripe = stripeFor(victim);
+        stripe.loadLock.lock();
+        try {
+            Page page = stripe.pages.get(victim);
+            if (page != null && page.isDirty() == null) {
+                stripe.pages.remove(victim);
+                ArenaHeapPage.release(page);
+                usedFrames.decrementAndGet();
+                replacementPolicy.pageRemoved(victim);
+                readAhead.remove(victim);
+                ringEvictions.incrementAndGet();
+            }
+        } finally {
+            stripe.loadLock.unlock();
+        }
+    }
+
+    private Page readFromDisk(PageId pid) throws DbException {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file == null) {
+            throw new DbException("no table with id " + pid.getTableId());
+        }
+        Page page;
+        try {
+            page = file.readPage(pid);
         } catch (IOException e) {
-            e.printStackTrace();
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+            throw new DbException("unable to read page " + pid.getPageNumber()
+                    + " of table " + pid.getTableId() + ": " + e.getMessage());
+        }
+        if (page == null) {
+            throw new DbException("unable to read page " + pid.getPageNumber()
+                    + " of table " + pid.getTableId());
         }
         return page;
     }
 
+    /**
+     * Claims a frame for a page that is about to be added to the pool,
+     * evicting pages until one is available.  The claim must either be
+     * turned into a page table entry or given back.
+     *
+     * @param requester the transaction the frame is for, or null
+     */
+    private void reserveFrame(TransactionId requester) throws DbException {
+        if (!claimFreeFrame()) {
+            synchronized (evictionLock) {
+                while (!claimFreeFrame()) {
+                    evictPage(true, requester);
+                }
+            }
+        }
+        if (getFreeFrames() < freeFrameTarget && cleaning.compareAndSet(false, true)) {
+            cleanerThread.execute(this::clean);
+        }
+    }
+
+    /** Claims a frame if one is free, without evicting anything. */
+    private boolean claimFreeFrame() {
+        int used = usedFrames.get();
+        while (used < numPages) {
+            if (usedFrames.compareAndSet(used, used + 1)) {
+                return true;
+            }
+            used = usedFrames.get();
+        }
+        return false;
+    }
+
+    /**
+     * Evicts clean pages until the free frame target is met, or until no
+     * page can be evicted.  Runs on the cleaner thread.
+     */
+    private void clean() {
+        try {
+            synchronized (evictionLock) {
+                // a page dirtied after it was chosen is skipped, so bound the passes
+                for (int i = 0; i < numPages && getFreeFrames() < freeFrameTarget; i++) {
+                    if (evictPage(false, null)) {
+                        pagesCleaned.incrementAndGet();
+                    }
+                }
+            }
+        } catch (DbException e) {
+            // only dirty pages left; misses evict pages as they are released
+        } finally {
+            cleaning.set(false);
+        }
+    }
+
+    /**
+     * Puts a page into the page table, replacing any cached version of it.
+     */
+    private void cachePage(TransactionId tid, Page page) throws DbException {
+        PageId pid = page.getId();
+        PageTableStripe stripe = stripeFor(pid);
+        if (stripe.pages.containsKey(pid)) {
+            replaced(stripe.pages.put(pid, page), page);
+            replacementPolicy.pageAccessed(pid);
+            return;
+        }
+        reserveFrame(tid);
+        stripe.loadLock.lock();
+        try {
+            Page old = stripe.pages.put(pid, page);
+            if (old == null) {
+                replacementPolicy.pageLoaded(pid);
+                return;
+            }
+            replaced(old, page);
+            replacementPolicy.pageAccessed(pid);
+        } finally {
+            stripe.loadLock.unlock();
+        }
+        usedFrames.decrementAndGet();
+    }
+
+    /** Gives back the arena frames of a cached page that another version replaced. */
+    private static void replaced(Page old, Page page) {
+        if (old != null && old != page) {
+            ArenaHeapPage.release(old);
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -107,8 +724,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public  void unsafeReleasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -117,15 +733,12 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -136,8 +749,53 @@ public class BufferPool {
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
-        // some code goes here
-        // not necessary for lab1|lab2
+        try {
+            LogFile log = Database.getLogFile();
+            boolean logged = loggedTransactions.remove(tid);
+            if (commit) {
+                if (log.isRunning(tid)) {
+                    log.logCommit(tid);
+                }
+                // FORCE: everything the transaction wrote goes to disk before
+                // its locks are released
+                for (Page page : pagesDirtiedBy(tid)) {
+                    if (force || !logged) {
+                        flushPage(page.getId());
+                    }
+                    page.setBeforeImage();
+                }
+            } else {
+                if (log.isRunning(tid)) {
+                    // restores the disk images of pages that were stolen
+                    log.logAbort(tid);
+                }
+                // NO STEAL: the disk still holds the pre-transaction version
+                // of every page it dirtied, so throwing ours away rolls it back
+                for (Page page : pagesDirtiedBy(tid)) {
+                    discardPage(page.getId());
+                    DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+                    if (file instanceof HeapFile) {
+                        ((HeapFile) file).pageRolledBack(page.getId());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("unable to flush pages of transaction " + tid.getId(), e);
+        } finally {
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    /** @return the resident pages that were last dirtied by the specified transaction */
+    private List<Page> pagesDirtiedBy(TransactionId tid) {
+        List<Page> dirtied = new ArrayList<>();
+        for (PageId pid : lockManager.getLockedPages(tid)) {
+            Page page = stripeFor(pid).pages.get(pid);
+            if (page != null && tid.equals(page.isDirty())) {
+                dirtied.add(page);
+            }
+        }
+        return dirtied;
     }
 
     /**
@@ -158,11 +816,16 @@ public class BufferPool {
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        DbFile heapFile = Database.getCatalog().getDatabaseFile(tableId);
-        List<Page> dirtyPages =  heapFile.insertTuple(tid, t);
-        this.dirtypages.addAll(dirtyPages);
-        for(Page page : dirtyPages){
-            pages.put(page.getId(), page);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        List<Page> dirtyPages = file.insertTuple(tid, t);
+        LogFile log = Database.getLogFile();
+        boolean logged = log.isRunning(tid);
+        for (Page page : dirtyPages) {
+            page.markDirty(true, tid);
+            if (logged) {
+                logUpdate(log, tid, page);
+            }
+            cachePage(tid, page);
         }
     }
 
@@ -183,27 +846,83 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         PageId targetPageId = t.getRecordId().getPageId();
-        HeapFile heapFile = (HeapFile)Database.getCatalog().getDatabaseFile(targetPageId.getTableId());
-        List<Page> dirtyPages =  heapFile.deleteTuple(tid, t);
-        this.dirtypages.addAll(dirtyPages);
-        for(Page page : dirtyPages){
-            pages.put(page.getId(), page);
+        DbFile file = Database.getCatalog().getDatabaseFile(targetPageId.getTableId());
+        List<Page> dirtyPages = file.deleteTuple(tid, t);
+        LogFile log = Database.getLogFile();
+        boolean logged = log.isRunning(tid);
+        for (Page page : dirtyPages) {
+            page.markDirty(true, tid);
+            if (logged) {
+                logUpdate(log, tid, page);
+            }
+            cachePage(tid, page);
         }
     }
 
+    /**
+     * Logs an update of a page by a logged transaction, from the image of
+     * the page after its previous logged update to its current image.
+     */
+    private void logUpdate(LogFile log, TransactionId tid, Page page) throws IOException {
+        // the page enters the table before its update is logged, so that a
+        // checkpoint never finds a logged update of a page missing from it
+        dirtyPageTable.putIfAbsent(page.getId(), log.endLSN());
+        long lsn = log.logWrite(tid, page.getBeforeImage(), page);
+        page.setLSN(lsn);
+        page.setBeforeImage();
+        loggedTransactions.add(tid);
+    }
+
+    /**
+     * Writes out, on the cleaner thread, the pages that have been in the
+     * dirty page table since before the specified LSN and may be written
+     * before their transactions end.  Called after a checkpoint, so that
+     * the dirty page table of the next one is newer than this one and the
+     * log before it can be truncated.  Pages other transactions hold an
+     * exclusive lock on are skipped, as for eviction.
+     *
+     * @return the pending writes, done once all pages are written
+     */
+    public Future<?> writeDirtyPages(long lsn) {
+        return cleanerThread.submit(() -> {
+            for (Map.Entry<PageId, Long> e : dirtyPageTable.entrySet()) {
+                Page page = stripeFor(e.getKey()).pages.get(e.getKey());
+                if (e.getValue() >= lsn || page == null || !mayWriteOut(page, null)) {
+                    continue;
+                }
+                try {
+                    if (writeOut(e.getKey(), null)) {
+                        pagesWrittenBehind.incrementAndGet();
+                    }
+                } catch (IOException ex) {
+                    // left for the writes after the next checkpoint
+                    return;
+                }
+            }
+        });
+    }
+
+    /** @return the number of pages written in the background after checkpoints */
+    public long getPagesWrittenBehind() {
+        return pagesWrittenBehind.get();
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        // some code goes here
-        // not necessary for lab1
-        for(Page page : dirtypages){
-            flushPage(page.getId());
-            page.markDirty(false, new TransactionId());
+        for (PageTableStripe stripe : stripes) {
+            for (PageId pid : stripe.pages.keySet()) {
+                flushPage(pid);
+            }
         }
-        dirtypages.clear();
+    }
+
+    /** @return the cached version of a page, or null if it is not cached; takes no locks */
+    Page cachedPage(PageId pid) {
+        return stripeFor(pid).pages.get(pid);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -214,57 +933,164 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        if(!pages.containsKey(pid)){
-            return;
+    public void discardPage(PageId pid) {
+        PageTableStripe stripe = stripeFor(pid);
+        stripe.loadLock.lock();
+        try {
+            dirtyPageTable.remove(pid);
+            Page page = stripe.pages.remove(pid);
+            if (page != null) {
+                ArenaHeapPage.release(page);
+                usedFrames.decrementAndGet();
+                replacementPolicy.pageRemoved(pid);
+                readAhead.remove(pid);
+            }
+        } finally {
+            stripe.loadLock.unlock();
         }
-        pages.remove(pid);
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        if(!pages.containsKey(pid)){
+    private void flushPage(PageId pid) throws IOException {
+        PageTableStripe stripe = stripeFor(pid);
+        Page page = stripe.pages.get(pid);
+        if (page == null || page.isDirty() == null) {
             return;
         }
-        HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
-        heapFile.writePage(pages.get(pid));
+        // write-ahead logging: the log goes first; forcing it may take a
+        // while, so not under the stripe lock
+        LogFile log = Database.getLogFile();
+        log.forceTo(page.getLSN());
+        stripe.loadLock.lock();
+        try {
+            page = stripe.pages.get(pid);
+            TransactionId dirtier = page == null ? null : page.isDirty();
+            if (dirtier == null) {
+                return;
+            }
+            log.forceTo(page.getLSN());
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            file.writePage(page);
+            // a page dirtied by another transaction while it was written
+            // keeps its dirty mark and recLSN
+            if (dirtier.equals(page.isDirty())) {
+                page.markDirty(false, null);
+                dirtyPageTable.remove(pid);
+            }
+        } finally {
+            stripe.loadLock.unlock();
+        }
+    }
+
+    /**
+     * Writes out a dirty page before its transaction ends, to make room for
+     * another page or behind a checkpoint.  The pool holds a shared lock on the page while it is
+     * written, so that no transaction changes it meanwhile; a page that a
+     * transaction other than the requester holds an exclusive lock on may
+     * be being changed, and is not written.
+     *
+     * @param requester the transaction the page is written out for, whose
+     *                  own exclusive lock keeps the page from changing; or null
+     * @return false if the page was not written because another transaction
+     *         may be changing it
+     */
+    private boolean writeOut(PageId pid, TransactionId requester) throws IOException {
+        TransactionId writer = new TransactionId();
+        boolean shared = lockManager.tryAcquire(writer, pid, Permissions.READ_ONLY);
+        try {
+            if (!shared && (requester == null || !lockManager.holdsExclusiveLock(requester, pid))) {
+                return false;
+            }
+            flushPage(pid);
+            return true;
+        } finally {
+            if (shared) {
+                lockManager.releaseAll(writer);
+            }
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+    public void flushPages(TransactionId tid) throws IOException {
+        for (Page page : pagesDirtiedBy(tid)) {
+            flushPage(page.getId());
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Clean pages are evicted first.  If there are none, a page may be
+     * written out to make room if a logged transaction dirtied it: under
+     * STEAL any such page, otherwise one left dirty by a commit under
+     * NO-FORCE.  The caller must hold evictionLock.
+     *
+     * @param mayFlush whether dirty pages may be written out
+     * @param requester the transaction the frame is for, or null
+     * @return false if the chosen page was dirtied before it could be evicted
      */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
-        int selected = ThreadLocalRandom.current().nextInt(0, numPages);
-        for(Map.Entry<PageId, Page> entry : pages.entrySet()){
-            if(selected == 0){
-                Page page = entry.getValue();
-                if(page.isDirty() != null){
-                    try{
-                        flushPage(page.getId());
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    private boolean evictPage(boolean mayFlush, TransactionId requester) throws DbException {
+        PageId victim = replacementPolicy.chooseVictim(pid -> {
+            Page page = stripeFor(pid).pages.get(pid);
+            return page != null && page.isDirty() == null;
+        });
+        if (victim == null && mayFlush) {
+            victim = replacementPolicy.chooseVictim(pid -> {
+                Page page = stripeFor(pid).pages.get(pid);
+                return page != null && mayWriteOut(page, requester);
+            });
+        }
+        if (victim == null) {
+            throw new DbException("all pages in the buffer pool are dirty");
+        }
+        Page dirty = stripeFor(victim).pages.get(victim);
+        if (dirty != null && dirty.isDirty() != null) {
+            if (!mayWriteOut(dirty, requester)) {
+                return false;
+            }
+            // outside the stripe lock, since writing a page may force the log
+            try {
+                if (!writeOut(victim, requester)) {
+                    return false;
                 }
-                pages.remove(page.getId());
-                return;
+            } catch (IOException e) {
+                throw new DbException("unable to write out page " + victim + ": " + e.getMessage());
+            }
+        }
+        PageTableStripe stripe = stripeFor(victim);
+        stripe.loadLock.lock();
+        try {
+            Page page = stripe.pages.get(victim);
+            if (page != null && page.isDirty() != null) {
+                return false; // dirtied since it was chosen; pick again
+            }
+            replacementPolicy.pageRemoved(victim);
+            if (page == null) {
+                return false;
             }
-            selected--;
+            stripe.pages.remove(victim);
+            ArenaHeapPage.release(page);
+            usedFrames.decrementAndGet();
+            readAhead.remove(victim);
+            return true;
+        } finally {
+            stripe.loadLock.unlock();
         }
     }
 
+    /**
+     * @return true if a dirty page may be written out before its transaction
+     *         ends: it is logged, STEAL allows it, and no transaction other
+     *         than the requester may be changing it
+     */
+    private boolean mayWriteOut(Page page, TransactionId requester) {
+        TransactionId dirtier = page.isDirty();
+        return dirtier != null && dirtyPageTable.containsKey(page.getId())
+                && (steal || !loggedTransactions.contains(dirtier))
+                && !lockManager.isExclusivelyLockedByOther(page.getId(), requester);
+    }
+
 }
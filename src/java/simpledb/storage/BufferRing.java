@@ -0,0 +1,44 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+
+/**
+ * BufferRing is a small private set of frames used by one large sequential
+ * scan, so that the scan does not push the working set of other sessions out
+ * of the BufferPool.
+ * <p>
+ * The pages a ring scan reads into the pool are remembered by its ring.  Once
+ * the ring is full, the page it read longest ago is evicted to make room for
+ * the next one, instead of a page chosen by the pool's replacement policy.
+ * Pages the scan finds cached already are not added to its ring.
+ *
+ * @see BufferPool#newRing
+ * @Threadsafe
+ */
+public class BufferRing {
+
+    private final int capacity;
+    private final ArrayDeque<PageId> pages = new ArrayDeque<>();
+
+    BufferRing(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /** @return the number of frames of this ring */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Records a page read into the pool for this ring's scan. */
+    synchronized void add(PageId pid) {
+        pages.add(pid);
+    }
+
+    /**
+     * @return the page to evict before another page is read into the ring,
+     *         or null while the ring has free frames
+     */
+    synchronized PageId nextVictim() {
+        return pages.size() >= capacity ? pages.poll() : null;
+    }
+}
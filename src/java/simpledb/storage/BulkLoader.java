@@ -0,0 +1,372 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BulkLoader converts a delimited text file into a heap file, in the format
+ * described for {@link HeapFileEncoder#convert(File, File, int, int, Type[], char)},
+ * using several threads.
+ * <p>
+ * The input is split into chunks of about {@link #getChunkSize()} bytes at
+ * line boundaries, and the chunks are parsed in parallel into packed
+ * records.  A single writer then lays the records of the chunks out on
+ * pages, in input order, and writes the pages many at a time with large
+ * sequential writes, along with their {@link ZoneMap} and
+ * {@link PageChecksums}, dropping any old {@link FreeSpaceMap}.  At most a few chunks more than there are threads
+ * are held in memory at once, so files of any size can be loaded.
+ * <p>
+ * The output does not depend on the number of threads or the chunk size.
+ * Lines that cannot be parsed, with a field that is not a number or with
+ * too few or too many fields, are reported and skipped; empty lines are
+ * skipped, and a last line need not end with a newline.
+ */
+public class BulkLoader {
+
+    /** Default size of the chunks the input is parsed in, 4 MB. */
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    /** Number of pages the writer writes at once. */
+    private static final int PAGES_PER_WRITE = 256;
+
+    private static volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    public static int getChunkSize() {
+        return chunkSize;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setChunkSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive, not " + size);
+        }
+        BulkLoader.chunkSize = size;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetChunkSize() {
+        BulkLoader.chunkSize = DEFAULT_CHUNK_SIZE;
+    }
+
+    /** @return the default number of threads to parse with, one per processor */
+    public static int defaultThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /** The records parsed from a chunk of the input, packed back to back. */
+    private static class Chunk {
+        final byte[] records;
+        final int count;
+
+        Chunk(byte[] records, int count) {
+            this.records = records;
+            this.count = count;
+        }
+    }
+
+    private final FileChannel in;
+    private final int numFields;
+    private final Type[] typeAr;
+    private final char fieldSeparator;
+    private final int nrecbytes;
+    private final Charset charset = Charset.defaultCharset();
+
+    private BulkLoader(FileChannel in, int numFields, Type[] typeAr, char fieldSeparator) {
+        this.in = in;
+        this.numFields = numFields;
+        this.typeAr = typeAr;
+        this.fieldSeparator = fieldSeparator;
+        int len = 0;
+        for (int i = 0; i < numFields; i++) {
+            len += typeAr[i].getLen();
+        }
+        this.nrecbytes = len;
+    }
+
+    /**
+     * Converts the specified input text file into a heap file.
+     *
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param numFields the number of fields in each input line/output tuple
+     * @param typeAr the types of the fields
+     * @param fieldSeparator the character separating the fields of a line
+     * @param threads the number of threads to parse with
+     * @throws IOException if the input/output file can't be opened
+     */
+    public static void load(File inFile, File outFile, int npagebytes, int numFields,
+                            Type[] typeAr, char fieldSeparator, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread, not " + threads);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "bulk-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+            new BulkLoader(in, numFields, typeAr, fieldSeparator)
+                    .load(outFile, npagebytes, pool, threads + 2);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void load(File outFile, int npagebytes, ExecutorService pool, int window)
+            throws IOException {
+        int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);  //floor comes for free
+        int nheaderbytes = (nrecords + 7) / 8;
+        int[] intOffsets = new int[numFields];
+        int offset = 0;
+        for (int i = 0; i < numFields; i++) {
+            intOffsets[i] = typeAr[i] == Type.INT_TYPE ? offset : -1;
+            offset += typeAr[i].getLen();
+        }
+
+        TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+        List<int[]> zones = new ArrayList<>();
+        List<Integer> checksums = new ArrayList<>();
+        int[] zone = ZoneMap.emptyZone(td);
+
+        byte[] out = new byte[PAGES_PER_WRITE * npagebytes];
+        int pagesInOut = 0;
+        int recordcount = 0;
+
+        Deque<Future<Chunk>> pending = new ArrayDeque<>();
+        long size = in.size();
+        long next = 0;
+        try (OutputStream os = SegmentedFile.newOutputStream(outFile)) {
+            while (next < size || !pending.isEmpty()) {
+                while (next < size && pending.size() < window) {
+                    final long start = next;
+                    final long end = chunkEnd(start, size);
+                    pending.add(pool.submit(() -> parse(start, end)));
+                    next = end;
+                }
+                Chunk chunk = take(pending.poll());
+                for (int r = 0; r < chunk.count; r++) {
+                    int page = pagesInOut * npagebytes;
+                    if (recordcount == 0) {
+                        Arrays.fill(out, page, page + npagebytes, (byte) 0);
+                    }
+                    int from = r * nrecbytes;
+                    System.arraycopy(chunk.records, from, out,
+                            page + nheaderbytes + recordcount * nrecbytes, nrecbytes);
+                    for (int f = 0; f < numFields; f++) {
+                        if (intOffsets[f] >= 0) {
+                            ZoneMap.add(zone, f, readInt(chunk.records, from + intOffsets[f]));
+                        }
+                    }
+                    if (++recordcount == nrecords) {
+                        finishPage(out, page, recordcount, zone, zones, checksums, npagebytes);
+                        zone = ZoneMap.emptyZone(td);
+                        recordcount = 0;
+                        if (++pagesInOut == PAGES_PER_WRITE) {
+                            os.write(out, 0, pagesInOut * npagebytes);
+                            pagesInOut = 0;
+                        }
+                    }
+                }
+            }
+            // the last page, if it has records on it; an empty file still
+            // gets one empty page
+            if (recordcount > 0 || zones.isEmpty()) {
+                int page = pagesInOut * npagebytes;
+                if (recordcount == 0) {
+                    Arrays.fill(out, page, page + npagebytes, (byte) 0);
+                }
+                finishPage(out, page, recordcount, zone, zones, checksums, npagebytes);
+                pagesInOut++;
+            }
+            os.write(out, 0, pagesInOut * npagebytes);
+        }
+        ZoneMap.write(outFile, td, zones);
+        PageChecksums.write(outFile, checksums);
+        FreeSpaceMap.reset(outFile);
+    }
+
+    /** Sets the header bits of the records on a page and records its zone and checksum. */
+    private static void finishPage(byte[] out, int page, int recordcount, int[] zone,
+                                   List<int[]> zones, List<Integer> checksums, int npagebytes) {
+        for (int i = 0; i < recordcount; i++) {
+            out[page + i / 8] |= (byte) (1 << (i % 8));
+        }
+        zones.add(zone);
+        checksums.add(Crc32c.compute(out, page, npagebytes));
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16
+                | (b[off + 2] & 0xff) << 8 | (b[off + 3] & 0xff);
+    }
+
+    private static Chunk take(Future<Chunk> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while loading");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("unable to parse input: " + cause, cause);
+        }
+    }
+
+    /**
+     * @return the offset just past the first newline at or after
+     *         start + chunk size, or the size of the file if there is none
+     */
+    private long chunkEnd(long start, long size) throws IOException {
+        long pos = start + chunkSize;
+        ByteBuffer buf = ByteBuffer.allocate(64 << 10);
+        while (pos < size) {
+            buf.clear();
+            int n = in.read(buf, pos - 1);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    /** Parses the lines between the specified offsets into records. */
+    private Chunk parse(long start, long end) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) (end - start));
+        while (buf.hasRemaining()) {
+            if (in.read(buf, start + buf.position()) < 0) {
+                throw new IOException("input file shrank while loading");
+            }
+        }
+        String text = new String(buf.array(), charset);
+        buf = null;
+
+        ByteBuffer records = ByteBuffer.allocate(Math.max(nrecbytes, text.length() * 2));
+        int count = 0;
+        int lineStart = 0;
+        int len = text.length();
+        while (lineStart < len) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = len;
+            }
+            int stop = lineEnd;
+            if (stop > lineStart && text.charAt(stop - 1) == '\r') {
+                stop--;
+            }
+            if (stop > lineStart) {
+                if (records.remaining() < nrecbytes) {
+                    ByteBuffer grown = ByteBuffer.allocate(records.capacity() * 2);
+                    records.flip();
+                    grown.put(records);
+                    records = grown;
+                }
+                if (parseLine(text, lineStart, stop, records)) {
+                    count++;
+                } else {
+                    System.out.println ("BAD LINE : " + text.substring(lineStart, stop));
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return new Chunk(records.array(), count);
+    }
+
+    /**
+     * Appends the record of a line to records.
+     *
+     * @return false, leaving records as it was, if the line is malformed
+     */
+    private boolean parseLine(String text, int from, int to, ByteBuffer records) {
+        int mark = records.position();
+        int fieldStart = from;
+        for (int f = 0; f < numFields; f++) {
+            int fieldEnd = f == numFields - 1 ? to : text.indexOf(fieldSeparator, fieldStart);
+            if (fieldEnd < 0 || fieldEnd > to) {
+                records.position(mark);
+                return false;
+            }
+            if (typeAr[f] == Type.INT_TYPE) {
+                try {
+                    records.putInt(parseInt(text, fieldStart, fieldEnd));
+                } catch (NumberFormatException e) {
+                    records.position(mark);
+                    return false;
+                }
+            } else {
+                String s = text.substring(fieldStart, fieldEnd).trim();
+                if (s.length() > Type.STRING_LEN) {
+                    s = s.substring(0, Type.STRING_LEN);
+                }
+                records.putInt(s.length());
+                for (int i = 0; i < s.length(); i++) {
+                    records.put((byte) s.charAt(i));
+                }
+                for (int i = s.length(); i < Type.STRING_LEN; i++) {
+                    records.put((byte) 0);
+                }
+            }
+            fieldStart = fieldEnd + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Parses an int, ignoring surrounding whitespace, like
+     * Integer.parseInt(s.trim()) without building the string in the common
+     * case of a plain decimal number.
+     */
+    private static int parseInt(String text, int from, int to) {
+        while (from < to && text.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        int i = from;
+        boolean negative = i < to && text.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+        if (i < to && to - i <= 9) {
+            int v = 0;
+            for (; i < to; i++) {
+                int d = text.charAt(i) - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                v = v * 10 + d;
+            }
+            if (i == to) {
+                return negative ? -v : v;
+            }
+        }
+        return Integer.parseInt(text.substring(from, to));
+    }
+}
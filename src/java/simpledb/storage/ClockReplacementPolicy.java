@@ -0,0 +1,79 @@
+package simpledb.storage;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) approximation of LRU.
+ * <p>
+ * Resident pages sit on a circular list of slots, each with a reference bit
+ * that is set whenever the page is used.  To pick a victim the clock hand
+ * sweeps the list, clearing set bits and stopping at the first evictable page
+ * whose bit is already clear.  A hit costs a single bit write, which makes
+ * this the cheapest policy when the pool is hit-heavy.
+ *
+ * @Threadsafe
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private final List<PageId> slots = new ArrayList<>();
+    private final BitSet referenced = new BitSet();
+    private final Map<PageId, Integer> slotOf = new HashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private int hand = 0;
+
+    public synchronized void pageLoaded(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot == null) {
+            if (freeSlots.isEmpty()) {
+                slot = slots.size();
+                slots.add(pid);
+            } else {
+                slot = freeSlots.pop();
+                slots.set(slot, pid);
+            }
+            slotOf.put(pid, slot);
+        }
+        referenced.set(slot);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot != null) {
+            referenced.set(slot);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer slot = slotOf.remove(pid);
+        if (slot != null) {
+            slots.set(slot, null);
+            referenced.clear(slot);
+            freeSlots.push(slot);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        int n = slots.size();
+        // the first sweep clears every reference bit, so the second one is
+        // guaranteed to find an evictable page if there is one
+        for (int step = 0; step < 2 * n; step++) {
+            if (hand >= n) {
+                hand = 0;
+            }
+            int slot = hand++;
+            PageId pid = slots.get(slot);
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.get(slot)) {
+                referenced.clear(slot);
+                continue;
+            }
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,393 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ColumnFile is a DbFile that stores a table column by column, for analytic
+ * queries that read only a few columns of wide tables.  Every column has its
+ * own chain of {@link ColumnPage}s, so a scan of some of the columns only
+ * reads the pages of those columns.
+ * <p>
+ * The chain of column i is stored in the file named after the file of the
+ * table with ".i" appended.  The file of the table itself holds the row map,
+ * a chain of {@link RowMapPage}s recording which rows are live.  Tuples are
+ * appended to the end of every chain and keep their row for good: a delete
+ * only clears the bit of the row in the row map.  The tuples of a column file
+ * are addressed by RecordIds on the pages of the row map, which has the
+ * number of fields of the table as its column number.
+ * <p>
+ * An insert locks the last page of the row map before the last pages of the
+ * columns, so inserts into a table are serialized and all chains get their
+ * values in the same order.
+ *
+ * @see ColumnPage
+ * @see RowMapPage
+ */
+public class ColumnFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int id;
+    /** the column number of the row map */
+    private final int rowMap;
+    /** number of pages of every chain, the row map last */
+    private final int[] numPages;
+    private final FileChannel[] channels;
+
+    /**
+     * Constructs a column file backed by the specified file and the files of
+     * its columns next to it.
+     *
+     * @param f the file that stores the row map of the table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.rowMap = td.numFields();
+        this.numPages = new int[rowMap + 1];
+        this.channels = new FileChannel[rowMap + 1];
+        int pageSize = BufferPool.getPageSize();
+        for (int c = 0; c <= rowMap; c++) {
+            numPages[c] = (int) ((chainFile(c).length() + pageSize - 1) / pageSize);
+        }
+    }
+
+    /** @return the file holding the page chain of the specified column */
+    public File chainFile(int column) {
+        return column == rowMap ? file : new File(file.getPath() + "." + column);
+    }
+
+    /**
+     * Returns the File backing the row map of this ColumnFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of pages of all chains of this file together */
+    public synchronized int numPages() {
+        int n = 0;
+        for (int pages : numPages) {
+            n += pages;
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of pages of the chain of the specified column, or of
+     *         the row map for the number of fields of the table
+     */
+    public synchronized int numPages(int column) {
+        return numPages[column];
+    }
+
+    private synchronized FileChannel channel(int column) throws IOException {
+        FileChannel ch = channels[column];
+        if (ch == null || !ch.isOpen()) {
+            ch = FileChannel.open(chainFile(column).toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            channels[column] = ch;
+        }
+        return ch;
+    }
+
+    /**
+     * Closes the files of this column file.  They are reopened if it is used
+     * again afterwards.
+     */
+    public synchronized void close() throws IOException {
+        for (int c = 0; c <= rowMap; c++) {
+            if (channels[c] != null) {
+                channels[c].close();
+                channels[c] = null;
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId id) {
+        if (!(id instanceof ColumnPageId) || id.getTableId() != this.id) {
+            throw new IllegalArgumentException("page " + id + " is not a page of " + file);
+        }
+        ColumnPageId pid = (ColumnPageId) id;
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        try {
+            // reading past the end of the chain yields an empty page
+            FileChannel ch = channel(pid.getColumn());
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            long offset = (long) pid.getPageNumber() * pageSize;
+            while (buf.hasRemaining() && ch.read(buf, offset + buf.position()) >= 0) {
+                // keep reading
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("unable to read page " + pid.getPageNumber()
+                    + " of " + chainFile(pid.getColumn()) + ": " + e.getMessage());
+        }
+        if (pid.getColumn() == rowMap) {
+            return new RowMapPage(pid, data);
+        }
+        return new ColumnPage(pid, data, td.getFieldType(pid.getColumn()));
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId pid = (ColumnPageId) page.getId();
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData(), 0, pageSize);
+        long offset = (long) pid.getPageNumber() * pageSize;
+        FileChannel ch = channel(pid.getColumn());
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+        synchronized (this) {
+            if (pid.getPageNumber() >= numPages[pid.getColumn()]) {
+                numPages[pid.getColumn()] = pid.getPageNumber() + 1;
+            }
+        }
+    }
+
+    /** @return the last page of the chain of a column, adding one if it has none */
+    private synchronized ColumnPageId lastPage(int column) {
+        if (numPages[column] == 0) {
+            numPages[column] = 1;
+        }
+        return new ColumnPageId(id, column, numPages[column] - 1);
+    }
+
+    /**
+     * @return the page after the specified full page at the end of the chain
+     *         of a column, which is added to the chain unless another
+     *         transaction did so already
+     */
+    private synchronized ColumnPageId pageAfter(ColumnPageId full) {
+        int column = full.getColumn();
+        if (numPages[column] == full.getPageNumber() + 1) {
+            numPages[column]++;
+        }
+        return new ColumnPageId(id, column, numPages[column] - 1);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        BufferPool bufferPool = Database.getBufferPool();
+        List<Page> modifiedPages = new ArrayList<>();
+
+        ColumnPageId pid = lastPage(rowMap);
+        RowMapPage rows = (RowMapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+        while (rows.isFull()) {
+            pid = pageAfter(pid);
+            rows = (RowMapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+        }
+        t.setRecordId(new RecordId(pid, rows.addRow()));
+        rows.markDirty(true, tid);
+        modifiedPages.add(rows);
+
+        for (int c = 0; c < rowMap; c++) {
+            Field f = t.getField(c);
+            ColumnPageId cpid = lastPage(c);
+            ColumnPage page = (ColumnPage) bufferPool.getPage(tid, cpid, Permissions.READ_WRITE);
+            while (!page.hasRoomFor(f)) {
+                if (page.numValues() == 0) {
+                    throw new DbException("value of column " + c + " does not fit on a page");
+                }
+                cpid = pageAfter(cpid);
+                page = (ColumnPage) bufferPool.getPage(tid, cpid, Permissions.READ_WRITE);
+            }
+            page.append(f);
+            page.markDirty(true, tid);
+            modifiedPages.add(page);
+        }
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId)
+                || rid.getPageId().getTableId() != id
+                || ((ColumnPageId) rid.getPageId()).getColumn() != rowMap) {
+            throw new DbException("tuple is not a member of this file");
+        }
+        RowMapPage rows = (RowMapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        rows.deleteRow(rid.getTupleNumber());
+        rows.markDirty(true, tid);
+        List<Page> modifiedPages = new ArrayList<>();
+        modifiedPages.add(rows);
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] all = new int[rowMap];
+        for (int c = 0; c < rowMap; c++) {
+            all[c] = c;
+        }
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the live tuples of this file that only reads
+     * the pages of the specified columns.  The tuples only have those
+     * fields, in the order given.
+     *
+     * @param columns the indexes of the fields to return
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        for (int c : columns) {
+            if (c < 0 || c >= rowMap) {
+                throw new IllegalArgumentException("no column " + c + " in " + td);
+            }
+        }
+        return new ColumnFileIterator(tid, columns.clone());
+    }
+
+    /** @return the schema of the tuples with only the specified columns */
+    public TupleDesc projectedTupleDesc(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = td.getFieldType(columns[i]);
+            names[i] = td.getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /** Reads the values of one column, row after row. */
+    private class ColumnCursor {
+        final int column;
+        int pageNo;
+        ColumnPage page;
+        int index;
+
+        ColumnCursor(int column) {
+            this.column = column;
+        }
+
+        void reset() {
+            pageNo = 0;
+            page = null;
+            index = 0;
+        }
+
+        /** Moves to the next row, loading the next page of the chain if needed. */
+        void advance(TransactionId tid) throws DbException, TransactionAbortedException {
+            if (page != null) {
+                index++;
+            }
+            while (page == null || index >= page.numValues()) {
+                if (page != null) {
+                    pageNo++;
+                    index = 0;
+                }
+                if (pageNo >= numPages(column)) {
+                    throw new DbException("column " + column + " of " + file + " has fewer rows than the row map");
+                }
+                page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                        new ColumnPageId(id, column, pageNo), Permissions.READ_ONLY);
+            }
+        }
+    }
+
+    private class ColumnFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final TupleDesc projected;
+        private final ColumnCursor[] cursors;
+        private boolean open = false;
+        private int rowPageNo;
+        private RowMapPage rowPage;
+        private int row;
+
+        ColumnFileIterator(TransactionId tid, int[] columns) {
+            this.tid = tid;
+            this.projected = projectedTupleDesc(columns);
+            this.cursors = new ColumnCursor[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                cursors[i] = new ColumnCursor(columns[i]);
+            }
+        }
+
+        public void open() {
+            open = true;
+            rowPageNo = 0;
+            rowPage = null;
+            row = 0;
+            for (ColumnCursor cursor : cursors) {
+                cursor.reset();
+            }
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            open = false;
+            rowPage = null;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!open) {
+                return null;
+            }
+            while (true) {
+                if (rowPage == null) {
+                    if (rowPageNo >= numPages(rowMap)) {
+                        return null;
+                    }
+                    rowPage = (RowMapPage) Database.getBufferPool().getPage(tid,
+                            new ColumnPageId(id, rowMap, rowPageNo), Permissions.READ_ONLY);
+                    row = 0;
+                }
+                if (row >= rowPage.numRows()) {
+                    rowPage = null;
+                    rowPageNo++;
+                    continue;
+                }
+                // every row has a value in every column, live or not
+                for (ColumnCursor cursor : cursors) {
+                    cursor.advance(tid);
+                }
+                int r = row++;
+                if (!rowPage.isLive(r)) {
+                    continue;
+                }
+                Tuple t = new Tuple(projected);
+                for (int i = 0; i < cursors.length; i++) {
+                    t.setField(i, cursors[i].page.getField(cursors[i].index));
+                }
+                t.setRecordId(new RecordId(rowPage.getId(), r));
+                return t;
+            }
+        }
+    }
+}
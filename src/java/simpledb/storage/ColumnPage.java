@@ -0,0 +1,302 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.util.Arrays;
+
+/**
+ * ColumnPage is a page of the page chain of one column of a
+ * {@link ColumnFile}: the values of that column for a run of consecutive
+ * rows, in row order.
+ * <p>
+ * Every page is encoded on its own, with whichever of two encodings is
+ * smaller for its values: PLAIN stores the values one after the other, RLE
+ * stores runs of equal values as the value followed by the 4-byte length of
+ * the run.  An INT_TYPE value takes 4 bytes, a STRING_TYPE value a 2-byte
+ * length followed by its characters, of which at most
+ * {@link Type#STRING_LEN} are kept.
+ * <p>
+ * The page starts with the number of values (4 bytes) and the encoding
+ * (1 byte), so that an all-zero page is a valid empty page.  The values are
+ * decoded when the page is read and encoded again by {@link #getPageData}.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    static final int HEADER_SIZE = 5;
+    static final byte PLAIN = 0;
+    static final byte RLE = 1;
+
+    final ColumnPageId pid;
+    final Type type;
+    private int count;
+    private int[] ints;
+    private String[] strings;
+    /** encoded size of the values in either encoding */
+    private int plainBytes;
+    private int rleBytes;
+
+    /** the before image */
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private boolean dirty = false;
+    private TransactionId tid = null;
+    private volatile long lsn = LogFile.NO_LSN;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk, for a
+     * table in the catalog.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn()));
+    }
+
+    /**
+     * Create a ColumnPage of values of the specified type.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data, Type type) {
+        this.pid = id;
+        this.type = type;
+        int n = Type.decodeInt(data, 0);
+        if (type == Type.INT_TYPE) {
+            ints = new int[Math.max(16, n)];
+        } else {
+            strings = new String[Math.max(16, n)];
+        }
+        int offset = HEADER_SIZE;
+        boolean rle = data[4] == RLE;
+        while (count < n) {
+            int run = 1;
+            if (type == Type.INT_TYPE) {
+                int v = Type.decodeInt(data, offset);
+                offset += 4;
+                if (rle) {
+                    run = Type.decodeInt(data, offset);
+                    offset += 4;
+                }
+                for (int i = 0; i < run; i++) {
+                    append(v);
+                }
+            } else {
+                int len = ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+                String v = new String(data, offset + 2, len);
+                offset += 2 + len;
+                if (rle) {
+                    run = Type.decodeInt(data, offset);
+                    offset += 4;
+                }
+                for (int i = 0; i < run; i++) {
+                    append(v);
+                }
+            }
+        }
+        oldData = data;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * ColumnPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** @return the number of values on this page */
+    public int numValues() {
+        return count;
+    }
+
+    /** @return the type of the values of this page */
+    public Type getType() {
+        return type;
+    }
+
+    /** @return the INT_TYPE value of the specified row of this page */
+    public int getInt(int i) {
+        return ints[i];
+    }
+
+    /** @return the STRING_TYPE value of the specified row of this page */
+    public String getString(int i) {
+        return strings[i];
+    }
+
+    /** @return the value of the specified row of this page, as a Field */
+    public Field getField(int i) {
+        if (type == Type.INT_TYPE) {
+            return new IntField(ints[i]);
+        }
+        return new StringField(strings[i], Type.STRING_LEN);
+    }
+
+    private static String truncate(String s) {
+        return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+    }
+
+    /** @return the encoded size of the smaller encoding after appending f */
+    private int sizeWith(Field f) {
+        int valueBytes;
+        boolean sameAsLast;
+        if (type == Type.INT_TYPE) {
+            int v = ((IntField) f).getValue();
+            valueBytes = 4;
+            sameAsLast = count > 0 && ints[count - 1] == v;
+        } else {
+            String v = truncate(((StringField) f).getValue());
+            valueBytes = 2 + v.length();
+            sameAsLast = count > 0 && strings[count - 1].equals(v);
+        }
+        int rle = sameAsLast ? rleBytes : rleBytes + valueBytes + 4;
+        return Math.min(plainBytes + valueBytes, rle);
+    }
+
+    /** @return true if the specified value still fits on this page */
+    public boolean hasRoomFor(Field f) {
+        return HEADER_SIZE + sizeWith(f) <= BufferPool.getPageSize();
+    }
+
+    /**
+     * Appends a value to this page.
+     *
+     * @throws IllegalStateException if the value does not fit
+     * @throws IllegalArgumentException if the value is not of the page's type
+     */
+    public void append(Field f) {
+        if (f.getType() != type) {
+            throw new IllegalArgumentException("expected a value of type " + type);
+        }
+        if (!hasRoomFor(f)) {
+            throw new IllegalStateException("the page is full");
+        }
+        if (type == Type.INT_TYPE) {
+            append(((IntField) f).getValue());
+        } else {
+            append(truncate(((StringField) f).getValue()));
+        }
+    }
+
+    private void append(int v) {
+        if (count == ints.length) {
+            ints = Arrays.copyOf(ints, count * 2);
+        }
+        plainBytes += 4;
+        if (count == 0 || ints[count - 1] != v) {
+            rleBytes += 8;
+        }
+        ints[count++] = v;
+    }
+
+    private void append(String v) {
+        if (count == strings.length) {
+            strings = Arrays.copyOf(strings, count * 2);
+        }
+        plainBytes += 2 + v.length();
+        if (count == 0 || !strings[count - 1].equals(v)) {
+            rleBytes += 2 + v.length() + 4;
+        }
+        strings[count++] = v;
+    }
+
+    /** @return the encoding getPageData uses for the current values */
+    byte encoding() {
+        return rleBytes < plainBytes ? RLE : PLAIN;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * smaller of the two encodings.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        boolean rle = encoding() == RLE;
+        putInt(data, 0, count);
+        data[4] = rle ? RLE : PLAIN;
+        int offset = HEADER_SIZE;
+        int i = 0;
+        while (i < count) {
+            int run = 1;
+            if (rle) {
+                while (i + run < count && (type == Type.INT_TYPE
+                        ? ints[i + run] == ints[i] : strings[i + run].equals(strings[i]))) {
+                    run++;
+                }
+            }
+            if (type == Type.INT_TYPE) {
+                putInt(data, offset, ints[i]);
+                offset += 4;
+            } else {
+                String s = strings[i];
+                data[offset] = (byte) (s.length() >>> 8);
+                data[offset + 1] = (byte) s.length();
+                offset += 2;
+                for (int c = 0; c < s.length(); c++) {
+                    data[offset++] = (byte) s.charAt(c);
+                }
+            }
+            if (rle) {
+                putInt(data, offset, run);
+                offset += 4;
+            }
+            i += run;
+        }
+        return data;
+    }
+
+    private static void putInt(byte[] data, int offset, int v) {
+        data[offset] = (byte) (v >>> 24);
+        data[offset + 1] = (byte) (v >>> 16);
+        data[offset + 2] = (byte) (v >>> 8);
+        data[offset + 3] = (byte) v;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        return new ColumnPage(pid, oldDataRef, type);
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb.storage;
+
+/** Unique identifier for the pages of a {@link ColumnFile}. */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int column;
+    private final int pageNumber;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of one of
+     * the page chains of a column file.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column whose chain the page is in; the number of
+     *               fields of the table for the row map
+     * @param pgNo The page number in that chain.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pageNumber = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column whose page chain this page is in */
+    public int getColumn() {
+        return column;
+    }
+
+    /** @return the page number within the page chain of the column */
+    public int getPageNumber() {
+        return pageNumber;
+    }
+
+    public int hashCode() {
+        return (tableId * 31 + column) * 31 + pageNumber;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId)) {
+            return false;
+        }
+        ColumnPageId other = (ColumnPageId) o;
+        return tableId == other.tableId && column == other.column && pageNumber == other.pageNumber;
+    }
+
+    public int[] serialize() {
+        return new int[]{tableId, column, pageNumber};
+    }
+}
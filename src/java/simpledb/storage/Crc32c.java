@@ -0,0 +1,112 @@
+package simpledb.storage;
+
+import java.lang.reflect.Constructor;
+import java.util.zip.Checksum;
+
+/**
+ * Crc32c computes the CRC-32C (Castagnoli) checksum used for pages, a CRC
+ * with better error detection than the CRC-32 of java.util.zip at the same
+ * cost.  It processes eight bytes per step with eight lookup tables
+ * ("slicing by 8").
+ * <p>
+ * On Java 9 and later, {@link #compute} and {@link #newChecksum} use the
+ * CRC32C of java.util.zip instead, which the JIT compiles to the CRC32
+ * instructions of the processor and is an order of magnitude faster, so
+ * that verifying every page read from disk hardly shows next to the cost of
+ * decoding its tuples.
+ *
+ * @see PageChecksums
+ */
+public class Crc32c implements Checksum {
+
+    /** The CRC-32C polynomial, bit-reversed. */
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int crc = n;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][n] = crc;
+        }
+        for (int n = 0; n < 256; n++) {
+            for (int t = 1; t < 8; t++) {
+                int prev = TABLES[t - 1][n];
+                TABLES[t][n] = (prev >>> 8) ^ TABLES[0][prev & 0xff];
+            }
+        }
+    }
+
+    /** the constructor of java.util.zip.CRC32C, or null before Java 9 */
+    private static final Constructor<? extends Checksum> INTRINSIC = intrinsic();
+
+    private static Constructor<? extends Checksum> intrinsic() {
+        try {
+            return Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class).getConstructor();
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /** the running CRC, inverted */
+    private int crc = 0xFFFFFFFF;
+
+    /** @return a new CRC-32C checksum, the fastest one available */
+    public static Checksum newChecksum() {
+        if (INTRINSIC != null) {
+            try {
+                return INTRINSIC.newInstance();
+            } catch (ReflectiveOperationException e) {
+                // fall back to the tables
+            }
+        }
+        return new Crc32c();
+    }
+
+    /** @return the CRC-32C of the specified bytes */
+    public static int compute(byte[] b, int off, int len) {
+        if (INTRINSIC == null) {
+            return ~update(0xFFFFFFFF, b, off, len);
+        }
+        Checksum crc = newChecksum();
+        crc.update(b, off, len);
+        return (int) crc.getValue();
+    }
+
+    private static int update(int crc, byte[] b, int off, int len) {
+        int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        int end = off + len;
+        for (; off + 8 <= end; off += 8) {
+            crc ^= (b[off] & 0xff) | (b[off + 1] & 0xff) << 8
+                    | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+            crc = t7[crc & 0xff] ^ t6[(crc >>> 8) & 0xff]
+                    ^ t5[(crc >>> 16) & 0xff] ^ t4[crc >>> 24]
+                    ^ t3[b[off + 4] & 0xff] ^ t2[b[off + 5] & 0xff]
+                    ^ t1[b[off + 6] & 0xff] ^ t0[b[off + 7] & 0xff];
+        }
+        for (; off < end; off++) {
+            crc = (crc >>> 8) ^ t0[(crc ^ b[off]) & 0xff];
+        }
+        return crc;
+    }
+
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xff];
+    }
+
+    public void update(byte[] b, int off, int len) {
+        crc = update(crc, b, off, len);
+    }
+
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
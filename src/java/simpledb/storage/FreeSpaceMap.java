@@ -0,0 +1,155 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile are full, so that an
+ * insert can go straight to a page that has room instead of reading every
+ * page of the file.
+ * <p>
+ * The map is a bitmap with one bit per page, set if the page is known to be
+ * full, and is kept in a side file next to the table.  It is only a hint:
+ * a clear bit means the page <em>may</em> have a free slot, and the inserter
+ * checks the page itself and marks it full if it turned out not to.  Pages
+ * past the end of the side file, e.g. in a table written by
+ * {@link HeapFileEncoder}, therefore simply count as not full.
+ * <p>
+ * The only thing that must never happen is a set bit for a page that has
+ * room, as that slot would be lost for good.  So bits are cleared on disk
+ * right away, while a newly set bit is only written back by
+ * {@link #flush(int)} once its page is written: the insert that filled the
+ * page may never reach the disk, e.g. after a crash or a rollback, and then
+ * the page on disk still has room.  Losing bits that were never written
+ * only costs a wasted page check.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** The suffix appended to the name of a table file to name its map. */
+    public static final String SUFFIX = ".fsm";
+
+    private final File file;
+    private final BitSet full;
+    /** pages marked full whose bit is not on disk yet */
+    private final BitSet unwritten = new BitSet();
+    private FileChannel channel;
+
+    /**
+     * Loads the free space map of the specified table file, or starts an
+     * empty one if the table has none yet.
+     *
+     * @param tableFile the file holding the table's pages
+     */
+    public FreeSpaceMap(File tableFile) {
+        this.file = new File(tableFile.getPath() + SUFFIX);
+        BitSet bits = new BitSet();
+        if (file.exists()) {
+            try {
+                bits = BitSet.valueOf(Files.readAllBytes(file.toPath()));
+            } catch (IOException e) {
+                // only a hint; pages with an unknown state count as not full
+                bits = new BitSet();
+            }
+        }
+        this.full = bits;
+    }
+
+    /** @return the side file the map is stored in */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the first page at or after from that may have a free slot; the
+     *         result may be past the end of the table
+     */
+    public synchronized int nextPageWithSpace(int from) {
+        return full.nextClearBit(from);
+    }
+
+    /** @return true if the specified page is known to be full */
+    public synchronized boolean isFull(int pageNo) {
+        return full.get(pageNo);
+    }
+
+    /**
+     * Records that the specified page has no free slot.  Written back by
+     * {@link #flush(int)} once the page is written.
+     */
+    public synchronized void markFull(int pageNo) {
+        if (!full.get(pageNo)) {
+            full.set(pageNo);
+            unwritten.set(pageNo);
+        }
+    }
+
+    /**
+     * Records that the specified page may have a free slot.  This is written
+     * through to disk immediately.
+     */
+    public synchronized void markHasSpace(int pageNo) throws IOException {
+        if (full.get(pageNo)) {
+            full.clear(pageNo);
+            unwritten.clear(pageNo);
+            writeByte(pageNo / 8);
+        }
+    }
+
+    /**
+     * Writes the bit of the specified page to disk if it was marked full
+     * since.  Called once the page itself is written, so that the bits of
+     * other pages only reach the disk with their own pages.
+     */
+    public synchronized void flush(int pageNo) throws IOException {
+        if (unwritten.get(pageNo)) {
+            unwritten.clear(pageNo);
+            writeByte(pageNo / 8);
+        }
+    }
+
+    /** Writes a byte of the bitmap, leaving out the bits not to be written yet. */
+    private void writeByte(int index) throws IOException {
+        BitSet bits = full.get(index * 8, (index + 1) * 8);
+        bits.andNot(unwritten.get(index * 8, (index + 1) * 8));
+        byte[] b = bits.toByteArray();
+        ByteBuffer buf = ByteBuffer.wrap(new byte[]{b.length > 0 ? b[0] : 0});
+        FileChannel ch = channel();
+        while (buf.hasRemaining()) {
+            ch.write(buf, index);
+        }
+    }
+
+    /**
+     * Drops the map of a table whose pages were all written anew, e.g. by
+     * {@link HeapFileEncoder}, so that none of them counts as full.
+     */
+    static void reset(File tableFile) throws IOException {
+        Files.deleteIfExists(new File(tableFile.getPath() + SUFFIX).toPath());
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        }
+        return channel;
+    }
+
+    /**
+     * Closes the side file.  Bits of pages that were not written are
+     * dropped.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -1,11 +1,12 @@
 package simpledb.storage;
 
 import simpledb.common.*;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
-import javax.xml.crypto.Data;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -14,6 +15,24 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * The pages are stored in a {@link SegmentedFile}, so that a table may grow
+ * past the size limits of a single file.  All page I/O goes through channels
+ * that are opened on first use and shared by every reader and writer, using
+ * positional reads and writes at long offsets so that concurrent scans do not
+ * have to agree on a file pointer.  Optionally, reads are served from
+ * read-only memory mappings of the segments instead.  The number of pages is
+ * cached and only maintained by writes made through this HeapFile.
+ * <p>
+ * Inserts consult a {@link FreeSpaceMap} to find a page with a free slot
+ * without reading the pages that are known to be full.  A {@link ZoneMap}
+ * keeps the range of the values of every int column of every page, so that
+ * scans with predicates can skip pages.  {@link PageChecksums} keep a
+ * checksum of every page written, which reads verify unless the BufferPool
+ * turned verification off.
+ * <p>
+ * Subclasses may store a different {@link TuplePage} format by overriding
+ * {@link #createPage}, as {@link SlottedHeapFile} does.
  * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
@@ -23,7 +42,15 @@ public class HeapFile implements DbFile {
     private File file;
     private int id;
     private TupleDesc tupleDesc;
-    private int totalPageNumber;
+    private volatile int totalPageNumber;
+
+    /** true if pages are read through a memory mapping of the file */
+    private final boolean memoryMapped;
+    private final SegmentedFile segments;
+
+    private final FreeSpaceMap freeSpaceMap;
+    private final ZoneMap zoneMap;
+    private final PageChecksums checksums;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -33,10 +60,29 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            if true, pages are read from a memory mapping of the file
+     *            rather than copied in with a read call
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         this.file = f;
         this.tupleDesc = td;
+        this.memoryMapped = memoryMapped;
+        this.segments = new SegmentedFile(f);
         id = f.getAbsoluteFile().hashCode();
         this.totalPageNumber = numPagesHelper();
+        this.freeSpaceMap = new FreeSpaceMap(f);
+        this.zoneMap = new ZoneMap(f, td);
+        this.checksums = new PageChecksums(f, totalPageNumber);
     }
 
     /**
@@ -70,33 +116,97 @@ public class HeapFile implements DbFile {
         return this.tupleDesc;
     }
 
-    // see DbFile.java for javadocs
+    /**
+     * Closes the segments of this file, its free space map, its zone map and
+     * its checksums.  It is reopened if the file is used again afterwards.
+     */
+    public synchronized void close() throws IOException {
+        freeSpaceMap.close();
+        zoneMap.close();
+        checksums.close();
+        segments.close();
+    }
+
+    /**
+     * Read the specified page from disk.
+     *
+     * @throws IllegalArgumentException if the page cannot be read, or does
+     *         not match its checksum while the BufferPool verifies checksums
+     */
     public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
         int pageNo = pid.getPageNumber();
-        byte[] readContent = new byte[BufferPool.getPageSize()];
-        Page page = null;
-        try{
-            RandomAccessFile file = new RandomAccessFile(this.file, "r");
-            file.seek(pageNo * BufferPool.getPageSize());
-            file.read(readContent, 0, BufferPool.getPageSize() );
-            page = new HeapPage((HeapPageId) pid, readContent);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+        long offset = (long) pageNo * pageSize;
+        byte[] readContent = new byte[pageSize];
+        try {
+            ByteBuffer map = memoryMapped ? segments.map(offset, pageSize) : null;
+            boolean complete = true;
+            if (map != null) {
+                map.get(readContent);
+            } else {
+                // a page past the end of the file reads as an empty page
+                complete = segments.read(ByteBuffer.wrap(readContent), offset) == pageSize;
+            }
+            if (complete && Database.getBufferPool().getVerifyChecksums()
+                    && !checksums.verify(pageNo, readContent)) {
+                throw new IOException("checksum mismatch");
+            }
+            return createPage((HeapPageId) pid, readContent);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new IllegalArgumentException("unable to read page " + pid.getPageNumber()
+                    + " of " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a page of this file from its bytes on disk, in the arena of the
+     * buffer pool if it has one.  Subclasses storing a different page format
+     * override this.
+     */
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        PageArena arena = Database.getBufferPool().getArena();
+        if (arena != null) {
+            return new ArenaHeapPage(pid, data, tupleDesc, arena);
         }
-        return page;
+        return new HeapPage(pid, data, tupleDesc);
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        // some code goes here
-        int pageSize = Database.getBufferPool().getPageSize();
-        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-        randomAccessFile.seek( pageSize * page.getId().getPageNumber());
-        byte[] pageContent = page.getPageData();
-        randomAccessFile.write(pageContent, 0, pageSize);
-        totalPageNumber = numPagesHelper();
+        int pageNo = page.getId().getPageNumber();
+        // the zone on disk has to cover both the old and the new page image
+        // until the new one is written
+        int[] zone = ZoneMap.summarize(tupleDesc, ((TuplePage) page).iterator());
+        zoneMap.widen(pageNo, zone);
+        byte[] data = page.getPageData();
+        // likewise its checksum has to accept both until it is stamped
+        checksums.expect(pageNo, data);
+        writePageData(pageNo, data);
+        checksums.stamp(pageNo, data);
+        zoneMap.set(pageNo, zone);
+        synchronized (this) {
+            if (pageNo >= totalPageNumber) {
+                totalPageNumber = pageNo + 1;
+            }
+        }
+        freeSpaceMap.flush(pageNo);
+        zoneMap.flush();
+    }
+
+    private void writePageData(int pageNo, byte[] pageContent) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) pageNo * pageSize;
+        segments.write(ByteBuffer.wrap(pageContent, 0, pageSize), offset);
+    }
+
+    /** @return the zone map of this file */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
+    /** @return the checksums of the pages of this file */
+    public PageChecksums getChecksums() {
+        return checksums;
     }
 
     /**
@@ -106,9 +216,13 @@ public class HeapFile implements DbFile {
         return totalPageNumber;
     }
 
+    /**
+     * Computes the number of pages from the length of the file on disk,
+     * counting a trailing partial page as a page.
+     */
     public int numPagesHelper(){
-        int size = (int)this.file.length();
-        return (int)Math.ceil((double) size/BufferPool.getPageSize());
+        long size = SegmentedFile.length(file);
+        return (int) ((size + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
     }
 
     // see DbFile.java for javadocs
@@ -119,46 +233,45 @@ public class HeapFile implements DbFile {
         BufferPool bufferPool = Database.getBufferPool();
         List<Page> modifiedPages = new LinkedList();
         HeapPageId targetPageId  =  null;
-        HeapPage targetPage = null;
-        for(int i = 0 ; i < numPages(); i++){
+        TuplePage targetPage = null;
+        for(int i = freeSpaceMap.nextPageWithSpace(0); i < numPages(); i = freeSpaceMap.nextPageWithSpace(i + 1)){
             targetPageId = new HeapPageId(id, i);
-            targetPage = (HeapPage) bufferPool.getPage(tid, targetPageId, Permissions.READ_WRITE);
-            if(targetPage.getNumEmptySlots() > 0) {
+            boolean alreadyLocked = bufferPool.holdsLock(tid, targetPageId);
+            // look with a shared lock first, so full pages do not stay
+            // exclusively locked for the rest of the transaction
+            targetPage = (TuplePage) bufferPool.getPage(tid, targetPageId, Permissions.READ_ONLY);
+            if(targetPage.hasRoomFor(t)) {
+                targetPage = (TuplePage) bufferPool.getPage(tid, targetPageId, Permissions.READ_WRITE);
                 targetPage.insertTuple(t);
+                zoneMap.widen(i, t);
                 finished = true;
                 targetPage.markDirty(true, tid);
                 modifiedPages.add(targetPage);
+                if(targetPage.isFull()){
+                    freeSpaceMap.markFull(i);
+                }
                 break;
             }
+            // for variable-length records the page may still fit a smaller
+            // tuple, but it is not worth looking at again until a delete
+            freeSpaceMap.markFull(i);
+            if(!alreadyLocked){
+                bufferPool.unsafeReleasePage(tid, targetPageId);
+            }
         }
         if(!finished){
-            targetPageId = new HeapPageId(id, numPages());
-            targetPage = new HeapPage(targetPageId, new byte[BufferPool.getPageSize()]);
-            byte[] pageContent = targetPage.getPageData();
-            FileOutputStream output = new FileOutputStream(file, true);
-            try {
-                output.write(pageContent);
-            }finally {
-                output.close();
+            // the new page only exists in the buffer pool until it is
+            // flushed; until then reading it yields an empty page
+            synchronized (this) {
+                targetPageId = new HeapPageId(id, totalPageNumber++);
             }
-            HeapPage page = (HeapPage) bufferPool.getPage(tid, targetPageId, Permissions.READ_WRITE);
+            TuplePage page = (TuplePage) bufferPool.getPage(tid, targetPageId, Permissions.READ_WRITE);
             page.insertTuple(t);
+            zoneMap.widen(targetPageId.getPageNumber(), t);
             page.markDirty(true, tid);
             modifiedPages.add(page);
-            totalPageNumber = numPagesHelper();
         }
 
-//        try{
-//            RandomAccessFile file = new RandomAccessFile(this.file, "w");
-//            file.seek(targetPageId.getPageNumber() * BufferPool.getPageSize());
-//            byte[] content = targetPage.getPageData();
-//            file.write(content, 0, BufferPool.getPageSize() );
-//        } catch (FileNotFoundException e) {
-//            e.printStackTrace();
-//        } catch (IOException e) {
-//            e.printStackTrace();
-//        }
-
         return modifiedPages;
     }
 
@@ -168,35 +281,110 @@ public class HeapFile implements DbFile {
         // some code goes here
         ArrayList<Page> dirtyPages = new ArrayList();
         PageId pageId = t.getRecordId().getPageId();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
         page.deleteTuple(t);
+        // the zone of the page is narrowed when the page is written
         page.markDirty(true, tid);
         dirtyPages.add(page);
+        try {
+            freeSpaceMap.markHasSpace(pageId.getPageNumber());
+        } catch (IOException e) {
+            throw new DbException("unable to update the free space map of " + file + ": " + e.getMessage());
+        }
         return dirtyPages;
     }
 
+    /**
+     * Called when the changes a transaction made to a page are thrown away.
+     * Those may have filled the page, so it is no longer known to be full.
+     */
+    public void pageRolledBack(PageId pid) throws IOException {
+        freeSpaceMap.markHasSpace(pid.getPageNumber());
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        return new HeapFileIteraor(tid);
+        return new HeapFileIteraor(tid, new Predicate[0]);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the pages of this file that may
+     * have tuples satisfying all of the specified predicates, according to
+     * the zone map.  Other pages are not read.  The iterator does not apply
+     * the predicates itself, so it also returns tuples that do not satisfy
+     * them.
+     *
+     * @param predicates predicates over the fields of this file
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+        return new HeapFileIteraor(tid, predicates.clone());
     }
 
     public class HeapFileIteraor implements DbFileIterator{
 
-        public HeapFileIteraor(TransactionId tid){
+        public HeapFileIteraor(TransactionId tid, Predicate[] predicates){
             this.transactionId = tid;
+            this.predicates = predicates;
         }
 
         public int curPageNo = -1;
         TransactionId transactionId;
-        public HeapPage curPage;
+        private final Predicate[] predicates;
+        public TuplePage curPage;
         public Iterator<Tuple> tupleIt;
+        /** pages read since the iterator was opened or rewound */
+        private int pagesRead;
+        /** the ring a large file is read through, or null */
+        private BufferRing ring;
+
+        /**
+         * Moves to the first page at or after pageNo that may have matching
+         * tuples, or past the last page if there is none.
+         */
+        private void loadPage(int pageNo) throws DbException, TransactionAbortedException {
+            while (pageNo < numPages() && predicates.length > 0 && !zoneMap.mayMatch(pageNo, predicates)) {
+                pageNo++;
+            }
+            curPageNo = pageNo;
+            if (pageNo < numPages()) {
+                HeapPageId heapPageId = new HeapPageId(id, curPageNo);
+                curPage = (TuplePage)Database.getBufferPool().getPage(transactionId, heapPageId, Permissions.READ_ONLY, ring);
+                tupleIt = curPage.iterator();
+                if (++pagesRead >= BufferPool.READ_AHEAD_AFTER) {
+                    readAhead(pageNo);
+                }
+            } else {
+                curPage = null;
+                tupleIt = Collections.emptyIterator();
+            }
+        }
+
+        /**
+         * Asks the buffer pool to read the pages the scan reads after the
+         * specified one.  Pages already cached or being read are skipped by
+         * the pool.  A scan through a ring only reads half of its ring ahead,
+         * so that pages read ahead are not recycled before the scan gets to
+         * them.
+         */
+        private void readAhead(int pageNo) {
+            BufferPool bufferPool = Database.getBufferPool();
+            int window = bufferPool.getReadAheadWindow();
+            if (ring != null) {
+                window = Math.min(window, ring.capacity() / 2);
+            }
+            int last = Math.min(pageNo + window, numPages() - 1);
+            for (int p = pageNo + 1; p <= last; p++) {
+                if (predicates.length == 0 || zoneMap.mayMatch(p, predicates)) {
+                    bufferPool.readAhead(new HeapPageId(id, p), ring);
+                }
+            }
+        }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            curPageNo = 0;
-            HeapPageId heapPageId = new HeapPageId(id, curPageNo);
-            curPage = (HeapPage)Database.getBufferPool().getPage(transactionId, heapPageId, Permissions.READ_ONLY);
-            tupleIt = curPage.iterator();
+            pagesRead = 0;
+            ring = Database.getBufferPool().ringFor(numPages());
+            loadPage(0);
         }
 
         @Override
@@ -208,13 +396,7 @@ public class HeapFile implements DbFile {
                 if(tupleIt.hasNext()){
                     return true;
                 }
-                curPageNo++;
-                if(curPageNo >= numPages()){
-                    return false;
-                }
-                HeapPageId heapPageId = new HeapPageId(id, curPageNo);
-                curPage = (HeapPage)Database.getBufferPool().getPage(transactionId, heapPageId, Permissions.READ_ONLY);
-                tupleIt = curPage.iterator();
+                loadPage(curPageNo + 1);
             }
             return false;
         }
@@ -229,10 +411,8 @@ public class HeapFile implements DbFile {
 
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
-            curPageNo = 0;
-            HeapPageId heapPageId = new HeapPageId(id, curPageNo);
-            curPage = (HeapPage)Database.getBufferPool().getPage(transactionId, heapPageId, Permissions.READ_ONLY);
-            tupleIt = curPage.iterator();
+            pagesRead = 0;
+            loadPage(0);
         }
 
         @Override
@@ -243,4 +423,3 @@ public class HeapFile implements DbFile {
         }
     }
 }
-
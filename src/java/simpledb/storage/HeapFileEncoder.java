@@ -1,18 +1,25 @@
 package simpledb.storage;
 
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file, split into segments as described in {@link SegmentedFile}, and
+ * their {@link ZoneMap} and {@link PageChecksums} are written next to it,
+ * replacing those and the {@link FreeSpaceMap} of an earlier file.  The
+ * convertToSlotted methods write the pages of a {@link SlottedHeapFile}
+ * instead.
  */
 
 public class HeapFileEncoder {
@@ -78,7 +85,8 @@ public class HeapFileEncoder {
     * where each row represents a tuple.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile.  The input is parsed in parallel by a {@link BulkLoader},
+    * with a thread per processor.
     *
     * @see HeapPage
     * @see HeapFile
@@ -86,142 +94,110 @@ public class HeapFileEncoder {
     * @param outFile The output file to write data to
     * @param npagebytes The number of bytes per page in the output file
     * @param numFields the number of fields in each input line/output tuple
-    * @throws IOException if the input/output file can't be opened or a
-    *   malformed input line is encountered
+    * @throws IOException if the input/output file can't be opened
     */
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      BulkLoader.load(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              BulkLoader.defaultThreads());
+  }
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
+  /** Convert the specified tuple list (with only integer fields) into a
+   * page file of {@link SlottedPage}s, for a {@link SlottedHeapFile}.
+   *
+   * @see #convertToSlotted(File, File, int, int, Type[], char)
+   */
+  public static void convertToSlotted(List<List<Integer>> tuples, File outFile, int npagebytes,
+                 int numFields) throws IOException {
+      File tempInput = File.createTempFile("tempTable", ".txt");
+      tempInput.deleteOnExit();
+      BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
+      for (List<Integer> tuple : tuples) {
+          if (tuple.size() > numFields) {
+              throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
+                      Utility.listToString(tuple) + ")");
+          }
+          bw.write(Utility.listToString(tuple).replace('\t', ','));
+          bw.write('\n');
       }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char[] buf = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
+      bw.close();
+      Type[] ts = new Type[numFields];
+      Arrays.fill(ts, Type.INT_TYPE);
+      convertToSlotted(tempInput, outFile, npagebytes, numFields, ts, ',');
+  }
 
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    s  = s.substring(0,Type.STRING_LEN);
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+   /** Convert the specified input text file, in the format described for
+    * {@link #convert(File, File, int, int, Type[], char)}, into a page file of
+    * {@link SlottedPage}s, for a {@link SlottedHeapFile}.  Each page is
+    * filled with as many tuples as fit; lines that cannot be parsed are
+    * reported and skipped.
+    *
+    * @param npagebytes The number of bytes per page in the output file; slotted
+    *   pages are only built at the page size of the buffer pool
+    * @throws IllegalArgumentException if npagebytes is not the page size of the
+    *   buffer pool
+    * @throws IOException if the input/output file can't be opened
+    */
+  public static void convertToSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      if (npagebytes != BufferPool.getPageSize()) {
+          throw new IllegalArgumentException("slotted pages must be " + BufferPool.getPageSize()
+                  + " bytes, not " + npagebytes);
+      }
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      String separator = Pattern.quote(String.valueOf(fieldSeparator));
+      int npages = 0;
+      List<int[]> zones = new ArrayList<>();
+      List<Integer> checksums = new ArrayList<>();
+      SlottedPage page = new SlottedPage(new HeapPageId(0, npages), SlottedPage.createEmptyPageData(), td);
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           OutputStream os = SegmentedFile.newOutputStream(outFile)) {
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.isEmpty()) {
+                  continue;
+              }
+              String[] values = line.split(separator, -1);
+              Tuple t = new Tuple(td);
+              try {
+                  for (int i = 0; i < numFields; i++) {
+                      String v = i < values.length ? values[i].trim() : "";
+                      if (typeAr[i] == Type.INT_TYPE) {
+                          t.setField(i, new IntField(Integer.parseInt(v)));
+                      } else {
+                          t.setField(i, new StringField(v, Type.STRING_LEN));
+                      }
+                  }
+              } catch (NumberFormatException e) {
+                  System.out.println ("BAD LINE : " + line);
+                  continue;
+              }
+              try {
+                  if (!page.hasRoomFor(t)) {
+                      byte[] data = page.getPageData();
+                      os.write(data);
+                      zones.add(ZoneMap.summarize(td, page.iterator()));
+                      checksums.add(Crc32c.compute(data, 0, data.length));
+                      npages++;
+                      page = new SlottedPage(new HeapPageId(0, npages), SlottedPage.createEmptyPageData(), td);
+                  }
+                  page.insertTuple(t);
+              } catch (DbException e) {
+                  throw new IOException("tuple does not fit on an empty page: " + line);
+              }
+          }
+          // as for heap pages, an empty file still gets one (empty) page
+          if (npages == 0 || page.getNumSlots() > 0) {
+              byte[] data = page.getPageData();
+              os.write(data);
+              zones.add(ZoneMap.summarize(td, page.iterator()));
+              checksums.add(Crc32c.compute(data, 0, data.length));
+          }
+      }
+      ZoneMap.write(outFile, td, zones);
+      PageChecksums.write(outFile, checksums);
+      FreeSpaceMap.reset(outFile);
   }
 }
@@ -3,35 +3,51 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
+import simpledb.common.Type;
 import simpledb.common.Catalog;
 import simpledb.transaction.TransactionId;
-import sun.security.ssl.Record;
 
-import javax.xml.crypto.Data;
 import java.util.*;
 import java.io.*;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The page works directly on the bytes it was read from.  Nothing is decoded
+ * up front: the header is consulted in place, and the tuples handed out are
+ * views that decode a field only when it is asked for.
+ * <p>
+ * The bytes are copied on the first write after the page was read or its
+ * before image was set, and the original array becomes the before image, so
+ * a page that is only read never copies anything.  Before a slot of the
+ * private copy is overwritten, the view handed out for it is detached.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
-    final Tuple[] tuples;
+    /** the page image; the header occupies its first headerSize bytes */
+    byte[] data;
+    /** true while data may not be modified in place, as it is shared with
+        the before image or the creator of the page */
+    private boolean shared;
+    final int headerSize;
     final int numSlots;
+    /** tuples handed out so far, by slot; allocated on first use */
+    private Tuple[] tuples;
 
+    /** the before image, or null while it is identical to data */
     byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    private final Object oldDataLock = new Object();
 
     private boolean dirty = false;
     private TransactionId tid = null;
+    private volatile long lsn = LogFile.NO_LSN;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -50,26 +66,24 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of tuples of the specified TupleDesc, for pages that
+     * do not belong to a table in the catalog.
+     *
+     * @see SpillFile
+     */
+    public HeapPage(HeapPageId id, byte[] data, TupleDesc td) {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
-
+        this.headerSize = getHeaderSize();
+        // pages read from disk are used as they are; anything else is
+        // padded or cut to the page size
+        this.data = data.length == BufferPool.getPageSize()
+                ? data : Arrays.copyOf(data, BufferPool.getPageSize());
         setBeforeImage();
     }
 
@@ -80,6 +94,11 @@ public class HeapPage implements Page {
         return (int)Math.floor(BufferPool.getPageSize()*8 /(td.getSize()*8 + 1));
     }
 
+    /** @return the number of tuple slots on this page, used or not */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
@@ -91,67 +110,51 @@ public class HeapPage implements Page {
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
-        try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
+        byte[] oldDataRef = null;
+        synchronized(oldDataLock)
+        {
+            // never modified in place, see beforeWrite
+            oldDataRef = oldData != null ? oldData : data;
         }
-        return null;
+        return new HeapPage(pid,oldDataRef,td);
     }
     
     public void setBeforeImage() {
+        // the current image only needs to be copied once it is about to change
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        shared = true;
         }
     }
 
     /**
-     * @return the PageId associated with this page.
+     * Called before the page image is modified, to switch to a private copy
+     * of it if it is still shared.
      */
-    public HeapPageId getId() {
-        return pid;
+    private void beforeWrite() {
+        synchronized(oldDataLock)
+        {
+        if (shared) {
+            if (oldData == null) {
+                oldData = data;
+            }
+            data = data.clone();
+            shared = false;
+        }
+        }
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the PageId associated with this page.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    public HeapPageId getId() {
+        return pid;
+    }
 
-        return t;
+    /** @return the offset of the specified slot within the page image */
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
     }
 
     /**
@@ -166,64 +169,7 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return data.clone();
     }
 
     /**
@@ -255,30 +201,24 @@ public class HeapPage implements Page {
             t.getRecordId().getTupleNumber() >= numSlots || !isSlotUsed(tupleNo)){
             throw new DbException("tuple is not on this page, or tuple slot is already empty");
         }
-        tuples[tupleNo] = null;
+        beforeWrite();
+        replaceTuple(tupleNo, null);
         markSlotUsed(tupleNo, false);
+        Arrays.fill(data, slotOffset(tupleNo), slotOffset(tupleNo + 1), (byte) 0);
     }
 
     /**
-     * get one empty slot within this page
+     * get the first empty slot within this page
      *
      * @return the empty slot index, or -1 if there is not any.
      */
     public int getEmptySlotNumber(){
-        int slotNo = -1;
-        for(int i = 0 ; i < header.length; i++){
-            if((int)header[i] == 255){
-                continue;
-            }else{
-                for(int j = 0; j < 8; j++){
-                    if(  (header[i] & (1 << j))== 0){
-                        slotNo = i*8 + j;
-                        break;
-                    }
-                }
+        for(int i = 0 ; i < numSlots; i++){
+            if(!isSlotUsed(i)){
+                return i;
             }
         }
-        return slotNo;
+        return -1;
     }
 
     /**
@@ -291,32 +231,25 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-//        HeapPage targetPage = this;
-//        HeapPageId targetPageId = pid;
-//        if(getNumEmptySlots() <= 0){
-//            try{
-//                HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
-//                targetPageId = new HeapPageId(pid.getTableId(), heapFile.numPages() + 1);
-//                targetPage = new HeapPage(targetPageId, createEmptyPageData());
-//
-//            } catch (IOException e) {
-//                e.printStackTrace();
-//            }
-//        }
-//        int slotNo = targetPage.getEmptySlotNumber();
-//        targetPage.tuples[slotNo] = t;
-//        RecordId recordId = new RecordId(targetPageId, slotNo);
-//        t.setRecordId(recordId);
-//
-//        targetPage.markSlotUsed(slotNo, true);
-//        targetPage.getPageData();
         if(getNumEmptySlots() <= 0){
             throw new DbException("the page is full");
         }
         int slotNo = getEmptySlotNumber();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j=0; j<td.numFields(); j++) {
+                t.getField(j).serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("unable to serialize tuple: " + e.getMessage());
+        }
+        beforeWrite();
+        replaceTuple(slotNo, t);
+        System.arraycopy(baos.toByteArray(), 0, data, slotOffset(slotNo), td.getSize());
         RecordId recordId = new RecordId(pid, slotNo);
         t.setRecordId(recordId);
-        tuples[slotNo] = t;
         markSlotUsed(slotNo, true);
     }
 
@@ -331,6 +264,14 @@ public class HeapPage implements Page {
         this.tid = tid;
     }
 
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
@@ -343,15 +284,23 @@ public class HeapPage implements Page {
         return null;
     }
 
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    public boolean isFull() {
+        return getNumEmptySlots() == 0;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
         int zeros = 0;
-        for(int i = 0 ; i < header.length; i++){
-            byte tmp = header[i];
+        for(int i = 0 ; i < headerSize; i++){
+            byte tmp = data[i];
             int validBitNum = 8;
-            if(i == header.length - 1 && numSlots%8 != 0){
+            if(i == headerSize - 1 && numSlots%8 != 0){
                 validBitNum = numSlots%8;
             }
             for(int j = 0 ; j < validBitNum ; j++){
@@ -368,7 +317,7 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         int byteNo = i/8;
-        byte b = header[byteNo];
+        byte b = data[byteNo];
         // header[] byte数组表示的slot情况示意图如下
         // [7 6 5 4 3 2 1 0] ,[ 15 14 13 12 11 10 9 8]
         // 找到第i/8个byte的右起(i%8)位
@@ -386,9 +335,9 @@ public class HeapPage implements Page {
         int byteNo = i/8;
         int bitNo = i % 8;
         if(value){
-            header[byteNo] |= (1 << bitNo);
+            data[byteNo] |= (1 << bitNo);
         }else{
-            header[byteNo] &= (~(1 << bitNo));
+            data[byteNo] &= (~(1 << bitNo));
         }
     }
 
@@ -402,20 +351,86 @@ public class HeapPage implements Page {
 
             @Override
             public boolean hasNext() {
-                while(tupleNo < tuples.length && tuples[tupleNo] == null){
+                while(tupleNo < numSlots && !isSlotUsed(tupleNo)){
                     tupleNo ++;
                 }
-                return tupleNo < tuples.length;
+                return tupleNo < numSlots;
             }
 
             @Override
             public Tuple next() {
-                Tuple tuple = tuples[tupleNo++];
-                return tuple;
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                return getTuple(tupleNo++);
             }
         };
         return it;
     }
 
-}
+    /**
+     * Decodes the tuples in the used slots of this page, starting at the
+     * specified slot, into rows of batch until the batch is full.  No Tuple
+     * or Field objects are created for INT_TYPE columns.
+     *
+     * @param batch the batch to add rows to; its schema must match the page's
+     * @param fromSlot the first slot to look at
+     * @return the slot to continue at, or the number of slots on the page if
+     *         all tuples were read
+     */
+    public int readInto(TupleBatch batch, int fromSlot) {
+        byte[] image = data;
+        int nfields = td.numFields();
+        int slot = fromSlot;
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if (!isSlotUsed(slot)) {
+                continue;
+            }
+            int row = batch.addRow();
+            int base = slotOffset(slot);
+            for (int f = 0; f < nfields; f++) {
+                int offset = base + td.getFieldOffset(f);
+                if (td.getFieldType(f) == Type.INT_TYPE) {
+                    batch.setInt(f, row, Type.decodeInt(image, offset));
+                } else {
+                    batch.setString(f, row, Type.decodeString(image, offset));
+                }
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * @return the tuple in the specified slot, which must be in use
+     */
+    private synchronized Tuple getTuple(int slotId) {
+        if (tuples == null) {
+            tuples = new Tuple[numSlots];
+        }
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, slotOffset(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
+        }
+        return t;
+    }
 
+    /**
+     * Detaches the tuple handed out for the specified slot, whose bytes are
+     * about to change, and remembers t (possibly null) as its new tuple.
+     */
+    private synchronized void replaceTuple(int slotId, Tuple t) {
+        if (tuples == null) {
+            if (t == null) {
+                return;
+            }
+            tuples = new Tuple[numSlots];
+        }
+        if (tuples[slotId] != null) {
+            tuples[slotId].detach();
+        }
+        tuples[slotId] = t;
+    }
+
+}
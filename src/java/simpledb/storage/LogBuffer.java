@@ -0,0 +1,173 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LogBuffer is the in-memory tail of the {@link LogFile}: a ring of bytes
+ * that log records are appended to before a single writer drains them to
+ * the file.
+ * <p>
+ * Positions in the ring are offsets in the log file.  An appender reserves
+ * room for its record by moving the end of the reserved space up with a
+ * compare-and-set ({@link #reserve}), so appenders never wait for each
+ * other to reserve, and copies its record into the ring in parallel with
+ * the others ({@link #put}).  Records are then published in the order of
+ * their offsets: a record only counts as filled once every record before
+ * it is, so the drainer always finds a gapless run of bytes to write.
+ * Copying a record takes a moment, so an appender waiting for the records
+ * before it to be published only yields.
+ * <p>
+ * An appender that finds the ring full drains it itself.  A record that is
+ * larger than the ring is copied in pieces once every record before it is
+ * published, draining the ring between pieces.
+ *
+ * @Threadsafe; drainTo and reset must be serialized by the caller
+ */
+class LogBuffer {
+
+    /** Writes the published bytes of the ring to the log file. */
+    interface Drainer {
+        void drain() throws IOException;
+    }
+
+    private final byte[] ring;
+    /** end of the reserved space */
+    private final AtomicLong reserved;
+    /** all bytes before this offset are copied into the ring */
+    private volatile long filled;
+    /** all bytes before this offset are written to the file */
+    private volatile long drained;
+
+    /**
+     * Creates a buffer of the specified capacity, whose next record will be
+     * appended at the specified offset of the log.
+     */
+    LogBuffer(int capacity, long offset) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("log buffer capacity must be positive, not " + capacity);
+        }
+        this.ring = new byte[capacity];
+        this.reserved = new AtomicLong(offset);
+        this.filled = offset;
+        this.drained = offset;
+    }
+
+    /** @return the number of bytes the ring holds */
+    int capacity() {
+        return ring.length;
+    }
+
+    /** @return the offset just past the last reserved record */
+    long end() {
+        return reserved.get();
+    }
+
+    /** @return the number of bytes reserved but not yet written to the file */
+    long pending() {
+        return reserved.get() - drained;
+    }
+
+    /**
+     * Reserves room for a record of the specified length, draining the ring
+     * to make room for it if it is full.
+     *
+     * @return the offset of the record
+     */
+    long reserve(int length, Drainer needRoom) throws IOException {
+        while (true) {
+            long start = reserved.get();
+            if (length <= ring.length && start + length - drained > ring.length) {
+                awaitRoom(start + length - ring.length, needRoom);
+                continue;
+            }
+            if (reserved.compareAndSet(start, start + length)) {
+                return start;
+            }
+        }
+    }
+
+    /**
+     * Drains the ring until everything before the specified offset is
+     * drained, yielding to the appenders still copying records before it.
+     */
+    private void awaitRoom(long offset, Drainer needRoom) throws IOException {
+        while (drained < offset) {
+            needRoom.drain();
+            if (drained < offset) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Copies a record into the room reserved for it at the specified offset,
+     * and publishes it once the records before it are published.
+     *
+     * @param needRoom drains the ring, for records larger than the ring
+     */
+    void put(long offset, byte[] record, int length, Drainer needRoom) throws IOException {
+        if (length <= ring.length) {
+            copy(offset, record, 0, length);
+            awaitTurn(offset);
+            filled = offset + length;
+            return;
+        }
+        awaitTurn(offset);
+        int done = 0;
+        while (done < length) {
+            int piece = Math.min(ring.length, length - done);
+            long pos = offset + done;
+            if (pos + piece - drained > ring.length) {
+                awaitRoom(pos + piece - ring.length, needRoom);
+            }
+            copy(pos, record, done, piece);
+            done += piece;
+            filled = offset + done;
+        }
+    }
+
+    private void copy(long offset, byte[] src, int from, int length) {
+        int at = (int) (offset % ring.length);
+        int first = Math.min(length, ring.length - at);
+        System.arraycopy(src, from, ring, at, first);
+        System.arraycopy(src, from + first, ring, 0, length - first);
+    }
+
+    /** Waits until every record before the specified offset is published. */
+    private void awaitTurn(long offset) {
+        while (filled != offset) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Writes the published bytes that are not on file yet to the specified
+     * file, at their offsets.  Does not move the file pointer.
+     *
+     * @return the offset up to which the ring is drained
+     */
+    long drainTo(SegmentedRandomAccessFile file) throws IOException {
+        long from = drained;
+        long to = filled;
+        while (from < to) {
+            int at = (int) (from % ring.length);
+            int length = (int) Math.min(to - from, ring.length - at);
+            file.write(ByteBuffer.wrap(ring, at, length), from);
+            from += length;
+        }
+        drained = to;
+        return to;
+    }
+
+    /**
+     * Empties the ring and appends the next record at the specified offset.
+     * Only called while nothing is being appended.
+     */
+    void reset(long offset) {
+        reserved.set(offset);
+        filled = offset;
+        drained = offset;
+    }
+}
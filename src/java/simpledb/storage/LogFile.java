@@ -2,11 +2,17 @@
 package simpledb.storage;
 
 import simpledb.common.Database;
+import simpledb.index.BTreeFile;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.lang.reflect.*;
 
 /*
@@ -18,13 +24,22 @@ two-phase locking discipline are followed.  <p>
 <u> Locking note: </u>
 <p>
 
-Many of the methods here are synchronized (to prevent concurrent log
-writes from happening); many of the methods in BufferPool are also
-synchronized (for similar reasons.)  Problem is that BufferPool writes
-log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
-that reason, any LogFile operation that needs to access the BufferPool
-must not be declared synchronized and must begin with a block like:
+Records are appended without a global lock: BEGIN, UPDATE and COMMIT
+records are copied into an in-memory {@link LogBuffer} by many threads
+at once, under the shared side of appendLock, and written to the file
+by whichever thread drains the buffer under drainLock.  The operations
+that read or rewrite the log (rollback, checkpoints, truncation,
+recovery) take the exclusive side of appendLock, which waits for the
+appends in progress and keeps new ones out, and drain the buffer before
+they read the file.
+
+<p>
+Many of the methods in BufferPool are synchronized, and BufferPool
+writes log records (on page flushed) while the log file flushes
+BufferPool pages (on checkpoints and recovery.)  This can lead to
+deadlock.  For that reason, any LogFile operation that needs to access
+the BufferPool must not be declared synchronized and must begin with a
+block like:
 
 <p>
 <pre>
@@ -43,6 +58,9 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
+<li> The log is a {@link SegmentedFile}, so it can grow past the size
+limits of a single file; all offsets are long offsets into the whole log.
+
 <li> The first long integer of the file represents the offset of the
 last written checkpoint, or -1 if there are no checkpoints
 
@@ -55,45 +73,165 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are eight record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, CLR, DELTA and DELTA CLR
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
-<li>UPDATE RECORDS consist of two entries, a before image and an
+<li>UPDATE RECORDS consist of the offset of the previous record of the
+same transaction, followed by two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li>CLR (compensation log) records are written when an update is undone.
+They consist of the offset of the previous record of the same
+transaction, the offset of the next record of the transaction left to
+undo (the previous record of the undone update), and the page image the
+undo restored.  They are only ever redone, never undone.
+
+<li>DELTA records log an update by the byte ranges of the page it changed,
+instead of whole before and after images.  They consist of the offset of
+the previous record of the same transaction and delta data: the page
+class name, the page id as for page data, a count of ranges and, for each
+range, its offset and length followed by its bytes before and after the
+update.  An update that changes so much of its page that the ranges
+would take more room than the page is logged as an UPDATE record instead.
+The ranges are found by comparing the page with its before image, which
+for a HeapPage is its oldData, so that logging copies neither.
+
+<li>DELTA CLR records compensate the undo of a DELTA record.  They consist
+of the offset of the previous record, the undo-next offset, and delta data
+holding only the restored bytes of each range.
+
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, followed by
+the dirty page table of the buffer pool.  The format of the record is an
+integer count of the number of transactions, as well as a long integer
+transaction id and a long integer first record offset for each active
+transaction; then an integer count of the number of dirty pages, and for
+each the page id class name, the page id as for page data, and the offset
+of the first record that may have changed the page since it was last
+written (its recLSN, as an offset).
 
 </ul>
+
+<p> Recovery follows ARIES.  Every change a running transaction makes to
+a page is logged when it is made ({@link BufferPool} calls logWrite), so
+the buffer pool may write uncommitted pages to disk (STEAL) and need not
+write the pages of a transaction when it commits (NO FORCE), as long as
+it forces the log up to the LSN of a page before writing the page
+({@link #forceTo}).  The LSN of a record is its offset in the log plus
+the number of bytes truncated off the front of the log since it was
+opened, so LSNs only grow.  Page LSNs are kept in memory only, as the
+page formats have no room for them; since log records carry whole page
+images or byte ranges of them, redoing a record is idempotent and does
+not need them: a range is applied to whatever version of its page is on
+disk, and the bytes outside the ranges logged since a page was last
+written are the same in every version of it.
+
+<p> Checkpoints are fuzzy: {@link #logCheckpoint} writes no pages, and
+only holds up appends while it copies the transaction and dirty page
+tables.  The buffer pool then writes the pages that were dirty at the
+checkpoint in the background, so that the recLSNs of the next checkpoint
+are past this one and the log before it can be truncated.
+
+<p> {@link #recover} runs three passes: analysis scans the log for the
+transactions that never finished; redo repeats history by installing
+the image of every UPDATE and CLR record from the smallest recLSN of the
+last checkpoint on, skipping the records before the checkpoint that
+changed pages which were not dirty at the checkpoint, or were written
+since; undo rolls the unfinished transactions back, most recent update
+first, writing a CLR per undone update and an ABORT record per
+transaction.  {@link #rollback} undoes a single running transaction the
+same way.
+
+<p> Commits are forced in groups.  A committing transaction appends its
+COMMIT record and then waits for the log to be on disk past it.  A single
+flusher thread drains the log buffer and forces the log on behalf of all
+waiting committers, so every commit that arrives while a force is in
+progress shares the next one.  The flusher can be told to wait a little
+before forcing ({@link #setGroupCommitWait}) to gather larger groups.  It
+also drains the buffer when it is half full, so that appenders rarely
+find it full.
 */
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
-    Boolean recoveryUndecided; // no call to recover() and no append to log
+    /** read and written through its file pointer only under the exclusive side of appendLock;
+        replaced under drainLock */
+    private volatile SegmentedRandomAccessFile raf;
+    volatile boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int CLR_RECORD = 6;
+    static final int DELTA_RECORD = 7;
+    static final int DELTA_CLR_RECORD = 8;
     static final long NO_CHECKPOINT_ID = -1;
 
+    /** The LSN of no record, e.g. of a page that was not changed under logging. */
+    public static final long NO_LSN = -1;
+
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
-//    int pageSize;
-    int totalRecords = 0; // for PatchTest //protected by this
+    /** Changed ranges of a page closer than this are logged as one range,
+        as the header of a range would take as much room as the bytes between. */
+    static final int DELTA_MERGE_GAP = 2 * INT_SIZE;
 
-    final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
+//    int pageSize;
+    final AtomicInteger totalRecords = new AtomicInteger(); // for PatchTest
+
+    final Map<Long,Long> tidToFirstLogRecord = new ConcurrentHashMap<>();
+    /** offset of the last record of each running transaction, where its undo starts */
+    final Map<Long,Long> tidToLastLogRecord = new ConcurrentHashMap<>();
+
+    /** Default number of bytes of the log buffer. */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    private static volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    /** the records appended but not yet written to the file, at the end of the log */
+    private final LogBuffer buffer;
+    /** shared by appenders, exclusive to the operations that read or rewrite the log */
+    private final ReentrantReadWriteLock appendLock = new ReentrantReadWriteLock();
+    /** held while the log buffer is written to the file, or the file replaced */
+    private final Object drainLock = new Object();
+    /** drains the log buffer when an appender finds it full */
+    private final LogBuffer.Drainer drainer = this::drain;
+
+    /** bytes truncated off the front of the log since it was opened //changed under drainLock */
+    private volatile long truncatedBytes = 0;
+    /** LSN up to which the log is known to be on disk //protected by flushLock */
+    private volatile long flushedLSN = 0;
+
+    /** Default number of microseconds the flusher gathers commits before forcing. */
+    public static final long DEFAULT_GROUP_COMMIT_WAIT_MICROS = 0;
+    /** Milliseconds an idle flusher thread waits for work before it exits. */
+    static final long FLUSHER_IDLE_MILLIS = 1000;
+
+    /** Guards the group commit state; never held while acquiring the monitor of the log. */
+    private final Object flushLock = new Object();
+    /** highest LSN a waiting committer needs on disk //protected by flushLock */
+    private long requestedLSN = 0;
+    /** set when the log buffer is half full, for the flusher to drain it //protected by flushLock */
+    private boolean drainRequested = false;
+    /** the flusher thread, or null if none is running //protected by flushLock */
+    /**
+     * the error the flusher failed to force or drain the log with, if it did
+     * //protected by flushLock.  It is never cleared: after a failed force the
+     * log cannot tell which of its records are on disk.
+     */
+    private IOException flushFailure = null;
+    private Thread flusher = null;
+    private volatile boolean groupCommit = true;
+    private volatile boolean deltaLogging = true;
+    private volatile long groupCommitWaitNanos = DEFAULT_GROUP_COMMIT_WAIT_MICROS * 1000;
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong forces = new AtomicLong();
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -108,7 +246,8 @@ public class LogFile {
     */
     public LogFile(File f) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        raf = new SegmentedRandomAccessFile(f);
+        buffer = new LogBuffer(bufferSize, LONG_SIZE);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -126,19 +265,172 @@ public class LogFile {
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
     // the log.
     void preAppend() throws IOException {
-        totalRecords++;
+        totalRecords.incrementAndGet();
         if(recoveryUndecided){
-            recoveryUndecided = false;
-            raf.seek(0);
+            synchronized (this) {
+                if (recoveryUndecided) {
+                    startLog();
+                    recoveryUndecided = false;
+                }
+            }
+        }
+    }
+
+    /** Throws out the contents of the log and starts a new one, without a checkpoint. */
+    private void startLog() throws IOException {
+        synchronized (drainLock) {
             raf.setLength(0);
+            raf.seek(0);
             raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            buffer.reset(LONG_SIZE);
+        }
+    }
+
+    public int getTotalRecords() {
+        return totalRecords.get();
+    }
+
+    /**
+     * Sets the number of bytes of the log buffer of logs opened from now on.
+     * THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+     */
+    public static void setBufferSize(int size) {
+        bufferSize = size;
+    }
+
+    /**
+     * Restores the default size of the log buffer.
+     * THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+     */
+    public static void resetBufferSize() {
+        bufferSize = DEFAULT_BUFFER_SIZE;
+    }
+
+    /**
+     * A log record being built in memory before it is appended: its type,
+     * transaction id and the rest of its contents, followed by room for
+     * the offset it starts at, which is only known once it is appended.
+     */
+    private static class Record extends DataOutputStream {
+        final int type;
+        final long tid;
+
+        Record(int type, long tid) throws IOException {
+            super(new Bytes());
+            this.type = type;
+            this.tid = tid;
+            writeInt(type);
+            writeLong(tid);
+        }
+
+        /** Ends the record with room for its start offset. @return its bytes, of which size() are used */
+        byte[] finish() throws IOException {
+            writeLong(NO_LSN);
+            return ((Bytes) out).buffer();
+        }
+
+        private static class Bytes extends ByteArrayOutputStream {
+            Bytes() {
+                super(256);
+            }
+
+            byte[] buffer() {
+                return buf;
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the log buffer and records it as the first, last
+     * or no longer the last record of its transaction, as its type says.
+     * Appends by different threads run in parallel; the order of their
+     * records is the order in which they reserve room for them.
+     *
+     * @return the LSN of the record
+     */
+    private long append(Record record) throws IOException {
+        preAppend();
+        byte[] bytes = record.finish();
+        int length = record.size();
+        long lsn;
+        appendLock.readLock().lock();
+        try {
+            long start = buffer.reserve(length, drainer);
+            for (int i = 0; i < LONG_SIZE; i++) {
+                bytes[length - 1 - i] = (byte) (start >>> (8 * i));
+            }
+            buffer.put(start, bytes, length, drainer);
+            switch (record.type) {
+            case BEGIN_RECORD:
+                tidToFirstLogRecord.put(record.tid, start);
+                tidToLastLogRecord.put(record.tid, start);
+                break;
+            case COMMIT_RECORD:
+            case ABORT_RECORD:
+                tidToFirstLogRecord.remove(record.tid);
+                tidToLastLogRecord.remove(record.tid);
+                break;
+            case CHECKPOINT_RECORD:
+                break;
+            default:
+                tidToLastLogRecord.put(record.tid, start);
+            }
+            lsn = start + truncatedBytes;
+        } finally {
+            appendLock.readLock().unlock();
+        }
+        if (buffer.pending() > buffer.capacity() / 2) {
+            requestDrain();
+        }
+        return lsn;
+    }
+
+    /**
+     * Waits for the appends in progress and keeps new ones out until
+     * endExclusive, then writes the log buffer to the file, so that the log
+     * can be read and rewritten through the file pointer.  The holder may
+     * still append.
+     */
+    private void beginExclusive() throws IOException {
+        appendLock.writeLock().lock();
+        try {
+            drain();
+        } catch (IOException e) {
+            appendLock.writeLock().unlock();
+            throw e;
+        }
+    }
+
+    private void endExclusive() {
+        appendLock.writeLock().unlock();
+    }
+
+    /**
+     * @return the LSN the next record will be appended at, at the earliest;
+     *         the buffer pool enters a page into its dirty page table with
+     *         this LSN before logging its update
+     */
+    long endLSN() {
+        appendLock.readLock().lock();
+        try {
+            return buffer.end() + truncatedBytes;
+        } finally {
+            appendLock.readLock().unlock();
         }
     }
 
-    public synchronized int getTotalRecords() {
-        return totalRecords;
+    /**
+     * @return true if the specified transaction has a BEGIN record and has
+     *         not committed or aborted yet, so that its updates are logged
+     */
+    public boolean isRunning(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
+    /** @return the offset of the last record of a transaction, or NO_LSN */
+    private long lastRecord(long tid) {
+        Long last = tidToLastLogRecord.get(tid);
+        return last == null ? NO_LSN : last;
     }
     
     /** Write an abort record to the log for the specified tid, force
@@ -152,20 +444,21 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
 
             synchronized(this) {
-                preAppend();
-                //Debug.log("ABORT");
-                //should we verify that this is a live transaction?
-
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
-
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
-                tidToFirstLogRecord.remove(tid.getId());
+                beginExclusive();
+                try {
+                    preAppend();
+                    //Debug.log("ABORT");
+                    //should we verify that this is a live transaction?
+
+                    // must do this here, since rollback only works for
+                    // live transactions (needs tidToFirstLogRecord)
+                    rollback(tid);
+
+                    append(new Record(ABORT_RECORD, tid.getId()));
+                    force();
+                } finally {
+                    endExclusive();
+                }
             }
         }
     }
@@ -175,17 +468,17 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
+    public void logCommit(TransactionId tid) throws IOException {
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+        Record record = new Record(COMMIT_RECORD, tid.getId());
+        long end = append(record) + record.size();
+        commits.incrementAndGet();
+        if (!groupCommit) {
+            force();
+        }
+        awaitFlush(end);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -193,36 +486,293 @@ public class LogFile {
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the LSN of the record
 
         @see Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
-                                       Page after)
+    public long logWrite(TransactionId tid, Page before,
+                         Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
-        preAppend();
         /* update record conists of
 
            record type
            transaction id
+           offset of the transaction's previous record
            before page data (see writePageData)
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        byte[] beforeData = imageOf(before);
+        byte[] afterData = imageOf(after);
+        List<int[]> ranges = deltaLogging && beforeData.length == afterData.length
+                ? diff(beforeData, afterData) : null;
+        Record record;
+        if (ranges != null && deltaSize(ranges) < afterData.length) {
+            record = new Record(DELTA_RECORD, tid.getId());
+            record.writeLong(lastRecord(tid.getId()));
+            writeDeltaData(record, after, ranges, beforeData, afterData);
+        } else {
+            record = new Record(UPDATE_RECORD, tid.getId());
+            record.writeLong(lastRecord(tid.getId()));
+
+            writePageData(record,before);
+            writePageData(record,after);
+        }
+        long lsn = append(record);
+
+        Debug.log("WRITE LSN = " + lsn);
+        return lsn;
+    }
+
+    /** Write a DELTA CLR record for the undo of a DELTA record of the
+        specified transaction, which restored the before bytes of its ranges.
+        @param undoNext The offset of the next record of the transaction
+        left to undo
+    */
+    private void logDeltaCompensation(long tid, long undoNext, PageDelta delta)
+        throws IOException {
+        Record record = new Record(DELTA_CLR_RECORD, tid);
+        record.writeLong(lastRecord(tid));
+        record.writeLong(undoNext);
+        writePageId(record, delta.pageClassName, delta.pid);
+        record.writeInt(delta.offsets.length);
+        for (int i = 0; i < delta.offsets.length; i++) {
+            record.writeInt(delta.offsets[i]);
+            record.writeInt(delta.images[0][i].length);
+            record.write(delta.images[0][i]);
+        }
+        append(record);
+    }
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+    /**
+     * Turns logging updates as byte ranges on or off.  On by default;
+     * when off, every update is logged with whole page images.
+     */
+    public void setDeltaLogging(boolean deltaLogging) {
+        this.deltaLogging = deltaLogging;
+    }
 
-        Debug.log("WRITE OFFSET = " + currentOffset);
+    /** @return true if updates are logged as the byte ranges they changed */
+    public boolean getDeltaLogging() {
+        return deltaLogging;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
+    /** @return the image of a page, without copying it if it is a HeapPage */
+    private static byte[] imageOf(Page p) {
+        return p instanceof HeapPage ? ((HeapPage) p).data : p.getPageData();
+    }
+
+    /**
+     * Finds the byte ranges in which two page images differ, merging
+     * ranges less than DELTA_MERGE_GAP bytes apart.
+     *
+     * @return the offset and length of each range, in order
+     */
+    static List<int[]> diff(byte[] before, byte[] after) {
+        List<int[]> ranges = new ArrayList<>();
+        int i = 0;
+        int n = before.length;
+        while (i < n) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            // extend the range while the next difference is close enough
+            for (int j = end; j < n && j < end + DELTA_MERGE_GAP; j++) {
+                if (before[j] != after[j]) {
+                    end = j + 1;
+                }
+            }
+            ranges.add(new int[]{start, end - start});
+            i = end;
+        }
+        return ranges;
+    }
+
+    /** @return the number of bytes the ranges of a DELTA record take */
+    private static long deltaSize(List<int[]> ranges) {
+        long size = INT_SIZE;
+        for (int[] r : ranges) {
+            size += 2 * INT_SIZE + 2L * r[1];
+        }
+        return size;
+    }
+
+    /** Write the delta data of a DELTA record. */
+    private void writeDeltaData(DataOutput out, Page p, List<int[]> ranges,
+                                byte[] before, byte[] after) throws IOException {
+        writePageId(out, p.getClass().getName(), p.getId());
+        out.writeInt(ranges.size());
+        for (int[] r : ranges) {
+            out.writeInt(r[0]);
+            out.writeInt(r[1]);
+            out.write(before, r[0], r[1]);
+            out.write(after, r[0], r[1]);
+        }
+    }
+
+    /** The byte ranges of a page changed by an update, read from the log. */
+    private static class PageDelta {
+        final String pageClassName;
+        final PageId pid;
+        final int[] offsets;
+        /** the bytes of each range, per image: before and after, or restored */
+        final byte[][][] images;
+
+        PageDelta(String pageClassName, PageId pid, int[] offsets, byte[][][] images) {
+            this.pageClassName = pageClassName;
+            this.pid = pid;
+            this.offsets = offsets;
+            this.images = images;
+        }
+    }
+
+    /**
+     * Read delta data with the specified number of images per range: 2 for
+     * DELTA records, 1 for DELTA CLR records.
+     */
+    private PageDelta readDeltaData(SegmentedRandomAccessFile raf, int numImages) throws IOException {
+        String pageClassName = raf.readUTF();
+        PageId pid = readPageId(raf, raf.readUTF());
+        int numRanges = raf.readInt();
+        if (numRanges < 0) {
+            throw new EOFException();
+        }
+        int[] offsets = new int[numRanges];
+        byte[][][] images = new byte[numImages][numRanges][];
+        for (int i = 0; i < numRanges; i++) {
+            offsets[i] = raf.readInt();
+            int length = raf.readInt();
+            if (length < 0 || raf.getFilePointer() + (long) numImages * length > raf.length()) {
+                throw new EOFException();
+            }
+            for (int image = 0; image < numImages; image++) {
+                images[image][i] = new byte[length];
+                raf.readFully(images[image][i]);
+            }
+        }
+        return new PageDelta(pageClassName, pid, offsets, images);
+    }
+
+    /** Skip delta data with the specified number of images per range. */
+    private void skipDeltaData(SegmentedRandomAccessFile raf, int numImages) throws IOException {
+        raf.readUTF();
+        raf.readUTF();
+        int numIdArgs = raf.readInt();
+        raf.seek(raf.getFilePointer() + (long) numIdArgs * INT_SIZE);
+        int numRanges = raf.readInt();
+        if (numRanges < 0) {
+            throw new EOFException();
+        }
+        for (int i = 0; i < numRanges; i++) {
+            raf.readInt();
+            int length = raf.readInt();
+            if (length < 0 || raf.getFilePointer() + (long) numImages * length > raf.length()) {
+                throw new EOFException();
+            }
+            raf.seek(raf.getFilePointer() + (long) numImages * length);
+        }
+    }
+
+    /** Copy delta data with the specified number of images per range from one log to another. */
+    private void copyDeltaData(SegmentedRandomAccessFile from, SegmentedRandomAccessFile to,
+                               int numImages) throws IOException {
+        to.writeUTF(from.readUTF());
+        to.writeUTF(from.readUTF());
+        int numIdArgs = from.readInt();
+        to.writeInt(numIdArgs);
+        for (int i = 0; i < numIdArgs; i++) {
+            to.writeInt(from.readInt());
+        }
+        int numRanges = from.readInt();
+        to.writeInt(numRanges);
+        for (int i = 0; i < numRanges; i++) {
+            to.writeInt(from.readInt());
+            int length = from.readInt();
+            to.writeInt(length);
+            byte[] bytes = new byte[numImages * length];
+            from.readFully(bytes);
+            to.write(bytes);
+        }
+    }
+
+    /**
+     * Applies one image of the ranges of a delta to the current version of
+     * its page, the cached one if there is one, and writes the page to its
+     * file.  Does nothing if the table of the page is not in the catalog.
+     */
+    private void applyDelta(PageDelta delta, int image) throws IOException {
+        DbFile file = Database.getCatalog().getDatabaseFile(delta.pid.getTableId());
+        if (file == null) {
+            return;
+        }
+        Page current = Database.getBufferPool().cachedPage(delta.pid);
+        if (current == null) {
+            current = file.readPage(delta.pid);
+            ArenaHeapPage.release(current);
+        }
+        byte[] data = current.getPageData();
+        for (int i = 0; i < delta.offsets.length; i++) {
+            byte[] bytes = delta.images[image][i];
+            System.arraycopy(bytes, 0, data, delta.offsets[i], bytes.length);
+        }
+        try {
+            installPage(newPage(Class.forName(delta.pageClassName), delta.pid, data, file));
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("unable to apply page delta: " + e, e);
+        }
+    }
+
+    /** Write a CLR record for the undo of an update of the specified
+        transaction, which restored the specified page image.
+        @param undoNext The offset of the next record of the transaction
+        left to undo
+    */
+    private void logCompensation(long tid, long undoNext, Page restored)
+        throws IOException {
+        Record record = new Record(CLR_RECORD, tid);
+        record.writeLong(lastRecord(tid));
+        record.writeLong(undoNext);
+        writePageData(record, restored);
+        append(record);
+    }
+
+    /** Write the page class name and page id that begin page and delta data. */
+    private static void writePageId(DataOutput out, String pageClassName, PageId pid)
+        throws IOException {
         int[] pageInfo = pid.serialize();
+        out.writeUTF(pageClassName);
+        out.writeUTF(pid.getClass().getName());
+
+        out.writeInt(pageInfo.length);
+        for (int j : pageInfo) {
+            out.writeInt(j);
+        }
+    }
+
+    /** Read a page id of the specified class written by writePageId. */
+    private static PageId readPageId(SegmentedRandomAccessFile raf, String idClassName)
+        throws IOException {
+        try {
+            Class<?> idClass = Class.forName(idClassName);
+            int numIdArgs = raf.readInt();
+            if (numIdArgs < 0) {
+                throw new EOFException();
+            }
+            Object[] idArgs = new Object[numIdArgs];
+            for (int i = 0; i<numIdArgs;i++) {
+                idArgs[i] = raf.readInt();
+            }
+            return (PageId) intConstructor(idClass, numIdArgs).newInstance(idArgs);
+        } catch (ReflectiveOperationException e){
+            throw new IOException("unable to read page id: " + e, e);
+        }
+    }
+
+    void writePageData(DataOutput out, Page p) throws IOException{
+        PageId pid = p.getId();
 
         //page data is:
         // page class name
@@ -232,158 +782,311 @@ public class LogFile {
         // page class bytes
         // page class data
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
-        }
+        writePageId(out, p.getClass().getName(), pid);
         byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        out.writeInt(pageData.length);
+        out.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
+    /** Read page data written by writePageData.
+
+        @return the page, or null if its table is not in the catalog
+    */
+    Page readPageData(SegmentedRandomAccessFile raf) throws IOException {
         PageId pid;
         Page newPage = null;
 
         String pageClassName = raf.readUTF();
         String idClassName = raf.readUTF();
 
+        pid = readPageId(raf, idClassName);
         try {
-            Class<?> idClass = Class.forName(idClassName);
             Class<?> pageClass = Class.forName(pageClassName);
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if (file == null) {
+                return null;
+            }
+            newPage = newPage(pageClass, pid, pageData, file);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
-            e.printStackTrace();
-            throw new IOException();
+        } catch (ReflectiveOperationException e){
+            throw new IOException("unable to read page image: " + e, e);
         }
         return newPage;
 
     }
 
+    /** @return the constructor of a page id class taking n ints */
+    private static Constructor<?> intConstructor(Class<?> idClass, int n)
+        throws NoSuchMethodException {
+        for (Constructor<?> c : idClass.getDeclaredConstructors()) {
+            Class<?>[] params = c.getParameterTypes();
+            boolean allInts = params.length == n;
+            for (int i = 0; allInts && i < n; i++) {
+                allInts = params[i] == int.class;
+            }
+            if (allInts) {
+                return c;
+            }
+        }
+        throw new NoSuchMethodException(idClass.getName() + " has no constructor of " + n + " ints");
+    }
+
+    /**
+     * Constructs a page from its id and data, with its (PageId, byte[])
+     * constructor, or for B+ tree leaf and internal pages with the key
+     * field of their file as well.
+     */
+    private static Page newPage(Class<?> pageClass, PageId pid, byte[] data, DbFile file)
+        throws ReflectiveOperationException {
+        for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+            Class<?>[] params = c.getParameterTypes();
+            if (params.length < 2 || !params[0].isInstance(pid) || params[1] != byte[].class) {
+                continue;
+            }
+            if (params.length == 2) {
+                return (Page) c.newInstance(pid, data);
+            }
+            if (params.length == 3 && params[2] == int.class && file instanceof BTreeFile) {
+                return (Page) c.newInstance(pid, data, ((BTreeFile) file).keyField());
+            }
+        }
+        throw new NoSuchMethodException(pageClass.getName() + " has no (PageId, byte[]) constructor");
+    }
+
+    /** Skip page data written by writePageData. */
+    void skipPageData(SegmentedRandomAccessFile raf) throws IOException {
+        raf.readUTF();
+        raf.readUTF();
+        int numIdArgs = raf.readInt();
+        raf.seek(raf.getFilePointer() + (long) numIdArgs * INT_SIZE);
+        int pageSize = raf.readInt();
+        if (pageSize < 0 || raf.getFilePointer() + pageSize > raf.length()) {
+            throw new EOFException();
+        }
+        raf.seek(raf.getFilePointer() + pageSize);
+    }
+
+    /** Copy page data written by writePageData from one log to another. */
+    private void copyPageData(SegmentedRandomAccessFile from, SegmentedRandomAccessFile to)
+        throws IOException {
+        to.writeUTF(from.readUTF());
+        to.writeUTF(from.readUTF());
+        int numIdArgs = from.readInt();
+        to.writeInt(numIdArgs);
+        for (int i = 0; i < numIdArgs; i++) {
+            to.writeInt(from.readInt());
+        }
+        byte[] pageData = new byte[from.readInt()];
+        from.readFully(pageData);
+        to.writeInt(pageData.length);
+        to.write(pageData);
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
     */
-    public synchronized  void logXactionBegin(TransactionId tid)
+    public void logXactionBegin(TransactionId tid)
         throws IOException {
         Debug.log("BEGIN");
         if(tidToFirstLogRecord.get(tid.getId()) != null){
             System.err.print("logXactionBegin: already began this tid\n");
             throw new IOException("double logXactionBegin()");
         }
-        preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        long lsn = append(new Record(BEGIN_RECORD, tid.getId()));
 
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+        Debug.log("BEGIN LSN = " + lsn);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /**
+     * Checkpoint the log and write a checkpoint record holding the active
+     * transactions and the dirty page table.  Writes no pages: the buffer
+     * pool writes the pages that were dirty at the checkpoint in the
+     * background afterwards.
+     */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+        long cpLSN;
+        synchronized (this) {
+            beginExclusive();
+            try {
+                //Debug.log("CHECKPOINT, offset = " + buffer.end());
                 preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                // no record is appended while the tables are copied; an
+                // update enters the dirty page table before it is logged
+                Map<PageId,Long> recOffsets = new HashMap<>();
+                for (Map.Entry<PageId,Long> e : Database.getBufferPool().getDirtyPageTable().entrySet()) {
+                    recOffsets.put(e.getKey(), Math.max(LONG_SIZE, e.getValue() - truncatedBytes));
                 }
-
-                //once the CP is written, make sure the CP location at the
+                Checkpoint checkpoint = new Checkpoint(new HashMap<>(tidToFirstLogRecord), recOffsets);
+                Debug.log("WRITING CHECKPOINT OF " + checkpoint.firstRecords.size() + " TRANSACTIONS, "
+                        + recOffsets.size() + " DIRTY PAGES");
+                Record record = new Record(CHECKPOINT_RECORD, -1); //no tid , but leave space for convenience
+                checkpoint.write(record);
+                cpLSN = append(record);
+
+                //once the CP is on disk, make sure the CP location at the
                 // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+                force();
+                synchronized (drainLock) {
+                    raf.seek(0);
+                    raf.writeLong(cpLSN - truncatedBytes);
+                }
+                //Debug.log("CP OFFSET = " + buffer.end());
+            } finally {
+                endExclusive();
             }
         }
+        Database.getBufferPool().writeDirtyPages(cpLSN);
 
         logTruncate();
     }
 
+    /**
+     * The tables of a CHECKPOINT record: the first record of each active
+     * transaction and the recLSN of each dirty page, as log offsets.
+     */
+    private static class Checkpoint {
+        final Map<Long,Long> firstRecords;
+        final Map<PageId,Long> recOffsets;
+
+        Checkpoint(Map<Long,Long> firstRecords, Map<PageId,Long> recOffsets) {
+            this.firstRecords = firstRecords;
+            this.recOffsets = recOffsets;
+        }
+
+        /** @return the offset redo of the checkpoint at cpLoc starts from: its smallest recLSN */
+        long redoStart(long cpLoc) {
+            long min = cpLoc;
+            for (long offset : recOffsets.values()) {
+                min = Math.min(min, offset);
+            }
+            return min;
+        }
+
+        /** @return the offset of the first record recovery from the checkpoint at cpLoc needs */
+        long firstNeeded(long cpLoc) {
+            long min = redoStart(cpLoc);
+            for (long offset : firstRecords.values()) {
+                min = Math.min(min, offset);
+            }
+            return min;
+        }
+
+        /**
+         * @return true if a record at the specified offset before the
+         *         checkpoint may have changed its page after the page was
+         *         last written before the checkpoint
+         */
+        boolean mustRedo(PageId pid, long offset) {
+            Long recOffset = recOffsets.get(pid);
+            return recOffset != null && offset >= recOffset;
+        }
+
+        /** @return this checkpoint with its offsets moved by truncating the log before minLogRecord */
+        Checkpoint truncated(long minLogRecord) {
+            Map<Long,Long> first = new HashMap<>();
+            for (Map.Entry<Long,Long> e : firstRecords.entrySet()) {
+                first.put(e.getKey(), (e.getValue() - minLogRecord) + LONG_SIZE);
+            }
+            Map<PageId,Long> rec = new HashMap<>();
+            for (Map.Entry<PageId,Long> e : recOffsets.entrySet()) {
+                rec.put(e.getKey(), (e.getValue() - minLogRecord) + LONG_SIZE);
+            }
+            return new Checkpoint(first, rec);
+        }
+
+        /** Write the tables, the body of a CHECKPOINT record after its type and tid. */
+        void write(DataOutput out) throws IOException {
+            //write list of outstanding transactions
+            out.writeInt(firstRecords.size());
+            for (Map.Entry<Long,Long> e : firstRecords.entrySet()) {
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue());
+            }
+            out.writeInt(recOffsets.size());
+            for (Map.Entry<PageId,Long> e : recOffsets.entrySet()) {
+                int[] pageInfo = e.getKey().serialize();
+                out.writeUTF(e.getKey().getClass().getName());
+                out.writeInt(pageInfo.length);
+                for (int j : pageInfo) {
+                    out.writeInt(j);
+                }
+                out.writeLong(e.getValue());
+            }
+        }
+
+        /** Read the tables written by write. */
+        static Checkpoint read(SegmentedRandomAccessFile raf) throws IOException {
+            int numXactions = raf.readInt();
+            if (numXactions < 0) {
+                throw new EOFException();
+            }
+            Map<Long,Long> firstRecords = new HashMap<>();
+            while (numXactions-- > 0) {
+                long tid = raf.readLong();
+                firstRecords.put(tid, raf.readLong());
+            }
+            int numPages = raf.readInt();
+            if (numPages < 0) {
+                throw new EOFException();
+            }
+            Map<PageId,Long> recOffsets = new HashMap<>();
+            while (numPages-- > 0) {
+                PageId pid = readPageId(raf, raf.readUTF());
+                recOffsets.put(pid, raf.readLong());
+            }
+            return new Checkpoint(firstRecords, recOffsets);
+        }
+    }
+
+    /** Read the checkpoint record at the specified offset. */
+    private Checkpoint readCheckpoint(long cpLoc) throws IOException {
+        raf.seek(cpLoc);
+        int cpType = raf.readInt();
+        @SuppressWarnings("unused")
+        long cpTid = raf.readLong();
+
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
+        return Checkpoint.read(raf);
+    }
+
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        beginExclusive();
+        try {
+            truncate();
+        } finally {
+            endExclusive();
+        }
+    }
+
+    private void truncate() throws IOException {
         raf.seek(0);
         long cpLoc = raf.readLong();
 
         long minLogRecord = cpLoc;
 
         if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+            // recovery redoes from the smallest recLSN of the checkpoint,
+            // and undoes back to the first record of its transactions
+            minLogRecord = readCheckpoint(cpLoc).firstNeeded(cpLoc);
         }
 
         // we can truncate everything before minLogRecord
         File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
+        SegmentedRandomAccessFile logNew = new SegmentedRandomAccessFile(newFile);
         logNew.seek(0);
         logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
 
@@ -403,26 +1106,34 @@ public class LogFile {
 
                 switch (type) {
                 case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
+                    logNew.writeLong(truncatedOffset(raf.readLong(), minLogRecord));
+                    copyPageData(raf, logNew);
+                    copyPageData(raf, logNew);
+                    break;
+                case CLR_RECORD:
+                    logNew.writeLong(truncatedOffset(raf.readLong(), minLogRecord));
+                    logNew.writeLong(truncatedOffset(raf.readLong(), minLogRecord));
+                    copyPageData(raf, logNew);
+                    break;
+                case DELTA_RECORD:
+                    logNew.writeLong(truncatedOffset(raf.readLong(), minLogRecord));
+                    copyDeltaData(raf, logNew, 2);
+                    break;
+                case DELTA_CLR_RECORD:
+                    logNew.writeLong(truncatedOffset(raf.readLong(), minLogRecord));
+                    logNew.writeLong(truncatedOffset(raf.readLong(), minLogRecord));
+                    copyDeltaData(raf, logNew, 1);
                     break;
                 case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
+                    Checkpoint.read(raf).truncated(minLogRecord).write(logNew);
                     break;
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
                 }
+                if (tidToLastLogRecord.containsKey(record_tid)) {
+                    tidToLastLogRecord.put(record_tid, newStart);
+                }
 
                 //all xactions finish with a pointer
                 logNew.writeLong(newStart);
@@ -432,20 +1143,31 @@ public class LogFile {
                 break;
             }
         }
+        logNew.force();
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        long lsn;
+        synchronized (drainLock) {
+            truncatedBytes += minLogRecord - LONG_SIZE;
+            raf.close();
+            logNew.close();
+            SegmentedFile.rename(newFile, logFile);
+            raf = new SegmentedRandomAccessFile(logFile);
+            buffer.reset(raf.length());
+            lsn = raf.length() + truncatedBytes;
+        }
+        SegmentedFile.delete(newFile, 0);
 
-        currentOffset = raf.getFilePointer();
+        flushed(lsn);
         //print();
     }
 
+    /** @return where a record at the specified offset is after truncating the log before minLogRecord */
+    private static long truncatedOffset(long offset, long minLogRecord) {
+        return offset < minLogRecord ? NO_LSN : (offset - minLogRecord) + LONG_SIZE;
+    }
+
     /** Rollback the specified transaction, setting the state of any
         of pages it updated to their pre-updated state.  To preserve
         transaction semantics, this should not be called on
@@ -459,19 +1181,96 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                beginExclusive();
+                try {
+                    Long last = tidToLastLogRecord.get(tid.getId());
+                    if (last == null) {
+                        throw new NoSuchElementException("transaction " + tid.getId() + " is not running");
+                    }
+                    undo(Collections.singletonMap(tid.getId(), last));
+                } finally {
+                    endExclusive();
+                }
+            }
+        }
+    }
+
+    /**
+     * Undoes the updates of the specified transactions, the most recent
+     * first, following the chain of records of each back to its BEGIN
+     * record.  Every undone update is compensated by a CLR whose undo-next
+     * offset skips the update, so that an update undone before a crash is
+     * not undone again.  Restored images are written straight to their
+     * files.  Only called under the exclusive side of appendLock.
+     *
+     * @param lastRecords the offset of the last record of each transaction
+     */
+    private void undo(Map<Long,Long> lastRecords) throws IOException {
+        // pairs of record offset and transaction id, latest record first
+        PriorityQueue<long[]> pending = new PriorityQueue<>((a, b) -> Long.compare(b[0], a[0]));
+        for (Map.Entry<Long,Long> e : lastRecords.entrySet()) {
+            pending.add(new long[]{e.getValue(), e.getKey()});
+        }
+        while (!pending.isEmpty()) {
+            long[] next = pending.poll();
+            long tid = next[1];
+            raf.seek(next[0]);
+            int type = raf.readInt();
+            raf.readLong();
+            long undoNext = NO_LSN;
+            if (type == UPDATE_RECORD) {
+                undoNext = raf.readLong();
+                Page before = readPageData(raf);
+                if (before != null) {
+                    // the CLR need not be forced before the page is written:
+                    // after a crash, redo reinstalls the update and undo
+                    // undoes it again
+                    logCompensation(tid, undoNext, before);
+                    installPage(before);
+                }
+            } else if (type == DELTA_RECORD) {
+                undoNext = raf.readLong();
+                PageDelta delta = readDeltaData(raf, 2);
+                if (Database.getCatalog().getDatabaseFile(delta.pid.getTableId()) != null) {
+                    logDeltaCompensation(tid, undoNext, delta);
+                    applyDelta(delta, 0);
+                }
+            } else if (type == CLR_RECORD || type == DELTA_CLR_RECORD) {
+                raf.readLong();
+                undoNext = raf.readLong();
+            }
+            // anything else is the BEGIN record, so the transaction is undone
+            if (undoNext != NO_LSN) {
+                pending.add(new long[]{undoNext, tid});
             }
         }
     }
 
+    /** Writes a page image restored by recovery to its file, dropping any cached version of it. */
+    private void installPage(Page page) throws IOException {
+        PageId pid = page.getId();
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        file.writePage(page);
+        Database.getBufferPool().discardPage(pid);
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).pageRolledBack(pid);
+        }
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
     public synchronized void shutdown() {
         try {
+            // checkpoints write no pages, so write them all first for a
+            // quick start up
+            Database.getBufferPool().flushAllPages();
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (drainLock) {
+                drain();
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -485,14 +1284,184 @@ public class LogFile {
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                recoveryUndecided = false;
-                // some code goes here
+                beginExclusive();
+                try {
+                    recoveryUndecided = false;
+                    if (raf.length() < LONG_SIZE) {
+                        // nothing was ever logged; start a new log
+                        startLog();
+                        force();
+                        return;
+                    }
+
+                    // analysis: find the transactions that never finished, and
+                    // drop any record the crash left incomplete
+                    Map<Long,Long> losers = new HashMap<>();
+                    long end = analyze(losers);
+                    synchronized (drainLock) {
+                        raf.setLength(end);
+                        buffer.reset(end);
+                    }
+                    raf.seek(0);
+                    long cpLoc = raf.readLong();
+                    if (cpLoc >= end) {
+                        cpLoc = NO_CHECKPOINT_ID;
+                        raf.seek(0);
+                        raf.writeLong(cpLoc);
+                    }
+
+                    // redo: repeat history from the oldest record that may
+                    // have changed a page dirty at the last checkpoint
+                    if (cpLoc == NO_CHECKPOINT_ID) {
+                        redo(LONG_SIZE, end, cpLoc, null);
+                    } else {
+                        Checkpoint checkpoint = readCheckpoint(cpLoc);
+                        redo(checkpoint.redoStart(cpLoc), end, cpLoc, checkpoint);
+                    }
+
+                    // undo: roll back the losers, and end each with an ABORT
+                    for (Map.Entry<Long,Long> e : losers.entrySet()) {
+                        tidToFirstLogRecord.put(e.getKey(), e.getValue());
+                        tidToLastLogRecord.put(e.getKey(), e.getValue());
+                    }
+                    undo(losers);
+                    for (Long tid : losers.keySet()) {
+                        append(new Record(ABORT_RECORD, tid));
+                    }
+                    force();
+                } finally {
+                    endExclusive();
+                }
             }
          }
     }
 
+    /**
+     * The analysis pass of recovery: reads the log from its start and
+     * collects the transactions without a COMMIT or ABORT record.
+     *
+     * @param losers receives the offset of the last record of each such transaction
+     * @return the offset just past the last complete record
+     */
+    private long analyze(Map<Long,Long> losers) throws IOException {
+        long offset = LONG_SIZE;
+        raf.seek(offset);
+        while (true) {
+            try {
+                int type = raf.readInt();
+                long tid = raf.readLong();
+                switch (type) {
+                case BEGIN_RECORD:
+                    losers.put(tid, offset);
+                    break;
+                case UPDATE_RECORD:
+                    raf.readLong();
+                    skipPageData(raf);
+                    skipPageData(raf);
+                    losers.put(tid, offset);
+                    break;
+                case CLR_RECORD:
+                    raf.readLong();
+                    raf.readLong();
+                    skipPageData(raf);
+                    losers.put(tid, offset);
+                    break;
+                case DELTA_RECORD:
+                    raf.readLong();
+                    skipDeltaData(raf, 2);
+                    losers.put(tid, offset);
+                    break;
+                case DELTA_CLR_RECORD:
+                    raf.readLong();
+                    raf.readLong();
+                    skipDeltaData(raf, 1);
+                    losers.put(tid, offset);
+                    break;
+                case COMMIT_RECORD:
+                case ABORT_RECORD:
+                    losers.remove(tid);
+                    break;
+                case CHECKPOINT_RECORD:
+                    Checkpoint.read(raf);
+                    break;
+                default:
+                    return offset;
+                }
+                if (raf.readLong() != offset) {
+                    return offset;
+                }
+                offset = raf.getFilePointer();
+            } catch (EOFException | UTFDataFormatException e) {
+                return offset;
+            }
+        }
+    }
+
+    /**
+     * The redo pass of recovery: installs the page images of the UPDATE
+     * and CLR records, and applies the ranges of the DELTA and DELTA CLR
+     * records, between the specified offsets, in log order.  Records
+     * before the checkpoint at cpLoc are only redone if its dirty page
+     * table says their page may not have been written since.
+     */
+    private void redo(long from, long end, long cpLoc, Checkpoint checkpoint) throws IOException {
+        raf.seek(from);
+        while (raf.getFilePointer() < end) {
+            long offset = raf.getFilePointer();
+            int type = raf.readInt();
+            raf.readLong();
+            Page image = null;
+            PageDelta delta = null;
+            int deltaImage = 0;
+            switch (type) {
+            case UPDATE_RECORD:
+                raf.readLong();
+                skipPageData(raf);
+                image = readPageData(raf);
+                break;
+            case CLR_RECORD:
+                raf.readLong();
+                raf.readLong();
+                image = readPageData(raf);
+                break;
+            case DELTA_RECORD:
+                raf.readLong();
+                delta = readDeltaData(raf, 2);
+                deltaImage = 1;
+                break;
+            case DELTA_CLR_RECORD:
+                raf.readLong();
+                raf.readLong();
+                delta = readDeltaData(raf, 1);
+                break;
+            case CHECKPOINT_RECORD:
+                Checkpoint.read(raf);
+                break;
+            }
+            raf.readLong();
+            PageId pid = image != null ? image.getId() : delta != null ? delta.pid : null;
+            if (pid == null || offset < cpLoc && !checkpoint.mustRedo(pid, offset)) {
+                continue;
+            }
+            if (image != null) {
+                installPage(image);
+            } else {
+                applyDelta(delta, deltaImage);
+            }
+        }
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
+        beginExclusive();
+        try {
+            printRecords();
+        } finally {
+            endExclusive();
+        }
+    }
+
+    private void printRecords() throws IOException {
         long curOffset = raf.getFilePointer();
 
         raf.seek(0);
@@ -532,25 +1501,58 @@ public class LogFile {
                         System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
                         System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
                     }
+                    int numPages = raf.readInt();
+                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numPages);
+
+                    while (numPages-- > 0) {
+                        long page = raf.getFilePointer();
+                        PageId pid = readPageId(raf, raf.readUTF());
+                        System.out.println(page + ": PAGE " + pid.getPageNumber() + " OF TABLE " + pid.getTableId()
+                                + ", RECLSN OFFSET: " + raf.readLong());
+                    }
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
                     break;
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
+                    System.out.println(raf.getFilePointer() + ": PREVIOUS RECORD: " + raf.readLong());
 
                     long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
+                    skipPageData(raf);
 
                     long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
+                    skipPageData(raf);
+
+                    System.out.println(start + " TO " + (middle - 1) + ": before image");
+                    System.out.println(middle + " TO " + (raf.getFilePointer() - 1) + ": after image");
+
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
-                    System.out.println(start + ": before image table id " + before.getId().getTableId());
-                    System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
-                    System.out.println((start + INT_SIZE) + " TO " + (middle - INT_SIZE) + ": page data");
+                    break;
+                case CLR_RECORD:
+                    System.out.println(" (CLR)");
+                    System.out.println(raf.getFilePointer() + ": PREVIOUS RECORD: " + raf.readLong());
+                    System.out.println(raf.getFilePointer() + ": UNDO NEXT RECORD: " + raf.readLong());
 
-                    System.out.println(middle + ": after image table id " + after.getId().getTableId());
-                    System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                    System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                    long image = raf.getFilePointer();
+                    skipPageData(raf);
+                    System.out.println(image + " TO " + (raf.getFilePointer() - 1) + ": restored image");
+
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+
+                    break;
+                case DELTA_RECORD:
+                case DELTA_CLR_RECORD:
+                    boolean clr = cpType == DELTA_CLR_RECORD;
+                    System.out.println(clr ? " (DELTA CLR)" : " (DELTA)");
+                    System.out.println(raf.getFilePointer() + ": PREVIOUS RECORD: " + raf.readLong());
+                    if (clr) {
+                        System.out.println(raf.getFilePointer() + ": UNDO NEXT RECORD: " + raf.readLong());
+                    }
+
+                    long ranges = raf.getFilePointer();
+                    skipDeltaData(raf, clr ? 1 : 2);
+                    System.out.println(ranges + " TO " + (raf.getFilePointer() - 1) + ": changed ranges");
 
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
@@ -567,8 +1569,195 @@ public class LogFile {
         raf.seek(curOffset);
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Write the log buffer to the log file and force the file to disk. */
+    public void force() throws IOException {
+        long lsn;
+        synchronized (drainLock) {
+            // appends go on into the buffer while the log is forced
+            lsn = drain();
+            raf.force();
+        }
+        forces.incrementAndGet();
+        flushed(lsn);
+    }
+
+    /**
+     * Writes the records in the log buffer to the log file, without
+     * forcing it.
+     *
+     * @return the LSN up to which the log is written
+     */
+    private long drain() throws IOException {
+        synchronized (drainLock) {
+            return buffer.drainTo(raf) + truncatedBytes;
+        }
+    }
+
+    /**
+     * Waits until the record with the specified LSN is on disk.  The
+     * buffer pool calls this with the LSN of a page before writing the
+     * page.
+     */
+    public void forceTo(long lsn) throws IOException {
+        if (lsn >= flushedLSN) {
+            awaitFlush(lsn + 1);
+        }
+    }
+
+    /** Records that the log is on disk up to the specified LSN, waking up the committers it covers. */
+    private void flushed(long lsn) {
+        synchronized (flushLock) {
+            if (lsn > flushedLSN) {
+                flushedLSN = lsn;
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until the log is on disk up to the specified LSN, handing the
+     * force to the flusher thread.
+     *
+     * @throws IOException if the flusher failed to force the log
+     */
+    private void awaitFlush(long lsn) throws IOException {
+        if (lsn <= flushedLSN) {
+            return;
+        }
+        synchronized (flushLock) {
+            if (lsn > requestedLSN) {
+                requestedLSN = lsn;
+            }
+            wakeFlusher();
+            boolean interrupted = false;
+            try {
+                while (lsn > flushedLSN) {
+                    if (flushFailure != null) {
+                        throw new IOException("log could not be forced", flushFailure);
+                    }
+                    try {
+                        flushLock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /** Asks the flusher thread to drain the log buffer, without forcing the log. */
+    private void requestDrain() {
+        synchronized (flushLock) {
+            if (!drainRequested) {
+                drainRequested = true;
+                wakeFlusher();
+            }
+        }
+    }
+
+    /** Starts the flusher thread, or wakes it up if it is running. Called under flushLock. */
+    private void wakeFlusher() {
+        if (flusher == null) {
+            flusher = new Thread(this::runFlusher, "log-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flushLock.notifyAll();
+        }
+    }
+
+    /**
+     * The loop of the flusher thread: forces the log whenever a committer
+     * waits for it, covering every record appended up to the force, and
+     * drains the log buffer when it fills up.  Exits once it has been idle
+     * for a while.  If the force fails, the committers waiting for it and
+     * every later one get the error, and the flusher stops forcing.
+     */
+    private void runFlusher() {
+        while (true) {
+            boolean forceNeeded;
+            synchronized (flushLock) {
+                long idleSince = System.currentTimeMillis();
+                while (flushFailure != null || requestedLSN <= flushedLSN && !drainRequested) {
+                    long idle = System.currentTimeMillis() - idleSince;
+                    if (idle >= FLUSHER_IDLE_MILLIS) {
+                        flusher = null;
+                        return;
+                    }
+                    try {
+                        flushLock.wait(FLUSHER_IDLE_MILLIS - idle);
+                    } catch (InterruptedException e) {
+                        // keep serving committers
+                    }
+                }
+                forceNeeded = requestedLSN > flushedLSN;
+                drainRequested = false;
+            }
+            long wait = groupCommitWaitNanos;
+            if (forceNeeded && wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            try {
+                // appends go on while the log is forced; they join the next group
+                if (forceNeeded) {
+                    force();
+                } else {
+                    drain();
+                }
+            } catch (IOException e) {
+                synchronized (flushLock) {
+                    flushFailure = e;
+                    flushLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns group commit on or off.  On by default; when off, every
+     * commit forces the log itself.
+     */
+    public void setGroupCommit(boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    /** @return true if commits are forced in groups */
+    public boolean getGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * Sets how long the flusher waits after a commit asks for a force
+     * before issuing it, so that more commits join the group; defaults to
+     * {@link #DEFAULT_GROUP_COMMIT_WAIT_MICROS}.  Longer waits trade commit
+     * latency for fewer forces.
+     *
+     * @throws IllegalArgumentException if micros is negative
+     */
+    public void setGroupCommitWait(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("group commit wait must not be negative, not " + micros);
+        }
+        groupCommitWaitNanos = micros * 1000;
+    }
+
+    /** @return the number of microseconds the flusher gathers commits before forcing */
+    public long getGroupCommitWait() {
+        return groupCommitWaitNanos / 1000;
+    }
+
+    /** @return the number of COMMIT records written */
+    public long getCommits() {
+        return commits.get();
+    }
+
+    /** @return the number of times the log was forced to disk */
+    public long getForces() {
+        return forces.get();
     }
 
 }
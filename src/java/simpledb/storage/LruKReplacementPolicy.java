@@ -0,0 +1,116 @@
+package simpledb.storage;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum).
+ * <p>
+ * Every resident page remembers the logical times of its last K references.
+ * The victim is the page whose K-th most recent reference lies furthest in
+ * the past; pages that have been referenced fewer than K times count as
+ * infinitely old and go first, least recently used first.  A page touched
+ * once by a large sequential scan therefore never displaces a page that is
+ * referenced repeatedly, which is what plain LRU gets wrong.
+ * <p>
+ * Pages are kept in a tree ordered by eviction priority, so hits and victim
+ * selection both cost O(log n).
+ *
+ * @Threadsafe
+ */
+public class LruKReplacementPolicy implements ReplacementPolicy {
+
+    /** The K used when none is given explicitly. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private long clock = 0;
+    private final Map<PageId, History> histories = new HashMap<>();
+    private final TreeSet<History> byPriority = new TreeSet<>();
+
+    /** Reference history of one resident page. */
+    private static class History implements Comparable<History> {
+        final PageId pid;
+        /** reference times, most recent first; -1 if not referenced yet */
+        final long[] times;
+        /** breaks ties between pages with identical histories */
+        final long serial;
+
+        History(PageId pid, int k, long serial) {
+            this.pid = pid;
+            this.times = new long[k];
+            Arrays.fill(times, -1);
+            this.serial = serial;
+        }
+
+        void reference(long now) {
+            System.arraycopy(times, 0, times, 1, times.length - 1);
+            times[0] = now;
+        }
+
+        public int compareTo(History o) {
+            int c = Long.compare(times[times.length - 1], o.times[o.times.length - 1]);
+            if (c != 0) {
+                return c;
+            }
+            c = Long.compare(times[0], o.times[0]);
+            if (c != 0) {
+                return c;
+            }
+            return Long.compare(serial, o.serial);
+        }
+    }
+
+    public LruKReplacementPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of past references taken into account; must be at
+     *          least 1 (LRU-1 is plain LRU)
+     */
+    public LruKReplacementPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        History h = histories.get(pid);
+        if (h == null) {
+            h = new History(pid, k, clock);
+            histories.put(pid, h);
+        } else {
+            byPriority.remove(h);
+        }
+        h.reference(++clock);
+        byPriority.add(h);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        History h = histories.get(pid);
+        if (h == null) {
+            return;
+        }
+        byPriority.remove(h);
+        h.reference(++clock);
+        byPriority.add(h);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        History h = histories.remove(pid);
+        if (h != null) {
+            byPriority.remove(h);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        for (History h : byPriority) {
+            if (evictable.test(h.pid)) {
+                return h.pid;
+            }
+        }
+        return null;
+    }
+}
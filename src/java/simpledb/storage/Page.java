@@ -35,6 +35,17 @@ public interface Page {
    */
   void markDirty(boolean dirty, TransactionId tid);
 
+    /**
+     * Return the LSN of the last log record of an update to this page, or
+     * LogFile.NO_LSN if the cached page has no logged updates.  The LSN is
+     * kept in memory only; the write-ahead rule forces the log up to it
+     * before the page is written.
+     */
+    long getLSN();
+
+    /** Set the LSN of the last log record of an update to this page. */
+    void setLSN(long lsn);
+
   /**
    * Generates a byte array representing the contents of this page.
    * Used to serialize this page to disk.
@@ -0,0 +1,170 @@
+package simpledb.storage;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageArena is a preallocated off-heap region divided into frames of one
+ * page each, which {@link ArenaHeapPage}s keep their images in, so that the
+ * pages cached by the BufferPool cost the garbage collector a few small
+ * objects each rather than a page-sized array.
+ * <p>
+ * A frame is handed out as a {@link Frame} whose buffer is exactly one page.
+ * Its owner returns it with {@link #free} once nothing reads it any more;
+ * the BufferPool has its pages do so when it evicts or discards them.  A
+ * frame that is dropped without being freed is returned once its Frame is
+ * no longer reachable, so the pages using it must only access its buffer
+ * with absolute gets and puts and must never keep a duplicate or slice of
+ * it.  If all frames are in use, a frame is allocated on the heap instead,
+ * so that running out of frames costs garbage collection rather than
+ * correctness.
+ *
+ * @see BufferPool#getArena
+ * @Threadsafe
+ */
+public class PageArena {
+
+    /** A page-sized buffer, in a frame of an arena or on the heap. */
+    public static final class Frame {
+        final ByteBuffer buffer;
+        /** the number of the frame in the arena, or -1 for a buffer on the heap */
+        final int number;
+        /** set once the frame is given back to the arena //protected by the arena */
+        boolean freed = false;
+
+        Frame(ByteBuffer buffer, int number) {
+            this.buffer = buffer;
+            this.number = number;
+        }
+
+        /** @return true if the buffer is on the heap rather than in an arena */
+        boolean onHeap() {
+            return number < 0;
+        }
+    }
+
+    /** A frame in use, noticed once its Frame is garbage. */
+    private static class FrameRef extends PhantomReference<Frame> {
+        final int frame;
+
+        FrameRef(Frame referent, ReferenceQueue<Frame> queue) {
+            super(referent, queue);
+            this.frame = referent.number;
+        }
+    }
+
+    private final ByteBuffer arena;
+    private final int frameSize;
+    private final int numFrames;
+    /** numbers of the free frames, in the first freeCount entries */
+    private final int[] free;
+    private int freeCount;
+
+    private final ReferenceQueue<Frame> released = new ReferenceQueue<>();
+    /** the references to frames in use by frame number, which have to stay reachable themselves */
+    private final FrameRef[] inUse;
+    private final AtomicLong heapFrames = new AtomicLong();
+    private final AtomicLong framesCollected = new AtomicLong();
+
+    /**
+     * Allocates an arena of the specified number of frames of the current
+     * page size.
+     */
+    public PageArena(int numFrames) {
+        this.frameSize = BufferPool.getPageSize();
+        this.numFrames = numFrames;
+        this.arena = ByteBuffer.allocateDirect(numFrames * frameSize);
+        this.free = new int[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            free[i] = numFrames - 1 - i;
+        }
+        this.freeCount = numFrames;
+        this.inUse = new FrameRef[numFrames];
+    }
+
+    /** @return a page-sized buffer on the heap, all zeros, which is never freed */
+    static Frame heapFrame() {
+        return new Frame(ByteBuffer.allocate(BufferPool.getPageSize()), -1);
+    }
+
+    /**
+     * @return a page-sized buffer, all zeros, from a free frame of the arena
+     *         or from the heap if there is none
+     */
+    public Frame allocate() {
+        synchronized (this) {
+            reclaim();
+            if (freeCount > 0) {
+                int number = free[--freeCount];
+                ByteBuffer view = arena.duplicate();
+                view.position(number * frameSize);
+                view.limit((number + 1) * frameSize);
+                ByteBuffer buffer = view.slice();
+                int i = 0;
+                for (; i + 8 <= frameSize; i += 8) {
+                    buffer.putLong(i, 0L);
+                }
+                for (; i < frameSize; i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                Frame frame = new Frame(buffer, number);
+                inUse[number] = new FrameRef(frame, released);
+                return frame;
+            }
+        }
+        heapFrames.incrementAndGet();
+        return heapFrame();
+    }
+
+    /**
+     * Gives a frame back to the arena for reuse.  Its buffer must not be
+     * accessed afterwards.  Does nothing for frames on the heap or frames
+     * already freed.
+     */
+    public synchronized void free(Frame frame) {
+        if (frame.onHeap() || frame.freed) {
+            return;
+        }
+        frame.freed = true;
+        inUse[frame.number].clear();
+        inUse[frame.number] = null;
+        free[freeCount++] = frame.number;
+    }
+
+    /** Takes back the frames whose Frames were collected without being freed.  Holds this. */
+    private void reclaim() {
+        Reference<? extends Frame> ref;
+        while ((ref = released.poll()) != null) {
+            int number = ((FrameRef) ref).frame;
+            if (inUse[number] == ref) {
+                inUse[number] = null;
+                free[freeCount++] = number;
+                framesCollected.incrementAndGet();
+            }
+        }
+    }
+
+    /** @return the number of frames of the arena */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /** @return the number of frames neither freed nor known to be garbage yet */
+    public synchronized int getFramesInUse() {
+        reclaim();
+        return numFrames - freeCount;
+    }
+
+    /** @return the number of frames allocated on the heap because the arena was full */
+    public long getHeapFrames() {
+        return heapFrames.get();
+    }
+
+    /** @return the number of frames taken back only once they were garbage, without being freed */
+    public long getFramesCollected() {
+        return framesCollected.get();
+    }
+}
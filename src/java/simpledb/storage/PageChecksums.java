@@ -0,0 +1,194 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PageChecksums keeps a {@link Crc32c} checksum of every page of a HeapFile
+ * or BTreeFile, so that a page that was damaged on disk is noticed when it is
+ * read instead of being handed to a scan as garbage.
+ * <p>
+ * The checksums are kept in a side file next to the table, with a record per
+ * page of a flag followed by the checksum, rather than in the pages
+ * themselves, so that the page formats and the number of tuples per page do
+ * not change.  A page without a record, e.g. one past the end of the side
+ * file or one appended to the table by other means, has an unknown checksum
+ * and is never rejected.
+ * <p>
+ * A page and its record cannot be written at once, so a crash between the
+ * two must not leave a record that rejects the page.  Before a page is
+ * written, the checksum of its new image is written through to its record
+ * as pending ({@link #expect}), and the page is accepted with either its old
+ * or its new checksum until the record is stamped with the new one alone
+ * after the write ({@link #stamp}).  Records are padded to 16 bytes so that
+ * none straddles a disk sector.
+ *
+ * @see BufferPool#setVerifyChecksums
+ * @Threadsafe
+ */
+public class PageChecksums {
+
+    /** The suffix appended to the name of a table file to name its checksums. */
+    public static final String SUFFIX = ".crc";
+
+    private static final int KNOWN = 1;
+    /** flag of a record whose page may have either the checksum or the pending one */
+    private static final int PENDING = 2;
+    /** number of ints in the record of a page: flag, checksum, pending checksum, padding */
+    private static final int WIDTH = 4;
+
+    private final File file;
+    private int[] records;
+    private FileChannel channel;
+
+    /**
+     * Loads the checksums of the specified table file, or starts without any
+     * if the table has none yet.  Records of pages past the end of the table
+     * are left over from an earlier table in the same file and dropped.
+     *
+     * @param tableFile the file holding the table's pages
+     * @param numPages the number of pages of the table
+     */
+    public PageChecksums(File tableFile, int numPages) {
+        this.file = new File(tableFile.getPath() + SUFFIX);
+        int[] loaded = new int[0];
+        if (file.exists()) {
+            try {
+                IntBuffer ints = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).asIntBuffer();
+                int stored = ints.remaining() / WIDTH;
+                loaded = new int[Math.min(stored, numPages) * WIDTH];
+                ints.get(loaded);
+                if (stored > numPages) {
+                    try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                        ch.truncate((long) loaded.length * 4);
+                    }
+                }
+            } catch (IOException e) {
+                // pages without a checksum are never rejected
+                loaded = new int[0];
+            }
+        }
+        this.records = loaded;
+    }
+
+    /** @return the side file the checksums are stored in */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Records the checksum of a page about to be written as pending, and
+     * writes it through to disk, so that the page is accepted whether or not
+     * the write reaches the disk.  A page whose record was already pending,
+     * after a crash, may be in either of two images on disk, so its checksum
+     * becomes unknown until it is stamped.
+     *
+     * @param data the bytes of the page to be written
+     */
+    public synchronized void expect(int pageNo, byte[] data) throws IOException {
+        int base = pageNo * WIDTH;
+        if (base >= records.length || records[base] == 0) {
+            return;
+        }
+        if (records[base] == KNOWN) {
+            records[base] = PENDING;
+            records[base + 2] = Crc32c.compute(data, 0, data.length);
+        } else {
+            records[base] = 0;
+        }
+        writeRecord(pageNo);
+    }
+
+    /**
+     * Records the checksum of a page that was just written, and writes it
+     * through to disk.
+     *
+     * @param data the bytes of the page as written
+     */
+    public synchronized void stamp(int pageNo, byte[] data) throws IOException {
+        int needed = (pageNo + 1) * WIDTH;
+        if (records.length < needed) {
+            records = Arrays.copyOf(records, Math.max(needed, records.length * 2));
+        }
+        int base = pageNo * WIDTH;
+        records[base] = KNOWN;
+        records[base + 1] = Crc32c.compute(data, 0, data.length);
+        records[base + 2] = 0;
+        writeRecord(pageNo);
+    }
+
+    private void writeRecord(int pageNo) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(WIDTH * 4);
+        buf.asIntBuffer().put(records, pageNo * WIDTH, WIDTH);
+        FileChannel ch = channel();
+        long offset = (long) pageNo * WIDTH * 4;
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * @return false if the specified bytes read for a page do not match the
+     *         checksum recorded when it was written, or the one pending for
+     *         a write that may have been cut short; true if they do or the
+     *         page has no checksum
+     */
+    public boolean verify(int pageNo, byte[] data) {
+        int expected;
+        int pending;
+        synchronized (this) {
+            int base = pageNo * WIDTH;
+            if (base >= records.length || records[base] != KNOWN && records[base] != PENDING) {
+                return true;
+            }
+            expected = records[base + 1];
+            pending = records[base] == PENDING ? records[base + 2] : expected;
+        }
+        int crc = Crc32c.compute(data, 0, data.length);
+        return crc == expected || crc == pending;
+    }
+
+    /**
+     * Writes the checksums of a table whose pages are given in order, e.g.
+     * by {@link HeapFileEncoder}, replacing any existing ones.
+     */
+    static void write(File tableFile, List<Integer> checksums) throws IOException {
+        File f = new File(tableFile.getPath() + SUFFIX);
+        ByteBuffer buf = ByteBuffer.allocate(checksums.size() * WIDTH * 4);
+        for (int crc : checksums) {
+            buf.putInt(KNOWN).putInt(crc).putInt(0).putInt(0);
+        }
+        buf.flip();
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        }
+        return channel;
+    }
+
+    /**
+     * Closes the side file.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs a free frame.
+ * <p>
+ * The BufferPool reports every page that enters the pool, every hit on a
+ * resident page and every page that leaves the pool; when it runs out of
+ * frames it asks the policy for a victim.  The policy only tracks page ids;
+ * the pages themselves stay in the BufferPool's page table.
+ * <p>
+ * Implementations must be thread safe: BufferPool calls into them from
+ * concurrent getPage calls without holding any pool-wide lock.
+ *
+ * @see BufferPool
+ * @see ClockReplacementPolicy
+ * @see LruKReplacementPolicy
+ * @see TwoQueueReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Record that the specified page has just been read into the pool.
+     *
+     * @param pid the id of the page that entered the pool
+     */
+    void pageLoaded(PageId pid);
+
+    /**
+     * Record a hit on a page that is already resident in the pool.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Record that the specified page has left the pool, either because it
+     * was evicted or because it was discarded.
+     *
+     * @param pid the id of the page that left the pool
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Pick the page that should be evicted next.  The page is not forgotten
+     * until {@link #pageRemoved} is called for it.
+     *
+     * @param evictable accepts the pages that the BufferPool is currently
+     *                  allowed to evict
+     * @return the id of the chosen victim, or null if no resident page is
+     *         accepted by evictable
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+}
@@ -0,0 +1,147 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * RowMapPage is a page of the row map of a {@link ColumnFile}, which records
+ * the rows that were added to the file and whether each of them is still
+ * live.  The tuples of a column file are addressed by the RecordIds of their
+ * rows in the row map.
+ * <p>
+ * The page starts with the number of rows added to it (4 bytes), followed by
+ * a bitmap with a set bit for every live row.  Rows are only ever appended,
+ * so row i of the file is row i % {@link #capacity()} of page
+ * i / {@link #capacity()} of the row map.
+ *
+ * @see ColumnFile
+ */
+public class RowMapPage implements Page {
+
+    private static final int HEADER_SIZE = 4;
+
+    final ColumnPageId pid;
+    byte[] data;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private boolean dirty = false;
+    private TransactionId tid = null;
+    private volatile long lsn = LogFile.NO_LSN;
+
+    /**
+     * Create a RowMapPage from a set of bytes of data read from disk.
+     */
+    public RowMapPage(ColumnPageId id, byte[] data) {
+        this.pid = id;
+        this.data = data.clone();
+        this.oldData = data;
+    }
+
+    /** @return the number of rows a page of the row map has room for */
+    public static int capacity() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) * 8;
+    }
+
+    /** @return the number of rows added to this page, live or not */
+    public int numRows() {
+        return ((data[0] & 0xff) << 24) | ((data[1] & 0xff) << 16)
+                | ((data[2] & 0xff) << 8) | (data[3] & 0xff);
+    }
+
+    private void setNumRows(int n) {
+        data[0] = (byte) (n >>> 24);
+        data[1] = (byte) (n >>> 16);
+        data[2] = (byte) (n >>> 8);
+        data[3] = (byte) n;
+    }
+
+    /** @return true if no more rows can be added to this page */
+    public boolean isFull() {
+        return numRows() >= capacity();
+    }
+
+    /** @return true if the specified row of this page is live */
+    public boolean isLive(int row) {
+        return (data[HEADER_SIZE + row / 8] >> (row % 8) & 1) == 1;
+    }
+
+    /**
+     * Adds a live row to this page.
+     *
+     * @return the number of the new row within this page
+     * @throws IllegalStateException if the page is full
+     */
+    public int addRow() {
+        int row = numRows();
+        if (row >= capacity()) {
+            throw new IllegalStateException("the page is full");
+        }
+        data[HEADER_SIZE + row / 8] |= (byte) (1 << (row % 8));
+        setNumRows(row + 1);
+        return row;
+    }
+
+    /**
+     * Marks the specified row of this page as deleted.
+     *
+     * @throws DbException if the row is not live
+     */
+    public void deleteRow(int row) throws DbException {
+        if (row < 0 || row >= numRows() || !isLive(row)) {
+            throw new DbException("tuple is not on this page, or it is already deleted");
+        }
+        data[HEADER_SIZE + row / 8] &= (byte) ~(1 << (row % 8));
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public RowMapPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        return new RowMapPage(pid, oldDataRef);
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data.clone();
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * SegmentedFile stores a file of any length as a series of segment files of
+ * a fixed size, so that tables and logs can grow past the limits of a single
+ * file of the file system, and every segment can be memory mapped at once.
+ * <p>
+ * Segment 0 is the file itself and segment n &gt; 0 is the file with
+ * ".n" appended to its name, so that a file shorter than one segment is
+ * stored exactly as it would be without segments.  All offsets are long
+ * offsets into the concatenation of the segments.  Reads and writes may span
+ * segments; a segment is only followed by another once it is full.
+ * <p>
+ * The segment size is a global setting, like the page size: a file must be
+ * opened with the segment size it was written with.  It should be a multiple
+ * of the page size, so that pages do not span segments.
+ * <p>
+ * All I/O goes through a channel per segment that is opened on first use and
+ * shared by every reader and writer, using positional reads and writes.
+ *
+ * @Threadsafe
+ */
+public class SegmentedFile {
+
+    /** Default size of a segment, 1 GB. */
+    public static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+    private static volatile long segmentSize = DEFAULT_SEGMENT_SIZE;
+
+    private final File file;
+    private final long size;
+    private volatile FileChannel[] channels = new FileChannel[0];
+    private volatile MappedByteBuffer[] mappings = new MappedByteBuffer[0];
+    /** number of leading segments known to be full */
+    private volatile int fullSegments = 0;
+
+    /**
+     * Opens the segmented file whose first segment is the specified file,
+     * with the current segment size.
+     */
+    public SegmentedFile(File f) {
+        this.file = f;
+        this.size = segmentSize;
+    }
+
+    public static long getSegmentSize() {
+        return segmentSize;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setSegmentSize(long size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("segment size must be positive, not " + size);
+        }
+        SegmentedFile.segmentSize = size;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetSegmentSize() {
+        SegmentedFile.segmentSize = DEFAULT_SEGMENT_SIZE;
+    }
+
+    /** @return the file storing the specified segment of a segmented file */
+    public static File segment(File f, int n) {
+        return n == 0 ? f : new File(f.getPath() + "." + n);
+    }
+
+    /**
+     * @return the total length of the segments of the specified file, with
+     *         the current segment size
+     */
+    public static long length(File f) {
+        return length(f, segmentSize);
+    }
+
+    private static long length(File f, long size) {
+        long length = 0;
+        for (int n = 0; ; n++) {
+            File s = segment(f, n);
+            if (n > 0 && !s.exists()) {
+                return length;
+            }
+            long segmentLength = s.length();
+            length += segmentLength;
+            if (segmentLength < size) {
+                return length;
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments of the specified file from the specified one on.
+     *
+     * @return true if all of them were deleted
+     */
+    public static boolean delete(File f, int fromSegment) {
+        boolean deleted = true;
+        for (int n = fromSegment; segment(f, n).exists(); n++) {
+            deleted &= segment(f, n).delete();
+        }
+        return deleted;
+    }
+
+    /**
+     * Renames the segments of a file to those of another, replacing the
+     * segments of that file.
+     *
+     * @return true if all segments were renamed
+     */
+    public static boolean rename(File from, File to) {
+        delete(to, 0);
+        boolean renamed = true;
+        for (int n = 0; segment(from, n).exists(); n++) {
+            renamed &= segment(from, n).renameTo(segment(to, n));
+        }
+        return renamed;
+    }
+
+    /**
+     * Opens a stream that writes a segmented file from its start, replacing
+     * any existing segments.
+     */
+    public static OutputStream newOutputStream(File f) throws IOException {
+        final SegmentedFile out = new SegmentedFile(f);
+        out.setLength(0);
+        return new OutputStream() {
+            private long offset = 0;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(ByteBuffer.wrap(b, off, len), offset);
+                offset += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    /** @return the first segment of this file */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the size of the segments of this file */
+    public long segmentSize() {
+        return size;
+    }
+
+    /**
+     * Returns the channel of a segment, opening it on first use.  A channel
+     * is closed as a side effect when a thread blocked in I/O on it is
+     * interrupted, in which case it is reopened.
+     */
+    private FileChannel channel(int n) throws IOException {
+        FileChannel[] chs = channels;
+        FileChannel ch = n < chs.length ? chs[n] : null;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                chs = channels;
+                ch = n < chs.length ? chs[n] : null;
+                if (ch == null || !ch.isOpen()) {
+                    ch = FileChannel.open(segment(file, n).toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    chs = Arrays.copyOf(chs, Math.max(chs.length, n + 1));
+                    chs[n] = ch;
+                    channels = chs;
+                    if (n < mappings.length) {
+                        mappings[n] = null;
+                    }
+                }
+            }
+        }
+        return ch;
+    }
+
+    /** @return true if the specified segment exists on disk */
+    private boolean exists(int n) {
+        FileChannel[] chs = channels;
+        return n < chs.length && chs[n] != null || segment(file, n).exists();
+    }
+
+    /**
+     * Reads bytes at the specified offset into dst, until it is full or the
+     * end of the file is reached.
+     *
+     * @return the number of bytes read, or -1 if offset is at or past the end
+     */
+    public int read(ByteBuffer dst, long offset) throws IOException {
+        int start = dst.position();
+        while (dst.hasRemaining()) {
+            long pos = offset + dst.position() - start;
+            int n = (int) (pos / size);
+            if (!exists(n)) {
+                break;
+            }
+            long within = pos % size;
+            int limit = dst.limit();
+            dst.limit((int) Math.min(limit, dst.position() + (size - within)));
+            int read;
+            try {
+                read = channel(n).read(dst, within);
+            } finally {
+                dst.limit(limit);
+            }
+            if (read < 0) {
+                // the end of a segment that is not full is the end of the file
+                break;
+            }
+        }
+        int read = dst.position() - start;
+        return read == 0 && dst.hasRemaining() ? -1 : read;
+    }
+
+    /**
+     * Writes all of src at the specified offset, extending the file as
+     * needed.
+     */
+    public void write(ByteBuffer src, long offset) throws IOException {
+        int start = src.position();
+        while (src.hasRemaining()) {
+            long pos = offset + src.position() - start;
+            int n = (int) (pos / size);
+            long within = pos % size;
+            fillSegmentsBefore(n);
+            int limit = src.limit();
+            src.limit((int) Math.min(limit, src.position() + (size - within)));
+            try {
+                FileChannel ch = channel(n);
+                long segmentStart = (long) n * size;
+                while (src.hasRemaining()) {
+                    ch.write(src, offset + src.position() - start - segmentStart);
+                }
+            } finally {
+                src.limit(limit);
+            }
+        }
+    }
+
+    /**
+     * Extends the segments before the specified one to their full size, so
+     * that a write past the end of a segment that is not full does not end
+     * the file early.  Extending never overwrites data, so it is safe while
+     * other threads write to those segments.
+     */
+    private void fillSegmentsBefore(int n) throws IOException {
+        if (n <= fullSegments) {
+            return;
+        }
+        synchronized (this) {
+            for (int m = fullSegments; m < n; m++) {
+                try (RandomAccessFile raf = new RandomAccessFile(segment(file, m), "rw")) {
+                    if (raf.length() < size) {
+                        raf.setLength(size);
+                    }
+                }
+            }
+            fullSegments = Math.max(fullSegments, n);
+        }
+    }
+
+    /** @return the total length of the segments of this file */
+    public long length() {
+        return length(file, size);
+    }
+
+    /**
+     * Truncates or extends this file to the specified length, deleting the
+     * segments past its end.
+     */
+    public synchronized void setLength(long length) throws IOException {
+        int last = (int) (length / size);
+        if (length % size == 0 && last > 0) {
+            last--;
+        }
+        close();
+        delete(file, last + 1);
+        for (int n = 0; n <= last; n++) {
+            try (RandomAccessFile raf = new RandomAccessFile(segment(file, n), "rw")) {
+                raf.setLength(n < last ? size : length - (long) last * size);
+            }
+        }
+    }
+
+    /**
+     * Returns a read-only view of the specified range of this file, from a
+     * memory mapping of the segment holding it, or null if the range spans
+     * segments or is not all on disk.
+     *
+     * @return a buffer whose position is at offset and that has at least
+     *         length bytes remaining
+     */
+    public ByteBuffer map(long offset, int length) throws IOException {
+        int n = (int) (offset / size);
+        long within = offset % size;
+        if (within + length > size) {
+            return null;
+        }
+        MappedByteBuffer[] maps = mappings;
+        MappedByteBuffer map = n < maps.length ? maps[n] : null;
+        if (map == null || map.capacity() < within + length) {
+            synchronized (this) {
+                if (!exists(n)) {
+                    return null;
+                }
+                FileChannel ch = channel(n);
+                maps = mappings;
+                map = n < maps.length ? maps[n] : null;
+                if (map == null || map.capacity() < within + length) {
+                    long segmentLength = ch.size();
+                    if (segmentLength < within + length) {
+                        return null;
+                    }
+                    map = ch.map(FileChannel.MapMode.READ_ONLY, 0, segmentLength);
+                    maps = Arrays.copyOf(maps, Math.max(maps.length, n + 1));
+                    maps[n] = map;
+                    mappings = maps;
+                }
+            }
+        }
+        ByteBuffer view = map.duplicate();
+        view.position((int) within);
+        return view;
+    }
+
+    /** Forces all segments of this file to disk. */
+    public void force() throws IOException {
+        for (FileChannel ch : channels) {
+            if (ch != null && ch.isOpen()) {
+                ch.force(true);
+            }
+        }
+    }
+
+    /**
+     * Closes the channels of this file.  They are reopened if the file is
+     * used again afterwards.
+     */
+    public synchronized void close() throws IOException {
+        for (FileChannel ch : channels) {
+            if (ch != null) {
+                ch.close();
+            }
+        }
+        channels = new FileChannel[0];
+        mappings = new MappedByteBuffer[0];
+        fullSegments = 0;
+    }
+}
@@ -0,0 +1,269 @@
+package simpledb.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * SegmentedRandomAccessFile reads and writes a {@link SegmentedFile} through
+ * a file pointer, with the methods of {@link java.io.RandomAccessFile}, so
+ * that code written against a RandomAccessFile, like the {@link LogFile},
+ * can store files of any length.
+ * <p>
+ * Like a RandomAccessFile, it is not safe for use by multiple threads,
+ * except for its positional {@link #write(ByteBuffer, long)}.
+ */
+public class SegmentedRandomAccessFile implements DataInput, DataOutput {
+
+    private final SegmentedFile file;
+    private long pointer = 0;
+    /** scratch buffer for the primitive reads and writes */
+    private final ByteBuffer scratch = ByteBuffer.allocate(8);
+
+    /**
+     * Opens the segmented file whose first segment is the specified file,
+     * creating it if it does not exist.
+     */
+    public SegmentedRandomAccessFile(File f) throws IOException {
+        this.file = new SegmentedFile(f);
+        if (!f.exists()) {
+            file.setLength(0);
+        }
+    }
+
+    /** @return the offset of the next read or write */
+    public long getFilePointer() {
+        return pointer;
+    }
+
+    public void seek(long pos) throws IOException {
+        if (pos < 0) {
+            throw new IOException("negative seek offset " + pos);
+        }
+        pointer = pos;
+    }
+
+    public long length() {
+        return file.length();
+    }
+
+    /** Truncates or extends the file, moving the file pointer to its end if it was past it. */
+    public void setLength(long newLength) throws IOException {
+        file.setLength(newLength);
+        pointer = Math.min(pointer, newLength);
+    }
+
+    /** Forces all segments of the file to disk. */
+    public void force() throws IOException {
+        file.force();
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Reads up to len bytes.
+     *
+     * @return the number of bytes read, or -1 at the end of the file
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = file.read(ByteBuffer.wrap(b, off, len), pointer);
+        if (n > 0) {
+            pointer += n;
+        }
+        return n;
+    }
+
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        if (len > 0 && read(b, off, len) != len) {
+            throw new EOFException();
+        }
+    }
+
+    private ByteBuffer readScratch(int len) throws IOException {
+        scratch.clear();
+        scratch.limit(len);
+        if (file.read(scratch, pointer) != len) {
+            throw new EOFException();
+        }
+        pointer += len;
+        scratch.flip();
+        return scratch;
+    }
+
+    public int skipBytes(int n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, length() - pointer));
+        pointer += skipped;
+        return (int) skipped;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws IOException {
+        return readScratch(1).get();
+    }
+
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xff;
+    }
+
+    public short readShort() throws IOException {
+        return readScratch(2).getShort();
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xffff;
+    }
+
+    public char readChar() throws IOException {
+        return readScratch(2).getChar();
+    }
+
+    public int readInt() throws IOException {
+        return readScratch(4).getInt();
+    }
+
+    public long readLong() throws IOException {
+        return readScratch(8).getLong();
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (pointer < length()) {
+            int c = readUnsignedByte();
+            if (c == '\n') {
+                return line.toString();
+            }
+            if (c == '\r') {
+                if (pointer < length() && readUnsignedByte() != '\n') {
+                    pointer--;
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        file.write(ByteBuffer.wrap(b, off, len), pointer);
+        pointer += len;
+    }
+
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    /**
+     * Writes all of src at the specified offset without moving the file
+     * pointer.  Unlike the other methods, safe to call while another thread
+     * reads or writes through the file pointer.
+     */
+    public void write(ByteBuffer src, long offset) throws IOException {
+        file.write(src, offset);
+    }
+
+    private void writeScratch() throws IOException {
+        scratch.flip();
+        int len = scratch.remaining();
+        file.write(scratch, pointer);
+        pointer += len;
+    }
+
+    public void write(int b) throws IOException {
+        writeByte(b);
+    }
+
+    public void writeBoolean(boolean v) throws IOException {
+        writeByte(v ? 1 : 0);
+    }
+
+    public void writeByte(int v) throws IOException {
+        scratch.clear();
+        scratch.put((byte) v);
+        writeScratch();
+    }
+
+    public void writeShort(int v) throws IOException {
+        scratch.clear();
+        scratch.putShort((short) v);
+        writeScratch();
+    }
+
+    public void writeChar(int v) throws IOException {
+        scratch.clear();
+        scratch.putChar((char) v);
+        writeScratch();
+    }
+
+    public void writeInt(int v) throws IOException {
+        scratch.clear();
+        scratch.putInt(v);
+        writeScratch();
+    }
+
+    public void writeLong(long v) throws IOException {
+        scratch.clear();
+        scratch.putLong(v);
+        writeScratch();
+    }
+
+    public void writeFloat(float v) throws IOException {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    public void writeDouble(double v) throws IOException {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    public void writeBytes(String s) throws IOException {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        write(b);
+    }
+
+    public void writeChars(String s) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(s.length() * 2);
+        for (int i = 0; i < s.length(); i++) {
+            b.putChar(s.charAt(i));
+        }
+        write(b.array());
+    }
+
+    public void writeUTF(String s) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length() + 2);
+        new DataOutputStream(bytes).writeUTF(s);
+        write(bytes.toByteArray());
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb.storage;
+
+import java.io.File;
+
+/**
+ * SlottedHeapFile is a {@link HeapFile} whose pages are {@link SlottedPage}s,
+ * which store every tuple in only as many bytes as it needs.  It is meant
+ * for tables with STRING_TYPE columns whose values are mostly much shorter
+ * than {@link simpledb.common.Type#STRING_LEN}.
+ * <p>
+ * Since tuples differ in size, the free space map only tells apart pages that
+ * may have room from pages that are full: a page found to have no room for
+ * the tuple being inserted is taken as full until a tuple is deleted from it.
+ *
+ * @see SlottedPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            if true, pages are read from a memory mapping of the file
+     *            rather than copied in with a read call
+     */
+    public SlottedHeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        super(f, td, memoryMapped);
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId pid, byte[] data) {
+        return new SlottedPage(pid, data, getTupleDesc());
+    }
+}
@@ -0,0 +1,430 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * SlottedPage is a page of a {@link SlottedHeapFile}.  Unlike a
+ * {@link HeapPage}, whose slots all have room for the longest possible
+ * tuple, it stores every tuple in a record of just the bytes it needs, so a
+ * table of short strings fits many more tuples on a page.
+ * <p>
+ * The page starts with a header of two unsigned 16-bit numbers: the number
+ * of slots, and the offset at which the records start (0 standing for the
+ * end of the page).  The header is followed by the slot directory, with an
+ * entry of two unsigned 16-bit numbers per slot, the offset and the length
+ * of its record; an offset of 0 marks a free slot.  The records are packed
+ * at the end of the page, growing down towards the slot directory.  An
+ * all-zero page is a valid empty page.
+ * <p>
+ * A record holds the fields of a tuple one after the other: an INT_TYPE
+ * field takes 4 bytes, a STRING_TYPE field a 2-byte length followed by the
+ * characters of the string, of which, as for HeapPages, at most
+ * {@link Type#STRING_LEN} are kept.
+ * <p>
+ * The tuple in a slot keeps its slot, and so its RecordId, until it is
+ * deleted; records are moved around on the page to make contiguous room for
+ * a new record when needed.
+ *
+ * @see SlottedHeapFile
+ * @see BufferPool
+ */
+public class SlottedPage implements TuplePage {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /** the page image */
+    byte[] data;
+    /** true while data may not be modified in place, as it is shared with
+        the before image or the creator of the page */
+    private boolean shared;
+    /** number of bytes taken by the records of the used slots */
+    private int recordBytes;
+
+    /** the before image, or null while it is identical to data */
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private boolean dirty = false;
+    private TransactionId tid = null;
+    private volatile long lsn = LogFile.NO_LSN;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, for a
+     * table in the catalog.
+     *
+     * @see Database#getCatalog
+     * @see BufferPool#getPageSize()
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a SlottedPage of tuples of the specified TupleDesc.
+     *
+     * @throws IllegalArgumentException if the page size is too large for the
+     *         16-bit offsets of the format
+     */
+    public SlottedPage(HeapPageId id, byte[] data, TupleDesc td) {
+        if (BufferPool.getPageSize() > 0x10000) {
+            throw new IllegalArgumentException("pages of " + BufferPool.getPageSize()
+                    + " bytes are too large for slotted pages");
+        }
+        this.pid = id;
+        this.td = td;
+        this.data = data.length == BufferPool.getPageSize()
+                ? data : Arrays.copyOf(data, BufferPool.getPageSize());
+        for (int i = 0; i < getNumSlots(); i++) {
+            recordBytes += recordLength(i);
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    private int u16(int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    private void putU16(int offset, int value) {
+        data[offset] = (byte) (value >>> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    /** @return the number of slots in the slot directory, used or not */
+    public int getNumSlots() {
+        return u16(0);
+    }
+
+    /** @return the offset of the first byte of the records */
+    private int recordsStart() {
+        int start = u16(2);
+        return start == 0 ? data.length : start;
+    }
+
+    private int recordOffset(int slot) {
+        return u16(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int recordLength(int slot) {
+        return u16(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        putU16(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putU16(HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int slot) {
+        return slot < getNumSlots() && recordOffset(slot) != 0;
+    }
+
+    /** @return the first free slot, or the number of slots if there is none */
+    private int freeSlot() {
+        int n = getNumSlots();
+        for (int i = 0; i < n; i++) {
+            if (recordOffset(i) == 0) {
+                return i;
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of bytes a record of t takes */
+    private int recordSize(Tuple t) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                size += 4;
+            } else {
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            }
+        }
+        return size;
+    }
+
+    /** @return the number of bytes of the smallest possible record */
+    private int minRecordSize() {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getFieldType(i) == Type.INT_TYPE ? 4 : 2;
+        }
+        return size;
+    }
+
+    /** @return the number of bytes not taken by the header, slots or records */
+    private int freeBytes() {
+        return data.length - HEADER_SIZE - getNumSlots() * SLOT_SIZE - recordBytes;
+    }
+
+    /** @return true if a record of the specified size fits on the page */
+    private boolean fits(int size) {
+        int slotBytes = freeSlot() < getNumSlots() ? 0 : SLOT_SIZE;
+        return freeBytes() >= size + slotBytes;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return td.equals(t.getTupleDesc()) && fits(recordSize(t));
+    }
+
+    public boolean isFull() {
+        return !fits(minRecordSize());
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData != null ? oldData : data;
+        }
+        return new SlottedPage(pid, oldDataRef, td);
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+            shared = true;
+        }
+    }
+
+    /**
+     * Called before the page image is modified, to switch to a private copy
+     * of it if it is still shared.
+     */
+    private void beforeWrite() {
+        synchronized (oldDataLock) {
+            if (shared) {
+                if (oldData == null) {
+                    oldData = data;
+                }
+                data = data.clone();
+                shared = false;
+            }
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * can be passed to the SlottedPage constructor to get an identical page.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     *
+     * @throws DbException if the tuple does not fit on the page or its
+     *         TupleDesc does not match the page's
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        int size = recordSize(t);
+        if (!fits(size)) {
+            throw new DbException("the page is full");
+        }
+        beforeWrite();
+        int slot = freeSlot();
+        int numSlots = getNumSlots();
+        if (slot == numSlots) {
+            numSlots++;
+        }
+        int slotEnd = HEADER_SIZE + numSlots * SLOT_SIZE;
+        if (recordsStart() - size < slotEnd) {
+            compact();
+        }
+        int offset = recordsStart() - size;
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int v = ((IntField) f).getValue();
+                data[offset++] = (byte) (v >>> 24);
+                data[offset++] = (byte) (v >>> 16);
+                data[offset++] = (byte) (v >>> 8);
+                data[offset++] = (byte) v;
+            } else {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                putU16(offset, len);
+                offset += 2;
+                for (int c = 0; c < len; c++) {
+                    data[offset++] = (byte) s.charAt(c);
+                }
+            }
+        }
+        putU16(0, numSlots);
+        putU16(2, recordsStart() - size);
+        setSlot(slot, recordsStart(), size);
+        recordBytes += size;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Moves all records to the end of the page, so that the free space is
+     * contiguous.  Slots keep their numbers.
+     */
+    private void compact() {
+        int n = getNumSlots();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        // move the records nearest the end first, so that no record is
+        // overwritten before it is moved
+        Arrays.sort(order, (a, b) -> Integer.compare(recordOffset(b), recordOffset(a)));
+        int end = data.length;
+        for (int slot : order) {
+            int offset = recordOffset(slot);
+            if (offset == 0) {
+                break;
+            }
+            int length = recordLength(slot);
+            end -= length;
+            System.arraycopy(data, offset, data, end, length);
+            setSlot(slot, end, length);
+        }
+        putU16(2, end == data.length ? 0 : end);
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pid) || !isSlotUsed(rid.getTupleNumber())) {
+            throw new DbException("tuple is not on this page, or tuple slot is already empty");
+        }
+        beforeWrite();
+        int slot = rid.getTupleNumber();
+        int offset = recordOffset(slot);
+        int length = recordLength(slot);
+        recordBytes -= length;
+        if (offset == recordsStart()) {
+            putU16(2, offset + length == data.length ? 0 : offset + length);
+        }
+        setSlot(slot, 0, 0);
+        // trailing free slots are given back to the records
+        int n = getNumSlots();
+        while (n > 0 && recordOffset(n - 1) == 0) {
+            n--;
+        }
+        putU16(0, n);
+        if (n == 0) {
+            putU16(2, 0);
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+
+    /** @return the tuple in the specified slot, which must be in use */
+    private Tuple getTuple(byte[] image, int slot) {
+        Tuple t = new Tuple(td);
+        int offset = recordOffset(slot);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                t.setField(i, new IntField(Type.decodeInt(image, offset)));
+                offset += 4;
+            } else {
+                int len = ((image[offset] & 0xff) << 8) | (image[offset + 1] & 0xff);
+                t.setField(i, new StringField(new String(image, offset + 2, len), Type.STRING_LEN));
+                offset += 2 + len;
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this
+     *         iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        List<Tuple> tuples = new ArrayList<>();
+        byte[] image = data;
+        for (int i = 0; i < getNumSlots(); i++) {
+            if (isSlotUsed(i)) {
+                tuples.add(getTuple(image, i));
+            }
+        }
+        return Collections.unmodifiableList(tuples).iterator();
+    }
+
+    public int readInto(TupleBatch batch, int fromSlot) {
+        byte[] image = data;
+        int nfields = td.numFields();
+        int numSlots = getNumSlots();
+        int slot = fromSlot;
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            int offset = recordOffset(slot);
+            if (offset == 0) {
+                continue;
+            }
+            int row = batch.addRow();
+            for (int f = 0; f < nfields; f++) {
+                if (td.getFieldType(f) == Type.INT_TYPE) {
+                    batch.setInt(f, row, Type.decodeInt(image, offset));
+                    offset += 4;
+                } else {
+                    int len = ((image[offset] & 0xff) << 8) | (image[offset + 1] & 0xff);
+                    batch.setString(f, row, new String(image, offset + 2, len));
+                    offset += 2 + len;
+                }
+            }
+        }
+        return slot;
+    }
+}
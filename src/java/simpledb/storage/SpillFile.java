@@ -0,0 +1,192 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.execution.OpIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SpillFile is a temporary file of tuples that operators use to move data
+ * out of memory, e.g. the partitions of a hash join that does not fit in its
+ * memory budget or the sorted runs of an external sort.
+ * <p>
+ * Tuples are appended to an in-memory page, which is written to the end of
+ * the file in the {@link HeapPage} format once it is full.  The file is
+ * private to the operator that created it, so it bypasses the BufferPool and
+ * is neither locked nor logged.  It is deleted by {@link #delete()}, which
+ * the operator calls once it is done with it or is closed.
+ */
+public class SpillFile {
+
+    /** Table ids of spill pages; negative so they never clash with tables. */
+    private static final AtomicInteger nextId = new AtomicInteger(Integer.MIN_VALUE);
+
+    private final TupleDesc td;
+    private final int id;
+    private final File file;
+    private FileChannel channel;
+
+    private HeapPage current;
+    private int numPages = 0;
+    private long numTuples = 0;
+
+    /**
+     * Creates an empty spill file in the default temporary directory.
+     *
+     * @param td the schema of the tuples stored in the file
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.id = nextId.getAndIncrement();
+        this.file = File.createTempFile("simpledb-spill", ".dat");
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Chooses the partition of a key for operators that hash-partition
+     * their input into spill files.  Every level of recursive partitioning
+     * hashes with a different seed, so that the keys of a partition that
+     * spilled again are spread over the partitions of the next level.
+     *
+     * @param depth the level of partitioning, 0 for the operator's own input
+     * @return a partition number in [0, numPartitions)
+     */
+    public static int partitionOf(Field key, int depth, int numPartitions) {
+        int h = key.hashCode() * (0x9E3779B9 + 2 * depth);
+        return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % numPartitions;
+    }
+
+    /** @return the schema of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples added to this file */
+    public long size() {
+        return numTuples;
+    }
+
+    /**
+     * Appends the specified tuple to this file.
+     */
+    public void add(Tuple t) throws IOException {
+        if (current == null) {
+            current = new HeapPage(new HeapPageId(id, numPages), HeapPage.createEmptyPageData(), td);
+        }
+        // the page records where it put the tuple; the caller's tuple
+        // keeps its own location
+        RecordId rid = t.getRecordId();
+        try {
+            current.insertTuple(t);
+        } catch (DbException e) {
+            throw new IOException("unable to spill tuple: " + e.getMessage());
+        } finally {
+            t.setRecordId(rid);
+        }
+        numTuples++;
+        if (current.getNumEmptySlots() == 0) {
+            writeCurrent();
+        }
+    }
+
+    private void writeCurrent() throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(current.getPageData());
+        long offset = (long) numPages * BufferPool.getPageSize();
+        while (buf.hasRemaining()) {
+            channel.write(buf, offset + buf.position());
+        }
+        numPages++;
+        current = null;
+    }
+
+    private HeapPage readPage(int pageNo) throws IOException {
+        if (pageNo == numPages) {
+            return current;
+        }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) pageNo * BufferPool.getPageSize();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                throw new IOException("spill file " + file + " is truncated");
+            }
+        }
+        return new HeapPage(new HeapPageId(id, pageNo), data, td);
+    }
+
+    /**
+     * Returns an iterator over the tuples in this file, in the order they
+     * were added.  Tuples must not be added while the iterator is in use.
+     */
+    public OpIterator iterator() {
+        return new OpIterator() {
+            private static final long serialVersionUID = 1L;
+
+            private int pageNo = -1;
+            private Iterator<Tuple> tuples;
+
+            public void open() {
+                pageNo = 0;
+                tuples = null;
+            }
+
+            public boolean hasNext() throws DbException {
+                if (pageNo < 0) {
+                    throw new IllegalStateException("iterator not open");
+                }
+                while (tuples == null || !tuples.hasNext()) {
+                    if (pageNo > numPages || (pageNo == numPages && current == null)) {
+                        return false;
+                    }
+                    try {
+                        tuples = readPage(pageNo++).iterator();
+                    } catch (IOException e) {
+                        throw new DbException("unable to read spill file: " + e.getMessage());
+                    }
+                }
+                return true;
+            }
+
+            public Tuple next() throws DbException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return tuples.next();
+            }
+
+            public void rewind() {
+                open();
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void close() {
+                pageNo = -1;
+                tuples = null;
+            }
+        };
+    }
+
+    /**
+     * Deletes this file.  It cannot be used afterwards.
+     */
+    public void delete() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to lose, the file is going away
+        }
+        current = null;
+        file.delete();
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb.storage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
 
@@ -7,6 +9,9 @@ import java.util.*;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Tuples read from a {@link HeapPage} are views over the page's bytes: each
+ * field is only decoded into a Field the first time it is asked for.
  */
 public class Tuple implements Serializable {
 
@@ -18,6 +23,10 @@ public class Tuple implements Serializable {
 
     private RecordId recordId;
 
+    /** Serialized tuple that unset fields are decoded from, or null. */
+    private byte[] source;
+    private int sourceOffset;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -30,6 +39,30 @@ public class Tuple implements Serializable {
         fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded lazily from the serialized
+     * tuple at the specified offset of data.  The bytes must not change while
+     * the tuple refers to them; call {@link #detach()} before they do.
+     */
+    Tuple(TupleDesc td, byte[] data, int offset) {
+        this(td);
+        this.source = data;
+        this.sourceOffset = offset;
+    }
+
+    /**
+     * Decodes all fields not decoded yet, so that this tuple no longer
+     * depends on the bytes it was read from.
+     */
+    void detach() {
+        if (source != null) {
+            for (int i = 0; i < fields.length; i++) {
+                getField(i);
+            }
+            source = null;
+        }
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -80,7 +113,13 @@ public class Tuple implements Serializable {
         if(i < 0 || i >= this.tupleDesc.numFields()){
             return null;
         }
-        return fields[i];
+        Field f = fields[i];
+        byte[] data = source;
+        if(f == null && data != null){
+            f = tupleDesc.getFieldType(i).parse(data, sourceOffset + tupleDesc.getFieldOffset(i));
+            fields[i] = f;
+        }
+        return f;
     }
 
     /**
@@ -121,6 +160,11 @@ public class Tuple implements Serializable {
         };
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        detach();
+        out.defaultWriteObject();
+    }
+
     /**
      * reset the TupleDesc of this tuple (only affecting the TupleDesc)
      * */
@@ -0,0 +1,214 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+/**
+ * TupleBatch holds a batch of tuples column by column: the values of an
+ * INT_TYPE column are kept in an int[] and those of a STRING_TYPE column in
+ * a String[], so operators working on a batch touch primitive arrays instead
+ * of a Tuple and a boxed Field per value.
+ * <p>
+ * Which rows of the batch are live is given by a selection vector, the
+ * positions of the selected rows in increasing order.  Filters shrink the
+ * selection instead of moving data, so the row positions used to index the
+ * columns stay stable.  Iterate over a batch like this:
+ * <pre>
+ *     for (int i = 0; i &lt; batch.numSelected(); i++) {
+ *         int row = batch.selectedRow(i);
+ *         ... batch.getInt(col, row) ...
+ *     }
+ * </pre>
+ */
+public class TupleBatch {
+
+    /** The number of rows in a batch when none is given explicitly. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final String[][] strings;
+
+    /** number of rows stored, selected or not */
+    private int size = 0;
+    private final int[] selection;
+    private int numSelected = 0;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td the schema of the rows of the batch
+     * @param capacity the maximum number of rows of the batch
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                strings[i] = new String[capacity];
+            }
+        }
+        this.selection = new int[capacity];
+    }
+
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    private TupleBatch(TupleDesc td, TupleBatch source, int[] fields) {
+        this.td = td;
+        this.capacity = source.capacity;
+        this.ints = new int[fields.length][];
+        this.strings = new String[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            ints[i] = source.ints[fields[i]];
+            strings[i] = source.strings[fields[i]];
+        }
+        this.selection = source.selection;
+        this.size = source.size;
+        this.numSelected = source.numSelected;
+    }
+
+    /**
+     * Returns a batch of the specified columns of this batch.  The returned
+     * batch shares its columns and selection with this one, so it is only
+     * valid until this batch is changed.
+     *
+     * @param td the schema of the projected rows
+     * @param fields the indexes of the columns of this batch to keep
+     */
+    public TupleBatch project(TupleDesc td, int[] fields) {
+        return new TupleBatch(td, this, fields);
+    }
+
+    /** @return the schema of the rows of this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the maximum number of rows of this batch */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows stored, including rows not selected */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Removes all rows. */
+    public void clear() {
+        size = 0;
+        numSelected = 0;
+    }
+
+    /**
+     * Adds a row and selects it.  The caller is expected to set the values
+     * of all its columns.
+     *
+     * @return the position of the new row
+     */
+    public int addRow() {
+        if (size == capacity) {
+            throw new IllegalStateException("batch is full");
+        }
+        selection[numSelected++] = size;
+        return size++;
+    }
+
+    /**
+     * Adds the specified tuple as a row and selects it.
+     */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][row] = ((IntField) t.getField(i)).getValue();
+            } else {
+                strings[i][row] = ((StringField) t.getField(i)).getValue();
+            }
+        }
+    }
+
+    /** @return the number of selected rows */
+    public int numSelected() {
+        return numSelected;
+    }
+
+    /** @return the position of the ith selected row */
+    public int selectedRow(int i) {
+        return selection[i];
+    }
+
+    /**
+     * Returns the selection vector, whose first {@link #numSelected()}
+     * entries are the positions of the selected rows.  Callers may compact it
+     * in place and then call {@link #setNumSelected}.
+     */
+    public int[] selection() {
+        return selection;
+    }
+
+    /**
+     * Sets the number of selected rows after the selection vector has been
+     * changed in place.
+     */
+    public void setNumSelected(int n) {
+        if (n < 0 || n > numSelected) {
+            throw new IllegalArgumentException("a selection can only shrink");
+        }
+        numSelected = n;
+    }
+
+    /** @return the values of the specified INT_TYPE column, by row position */
+    public int[] intColumn(int field) {
+        return ints[field];
+    }
+
+    /** @return the values of the specified STRING_TYPE column, by row position */
+    public String[] stringColumn(int field) {
+        return strings[field];
+    }
+
+    public int getInt(int field, int row) {
+        return ints[field][row];
+    }
+
+    public String getString(int field, int row) {
+        return strings[field][row];
+    }
+
+    public void setInt(int field, int row, int value) {
+        ints[field][row] = value;
+    }
+
+    public void setString(int field, int row, String value) {
+        strings[field][row] = value;
+    }
+
+    /** @return the value of the specified column of a row, as a Field */
+    public Field getField(int field, int row) {
+        if (ints[field] != null) {
+            return new IntField(ints[field][row]);
+        }
+        return new StringField(strings[field][row], Type.STRING_LEN);
+    }
+
+    /** @return the row at the specified position as a Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            t.setField(i, getField(i, row));
+        }
+        return t;
+    }
+}
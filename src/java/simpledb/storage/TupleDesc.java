@@ -10,7 +10,10 @@ import java.util.*;
  */
 public class TupleDesc implements Serializable {
 
-    private List<TDItem> fields = new LinkedList();
+    private List<TDItem> fields = new ArrayList<>();
+
+    /** Byte offset of each field within a serialized tuple, computed on first use. */
+    private transient int[] fieldOffsets;
 
     /**
      * A help class to facilitate organizing the information of each field
@@ -153,11 +156,30 @@ public class TupleDesc implements Serializable {
      *         Note that tuples from a given TupleDesc are of a fixed size.
      */
     public int getSize() {
-        int sum = 0;
-        for(int i = 0 ; i < numFields(); i++){
-            sum += this.fields.get(i).fieldType.getLen();
+        int[] offsets = fieldOffsets();
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * @return the offset (in bytes) of the ith field within a serialized
+     *         tuple of this TupleDesc
+     * @param i
+     *            index of the field. It must be a valid index.
+     */
+    public int getFieldOffset(int i) {
+        return fieldOffsets()[i];
+    }
+
+    private int[] fieldOffsets() {
+        int[] offsets = fieldOffsets;
+        if (offsets == null) {
+            offsets = new int[numFields() + 1];
+            for(int i = 0 ; i < numFields(); i++){
+                offsets[i + 1] = offsets[i] + this.fields.get(i).fieldType.getLen();
+            }
+            fieldOffsets = offsets;
         }
-        return sum;
+        return offsets;
     }
 
     /**
@@ -166,7 +188,7 @@ public class TupleDesc implements Serializable {
      * @param _fields list of TDItem
      */
     public TupleDesc(List<TDItem> _fields){
-        this.fields = _fields;
+        this.fields = new ArrayList<>(_fields);
     }
 
     /**
@@ -180,7 +202,7 @@ public class TupleDesc implements Serializable {
      * @return the new TupleDesc
      */
     public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {
-        List<TDItem> mergedFields = new LinkedList();
+        List<TDItem> mergedFields = new ArrayList<>(td1.numFields() + td2.numFields());
         mergedFields.addAll(td1.fields);
         mergedFields.addAll(td2.fields);
         TupleDesc result = new TupleDesc(mergedFields);
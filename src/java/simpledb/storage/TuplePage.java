@@ -0,0 +1,61 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is a page of a {@link HeapFile}: it holds tuples in no particular
+ * order, each of which is addressed by the number of the slot it is in.
+ * {@link HeapPage} stores tuples in fixed-size slots, {@link SlottedPage}
+ * stores variable-length records.
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * @return true if the specified tuple can be inserted into this page
+     */
+    boolean hasRoomFor(Tuple t);
+
+    /**
+     * @return true if no tuple at all can be inserted into this page anymore
+     */
+    boolean isFull();
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     *
+     * @throws DbException if the tuple does not fit or its TupleDesc does not
+     *         match the page's
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this
+     *         iterator throws an UnsupportedOperationException)
+     */
+    Iterator<Tuple> iterator();
+
+    /** @return the number of tuple slots on this page, used or not */
+    int getNumSlots();
+
+    /**
+     * Decodes the tuples in the used slots of this page, starting at the
+     * specified slot, into rows of batch until the batch is full.
+     *
+     * @param batch the batch to add rows to; its schema must match the page's
+     * @param fromSlot the first slot to look at
+     * @return the slot to continue at, or the number of slots on the page if
+     *         all tuples were read
+     */
+    int readInto(TupleBatch batch, int fromSlot);
+}
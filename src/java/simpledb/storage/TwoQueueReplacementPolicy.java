@@ -0,0 +1,104 @@
+package simpledb.storage;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha).
+ * <p>
+ * Pages read for the first time enter a FIFO queue, A1in.  When they age
+ * out of A1in only their id is remembered, in a bounded ghost queue A1out.
+ * A page that is read again while its id is still in A1out has proven to be
+ * re-referenced and goes to Am, an LRU queue holding the hot set.  Victims
+ * come from A1in while it is larger than its share of the pool, and from the
+ * cold end of Am otherwise, so one-off scans only ever churn A1in.
+ *
+ * @Threadsafe
+ */
+public class TwoQueueReplacementPolicy implements ReplacementPolicy {
+
+    private final int kin;
+    private final int kout;
+
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    /** access ordered, so iteration starts at the least recently used page */
+    private final LinkedHashMap<PageId, Boolean> am = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Creates a 2Q policy with the tuning suggested in the paper: A1in holds
+     * a quarter of the pool and A1out remembers half a pool worth of ids.
+     *
+     * @param capacity the number of frames in the buffer pool
+     */
+    public TwoQueueReplacementPolicy(int capacity) {
+        this(capacity, Math.max(1, capacity / 4), Math.max(1, capacity / 2));
+    }
+
+    /**
+     * @param capacity the number of frames in the buffer pool
+     * @param kin the target size of the A1in queue
+     * @param kout the maximum number of ids remembered in A1out
+     */
+    public TwoQueueReplacementPolicy(int capacity, int kin, int kout) {
+        if (capacity < 1 || kin < 1 || kout < 0) {
+            throw new IllegalArgumentException("invalid 2Q queue sizes");
+        }
+        this.kin = Math.min(kin, capacity);
+        this.kout = kout;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (am.containsKey(pid) || a1in.contains(pid)) {
+            pageAccessed(pid);
+        } else if (a1out.remove(pid)) {
+            am.put(pid, Boolean.TRUE);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        // hits in A1in are deliberately ignored: a burst of references right
+        // after a page is read says nothing about its long term popularity
+        am.get(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = first(a1in, evictable);
+            if (victim == null) {
+                victim = first(am.keySet(), evictable);
+            }
+        } else {
+            victim = first(am.keySet(), evictable);
+            if (victim == null) {
+                victim = first(a1in, evictable);
+            }
+        }
+        return victim;
+    }
+
+    private static PageId first(Collection<PageId> queue, Predicate<PageId> evictable) {
+        for (PageId pid : queue) {
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,309 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * ZoneMap keeps the minimum and maximum of every INT_TYPE column of every
+ * page of a HeapFile, so that a scan with a predicate can skip the pages
+ * whose values cannot match it without reading them.
+ * <p>
+ * The map is kept in a side file next to the table, with a record per page
+ * of a flag followed by the minimum and maximum of every field (unused for
+ * STRING_TYPE fields).  A page without a record, e.g. one past the end of
+ * the side file, has an unknown zone and is never skipped.  An empty page
+ * has a minimum above its maximum and is always skipped.
+ * <p>
+ * A zone may be wider than the values on its page, but never narrower, or
+ * a scan would miss tuples.  So inserts widen the zone of their page right
+ * away, while a zone is only narrowed to the values of its page when the
+ * page is written: the zone on disk is first widened to cover the page being
+ * written, and only narrowed after the page itself is on disk.  Deleted
+ * values thus leave the zone of their page when it is next written.
+ *
+ * @Threadsafe
+ */
+public class ZoneMap {
+
+    /** The suffix appended to the name of a table file to name its map. */
+    public static final String SUFFIX = ".zm";
+
+    private static final int KNOWN = 1;
+
+    private final File file;
+    private final TupleDesc td;
+    /** number of ints in the record of a page */
+    private final int width;
+    private int[] zones;
+    private FileChannel channel;
+
+    /** Range of pages whose zones changed since the last flush. */
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = -1;
+
+    /**
+     * Loads the zone map of the specified table file, or starts an empty one
+     * if the table has none yet.
+     *
+     * @param tableFile the file holding the table's pages
+     */
+    public ZoneMap(File tableFile, TupleDesc td) {
+        this.file = new File(tableFile.getPath() + SUFFIX);
+        this.td = td;
+        this.width = recordWidth(td);
+        int[] loaded = new int[0];
+        if (file.exists()) {
+            try {
+                IntBuffer ints = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).asIntBuffer();
+                loaded = new int[ints.remaining() / width * width];
+                ints.get(loaded);
+            } catch (IOException e) {
+                // pages without a zone are never skipped
+                loaded = new int[0];
+            }
+        }
+        this.zones = loaded;
+    }
+
+    private static int recordWidth(TupleDesc td) {
+        return 1 + 2 * td.numFields();
+    }
+
+    /** @return the side file the map is stored in */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Computes the zone of a page from its tuples.
+     *
+     * @return the record of the zone, to be passed to {@link #widen} or
+     *         {@link #set}
+     */
+    public static int[] summarize(TupleDesc td, Iterator<Tuple> tuples) {
+        int[] zone = emptyZone(td);
+        while (tuples.hasNext()) {
+            add(td, zone, tuples.next());
+        }
+        return zone;
+    }
+
+    /** @return the record of the zone of a page without tuples */
+    static int[] emptyZone(TupleDesc td) {
+        int[] zone = new int[recordWidth(td)];
+        zone[0] = KNOWN;
+        for (int f = 0; f < td.numFields(); f++) {
+            zone[1 + 2 * f] = Integer.MAX_VALUE;
+            zone[2 + 2 * f] = Integer.MIN_VALUE;
+        }
+        return zone;
+    }
+
+    /** Widens a zone record to include the specified tuple. */
+    static void add(TupleDesc td, int[] zone, Tuple t) {
+        for (int f = 0; f < td.numFields(); f++) {
+            if (td.getFieldType(f) == Type.INT_TYPE) {
+                add(zone, f, ((IntField) t.getField(f)).getValue());
+            }
+        }
+    }
+
+    /** Widens a zone record to include a value of the specified field. */
+    static void add(int[] zone, int field, int v) {
+        zone[1 + 2 * field] = Math.min(zone[1 + 2 * field], v);
+        zone[2 + 2 * field] = Math.max(zone[2 + 2 * field], v);
+    }
+
+    private void ensureCapacity(int pageNo) {
+        int needed = (pageNo + 1) * width;
+        if (zones.length < needed) {
+            zones = Arrays.copyOf(zones, Math.max(needed, zones.length * 2));
+        }
+    }
+
+    private void markDirty(int pageNo) {
+        dirtyFrom = Math.min(dirtyFrom, pageNo);
+        dirtyTo = Math.max(dirtyTo, pageNo);
+    }
+
+    /**
+     * Widens the zone of a page to include a tuple inserted into it.  A page
+     * with an unknown zone stays unknown.  Written back on the next
+     * {@link #flush()}.
+     */
+    public synchronized void widen(int pageNo, Tuple t) {
+        int base = pageNo * width;
+        if (base >= zones.length || zones[base] != KNOWN) {
+            return;
+        }
+        for (int f = 0; f < td.numFields(); f++) {
+            if (td.getFieldType(f) == Type.INT_TYPE) {
+                int v = ((IntField) t.getField(f)).getValue();
+                if (v < zones[base + 1 + 2 * f]) {
+                    zones[base + 1 + 2 * f] = v;
+                    markDirty(pageNo);
+                }
+                if (v > zones[base + 2 + 2 * f]) {
+                    zones[base + 2 + 2 * f] = v;
+                    markDirty(pageNo);
+                }
+            }
+        }
+    }
+
+    /**
+     * Widens the zone of a page to include the specified zone, and writes
+     * it through to disk.  Called before a page with those values is written.
+     */
+    public synchronized void widen(int pageNo, int[] zone) throws IOException {
+        int base = pageNo * width;
+        if (base >= zones.length || zones[base] != KNOWN) {
+            // unknown zones cover everything
+            return;
+        }
+        boolean changed = false;
+        for (int i = 1; i < width; i += 2) {
+            if (zone[i] < zones[base + i]) {
+                zones[base + i] = zone[i];
+                changed = true;
+            }
+            if (zone[i + 1] > zones[base + i + 1]) {
+                zones[base + i + 1] = zone[i + 1];
+                changed = true;
+            }
+        }
+        if (changed) {
+            writeRecords(pageNo, pageNo);
+        }
+    }
+
+    /**
+     * Sets the zone of a page, which must cover the page as it is on disk.
+     * Written back on the next {@link #flush()}.
+     */
+    public synchronized void set(int pageNo, int[] zone) {
+        ensureCapacity(pageNo);
+        System.arraycopy(zone, 0, zones, pageNo * width, width);
+        markDirty(pageNo);
+    }
+
+    /**
+     * @return false if no tuple on the specified page can satisfy all of the
+     *         predicates, whose fields are fields of the table
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate[] predicates) {
+        int base = pageNo * width;
+        if (base >= zones.length || zones[base] != KNOWN) {
+            return true;
+        }
+        for (Predicate p : predicates) {
+            int f = p.getField();
+            if (td.getFieldType(f) != Type.INT_TYPE || !(p.getOperand() instanceof IntField)) {
+                continue;
+            }
+            int min = zones[base + 1 + 2 * f];
+            int max = zones[base + 2 + 2 * f];
+            if (min > max) {
+                // no tuples on the page
+                return false;
+            }
+            int c = ((IntField) p.getOperand()).getValue();
+            boolean may;
+            switch (p.getOp()) {
+                case EQUALS:
+                    may = min <= c && c <= max;
+                    break;
+                case GREATER_THAN:
+                    may = max > c;
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    may = max >= c;
+                    break;
+                case LESS_THAN:
+                    may = min < c;
+                    break;
+                case LESS_THAN_OR_EQ:
+                    may = min <= c;
+                    break;
+                case NOT_EQUALS:
+                    may = min != c || max != c;
+                    break;
+                default:
+                    may = true;
+            }
+            if (!may) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the zones changed since the last flush to disk.
+     */
+    public synchronized void flush() throws IOException {
+        if (dirtyTo >= 0) {
+            writeRecords(dirtyFrom, dirtyTo);
+            dirtyFrom = Integer.MAX_VALUE;
+            dirtyTo = -1;
+        }
+    }
+
+    private void writeRecords(int from, int to) throws IOException {
+        ensureCapacity(to);
+        ByteBuffer buf = ByteBuffer.allocate((to - from + 1) * width * 4);
+        buf.asIntBuffer().put(zones, from * width, (to - from + 1) * width);
+        FileChannel ch = channel();
+        long offset = (long) from * width * 4;
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * Writes the zone map of a table whose pages are given in order, e.g. by
+     * {@link HeapFileEncoder}, replacing any existing map.
+     */
+    static void write(File tableFile, TupleDesc td, Iterable<int[]> pageZones) throws IOException {
+        File f = new File(tableFile.getPath() + SUFFIX);
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int[] zone : pageZones) {
+                ByteBuffer buf = ByteBuffer.allocate(zone.length * 4);
+                buf.asIntBuffer().put(zone);
+                while (buf.hasRemaining()) {
+                    ch.write(buf);
+                }
+            }
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        }
+        return channel;
+    }
+
+    /**
+     * Flushes the map and closes its side file.
+     */
+    public synchronized void close() throws IOException {
+        flush();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
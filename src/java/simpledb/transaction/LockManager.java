@@ -0,0 +1,336 @@
+package simpledb.transaction;
+
+import simpledb.common.Permissions;
+import simpledb.storage.PageId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * LockManager implements page-level strict two-phase locking for the
+ * BufferPool.
+ * <p>
+ * Each page has a shared/exclusive lock.  A transaction holding the only
+ * shared lock on a page may upgrade it to an exclusive one.  The state of a
+ * lock is an immutable snapshot swapped in with compare-and-set, so granting
+ * an uncontended lock never blocks or takes a monitor.  Requests that
+ * conflict wait on the page's monitor, and before (and periodically while)
+ * waiting they search the wait-for graph for a cycle through the requesting
+ * transaction; if one is found the request fails with
+ * {@link TransactionAbortedException} and the caller is expected to abort.
+ * <p>
+ * A lock that is released by its last holder with no request waiting for it
+ * is retired and removed from the lock table, so that the table only holds
+ * the locks in use.  Requests that find a retired lock look it up again.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** How long a blocked request sleeps before it looks for deadlocks again. */
+    private static final long DEADLOCK_RECHECK_MILLIS = 50;
+
+    private final Map<PageId, PageLock> locks = new ConcurrentHashMap<>();
+
+    private final Map<TransactionId, Set<PageId>> lockedPages = new ConcurrentHashMap<>();
+
+    /** Edges of the wait-for graph: the lock each blocked transaction waits for. */
+    private final Map<TransactionId, PageLock> waitingFor = new ConcurrentHashMap<>();
+
+    /** Immutable snapshot of who holds a page lock, and in which mode. */
+    private static final class LockState {
+        static final LockState FREE = new LockState(new TransactionId[0], false);
+        /** state of a lock removed from the lock table, which is never granted */
+        static final LockState RETIRED = new LockState(new TransactionId[0], false);
+
+        final TransactionId[] holders;
+        final boolean exclusive;
+
+        LockState(TransactionId[] holders, boolean exclusive) {
+            this.holders = holders;
+            this.exclusive = exclusive;
+        }
+
+        boolean isHeldBy(TransactionId tid) {
+            for (TransactionId holder : holders) {
+                if (holder.equals(tid)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** @return true if tid already holds this lock in the wanted mode or a stronger one */
+        boolean covers(TransactionId tid, boolean exclusiveWanted) {
+            return isHeldBy(tid) && (exclusive || !exclusiveWanted);
+        }
+
+        /** @return the state after granting the request, or null if it conflicts */
+        LockState grant(TransactionId tid, boolean exclusiveWanted) {
+            if (exclusiveWanted) {
+                if (holders.length == 0 || (holders.length == 1 && holders[0].equals(tid))) {
+                    return new LockState(new TransactionId[]{tid}, true);
+                }
+                return null;
+            }
+            if (exclusive) {
+                return null;
+            }
+            TransactionId[] more = Arrays.copyOf(holders, holders.length + 1);
+            more[holders.length] = tid;
+            return new LockState(more, false);
+        }
+
+        LockState without(TransactionId tid) {
+            if (holders.length == 1) {
+                return FREE;
+            }
+            TransactionId[] fewer = new TransactionId[holders.length - 1];
+            int i = 0;
+            for (TransactionId holder : holders) {
+                if (!holder.equals(tid)) {
+                    fewer[i++] = holder;
+                }
+            }
+            return new LockState(fewer, exclusive);
+        }
+    }
+
+    /** The lock on one page.  Blocked requests wait on its monitor. */
+    private static final class PageLock {
+        final PageId pid;
+        final AtomicReference<LockState> state = new AtomicReference<>(LockState.FREE);
+        /** number of blocked requests; only changed while holding the monitor */
+        volatile int waiters = 0;
+
+        PageLock(PageId pid) {
+            this.pid = pid;
+        }
+
+        boolean isRetired() {
+            return state.get() == LockState.RETIRED;
+        }
+    }
+
+    private PageLock lockFor(PageId pid) {
+        while (true) {
+            PageLock lock = locks.get(pid);
+            if (lock == null) {
+                lock = locks.computeIfAbsent(pid, PageLock::new);
+            }
+            if (!lock.isRetired()) {
+                return lock;
+            }
+            // the releaser removes it under the monitor; help it along
+            locks.remove(pid, lock);
+        }
+    }
+
+    /**
+     * Acquires a lock on the specified page, blocking until it is granted.
+     * READ_ONLY asks for a shared lock and READ_WRITE for an exclusive one;
+     * asking for a lock the transaction already holds returns immediately.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm the requested permissions on the page
+     * @throws TransactionAbortedException if waiting for the lock would
+     *         deadlock, or the waiting thread is interrupted
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        while (true) {
+            PageLock lock = lockFor(pid);
+            if (tryAcquire(lock, tid, exclusive, true)) {
+                return;
+            }
+            synchronized (lock) {
+                if (lock.isRetired()) {
+                    continue;
+                }
+                // a lock is only retired with no waiters, so this one stays
+                lock.waiters++;
+                waitingFor.put(tid, lock);
+                try {
+                    while (!tryAcquire(lock, tid, exclusive, false)) {
+                        if (isDeadlocked(tid)) {
+                            throw new TransactionAbortedException();
+                        }
+                        lock.wait(DEADLOCK_RECHECK_MILLIS);
+                    }
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                } finally {
+                    waitingFor.remove(tid);
+                    lock.waiters--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Acquires a lock on the specified page if it can be granted right away,
+     * ahead of any blocked requests.
+     *
+     * @return true if the lock was granted
+     */
+    public boolean tryAcquire(TransactionId tid, PageId pid, Permissions perm) {
+        while (true) {
+            PageLock lock = lockFor(pid);
+            if (tryAcquire(lock, tid, perm == Permissions.READ_WRITE, false)) {
+                return true;
+            }
+            if (!lock.isRetired()) {
+                return false;
+            }
+        }
+    }
+
+    /** @return true if the lock was granted; false if it conflicts or is retired */
+    private boolean tryAcquire(PageLock lock, TransactionId tid, boolean exclusive, boolean fastPath) {
+        while (true) {
+            LockState current = lock.state.get();
+            if (current == LockState.RETIRED) {
+                return false;
+            }
+            if (current.covers(tid, exclusive)) {
+                return true;
+            }
+            // newcomers queue behind blocked requests, otherwise a stream of
+            // readers could starve a writer forever; upgrades are exempt
+            if (fastPath && lock.waiters > 0 && !current.isHeldBy(tid)) {
+                return false;
+            }
+            LockState next = current.grant(tid, exclusive);
+            if (next == null) {
+                return false;
+            }
+            if (lock.state.compareAndSet(current, next)) {
+                lockedPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(lock.pid);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true if tid, which is blocked, transitively waits for a lock
+     *         held by itself
+     */
+    private boolean isDeadlocked(TransactionId tid) {
+        Deque<TransactionId> toVisit = new ArrayDeque<>();
+        Set<TransactionId> visited = new HashSet<>();
+        toVisit.push(tid);
+        while (!toVisit.isEmpty()) {
+            TransactionId waiter = toVisit.pop();
+            PageLock lock = waitingFor.get(waiter);
+            if (lock == null) {
+                continue;
+            }
+            for (TransactionId holder : lock.state.get().holders) {
+                if (holder.equals(waiter)) {
+                    continue; // waiting to upgrade its own shared lock
+                }
+                if (holder.equals(tid)) {
+                    return true;
+                }
+                if (visited.add(holder)) {
+                    toVisit.push(holder);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Releases the lock tid holds on the specified page, if any.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        Set<PageId> pids = lockedPages.get(tid);
+        if (pids != null) {
+            pids.remove(pid);
+        }
+        PageLock lock = locks.get(pid);
+        if (lock != null) {
+            releaseLock(lock, tid);
+        }
+    }
+
+    /**
+     * Releases every lock held by the specified transaction.
+     */
+    public void releaseAll(TransactionId tid) {
+        Set<PageId> pids = lockedPages.remove(tid);
+        if (pids == null) {
+            return;
+        }
+        for (PageId pid : pids) {
+            PageLock lock = locks.get(pid);
+            if (lock != null) {
+                releaseLock(lock, tid);
+            }
+        }
+    }
+
+    private void releaseLock(PageLock lock, TransactionId tid) {
+        LockState next;
+        while (true) {
+            LockState current = lock.state.get();
+            if (!current.isHeldBy(tid)) {
+                return;
+            }
+            next = current.without(tid);
+            if (lock.state.compareAndSet(current, next)) {
+                break;
+            }
+        }
+        // a waiter registers itself before it re-checks the state, so either
+        // it sees our release or we see it waiting
+        if (lock.waiters > 0 || next == LockState.FREE) {
+            synchronized (lock) {
+                if (lock.waiters > 0) {
+                    lock.notifyAll();
+                } else if (lock.state.compareAndSet(LockState.FREE, LockState.RETIRED)) {
+                    locks.remove(lock.pid, lock);
+                }
+            }
+        }
+    }
+
+    /** @return true if the specified transaction holds a lock on the specified page */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        return lock != null && lock.state.get().isHeldBy(tid);
+    }
+
+    /** @return true if the specified transaction holds an exclusive lock on the specified page */
+    public boolean holdsExclusiveLock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        return lock != null && lock.state.get().covers(tid, true);
+    }
+
+    /**
+     * @return true if a transaction other than the specified one, which may
+     *         be null, holds an exclusive lock on the specified page
+     */
+    public boolean isExclusivelyLockedByOther(PageId pid, TransactionId tid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null) {
+            return false;
+        }
+        LockState state = lock.state.get();
+        return state.exclusive && (tid == null || !state.isHeldBy(tid));
+    }
+
+    /** @return the pages the specified transaction currently holds locks on */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pids = lockedPages.get(tid);
+        if (pids == null) {
+            return Collections.emptySet();
+        }
+        return new HashSet<>(pids);
+    }
+}
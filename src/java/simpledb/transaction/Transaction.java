@@ -50,14 +50,14 @@ public class Transaction {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } 
 
-            // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
-
-            // write commit log record
+            // write commit log record, before the locks are released
             if (!abort) {
             	Database.getLogFile().logCommit(tid);
             }
 
+            // Release locks and flush pages if needed
+            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+
             //setting this here means we could possibly write multiple abort records -- OK?
             started = false;
         }
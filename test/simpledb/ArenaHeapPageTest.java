@@ -0,0 +1,141 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ArenaHeapPageTest extends SimpleDbTestBase {
+
+    private final HeapPageId pid = new HeapPageId(-1, 0);
+    private final TupleDesc td = Utility.getTupleDesc(2);
+    private PageArena arena;
+
+    @Before public void createArena() {
+        arena = new PageArena(4);
+    }
+
+    private static List<List<Integer>> contents(TuplePage page) {
+        List<List<Integer>> tuples = new ArrayList<>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        return tuples;
+    }
+
+    /** An arena page writes exactly the bytes a HeapPage does. */
+    @Test public void sameFormatAsHeapPage() throws Exception {
+        ArenaHeapPage page = new ArenaHeapPage(pid, HeapPage.createEmptyPageData(), td, arena);
+        HeapPage heapPage = new HeapPage(pid, HeapPage.createEmptyPageData(), td);
+        List<Tuple> inserted = new ArrayList<>();
+        List<Tuple> heapInserted = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            inserted.add(Utility.getHeapTuple(new int[]{i, -i}));
+            page.insertTuple(inserted.get(i));
+            heapInserted.add(Utility.getHeapTuple(new int[]{i, -i}));
+            heapPage.insertTuple(heapInserted.get(i));
+        }
+        page.deleteTuple(inserted.get(3));
+        heapPage.deleteTuple(heapInserted.get(3));
+        assertArrayEquals(heapPage.getPageData(), page.getPageData());
+        assertEquals(heapPage.getNumEmptySlots(), page.getNumEmptySlots());
+        assertEquals(heapPage.getNumSlots(), page.getNumSlots());
+
+        ArenaHeapPage copy = new ArenaHeapPage(pid, heapPage.getPageData(), td, arena);
+        assertEquals(contents(heapPage), contents(copy));
+    }
+
+    /** Tuples handed out stay valid when their slot changes. */
+    @Test public void tuplesAreCopies() throws Exception {
+        ArenaHeapPage page = new ArenaHeapPage(pid, HeapPage.createEmptyPageData(), td, arena);
+        page.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+        page.insertTuple(Utility.getHeapTuple(new int[]{3, 4}));
+        assertEquals(Arrays.asList(1, 2), SystemTestUtil.tupleToList(t));
+        assertEquals(Collections.singletonList(Arrays.asList(3, 4)), contents(page));
+    }
+
+    @Test public void beforeImage() throws Exception {
+        ArenaHeapPage page = new ArenaHeapPage(pid, HeapPage.createEmptyPageData(), td, arena);
+        page.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+        assertTrue(contents(page.getBeforeImage()).isEmpty());
+        page.setBeforeImage();
+        page.insertTuple(Utility.getHeapTuple(new int[]{3, 4}));
+        assertEquals(1, contents(page.getBeforeImage()).size());
+        assertEquals(2, contents(page).size());
+    }
+
+    @Test(expected = DbException.class)
+    public void deleteTwice() throws Exception {
+        ArenaHeapPage page = new ArenaHeapPage(pid, HeapPage.createEmptyPageData(), td, arena);
+        Tuple t = Utility.getHeapTuple(new int[]{1, 2});
+        page.insertTuple(t);
+        page.deleteTuple(t);
+        page.deleteTuple(t);
+    }
+
+    /**
+     * A released page gives its frames back at once and keeps its image, and
+     * before images take no frames.
+     */
+    @Test public void releaseFreesFrames() throws Exception {
+        ArenaHeapPage page = new ArenaHeapPage(pid, HeapPage.createEmptyPageData(), td, arena);
+        page.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+        assertEquals(2, arena.getFramesInUse());
+        ArenaHeapPage before = page.getBeforeImage();
+        assertEquals(2, arena.getFramesInUse());
+        page.setBeforeImage();
+        assertEquals(1, arena.getFramesInUse());
+        page.insertTuple(Utility.getHeapTuple(new int[]{3, 4}));
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(Arrays.asList(1, 2), SystemTestUtil.tupleToList(it.next()));
+
+        page.release();
+        assertEquals(0, arena.getFramesInUse());
+        assertEquals(Arrays.asList(3, 4), SystemTestUtil.tupleToList(it.next()));
+        assertEquals(1, contents(page.getBeforeImage()).size());
+        page.insertTuple(Utility.getHeapTuple(new int[]{5, 6}));
+        assertEquals(3, contents(page).size());
+        assertEquals(0, arena.getFramesInUse());
+        assertTrue(contents(before).isEmpty());
+        assertEquals(0, arena.getFramesCollected());
+    }
+
+    /** Frames of pages that are garbage are reused; a full arena falls back to the heap. */
+    @Test public void framesAreReused() throws Exception {
+        List<ArenaHeapPage> pages = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            pages.add(new ArenaHeapPage(new HeapPageId(-1, i), HeapPage.createEmptyPageData(), td, arena));
+        }
+        assertEquals(4, arena.getFramesInUse());
+        ArenaHeapPage extra = new ArenaHeapPage(new HeapPageId(-1, 4), HeapPage.createEmptyPageData(), td, arena);
+        assertEquals(1, arena.getHeapFrames());
+        assertTrue(contents(extra).isEmpty());
+
+        pages.clear();
+        for (int i = 0; i < 50 && arena.getFramesInUse() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, arena.getFramesInUse());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ArenaHeapPageTest.class);
+    }
+}
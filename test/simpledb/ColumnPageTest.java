@@ -0,0 +1,104 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class ColumnPageTest extends SimpleDbTestBase {
+
+    private final ColumnPageId pid = new ColumnPageId(-1, 0, 0);
+
+    private ColumnPage emptyPage(Type type) {
+        return new ColumnPage(pid, ColumnPage.createEmptyPageData(), type);
+    }
+
+    @Test public void emptyPage() {
+        ColumnPage page = emptyPage(Type.INT_TYPE);
+        assertEquals(0, page.numValues());
+        assertEquals(0, new ColumnPage(pid, page.getPageData(), Type.INT_TYPE).numValues());
+    }
+
+    /** Distinct ints are stored plainly: 4 bytes each. */
+    @Test public void plainInts() {
+        ColumnPage page = emptyPage(Type.INT_TYPE);
+        int n = 0;
+        while (page.hasRoomFor(new IntField(n))) {
+            page.append(new IntField(n++));
+        }
+        assertEquals((BufferPool.getPageSize() - 5) / 4, n);
+
+        ColumnPage copy = new ColumnPage(pid, page.getPageData(), Type.INT_TYPE);
+        assertEquals(n, copy.numValues());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, copy.getInt(i));
+        }
+    }
+
+    /** Runs of equal values are run-length encoded. */
+    @Test public void runLengthEncoding() {
+        ColumnPage page = emptyPage(Type.INT_TYPE);
+        for (int i = 0; i < 100000; i++) {
+            page.append(new IntField(i / 1000));
+        }
+        ColumnPage copy = new ColumnPage(pid, page.getPageData(), Type.INT_TYPE);
+        assertEquals(100000, copy.numValues());
+        assertEquals(0, copy.getInt(999));
+        assertEquals(1, copy.getInt(1000));
+        assertEquals(99, copy.getInt(99999));
+    }
+
+    @Test public void strings() {
+        ColumnPage page = emptyPage(Type.STRING_TYPE);
+        String longString = new String(new char[Type.STRING_LEN + 5]).replace('\0', 'x');
+        page.append(new StringField("a", Type.STRING_LEN));
+        page.append(new StringField("", Type.STRING_LEN));
+        page.append(new StringField("a", Type.STRING_LEN));
+        page.append(new StringField(longString, Type.STRING_LEN + 5));
+        page.append(new StringField(longString, Type.STRING_LEN + 5));
+
+        ColumnPage copy = new ColumnPage(pid, page.getPageData(), Type.STRING_TYPE);
+        assertEquals(5, copy.numValues());
+        assertEquals("a", copy.getString(0));
+        assertEquals("", copy.getString(1));
+        assertEquals("a", copy.getString(2));
+        assertEquals(longString.substring(0, Type.STRING_LEN), copy.getString(4));
+        assertEquals(new StringField("a", Type.STRING_LEN), copy.getField(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongType() {
+        emptyPage(Type.INT_TYPE).append(new StringField("a", Type.STRING_LEN));
+    }
+
+    @Test public void rowMap() throws Exception {
+        RowMapPage page = new RowMapPage(new ColumnPageId(-1, 1, 0), ColumnPage.createEmptyPageData());
+        assertEquals(0, page.numRows());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, page.addRow());
+        }
+        page.deleteRow(3);
+        RowMapPage copy = new RowMapPage(page.getId(), page.getPageData());
+        assertEquals(10, copy.numRows());
+        assertTrue(copy.isLive(2));
+        assertFalse(copy.isLive(3));
+        try {
+            copy.deleteRow(3);
+            fail("deleted a row twice");
+        } catch (simpledb.common.DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnPageTest.class);
+    }
+}
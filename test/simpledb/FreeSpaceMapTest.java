@@ -0,0 +1,85 @@
+package simpledb;
+
+import org.junit.Test;
+
+import simpledb.storage.FreeSpaceMap;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest {
+
+    private static File tableFile() throws Exception {
+        File f = File.createTempFile("fsm", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        return f;
+    }
+
+    @Test public void skipsFullPages() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(tableFile());
+        assertEquals(0, fsm.nextPageWithSpace(0));
+        fsm.markFull(0);
+        fsm.markFull(1);
+        fsm.markFull(3);
+        assertEquals(2, fsm.nextPageWithSpace(0));
+        assertEquals(4, fsm.nextPageWithSpace(3));
+        fsm.markHasSpace(1);
+        assertEquals(1, fsm.nextPageWithSpace(0));
+        fsm.close();
+    }
+
+    /**
+     * Pages marked full only survive a reload once flushed, but pages that
+     * got room again must never be remembered as full.
+     */
+    @Test public void persistsAcrossReloads() throws Exception {
+        File f = tableFile();
+        FreeSpaceMap fsm = new FreeSpaceMap(f);
+        for (int i = 0; i < 20; i++) {
+            fsm.markFull(i);
+            fsm.flush(i);
+        }
+        fsm.markFull(20);
+        fsm.markHasSpace(9);
+
+        FreeSpaceMap reloaded = new FreeSpaceMap(f);
+        assertEquals(9, reloaded.nextPageWithSpace(0));
+        assertEquals(20, reloaded.nextPageWithSpace(10));
+        fsm.close();
+        reloaded.close();
+    }
+
+    /**
+     * Flushing a page writes only its own bit, not those of other pages
+     * marked full whose pages may not be on disk yet.
+     */
+    @Test public void flushesOnlyWrittenPage() throws Exception {
+        File f = tableFile();
+        FreeSpaceMap fsm = new FreeSpaceMap(f);
+        fsm.markFull(0);
+        fsm.markFull(1);
+        fsm.markFull(2);
+        fsm.flush(1);
+        fsm.close();
+
+        FreeSpaceMap reloaded = new FreeSpaceMap(f);
+        assertFalse(reloaded.isFull(0));
+        assertTrue(reloaded.isFull(1));
+        assertFalse(reloaded.isFull(2));
+        // clearing a bit does not write the unflushed bits next to it either
+        reloaded.markFull(0);
+        reloaded.markHasSpace(1);
+        reloaded.close();
+        assertFalse(new FreeSpaceMap(f).isFull(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
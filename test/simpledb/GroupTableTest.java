@@ -0,0 +1,69 @@
+package simpledb;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Aggregator;
+import simpledb.execution.GroupTable;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class GroupTableTest {
+
+    /** Groups keep their numbers, in order of first appearance, as the table grows. */
+    @Test public void intKeys() {
+        GroupTable t = new GroupTable(Type.INT_TYPE,
+                new Aggregator.Op[]{Aggregator.Op.COUNT, Aggregator.Op.MIN});
+        for (int round = 0; round < 3; round++) {
+            for (int k = 0; k < 10000; k++) {
+                int g = t.groupOf(k * 7919);
+                assertEquals(k, g);
+                t.add(g, 0, 0);
+                t.add(g, 1, -k + round);
+            }
+        }
+        assertEquals(10000, t.numGroups());
+        assertEquals(5 * 7919, t.intKey(5));
+        assertEquals(3, t.result(5, 0));
+        assertEquals(-5, t.result(5, 1));
+    }
+
+    @Test public void stringKeys() {
+        GroupTable t = new GroupTable(Type.STRING_TYPE, new Aggregator.Op[]{Aggregator.Op.COUNT});
+        for (int i = 0; i < 1000; i++) {
+            t.count(t.groupOf("key" + (i % 100)), 0);
+        }
+        assertEquals(100, t.numGroups());
+        assertEquals(0, t.groupOf("key0"));
+        assertEquals("key42", t.stringKey(42));
+        assertEquals(10, t.result(42, 0));
+    }
+
+    /** Sums are accumulated in longs, so the average of large values is right. */
+    @Test public void noOverflow() {
+        GroupTable t = new GroupTable(null,
+                new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.AVG});
+        for (int i = 0; i < 4; i++) {
+            t.add(0, 0, Integer.MAX_VALUE);
+            t.add(0, 1, Integer.MAX_VALUE);
+        }
+        assertEquals(4L * Integer.MAX_VALUE, t.result(0, 0));
+        assertEquals(Integer.MAX_VALUE, t.result(0, 1));
+    }
+
+    @Test public void emptyGroupWithoutGrouping() {
+        GroupTable t = new GroupTable(null,
+                new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.COUNT});
+        assertEquals(1, t.numGroups());
+        assertEquals(0, t.result(0, 0));
+        assertEquals(0, t.result(0, 1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupTableTest.class);
+    }
+}
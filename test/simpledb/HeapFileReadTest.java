@@ -81,6 +81,21 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a memory mapped HeapFile
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertArrayEquals(hf.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+
+        // pages past the end of the file read as empty pages
+        HeapPage past = (HeapPage) mapped.readPage(new HeapPageId(hf.getId(), 1));
+        assertEquals(504, past.getNumEmptySlots());
+        mapped.close();
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
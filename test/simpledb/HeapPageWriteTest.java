@@ -14,6 +14,7 @@ import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.HeapPage;
 import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -131,6 +132,32 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples read from a page must keep their values after their slot is
+     * reused, and the bytes the page was created from must not change.
+     */
+    @Test public void reuseSlotOfReadTuple() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Tuple first = page.iterator().next();
+        Tuple expected = Utility.getHeapTuple(new int[] {
+            ((IntField) first.getField(0)).getValue(), ((IntField) first.getField(1)).getValue() });
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        Tuple lazy = it.next();
+
+        page.deleteTuple(first);
+        page.deleteTuple(lazy);
+        page.insertTuple(Utility.getHeapTuple(-1, 2));
+        page.insertTuple(Utility.getHeapTuple(-2, 2));
+
+        assertTrue(TestUtil.compareTuples(expected, first));
+        assertNotEquals(-1, ((IntField) lazy.getField(0)).getValue());
+        assertNotEquals(-2, ((IntField) lazy.getField(0)).getValue());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, data);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+    }
+
     /**
      * JUnit suite target
      */
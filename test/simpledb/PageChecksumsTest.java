@@ -0,0 +1,135 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PageChecksumsTest extends SimpleDbTestBase {
+
+    private File tableFile;
+
+    @Before public void createFile() throws Exception {
+        tableFile = File.createTempFile("checksums", ".dat");
+        tableFile.deleteOnExit();
+        new File(tableFile.getPath() + PageChecksums.SUFFIX).deleteOnExit();
+    }
+
+    private static byte[] randomPage(long seed) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /** Check values of CRC-32C from RFC 3720. */
+    @Test public void knownValues() {
+        byte[] digits = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0xE3069283, Crc32c.compute(digits, 0, digits.length));
+        assertEquals(0x8A9136AA, Crc32c.compute(new byte[32], 0, 32));
+        byte[] ones = new byte[32];
+        Arrays.fill(ones, (byte) 0xff);
+        assertEquals(0x62A8AB43, Crc32c.compute(ones, 0, 32));
+        // the table driven implementation, whether or not compute uses it
+        Crc32c crc = new Crc32c();
+        crc.update(digits, 0, digits.length);
+        assertEquals(0xE3069283L, crc.getValue());
+    }
+
+    /** Updating the tables piecewise, at any alignment, gives the checksum of the whole. */
+    @Test public void incremental() {
+        byte[] data = randomPage(1);
+        int whole = Crc32c.compute(data, 0, data.length);
+        for (int split : new int[]{0, 1, 7, 13, 100, data.length}) {
+            Crc32c crc = new Crc32c();
+            crc.update(data, 0, split);
+            for (int i = split; i < data.length; i++) {
+                crc.update(data[i]);
+            }
+            assertEquals(whole, (int) crc.getValue());
+        }
+    }
+
+    @Test public void stampAndVerify() throws Exception {
+        PageChecksums checksums = new PageChecksums(tableFile, 0);
+        byte[] page = randomPage(2);
+        // pages without a checksum are never rejected
+        assertTrue(checksums.verify(3, page));
+        checksums.stamp(3, page);
+        assertTrue(checksums.verify(3, page));
+        page[100] ^= 1;
+        assertFalse(checksums.verify(3, page));
+        assertTrue(checksums.verify(2, page));
+        checksums.close();
+    }
+
+    /** Checksums survive reopening, except those of pages past the end of the table. */
+    @Test public void reopen() throws Exception {
+        PageChecksums checksums = new PageChecksums(tableFile, 0);
+        byte[] first = randomPage(3);
+        byte[] second = randomPage(4);
+        checksums.stamp(0, first);
+        checksums.stamp(1, second);
+        checksums.close();
+
+        checksums = new PageChecksums(tableFile, 2);
+        assertTrue(checksums.verify(0, first));
+        assertFalse(checksums.verify(0, second));
+        assertFalse(checksums.verify(1, first));
+        checksums.close();
+
+        // the table shrank, so the record of page 1 belongs to an old table
+        checksums = new PageChecksums(tableFile, 1);
+        assertFalse(checksums.verify(0, second));
+        assertTrue(checksums.verify(1, first));
+        checksums.close();
+        checksums = new PageChecksums(tableFile, 2);
+        assertTrue(checksums.verify(1, first));
+        checksums.close();
+    }
+
+    /**
+     * A crash after a page is expected but before it is stamped leaves a
+     * record that accepts both the old and the new image of the page.
+     */
+    @Test public void crashBeforeStamp() throws Exception {
+        PageChecksums checksums = new PageChecksums(tableFile, 0);
+        byte[] old = randomPage(5);
+        byte[] next = randomPage(6);
+        checksums.stamp(0, old);
+        checksums.expect(0, next);
+        checksums.close();
+
+        checksums = new PageChecksums(tableFile, 1);
+        assertTrue(checksums.verify(0, old));
+        assertTrue(checksums.verify(0, next));
+        assertFalse(checksums.verify(0, randomPage(7)));
+        checksums.stamp(0, next);
+        assertFalse(checksums.verify(0, old));
+        assertTrue(checksums.verify(0, next));
+
+        // after a second write cut short the image on disk is not known
+        byte[] third = randomPage(8);
+        checksums.stamp(0, old);
+        checksums.expect(0, next);
+        checksums.expect(0, third);
+        assertTrue(checksums.verify(0, randomPage(9)));
+        checksums.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChecksumsTest.class);
+    }
+}
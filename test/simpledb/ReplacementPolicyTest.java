@@ -0,0 +1,98 @@
+package simpledb;
+
+import org.junit.Test;
+
+import simpledb.storage.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * A page that has been referenced twice must outlive any number of pages
+     * that were only read once, e.g. by a sequential scan.
+     */
+    @Test public void lruKKeepsReReferencedPages() {
+        ReplacementPolicy policy = new LruKReplacementPolicy(2);
+        policy.pageLoaded(pid(0));
+        policy.pageAccessed(pid(0));
+        for (int i = 1; i <= 10; i++) {
+            policy.pageLoaded(pid(i));
+        }
+        for (int i = 1; i <= 10; i++) {
+            PageId victim = policy.chooseVictim(p -> true);
+            assertEquals(pid(i), victim);
+            policy.pageRemoved(victim);
+        }
+        assertEquals(pid(0), policy.chooseVictim(p -> true));
+    }
+
+    @Test public void lruOneIsPlainLru() {
+        ReplacementPolicy policy = new LruKReplacementPolicy(1);
+        policy.pageLoaded(pid(0));
+        policy.pageLoaded(pid(1));
+        policy.pageLoaded(pid(2));
+        policy.pageAccessed(pid(0));
+        assertEquals(pid(1), policy.chooseVictim(p -> true));
+    }
+
+    @Test public void clockGivesSecondChance() {
+        ReplacementPolicy policy = new ClockReplacementPolicy();
+        policy.pageLoaded(pid(0));
+        policy.pageLoaded(pid(1));
+        policy.pageLoaded(pid(2));
+        // the first sweep clears all reference bits and stops at page 0
+        PageId victim = policy.chooseVictim(p -> true);
+        assertEquals(pid(0), victim);
+        policy.pageRemoved(victim);
+        policy.pageAccessed(pid(1));
+        assertEquals(pid(2), policy.chooseVictim(p -> true));
+    }
+
+    @Test public void twoQueuePromotesGhostHits() {
+        ReplacementPolicy policy = new TwoQueueReplacementPolicy(4, 1, 4);
+        policy.pageLoaded(pid(0));
+        policy.pageLoaded(pid(1));
+        PageId victim = policy.chooseVictim(p -> true);
+        assertEquals(pid(0), victim);
+        policy.pageRemoved(victim);
+
+        // page 0 comes back while it is still remembered in A1out: hot
+        policy.pageLoaded(pid(0));
+        for (int i = 2; i < 6; i++) {
+            policy.pageLoaded(pid(i));
+            victim = policy.chooseVictim(p -> true);
+            assertNotEquals(pid(0), victim);
+            policy.pageRemoved(victim);
+        }
+    }
+
+    @Test public void victimsRespectFilter() {
+        ReplacementPolicy[] policies = new ReplacementPolicy[] {
+            new ClockReplacementPolicy(),
+            new LruKReplacementPolicy(),
+            new TwoQueueReplacementPolicy(8)
+        };
+        for (ReplacementPolicy policy : policies) {
+            for (int i = 0; i < 4; i++) {
+                policy.pageLoaded(pid(i));
+            }
+            assertEquals(pid(3), policy.chooseVictim(p -> p.getPageNumber() == 3));
+            assertNull(policy.chooseVictim(p -> false));
+            policy.pageRemoved(pid(3));
+            assertNull(policy.chooseVictim(p -> p.getPageNumber() == 3));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,166 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.SegmentedFile;
+import simpledb.storage.SegmentedRandomAccessFile;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SegmentedFileTest extends SimpleDbTestBase {
+
+    private static final int SEGMENT = 1000;
+
+    private File base;
+
+    @Before public void createFile() throws Exception {
+        SegmentedFile.setSegmentSize(SEGMENT);
+        base = File.createTempFile("segments", ".dat");
+        base.deleteOnExit();
+        for (int n = 1; n < 20; n++) {
+            SegmentedFile.segment(base, n).deleteOnExit();
+        }
+    }
+
+    @After public void resetSegmentSize() {
+        SegmentedFile.delete(base, 0);
+        SegmentedFile.resetSegmentSize();
+    }
+
+    private static byte[] randomBytes(int n, long seed) {
+        byte[] data = new byte[n];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] read(SegmentedFile f, long offset, int n) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(n);
+        assertEquals(n, f.read(buf, offset));
+        return buf.array();
+    }
+
+    /** Reads and writes span segments, at offsets past 2 GB as well. */
+    @Test public void spanSegments() throws Exception {
+        SegmentedFile f = new SegmentedFile(base);
+        byte[] data = randomBytes(3500, 1);
+        f.write(ByteBuffer.wrap(data), 0);
+        assertEquals(3500, f.length());
+        assertEquals(SEGMENT, base.length());
+        assertEquals(500, SegmentedFile.segment(base, 3).length());
+        assertFalse(SegmentedFile.segment(base, 4).exists());
+        assertArrayEquals(data, read(f, 0, 3500));
+
+        byte[] part = new byte[600];
+        System.arraycopy(data, 1700, part, 0, 600);
+        assertArrayEquals(part, read(f, 1700, 600));
+
+        // reading past the end
+        ByteBuffer buf = ByteBuffer.allocate(1000);
+        assertEquals(500, f.read(buf, 3000));
+        assertEquals(-1, f.read(ByteBuffer.allocate(10), 3500));
+        assertEquals(-1, f.read(ByteBuffer.allocate(10), 1L << 40));
+        f.close();
+
+        SegmentedFile.setSegmentSize(1L << 30);
+        SegmentedFile big = new SegmentedFile(base);
+        big.setLength(0);
+        byte[] far = randomBytes(100, 2);
+        long offset = (1L << 31) + (1L << 30) - 50;
+        big.write(ByteBuffer.wrap(far), offset);
+        assertEquals(offset + 100, big.length());
+        assertArrayEquals(far, read(big, offset, 100));
+        big.close();
+    }
+
+    /** A write past the end of a segment that is not full does not cut the file short. */
+    @Test public void writeOutOfOrder() throws Exception {
+        SegmentedFile f = new SegmentedFile(base);
+        f.write(ByteBuffer.wrap(randomBytes(100, 3)), 2100);
+        f.write(ByteBuffer.wrap(randomBytes(100, 4)), 0);
+        assertEquals(2200, f.length());
+        assertEquals(2200, SegmentedFile.length(base));
+        assertArrayEquals(new byte[100], read(f, 1000, 100));
+        f.close();
+    }
+
+    @Test public void setLengthAndReplace() throws Exception {
+        SegmentedFile f = new SegmentedFile(base);
+        f.write(ByteBuffer.wrap(randomBytes(3500, 5)), 0);
+        f.setLength(2000);
+        assertEquals(2000, f.length());
+        assertFalse(SegmentedFile.segment(base, 2).exists());
+        f.setLength(2500);
+        assertEquals(2500, f.length());
+        f.close();
+
+        try (OutputStream out = SegmentedFile.newOutputStream(base)) {
+            out.write(randomBytes(1200, 6));
+        }
+        assertEquals(1200, SegmentedFile.length(base));
+        assertFalse(SegmentedFile.segment(base, 2).exists());
+    }
+
+    /** Mappings are of single segments. */
+    @Test public void map() throws Exception {
+        SegmentedFile f = new SegmentedFile(base);
+        byte[] data = randomBytes(2500, 7);
+        f.write(ByteBuffer.wrap(data), 0);
+        ByteBuffer view = f.map(1200, 100);
+        byte[] mapped = new byte[100];
+        view.get(mapped);
+        byte[] expected = new byte[100];
+        System.arraycopy(data, 1200, expected, 0, 100);
+        assertArrayEquals(expected, mapped);
+        assertNull(f.map(950, 100));
+        assertNull(f.map(2450, 100));
+        f.close();
+    }
+
+    @Test public void randomAccessFile() throws Exception {
+        SegmentedRandomAccessFile raf = new SegmentedRandomAccessFile(base);
+        raf.seek(996);
+        raf.writeLong(Long.MIN_VALUE + 17);
+        raf.writeUTF("a string across a segment boundary");
+        raf.writeInt(-42);
+        byte[] data = randomBytes(1500, 8);
+        raf.write(data);
+        long end = raf.getFilePointer();
+        assertEquals(end, raf.length());
+
+        raf.seek(996);
+        assertEquals(Long.MIN_VALUE + 17, raf.readLong());
+        assertEquals("a string across a segment boundary", raf.readUTF());
+        assertEquals(-42, raf.readInt());
+        byte[] back = new byte[1500];
+        raf.readFully(back);
+        assertArrayEquals(data, back);
+        try {
+            raf.readInt();
+            fail("expected EOF");
+        } catch (EOFException e) {
+            // expected
+        }
+        raf.setLength(1000);
+        assertEquals(1000, raf.getFilePointer());
+        assertEquals(1000, raf.length());
+        raf.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SegmentedFileTest.class);
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    @Before public void setUp() {
+        pid = new HeapPageId(-1, 0);
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private SlottedPage emptyPage() {
+        return new SlottedPage(pid, SlottedPage.createEmptyPageData(), td);
+    }
+
+    /** @return the tuples of the page by slot */
+    private Map<Integer, Tuple> contents(SlottedPage page) {
+        Map<Integer, Tuple> byslot = new HashMap<>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(pid, t.getRecordId().getPageId());
+            byslot.put(t.getRecordId().getTupleNumber(), t);
+        }
+        return byslot;
+    }
+
+    @Test public void emptyPageHasNoTuples() {
+        SlottedPage page = emptyPage();
+        assertEquals(0, page.getNumSlots());
+        assertFalse(page.iterator().hasNext());
+        assertFalse(page.isFull());
+    }
+
+    /** Short strings take much less room than the fixed slots of a HeapPage. */
+    @Test public void fitsMoreShortTuplesThanHeapPage() throws Exception {
+        SlottedPage page = emptyPage();
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "s" + n % 10))) {
+            page.insertTuple(tuple(n, "s" + n % 10));
+            n++;
+        }
+        int heapPageSlots = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        assertTrue(n > 10 * heapPageSlots);
+        assertTrue(page.isFull());
+        try {
+            page.insertTuple(tuple(0, "x"));
+            fail("inserted into a full page");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(n, contents(page).size());
+    }
+
+    @Test public void roundTrip() throws Exception {
+        SlottedPage page = emptyPage();
+        String longString = String.join("", Collections.nCopies(Type.STRING_LEN + 10, "z"));
+        page.insertTuple(tuple(1, "a"));
+        page.insertTuple(tuple(-2, ""));
+        page.insertTuple(tuple(3, longString));
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData(), td);
+        Map<Integer, Tuple> tuples = contents(copy);
+        assertEquals(3, tuples.size());
+        assertTrue(TestUtil.compareTuples(tuple(1, "a"), tuples.get(0)));
+        assertTrue(TestUtil.compareTuples(tuple(-2, ""), tuples.get(1)));
+        assertEquals(longString.substring(0, Type.STRING_LEN),
+                ((StringField) tuples.get(2).getField(1)).getValue());
+
+        TupleBatch batch = new TupleBatch(td, 10);
+        assertEquals(3, copy.readInto(batch, 0));
+        assertEquals(3, batch.numSelected());
+        assertEquals(-2, batch.getInt(0, 1));
+        assertEquals("a", batch.getString(1, 0));
+    }
+
+    /** Deleted slots are reused and the others keep their RecordIds. */
+    @Test public void deleteKeepsRecordIds() throws Exception {
+        SlottedPage page = emptyPage();
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Tuple t = tuple(i, "value" + i);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        page.deleteTuple(inserted.get(1));
+        try {
+            page.deleteTuple(inserted.get(1));
+            fail("deleted a tuple twice");
+        } catch (DbException e) {
+            // expected
+        }
+        Map<Integer, Tuple> tuples = contents(page);
+        assertEquals(4, tuples.size());
+        assertTrue(TestUtil.compareTuples(inserted.get(3), tuples.get(3)));
+
+        Tuple t = tuple(10, "new");
+        page.insertTuple(t);
+        assertEquals(1, t.getRecordId().getTupleNumber());
+        assertEquals(5, page.getNumSlots());
+    }
+
+    /** Space freed in the middle of the page is reclaimed by compaction. */
+    @Test public void compaction() throws Exception {
+        SlottedPage page = emptyPage();
+        List<Tuple> inserted = new ArrayList<>();
+        String s = String.join("", Collections.nCopies(50, "q"));
+        while (page.hasRoomFor(tuple(0, s))) {
+            Tuple t = tuple(inserted.size(), s);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        // free every other record, then insert records twice as long
+        for (int i = 0; i < inserted.size(); i += 2) {
+            page.deleteTuple(inserted.get(i));
+        }
+        String longer = s + s;
+        int added = 0;
+        while (page.hasRoomFor(tuple(0, longer))) {
+            page.insertTuple(tuple(-1, longer));
+            added++;
+        }
+        assertTrue(added >= inserted.size() / 4);
+
+        Map<Integer, Tuple> tuples = contents(new SlottedPage(pid, page.getPageData(), td));
+        for (int i = 1; i < inserted.size(); i += 2) {
+            assertTrue(TestUtil.compareTuples(inserted.get(i), tuples.get(i)));
+        }
+        assertEquals(inserted.size() / 2 + added, tuples.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -0,0 +1,96 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private final TupleDesc td = Utility.getTupleDesc(2);
+    private File tableFile;
+    private ZoneMap map;
+
+    @Before public void createMap() throws Exception {
+        tableFile = File.createTempFile("zones", ".dat");
+        tableFile.deleteOnExit();
+        new File(tableFile.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        map = new ZoneMap(tableFile, td);
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, int c) {
+        return new Predicate(field, op, new IntField(c));
+    }
+
+    private int[] zoneOf(int... firstFieldValues) {
+        Tuple[] tuples = new Tuple[firstFieldValues.length];
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = Utility.getHeapTuple(new int[]{firstFieldValues[i], 0});
+        }
+        return ZoneMap.summarize(td, Arrays.asList(tuples).iterator());
+    }
+
+    /** Pages without a zone are never skipped. */
+    @Test public void unknownZone() {
+        assertTrue(map.mayMatch(3, new Predicate[]{pred(0, Predicate.Op.EQUALS, 1)}));
+        map.widen(3, Utility.getHeapTuple(5, 2));
+        assertTrue(map.mayMatch(3, new Predicate[]{pred(0, Predicate.Op.EQUALS, 1)}));
+    }
+
+    @Test public void operators() {
+        map.set(0, zoneOf(10, 20, 15));
+        assertTrue(map.mayMatch(0, new Predicate[]{pred(0, Predicate.Op.EQUALS, 10)}));
+        assertFalse(map.mayMatch(0, new Predicate[]{pred(0, Predicate.Op.EQUALS, 21)}));
+        assertFalse(map.mayMatch(0, new Predicate[]{pred(0, Predicate.Op.GREATER_THAN, 20)}));
+        assertTrue(map.mayMatch(0, new Predicate[]{pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 20)}));
+        assertFalse(map.mayMatch(0, new Predicate[]{pred(0, Predicate.Op.LESS_THAN, 10)}));
+        assertTrue(map.mayMatch(0, new Predicate[]{pred(0, Predicate.Op.LESS_THAN_OR_EQ, 10)}));
+        assertTrue(map.mayMatch(0, new Predicate[]{pred(0, Predicate.Op.NOT_EQUALS, 10)}));
+        // every predicate has to be satisfiable
+        assertFalse(map.mayMatch(0, new Predicate[]{
+                pred(0, Predicate.Op.GREATER_THAN, 12), pred(1, Predicate.Op.GREATER_THAN, 0)}));
+
+        map.set(1, zoneOf(7, 7));
+        assertFalse(map.mayMatch(1, new Predicate[]{pred(0, Predicate.Op.NOT_EQUALS, 7)}));
+        map.set(2, zoneOf());
+        assertFalse(map.mayMatch(2, new Predicate[]{pred(0, Predicate.Op.NOT_EQUALS, 7)}));
+    }
+
+    /** Inserts widen a zone; only setting it narrows it. */
+    @Test public void widenAndSet() throws Exception {
+        map.set(0, zoneOf(10, 20));
+        map.widen(0, Utility.getHeapTuple(new int[]{30, 0}));
+        assertTrue(map.mayMatch(0, new Predicate[]{pred(0, Predicate.Op.EQUALS, 30)}));
+        map.widen(0, zoneOf(0));
+        assertTrue(map.mayMatch(0, new Predicate[]{pred(0, Predicate.Op.EQUALS, 0)}));
+        map.set(0, zoneOf(15));
+        assertFalse(map.mayMatch(0, new Predicate[]{pred(0, Predicate.Op.EQUALS, 30)}));
+    }
+
+    @Test public void reload() throws Exception {
+        map.set(0, zoneOf(10, 20));
+        map.set(1, zoneOf(30, 40));
+        map.close();
+        ZoneMap reloaded = new ZoneMap(tableFile, td);
+        assertFalse(reloaded.mayMatch(0, new Predicate[]{pred(0, Predicate.Op.EQUALS, 35)}));
+        assertTrue(reloaded.mayMatch(1, new Predicate[]{pred(0, Predicate.Op.EQUALS, 35)}));
+        assertTrue(reloaded.mayMatch(2, new Predicate[]{pred(0, Predicate.Op.EQUALS, 35)}));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
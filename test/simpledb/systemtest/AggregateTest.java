@@ -1,19 +1,35 @@
 package simpledb.systemtest;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import simpledb.ParsingException;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -121,6 +137,119 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /** Several aggregates over different columns, computed in one pass. */
+    @Test public void testMultipleAggregates()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, MAX_VALUE, null, createdTuples);
+
+        Map<Integer, List<Integer>> col1 = new HashMap<>();
+        Map<Integer, List<Integer>> col2 = new HashMap<>();
+        for (List<Integer> t : createdTuples) {
+            col1.computeIfAbsent(t.get(0), k -> new ArrayList<>()).add(t.get(1));
+            col2.computeIfAbsent(t.get(0), k -> new ArrayList<>()).add(t.get(2));
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Integer key : col1.keySet()) {
+            List<Integer> result = new ArrayList<>();
+            result.add(key);
+            result.add(computeAggregate(col1.get(key), Aggregator.Op.SUM));
+            result.add(computeAggregate(col2.get(key), Aggregator.Op.MAX));
+            result.add(computeAggregate(col1.get(key), Aggregator.Op.AVG));
+            result.add(computeAggregate(col2.get(key), Aggregator.Op.COUNT));
+            expected.add(result);
+        }
+
+        TransactionId tid = new TransactionId();
+        Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""),
+                new int[]{1, 2, 1, 2}, 0, new Aggregator.Op[]{Aggregator.Op.SUM,
+                        Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT});
+        SystemTestUtil.matchTuples(ag, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the number of tuples the aggregate returns after a rewind */
+    private int countAfterRewind(Aggregate ag) throws DbException, TransactionAbortedException {
+        ag.open();
+        while (ag.hasNext()) {
+            ag.next();
+        }
+        ag.rewind();
+        int n = 0;
+        while (ag.hasNext()) {
+            ag.next();
+            n++;
+        }
+        ag.close();
+        return n;
+    }
+
+    /** Groups that do not fit in memory are partitioned to disk. */
+    @Test public void testSpillingGroupBy()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 20000, 1 << 20, null, createdTuples);
+        List<List<Integer>> expected = aggregate(createdTuples, Aggregator.Op.SUM, 0);
+
+        TransactionId tid = new TransactionId();
+        Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""), new int[]{1}, 0,
+                new Aggregator.Op[]{Aggregator.Op.SUM}, 4, false);
+        SystemTestUtil.matchTuples(ag, expected);
+        assertTrue(ag.numSpilledPartitions() > 0);
+        assertEquals(expected.size(), countAfterRewind(ag));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Input ordered on the group field is aggregated one group at a time. */
+    @Test public void testGroupOrdered()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, MAX_VALUE, null, createdTuples);
+        List<List<Integer>> expected = aggregate(createdTuples, Aggregator.Op.MIN, 0);
+
+        TransactionId tid = new TransactionId();
+        Aggregate ag = new Aggregate(new OrderBy(0, true, new SeqScan(tid, table.getId(), "")),
+                new int[]{1}, 0, new Aggregator.Op[]{Aggregator.Op.MIN}, 1, true);
+        SystemTestUtil.matchTuples(ag, expected);
+        assertEquals(expected.size(), countAfterRewind(ag));
+
+        // without grouping there is a single result, even for empty input
+        ag = new Aggregate(new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)),
+                new SeqScan(tid, table.getId(), "")), new int[]{1}, Aggregator.NO_GROUPING,
+                new Aggregator.Op[]{Aggregator.Op.COUNT}, 1, true);
+        SystemTestUtil.matchTuples(ag, Collections.singletonList(Collections.singletonList(0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Aggregate planAggregate(int tableId, String afield, String gfield)
+            throws ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "t");
+        lp.addProjectField(gfield, null);
+        lp.addProjectField(afield, "sum");
+        lp.addAggregate("sum", afield, gfield);
+        OpIterator node = lp.physicalPlan(new TransactionId(), new HashMap<>(), false);
+        while (!(node instanceof Aggregate)) {
+            node = ((Operator) node).getChildren()[0];
+        }
+        return (Aggregate) node;
+    }
+
+    /** The planner aggregates a B+ tree grouped on its key one group at a time. */
+    @Test public void testPlanGroupOrdered() throws Exception {
+        File f = File.createTempFile("aggregate", ".dat");
+        f.deleteOnExit();
+        BTreeFile btree = BTreeUtility.openBTreeFile(2, "field", f, 0);
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "field");
+
+        assertTrue(planAggregate(btree.getId(), "t.field1", "t.field0").isGroupOrdered());
+        assertFalse(planAggregate(btree.getId(), "t.field0", "t.field1").isGroupOrdered());
+        assertFalse(planAggregate(heap.getId(), "t.field1", "t.field0").isGroupOrdered());
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
@@ -0,0 +1,125 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    @Test public void scanReturnsAllTuples() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, null, tuples);
+        TransactionId tid = new TransactionId();
+        // small batches, so that batches end in the middle of pages
+        BatchSeqScan scan = new BatchSeqScan(tid, f.getId(), "t", 100);
+        SystemTestUtil.matchTuples(new BatchToTupleIterator(scan), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void filterAndProject() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) > 50) {
+                expected.add(Arrays.asList(t.get(2), t.get(0)));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        BatchIterator plan = new BatchProject(Arrays.asList(2, 0),
+                new BatchFilter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(50)),
+                        new BatchSeqScan(tid, f.getId(), "t")));
+        SystemTestUtil.matchTuples(new BatchToTupleIterator(plan), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void groupedAggregate() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, 10, null, tuples);
+        Map<Integer, Integer> sums = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            sums.merge(t.get(0), t.get(1), Integer::sum);
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet()) {
+            expected.add(Arrays.asList(e.getKey(), e.getValue()));
+        }
+
+        TransactionId tid = new TransactionId();
+        BatchIterator plan = new BatchAggregate(new BatchSeqScan(tid, f.getId(), "t"),
+                1, 0, Aggregator.Op.SUM);
+        SystemTestUtil.matchTuples(new BatchToTupleIterator(plan), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A tuple operator below a batch operator, below a tuple operator. */
+    @Test public void mixedPlan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, 100, null, tuples);
+        int min = Integer.MAX_VALUE;
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 30) {
+                min = Math.min(min, t.get(1));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new BatchToTupleIterator(new BatchAggregate(
+                new BatchFilter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30)),
+                        new TupleToBatchIterator(new SeqScan(tid, f.getId(), "t"))),
+                1, Aggregator.NO_GROUPING, Aggregator.Op.MIN));
+        SystemTestUtil.matchTuples(new Filter(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)), plan),
+                Collections.singletonList(Collections.singletonList(min)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Filters only shrink the selection; the rows stay where they are. */
+    @Test public void filterKeepsRowPositions() throws Exception {
+        TupleBatch batch = new TupleBatch(SystemTestUtil.SINGLE_INT_DESCRIPTOR, 8);
+        for (int i = 0; i < 8; i++) {
+            batch.setInt(0, batch.addRow(), i);
+        }
+        BatchIterator source = new BatchIterator() {
+            boolean done;
+            public void open() { done = false; }
+            public TupleBatch nextBatch() {
+                if (done) return null;
+                done = true;
+                return batch;
+            }
+            public void rewind() { done = false; }
+            public simpledb.storage.TupleDesc getTupleDesc() { return batch.getTupleDesc(); }
+            public void close() { }
+        };
+        BatchFilter filter = new BatchFilter(
+                new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(3)), source);
+        filter.open();
+        TupleBatch out = filter.nextBatch();
+        assertEquals(8, out.size());
+        assertEquals(7, out.numSelected());
+        assertEquals(4, out.selectedRow(3));
+        assertNull(filter.nextBatch());
+        filter.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
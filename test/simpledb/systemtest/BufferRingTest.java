@@ -0,0 +1,80 @@
+package simpledb.systemtest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    private HeapFile hot;
+    private List<List<Integer>> hotTuples;
+    private HeapFile large;
+    private List<List<Integer>> largeTuples;
+
+    @Before public void createTables() throws Exception {
+        hotTuples = new ArrayList<>();
+        hot = SystemTestUtil.createRandomHeapFile(2, 2000, null, hotTuples);
+        largeTuples = new ArrayList<>();
+        large = SystemTestUtil.createRandomHeapFile(2, 50000, null, largeTuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BufferPool bufferPool = Database.getBufferPool();
+        assertTrue(hot.numPages() <= bufferPool.getRingThreshold());
+        assertTrue(large.numPages() > BufferPool.DEFAULT_PAGES);
+        // warm up the working set
+        SystemTestUtil.matchTuples(hot, hotTuples);
+    }
+
+    private boolean hotPagesResident() {
+        for (int p = 0; p < hot.numPages(); p++) {
+            if (!Database.getBufferPool().isResident(new HeapPageId(hot.getId(), p))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test public void ringFor() {
+        BufferPool bufferPool = Database.getBufferPool();
+        assertNull(bufferPool.ringFor(bufferPool.getRingThreshold()));
+        BufferRing ring = bufferPool.ringFor(bufferPool.getRingThreshold() + 1);
+        assertEquals(BufferPool.DEFAULT_PAGES / 8, ring.capacity());
+        assertEquals(BufferPool.MAX_RING_PAGES, new BufferPool(1000).ringFor(1001).capacity());
+    }
+
+    /** A large scan keeps to its ring and leaves the working set alone. */
+    @Test public void largeScanKeepsWorkingSet() throws Exception {
+        assertTrue(hotPagesResident());
+        SystemTestUtil.matchTuples(large, largeTuples);
+        assertTrue(hotPagesResident());
+        assertTrue(Database.getBufferPool().getRingEvictions() > 0);
+    }
+
+    /** Computing statistics scans the table twice, through a ring. */
+    @Test public void statisticsKeepWorkingSet() throws Exception {
+        new TableStats(large.getId(), 1000);
+        assertTrue(hotPagesResident());
+    }
+
+    /** Without the ring, the same scan pushes the working set out. */
+    @Test public void sharedPoolScanEvicts() throws Exception {
+        Database.getBufferPool().setRingThreshold(Integer.MAX_VALUE);
+        SystemTestUtil.matchTuples(large, largeTuples);
+        assertFalse(hotPagesResident());
+        assertEquals(0, Database.getBufferPool().getRingEvictions());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
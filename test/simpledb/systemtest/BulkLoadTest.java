@@ -0,0 +1,149 @@
+package simpledb.systemtest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BulkLoadTest extends SimpleDbTestBase {
+
+    @After public void resetSettings() {
+        BulkLoader.resetChunkSize();
+        BTreeFileEncoder.resetSortMemoryPages();
+    }
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("bulk", suffix);
+        f.deleteOnExit();
+        new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        new File(f.getPath() + PageChecksums.SUFFIX).deleteOnExit();
+        return f;
+    }
+
+    private static byte[] bytes(File f) throws IOException {
+        return Files.readAllBytes(f.toPath());
+    }
+
+    /** The pages, zones and checksums do not depend on how the input is split. */
+    @Test public void sameOutputForAnyThreadsAndChunks() throws Exception {
+        Random r = new Random(20);
+        List<List<Integer>> tuples = new ArrayList<>();
+        File text = tempFile(".txt");
+        try (Writer w = new FileWriter(text)) {
+            for (int i = 0; i < 20000; i++) {
+                List<Integer> t = Arrays.asList(r.nextInt(), r.nextInt(1000) - 500, i);
+                tuples.add(t);
+                w.write(t.get(0) + "," + t.get(1) + ", " + t.get(2) + (i % 7 == 0 ? "\r\n" : "\n"));
+                if (i % 1000 == 0) {
+                    w.write("\n");
+                }
+            }
+        }
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
+
+        File serial = tempFile(".dat");
+        BulkLoader.load(text, serial, BufferPool.getPageSize(), 3, types, ',', 1);
+        BulkLoader.setChunkSize(997);
+        File parallel = tempFile(".dat");
+        BulkLoader.load(text, parallel, BufferPool.getPageSize(), 3, types, ',', 4);
+
+        assertTrue(serial.length() > 10 * BufferPool.getPageSize());
+        assertArrayEquals(bytes(serial), bytes(parallel));
+        assertArrayEquals(bytes(new File(serial.getPath() + ZoneMap.SUFFIX)),
+                bytes(new File(parallel.getPath() + ZoneMap.SUFFIX)));
+        assertArrayEquals(bytes(new File(serial.getPath() + PageChecksums.SUFFIX)),
+                bytes(new File(parallel.getPath() + PageChecksums.SUFFIX)));
+        SystemTestUtil.matchTuples(Utility.openHeapFile(3, parallel), tuples);
+    }
+
+    /** An empty input still gets one empty page. */
+    @Test public void emptyInput() throws Exception {
+        File text = tempFile(".txt");
+        File out = tempFile(".dat");
+        HeapFileEncoder.convert(text, out, BufferPool.getPageSize(), 2);
+        assertEquals(BufferPool.getPageSize(), out.length());
+        SystemTestUtil.matchTuples(Utility.openHeapFile(2, out), new ArrayList<>());
+    }
+
+    @Test public void stringsAndBadLines() throws Exception {
+        File text = tempFile(".txt");
+        String longString = String.join("", Collections.nCopies(Type.STRING_LEN + 10, "x"));
+        try (Writer w = new FileWriter(text)) {
+            w.write("1| abc\n\nnot a number|def\n2|" + longString + "\n4\n5|a|b\n3|last");
+        }
+        File out = tempFile(".dat");
+        BulkLoader.setChunkSize(5);
+        BulkLoader.load(text, out, BufferPool.getPageSize(), 2,
+                new Type[]{Type.INT_TYPE, Type.STRING_TYPE}, '|', 3);
+
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        HeapFile table = Utility.openHeapFile(2, null, out, td);
+        List<String> read = new ArrayList<>();
+        DbFileIterator it = table.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            read.add(((IntField) t.getField(0)).getValue() + "=" + ((StringField) t.getField(1)).getValue());
+        }
+        it.close();
+        assertEquals(Arrays.asList("1=abc", "2=" + longString.substring(0, Type.STRING_LEN),
+                "5=a|b", "3=last"), read);
+    }
+
+    /** A B+ tree built from sorted runs on disk holds every tuple, in key order. */
+    @Test public void bTreeFromExternalSort() throws Exception {
+        BTreeFileEncoder.setSortMemoryPages(3);
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) tree.readPage(BTreeRootPtrPage.getId(tree.getId()));
+        BTreePageId pid = rootPtr.getRootId();
+        assertEquals(BTreePageId.INTERNAL, pid.pgcateg());
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage page = (BTreeInternalPage) tree.readPage(pid);
+            pid = page.iterator().next().getLeftChild();
+        }
+
+        // follow the right sibling pointers through the leaves
+        List<List<Integer>> leaves = new ArrayList<>();
+        int previousKey = Integer.MIN_VALUE;
+        while (pid != null) {
+            BTreeLeafPage leaf = (BTreeLeafPage) tree.readPage(pid);
+            Iterator<Tuple> it = leaf.iterator();
+            while (it.hasNext()) {
+                List<Integer> t = SystemTestUtil.tupleToList(it.next());
+                assertTrue(t.get(0) >= previousKey);
+                previousKey = t.get(0);
+                leaves.add(t);
+            }
+            pid = leaf.getRightSiblingId();
+        }
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        Comparator<List<Integer>> byValues = Comparator.<List<Integer>, Integer>comparing(t -> t.get(0))
+                .thenComparing(t -> t.get(1));
+        expected.sort(byValues);
+        leaves.sort(byValues);
+        assertEquals(expected, leaves);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoadTest.class);
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb.systemtest;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageChecksums;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Measures what verifying page checksums costs a sequential scan of a table
+ * that is not cached in the BufferPool, by timing the same scan with
+ * verification on and off, alternately.  Not run as part of the tests; run
+ * it with
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.systemtest.ChecksumBenchmark [rows [rounds]]
+ * </pre>
+ * The overhead it reports should stay within a few percent.
+ */
+public class ChecksumBenchmark {
+
+    private static final int COLUMNS = 4;
+
+    /** @return the time in nanoseconds a full scan of the table took */
+    private static long scan(HeapFile table, boolean verify) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getBufferPool().setVerifyChecksums(verify);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        long start = System.nanoTime();
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        if (count == 0) {
+            throw new IllegalStateException("empty table");
+        }
+        return elapsed;
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, null, null);
+        new File(table.getFile().getPath() + PageChecksums.SUFFIX).deleteOnExit();
+        System.out.println(rows + " rows on " + table.numPages() + " pages");
+
+        // warm up the JIT and the file system cache
+        for (int i = 0; i < 3; i++) {
+            scan(table, true);
+            scan(table, false);
+        }
+        long[] on = new long[rounds];
+        long[] off = new long[rounds];
+        for (int i = 0; i < rounds; i++) {
+            on[i] = scan(table, true);
+            off[i] = scan(table, false);
+        }
+
+        long withVerify = median(on);
+        long without = median(off);
+        System.out.printf("verify on:  %8.2f ms, %10.0f rows/s%n", withVerify / 1e6, rows / (withVerify / 1e9));
+        System.out.printf("verify off: %8.2f ms, %10.0f rows/s%n", without / 1e6, rows / (without / 1e9));
+        System.out.printf("overhead:   %8.2f %%%n", 100.0 * (withVerify - without) / without);
+        table.close();
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb.systemtest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 4;
+    private static final int ROWS = 5000;
+
+    private ColumnFile table;
+    private String tableName;
+    private List<List<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        File f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        for (int c = 0; c < COLUMNS; c++) {
+            new File(f.getPath() + "." + c).deleteOnExit();
+        }
+        table = new ColumnFile(f, Utility.getTupleDesc(COLUMNS, "field"));
+        tableName = UUID.randomUUID().toString();
+        Database.getCatalog().addTable(table, tableName);
+
+        // column 0 is sorted, so it compresses well
+        Random r = new Random(42);
+        tuples = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            List<Integer> values = Arrays.asList(i / 100, r.nextInt(1 << 20), r.nextInt(1000), i);
+            Tuple t = new Tuple(table.getTupleDesc());
+            for (int c = 0; c < COLUMNS; c++) {
+                t.setField(c, new IntField(values.get(c)));
+            }
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(values);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<List<Integer>> project(List<List<Integer>> tuples, int... columns) {
+        List<List<Integer>> projected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            List<Integer> p = new ArrayList<>();
+            for (int c : columns) {
+                p.add(t.get(c));
+            }
+            projected.add(p);
+        }
+        return projected;
+    }
+
+    @Test public void scanAllColumns() throws Exception {
+        SystemTestUtil.matchTuples(table, tuples);
+        // the sorted column takes a single run-length encoded page
+        assertEquals(1, table.numPages(0));
+        assertTrue(table.numPages(1) > 1);
+    }
+
+    /** A projected scan does not touch the pages of other columns. */
+    @Test public void scanProjectedColumns() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t", new int[]{3, 1});
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("t.field3", scan.getTupleDesc().getFieldName(0));
+        SystemTestUtil.matchTuples(scan, project(tuples, 3, 1));
+        for (int p = 0; p < table.numPages(2); p++) {
+            assertFalse(Database.getBufferPool().holdsLock(tid, new ColumnPageId(table.getId(), 2, p)));
+        }
+        assertTrue(Database.getBufferPool().holdsLock(tid, new ColumnPageId(table.getId(), 1, 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void deleteAndReopen() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        List<List<Integer>> remaining = new ArrayList<>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(2)).getValue() % 2 == 0) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            } else {
+                remaining.add(SystemTestUtil.tupleToList(t));
+            }
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ColumnFile reopened = new ColumnFile(table.getFile(), table.getTupleDesc());
+        Database.getCatalog().addTable(reopened, tableName);
+        SystemTestUtil.matchTuples(reopened, remaining);
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SeqScan(tid, reopened.getId(), "t", new int[]{0}),
+                project(remaining, 0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The plan of a query only scans the columns the query uses. */
+    @Test public void planScansUsedColumns() throws Exception {
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(tableName, new TableStats(table.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.field2", Predicate.Op.LESS_THAN, "100");
+        lp.addProjectField("t.field3", null);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OpIterator node = plan;
+        while (!(node instanceof SeqScan)) {
+            node = ((Operator) node).getChildren()[0];
+        }
+        assertArrayEquals(new int[]{2, 3}, ((SeqScan) node).getColumns());
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(2) < 100) {
+                expected.add(Collections.singletonList(t.get(3)));
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
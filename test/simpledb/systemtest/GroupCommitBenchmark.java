@@ -0,0 +1,127 @@
+package simpledb.systemtest;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.storage.PageChecksums;
+import simpledb.storage.ZoneMap;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures commit throughput and latency with 1 to 64 concurrent
+ * committers, with group commit on and off.  Each committer runs small
+ * transactions that insert a tuple into a table of its own, so that they do
+ * not wait for each other's locks, under NO-FORCE, so that a commit costs
+ * one force of the log.  Not run as part of the tests; run it with
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.systemtest.GroupCommitBenchmark [seconds [waitMicros]]
+ * </pre>
+ * With group commit, throughput should grow with the number of committers
+ * while the number of forces stays about the same.
+ */
+public class GroupCommitBenchmark {
+
+    private static final int[] COMMITTERS = {1, 2, 4, 8, 16, 32, 64};
+
+    private static HeapFile[] tables;
+
+    private static void run(int committers, boolean groupCommit, long waitMicros, long millis)
+            throws Exception {
+        Database.resetBufferPool(4 * COMMITTERS[COMMITTERS.length - 1]);
+        Database.getBufferPool().setForce(false);
+        LogFile log = Database.getLogFile();
+        log.setGroupCommit(groupCommit);
+        log.setGroupCommitWait(waitMicros);
+        long commitsBefore = log.getCommits();
+        long forcesBefore = log.getForces();
+
+        long[][] latencies = new long[committers][];
+        int[] counts = new int[committers];
+        Throwable[] failure = new Throwable[1];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[committers];
+        long deadline = System.nanoTime() + (millis + 100) * 1000000;
+        for (int c = 0; c < committers; c++) {
+            final int me = c;
+            threads[c] = new Thread(() -> {
+                long[] mine = new long[1024];
+                int n = 0;
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        Database.getBufferPool().insertTuple(t.getId(), tables[me].getId(),
+                                Utility.getHeapTuple(new int[]{me, n}));
+                        long begin = System.nanoTime();
+                        t.commit();
+                        if (n == mine.length) {
+                            mine = Arrays.copyOf(mine, 2 * n);
+                        }
+                        mine[n++] = System.nanoTime() - begin;
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+                latencies[me] = mine;
+                counts[me] = n;
+            });
+            threads[c].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (failure[0] != null) {
+            throw new RuntimeException(failure[0]);
+        }
+
+        int total = 0;
+        for (int n : counts) {
+            total += n;
+        }
+        long[] all = new long[total];
+        int at = 0;
+        for (int c = 0; c < committers; c++) {
+            System.arraycopy(latencies[c], 0, all, at, counts[c]);
+            at += counts[c];
+        }
+        Arrays.sort(all);
+        long commits = log.getCommits() - commitsBefore;
+        long forces = log.getForces() - forcesBefore;
+        System.out.printf("%5s %4d committers: %9.0f commits/s, latency p50 %7.3f ms, p99 %7.3f ms, %6.1f commits/force%n",
+                groupCommit ? "group" : "each", committers, total / (elapsed / 1e9),
+                all[total / 2] / 1e6, all[Math.min(total - 1, (int) (total * 0.99))] / 1e6,
+                (double) commits / Math.max(forces, 1));
+    }
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        long waitMicros = args.length > 1 ? Long.parseLong(args[1]) : LogFile.DEFAULT_GROUP_COMMIT_WAIT_MICROS;
+        long millis = (long) (seconds * 1000);
+
+        tables = new HeapFile[COMMITTERS[COMMITTERS.length - 1]];
+        for (int i = 0; i < tables.length; i++) {
+            File f = File.createTempFile("commit", ".dat");
+            f.deleteOnExit();
+            new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+            new File(f.getPath() + PageChecksums.SUFFIX).deleteOnExit();
+            tables[i] = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        }
+
+        // warm up the JIT
+        run(4, true, waitMicros, millis / 4);
+        for (int committers : COMMITTERS) {
+            run(committers, false, waitMicros, millis);
+            run(committers, true, waitMicros, millis);
+        }
+        Database.getBufferPool().flushAllPages();
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+    private List<List<Integer>> t1Tuples;
+    private List<List<Integer>> t2Tuples;
+    private HeapFile table1;
+    private HeapFile table2;
+
+    private void createTables(int rows1, int rows2, int maxValue) throws Exception {
+        t1Tuples = new ArrayList<>();
+        table1 = SystemTestUtil.createRandomHeapFile(2, rows1, maxValue, null, t1Tuples);
+        t2Tuples = new ArrayList<>();
+        table2 = SystemTestUtil.createRandomHeapFile(2, rows2, maxValue, null, t2Tuples);
+    }
+
+    private List<List<Integer>> expectedResults() {
+        Map<Integer, List<List<Integer>>> byKey = new HashMap<>();
+        for (List<Integer> t1 : t1Tuples) {
+            byKey.computeIfAbsent(t1.get(0), k -> new ArrayList<>()).add(t1);
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t2 : t2Tuples) {
+            for (List<Integer> t1 : byKey.getOrDefault(t2.get(0), Collections.emptyList())) {
+                List<Integer> out = new ArrayList<>(t1);
+                out.addAll(t2);
+                expected.add(out);
+            }
+        }
+        return expected;
+    }
+
+    /** @return how often each tuple occurs in the specified list */
+    private static Map<List<Integer>, Integer> counts(List<List<Integer>> tuples) {
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            counts.merge(t, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /** @return the number of partitions the join spilled */
+    private int validateJoin(int memoryPages) throws Exception {
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""),
+                memoryPages);
+        SystemTestUtil.matchTuples(join, expectedResults());
+        int spilled = join.numSpilledPartitions();
+
+        // matchTuples closes the join; a rewind of an open one must give the
+        // same tuples again
+        join.open();
+        while (join.hasNext()) {
+            join.next();
+        }
+        join.rewind();
+        List<List<Integer>> rewound = new ArrayList<>();
+        while (join.hasNext()) {
+            rewound.add(SystemTestUtil.tupleToList(join.next()));
+        }
+        assertEquals(counts(expectedResults()), counts(rewound));
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return spilled;
+    }
+
+    @Test public void fitsInMemory() throws Exception {
+        createTables(2000, 2000, 500);
+        assertEquals(0, validateJoin(HashEquiJoin.DEFAULT_MEMORY_PAGES));
+    }
+
+    @Test public void spillsPartitions() throws Exception {
+        createTables(5000, 3000, 2000);
+        // 5000 build tuples of 8 bytes take about 10 pages
+        int spilled = validateJoin(4);
+        assertTrue(spilled > 0);
+        assertTrue(spilled < HashEquiJoin.NUM_PARTITIONS);
+    }
+
+    /** A single join value too big for memory can only be joined in chunks. */
+    @Test public void spillsSkewedKey() throws Exception {
+        createTables(3000, 20, 1);
+        assertEquals(1, validateJoin(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashJoinTest.class);
+    }
+}
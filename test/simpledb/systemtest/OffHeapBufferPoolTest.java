@@ -0,0 +1,86 @@
+package simpledb.systemtest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class OffHeapBufferPoolTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private List<List<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        Database.resetOffHeapBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    @Test public void scan() throws Exception {
+        SystemTestUtil.matchTuples(table, tuples);
+        TransactionId tid = new TransactionId();
+        Page page = Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(page instanceof ArenaHeapPage);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(Database.getBufferPool().getArena().getFramesInUse() > 0);
+    }
+
+    /**
+     * Pages the pool evicts give their frames back right away, so scans of a
+     * table larger than the pool never run out of frames.
+     */
+    @Test public void evictedPagesFreeFrames() throws Exception {
+        Database.resetOffHeapBufferPool(10);
+        for (int i = 0; i < 3; i++) {
+            SystemTestUtil.matchTuples(table, tuples);
+        }
+        PageArena arena = Database.getBufferPool().getArena();
+        assertEquals(0, arena.getHeapFrames());
+        assertEquals(0, arena.getFramesCollected());
+        assertTrue(arena.getFramesInUse() <= 10);
+    }
+
+    /** Committed changes reach the disk; aborted ones are rolled back. */
+    @Test public void commitAndAbort() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        List<List<Integer>> remaining = new ArrayList<>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            } else {
+                remaining.add(SystemTestUtil.tupleToList(t));
+            }
+        }
+        scan.close();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{7, 7}));
+        remaining.add(Arrays.asList(7, 7));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{9, 9}));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        Database.resetOffHeapBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(table, remaining);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}
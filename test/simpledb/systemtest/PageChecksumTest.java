@@ -0,0 +1,142 @@
+package simpledb.systemtest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageChecksumTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private HeapFile table;
+    private List<List<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, null, tuples);
+        new File(table.getFile().getPath() + PageChecksums.SUFFIX).deleteOnExit();
+        assertTrue(table.numPages() > 2);
+    }
+
+    /** Flips a bit of a page on disk, in the first field of its first tuple. */
+    private void corrupt(int pageNo) throws Exception {
+        TuplePage page = (TuplePage) table.readPage(new HeapPageId(table.getId(), pageNo));
+        int headerSize = (page.getNumSlots() + 7) / 8;
+        try (RandomAccessFile rf = new RandomAccessFile(table.getFile(), "rw")) {
+            long offset = (long) pageNo * BufferPool.getPageSize() + headerSize + 3;
+            rf.seek(offset);
+            int b = rf.read();
+            rf.seek(offset);
+            rf.write(b ^ 1);
+        }
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    @Test public void intactTable() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertTrue(Database.getBufferPool().getVerifyChecksums());
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void corruptPageIsRejected() throws Exception {
+        corrupt(1);
+        TransactionId tid = new TransactionId();
+        try {
+            Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), 1), Permissions.READ_ONLY);
+            fail("expected a checksum mismatch");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+        // the other pages are fine
+        Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+        Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), 2), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void verificationOff() throws Exception {
+        corrupt(1);
+        Database.getBufferPool().setVerifyChecksums(false);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), 1), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Writing a page stamps its new checksum, so rewriting a corrupt page repairs it. */
+    @Test public void writeStampsChecksum() throws Exception {
+        HeapPageId pid = new HeapPageId(table.getId(), 1);
+        Database.getBufferPool().setVerifyChecksums(false);
+        Page before = table.readPage(pid);
+        corrupt(1);
+        table.writePage(before);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(table, tuples);
+
+        // and inserted tuples end up on checksummed pages
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = Utility.getHeapTuple(new int[]{i, -i});
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(Arrays.asList(i, -i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(table, tuples);
+        int last = table.numPages() - 1;
+        byte[] data = table.readPage(new HeapPageId(table.getId(), last)).getPageData();
+        assertTrue(table.getChecksums().verify(last, data));
+        data[BufferPool.getPageSize() - 1] ^= 1;
+        assertFalse(table.getChecksums().verify(last, data));
+    }
+
+    /** B+ tree pages are stamped when written and checked when read, like heap pages. */
+    @Test public void btreePages() throws Exception {
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, ROWS, null, null, 0);
+        new File(tree.getFile().getPath() + PageChecksums.SUFFIX).deleteOnExit();
+        BTreePageId rootPtr = BTreeRootPtrPage.getId(tree.getId());
+        BTreePageId leaf = new BTreePageId(tree.getId(), 1, BTreePageId.LEAF);
+        tree.readPage(rootPtr);
+        Page before = tree.readPage(leaf);
+
+        try (RandomAccessFile rf = new RandomAccessFile(tree.getFile(), "rw")) {
+            long offset = BTreeRootPtrPage.getPageSize() + BufferPool.getPageSize() - 1;
+            rf.seek(offset);
+            int b = rf.read();
+            rf.seek(offset);
+            rf.write(b ^ 1);
+        }
+        try {
+            tree.readPage(leaf);
+            fail("expected a checksum mismatch");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+        tree.readPage(rootPtr);
+
+        // rewriting the page repairs it
+        tree.writePage(before);
+        assertArrayEquals(before.getPageData(), tree.readPage(leaf).getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChecksumTest.class);
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 64;
+
+    /** Waits for the cleaner to free the target number of frames. */
+    private static void awaitCleaner(BufferPool bufferPool) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bufferPool.getFreeFrames() < bufferPool.getFreeFrameTarget()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test public void target() {
+        BufferPool bufferPool = new BufferPool(POOL_PAGES);
+        assertEquals(POOL_PAGES / 16, bufferPool.getFreeFrameTarget());
+        assertEquals(0, new BufferPool(8).getFreeFrameTarget());
+        try {
+            bufferPool.setFreeFrameTarget(POOL_PAGES);
+            fail("a pool cannot keep all of its frames free");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /** A scan larger than the pool leaves free frames behind it. */
+    @Test public void keepsFramesFree() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 100000, null, tuples);
+        assertTrue(table.numPages() > POOL_PAGES);
+        BufferPool bufferPool = Database.resetBufferPool(POOL_PAGES);
+        bufferPool.setReadAheadWindow(0);
+        bufferPool.setRingThreshold(Integer.MAX_VALUE);
+        bufferPool.setFreeFrameTarget(8);
+
+        SystemTestUtil.matchTuples(table, tuples);
+        awaitCleaner(bufferPool);
+        assertTrue(bufferPool.getFreeFrames() >= 8);
+        assertTrue(bufferPool.getPagesCleaned() > 0);
+    }
+
+    /** Pages dirtied by a running transaction are never evicted. */
+    @Test public void leavesDirtyPages() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, new ArrayList<>());
+        BufferPool bufferPool = Database.resetBufferPool(POOL_PAGES);
+        bufferPool.setFreeFrameTarget(8);
+
+        // leave fewer free frames than the target, all others dirty
+        TransactionId tid = new TransactionId();
+        while (table.numPages() < POOL_PAGES - 4) {
+            bufferPool.insertTuple(tid, table.getId(), Utility.getHeapTuple(1, 2));
+        }
+        awaitCleaner(bufferPool);
+        for (int p = 0; p < table.numPages(); p++) {
+            Page page = bufferPool.getPage(tid, new HeapPageId(table.getId(), p), Permissions.READ_ONLY);
+            assertEquals(tid, page.isDirty());
+        }
+        bufferPool.transactionComplete(tid, false);
+        assertEquals(0, countTuples(table));
+    }
+
+    private static int countTuples(HeapFile table) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
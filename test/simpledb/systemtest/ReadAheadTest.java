@@ -0,0 +1,95 @@
+package simpledb.systemtest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private List<List<Integer>> tuples;
+    private int tuplesPerPage;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        tuplesPerPage = ((TuplePage) table.readPage(new HeapPageId(table.getId(), 0))).getNumSlots();
+        assertTrue(table.numPages() > 20);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Waits for the pool to have read the specified number of pages ahead. */
+    private static void awaitReadAhead(long pages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (Database.getBufferPool().getPagesReadAhead() < pages
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static Map<List<Integer>, Integer> count(List<List<Integer>> tuples) {
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            counts.merge(t, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    @Test public void window() {
+        assertEquals(BufferPool.DEFAULT_READ_AHEAD_WINDOW, Database.getBufferPool().getReadAheadWindow());
+        // read ahead never takes more than a quarter of the pool
+        assertEquals(2, new BufferPool(8).getReadAheadWindow());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeWindow() {
+        Database.getBufferPool().setReadAheadWindow(-1);
+    }
+
+    /** Once a scan moves on to its second page, the pages after it are read ahead. */
+    @Test public void sequentialScanReadsAhead() throws Exception {
+        BufferPool bufferPool = Database.getBufferPool();
+        int window = bufferPool.getReadAheadWindow();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        List<List<Integer>> scanned = new ArrayList<>();
+        for (int i = 0; i < tuplesPerPage + 1; i++) {
+            scanned.add(SystemTestUtil.tupleToList(scan.next()));
+        }
+        awaitReadAhead(window);
+        assertEquals(window, bufferPool.getPagesReadAhead());
+        // pages read ahead are not locked until the scan gets to them
+        assertFalse(bufferPool.holdsLock(tid, new HeapPageId(table.getId(), 2)));
+
+        while (scan.hasNext()) {
+            scanned.add(SystemTestUtil.tupleToList(scan.next()));
+        }
+        scan.close();
+        bufferPool.transactionComplete(tid);
+        assertEquals(count(tuples), count(scanned));
+        assertTrue(bufferPool.getReadAheadHits() >= window);
+    }
+
+    @Test public void readAheadOff() throws Exception {
+        Database.getBufferPool().setReadAheadWindow(0);
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(0, Database.getBufferPool().getPagesReadAhead());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,409 @@
+package simpledb.systemtest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/** Recovery from the log under the STEAL and NO-FORCE policies. */
+public class RecoveryTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile table;
+
+    @Before public void createTable() throws IOException {
+        Database.reset();
+        file = File.createTempFile("recovery", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        new File(file.getPath() + PageChecksums.SUFFIX).deleteOnExit();
+        table = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    @After public void resetSettings() {
+        LogFile.resetBufferSize();
+    }
+
+    private static HeapFile[] createTables(File[] files) throws IOException {
+        HeapFile[] tables = new HeapFile[files.length];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = File.createTempFile("recovery", ".dat");
+            files[i].deleteOnExit();
+            new File(files[i].getPath() + ZoneMap.SUFFIX).deleteOnExit();
+            new File(files[i].getPath() + PageChecksums.SUFFIX).deleteOnExit();
+            tables[i] = Utility.createEmptyHeapFile(files[i].getAbsolutePath(), 2);
+        }
+        return tables;
+    }
+
+    /**
+     * Runs a thread per table that commits the specified number of
+     * transactions, each inserting one tuple into its table, calling
+     * between after each commit of the first thread.
+     */
+    private static void commitConcurrently(HeapFile[] tables, int commits, Runnable between)
+            throws InterruptedException {
+        Thread[] threads = new Thread[tables.length];
+        Throwable[] failure = new Throwable[1];
+        for (int i = 0; i < threads.length; i++) {
+            final int me = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int n = 0; n < commits; n++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        Database.getBufferPool().insertTuple(t.getId(), tables[me].getId(),
+                                Utility.getHeapTuple(new int[]{n, me}));
+                        t.commit();
+                        if (me == 0) {
+                            between.run();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertNull(failure[0]);
+    }
+
+    /** Loses the buffer pool, reopens the specified tables and recovers from the log. */
+    private void crash(File[] files, HeapFile[] tables) throws IOException {
+        Database.reset();
+        for (int i = 0; i < files.length; i++) {
+            tables[i] = Utility.openHeapFile(2, files[i]);
+        }
+        Database.getLogFile().recover();
+    }
+
+    private void insert(Transaction t, int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[]{i, 0}));
+        }
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> values = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    private List<Integer> values() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Integer> values = new ArrayList<>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(values);
+        return values;
+    }
+
+    /** Loses the buffer pool and recovers from the log. */
+    private void crash() throws IOException {
+        Database.reset();
+        table = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+    }
+
+    private Transaction committed(int from, int to) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, from, to);
+        t.commit();
+        return t;
+    }
+
+    /** Under NO-FORCE a commit only forces the log, which redo replays after a crash. */
+    @Test public void noForceCommitSurvivesCrash() throws Exception {
+        Database.getBufferPool().setForce(false);
+        committed(0, 1500);
+        assertFalse(Database.getBufferPool().getDirtyPageTable().isEmpty());
+        assertEquals(range(0, 1500), values());
+
+        crash();
+        assertEquals(range(0, 1500), values());
+    }
+
+    /** Under STEAL a small pool writes out uncommitted pages, which an abort restores. */
+    @Test public void stealThenAbort() throws Exception {
+        committed(0, 10);
+        Database.resetBufferPool(3);
+        Database.getBufferPool().setSteal(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 10, 3000);
+        assertTrue(table.numPages() > 3);
+        t.abort();
+        assertEquals(range(0, 10), values());
+
+        crash();
+        assertEquals(range(0, 10), values());
+    }
+
+    /** Updates stolen by a transaction that was running at the crash are undone, once. */
+    @Test public void undoLoserTwice() throws Exception {
+        committed(0, 10);
+        Database.resetBufferPool(3);
+        Database.getBufferPool().setSteal(true);
+
+        Transaction loser = new Transaction();
+        loser.start();
+        insert(loser, 10, 3000);
+        Database.getLogFile().force();
+
+        crash();
+        assertEquals(range(0, 10), values());
+        committed(10, 20);
+
+        // the CLRs and ABORT record of the first recovery keep the second
+        // from undoing the loser again over the later commit
+        crash();
+        assertEquals(range(0, 20), values());
+    }
+
+    /** @return the first fields of the tuples of a page of the table as it is on disk */
+    private List<Integer> onDisk(int pageNo) {
+        List<Integer> values = new ArrayList<>();
+        Iterator<Tuple> it = ((HeapPage) table.readPage(new HeapPageId(table.getId(), pageNo))).iterator();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        return values;
+    }
+
+    /**
+     * A page left dirty by a commit under NO-FORCE is not written out to
+     * make room while another transaction holds an exclusive lock on it,
+     * as that transaction may be changing it.
+     */
+    @Test public void noEvictionOfPageLockedByAnother() throws Exception {
+        Database.resetBufferPool(1);
+        Database.getBufferPool().setForce(false);
+        committed(0, 10);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+
+        Transaction changer = new Transaction();
+        changer.start();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(changer.getId(),
+                new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+        // a change in progress, neither logged nor marked dirty yet
+        page.insertTuple(Utility.getHeapTuple(new int[]{99, 0}));
+
+        Transaction reader = new Transaction();
+        reader.start();
+        try {
+            Database.getBufferPool().getPage(reader.getId(), new HeapPageId(other.getId(), 0),
+                    Permissions.READ_ONLY);
+            fail("the only page in the pool was evicted");
+        } catch (DbException expected) {
+        }
+        assertFalse(onDisk(0).contains(99));
+    }
+
+    /** A record cut short by a crash is dropped, and logging resumes after the last whole record. */
+    @Test public void tornTail() throws Exception {
+        Database.getBufferPool().setForce(false);
+        committed(0, 100);
+        try (OutputStream out = new FileOutputStream(new File("log"), true)) {
+            out.write(new byte[]{0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 7, 1, 2, 3});
+        }
+
+        crash();
+        assertEquals(range(0, 100), values());
+        committed(100, 200);
+
+        crash();
+        assertEquals(range(0, 200), values());
+    }
+
+    /** Single-tuple updates are logged as the byte ranges they changed. */
+    @Test public void deltaRecordsAreSmall() throws Exception {
+        File log = new File("log");
+        committed(0, 1);
+        long start = SegmentedFile.length(log);
+        committed(1, 2);
+        long delta = SegmentedFile.length(log) - start;
+
+        Database.getLogFile().setDeltaLogging(false);
+        start = SegmentedFile.length(log);
+        committed(2, 3);
+        long full = SegmentedFile.length(log) - start;
+        assertTrue(delta + " bytes logged for a delta, " + full + " for full images",
+                delta * 10 < full);
+    }
+
+    /** A loser whose updates were logged both ways is undone, and redo applies both. */
+    @Test public void undoDeltasAndImages() throws Exception {
+        Database.getBufferPool().setForce(false);
+        committed(0, 100);
+
+        Transaction loser = new Transaction();
+        loser.start();
+        Database.getLogFile().setDeltaLogging(false);
+        insert(loser, 100, 150);
+        Database.getLogFile().setDeltaLogging(true);
+        insert(loser, 150, 200);
+        DbFileIterator it = table.iterator(loser.getId());
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 10 == 0) {
+                Database.getBufferPool().deleteTuple(loser.getId(), t);
+            }
+        }
+        it.close();
+        // write the loser's pages, as STEAL would
+        Database.getBufferPool().flushAllPages();
+
+        crash();
+        assertEquals(range(0, 100), values());
+        crash();
+        assertEquals(range(0, 100), values());
+    }
+
+    /** Commits that share forces of the log are all durable. */
+    @Test public void groupCommit() throws Exception {
+        Database.getBufferPool().setForce(false);
+        Database.getLogFile().setGroupCommitWait(100);
+        File[] files = new File[4];
+        HeapFile[] tables = createTables(files);
+        commitConcurrently(tables, 50, () -> { });
+        assertEquals(200, Database.getLogFile().getCommits());
+        assertTrue(Database.getLogFile().getForces() < Database.getLogFile().getCommits());
+
+        crash(files, tables);
+        for (HeapFile t : tables) {
+            table = t;
+            assertEquals(range(0, 50), values());
+        }
+    }
+
+    /**
+     * The pages dirty at a checkpoint are written behind it, so that the
+     * next checkpoint truncates the log before it.
+     */
+    @Test public void fuzzyCheckpoint() throws Exception {
+        Database.getBufferPool().setForce(false);
+        committed(0, 1500);
+        Map<PageId, Long> dirty = Database.getBufferPool().getDirtyPageTable();
+        assertFalse(dirty.isEmpty());
+        File log = new File("log");
+        long before = SegmentedFile.length(log);
+
+        Database.getLogFile().logCheckpoint();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!Database.getBufferPool().getDirtyPageTable().isEmpty()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(Database.getBufferPool().getDirtyPageTable().isEmpty());
+        assertEquals(dirty.size(), Database.getBufferPool().getPagesWrittenBehind());
+
+        Database.getLogFile().logCheckpoint();
+        assertTrue(SegmentedFile.length(log) * 10 < before);
+        committed(1500, 1600);
+
+        crash();
+        assertEquals(range(0, 1600), values());
+    }
+
+    /**
+     * The pages written behind a checkpoint leave out a page that another
+     * transaction is changing, though a commit under NO-FORCE left it dirty.
+     */
+    @Test public void noWriteBehindOfPageLockedByAnother() throws Exception {
+        Database.getBufferPool().setForce(false);
+        committed(0, 10);
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        assertTrue(Database.getBufferPool().getDirtyPageTable().containsKey(pid));
+
+        Transaction changer = new Transaction();
+        changer.start();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(changer.getId(), pid,
+                Permissions.READ_WRITE);
+        Database.getLogFile().logCheckpoint();
+        // a change in progress while the pages are written behind
+        page.insertTuple(Utility.getHeapTuple(new int[]{99, 0}));
+        Database.getBufferPool().writeDirtyPages(Long.MAX_VALUE).get();
+
+        assertFalse(onDisk(0).contains(99));
+        assertTrue(Database.getBufferPool().getDirtyPageTable().containsKey(pid));
+        assertEquals(0, Database.getBufferPool().getPagesWrittenBehind());
+    }
+
+    /**
+     * Recovery from a checkpoint redoes the committed pages dirty at it and
+     * undoes the transactions running at it.
+     */
+    @Test public void recoverFromFuzzyCheckpoint() throws Exception {
+        Database.getBufferPool().setForce(false);
+        committed(0, 500);
+        Transaction loser = new Transaction();
+        loser.start();
+        insert(loser, 500, 1000);
+        Database.getLogFile().logCheckpoint();
+        insert(loser, 1000, 1200);
+
+        crash();
+        assertEquals(range(0, 500), values());
+        crash();
+        assertEquals(range(0, 500), values());
+    }
+
+    /**
+     * Records appended in parallel to a log buffer smaller than a page
+     * wrap around it, and whole page images do not fit in it at all; the
+     * log still holds every record, in one piece.
+     */
+    @Test public void smallLogBuffer() throws Exception {
+        LogFile.setBufferSize(3000);
+        Database.reset();
+        Database.getBufferPool().setForce(false);
+        File[] files = new File[4];
+        HeapFile[] tables = createTables(files);
+        LogFile log = Database.getLogFile();
+        // the first committer switches between logging deltas and whole
+        // images, so that small and oversized records interleave
+        commitConcurrently(tables, 50, () -> log.setDeltaLogging(!log.getDeltaLogging()));
+
+        crash(files, tables);
+        for (HeapFile t : tables) {
+            table = t;
+            assertEquals(range(0, 50), values());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
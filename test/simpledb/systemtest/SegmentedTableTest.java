@@ -0,0 +1,108 @@
+package simpledb.systemtest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/** Tables stored in many small segments behave like tables in one file. */
+public class SegmentedTableTest extends SimpleDbTestBase {
+
+    private static final int PAGES_PER_SEGMENT = 4;
+
+    @Before public void smallSegments() {
+        SegmentedFile.setSegmentSize((long) PAGES_PER_SEGMENT * BufferPool.getPageSize());
+    }
+
+    @After public void resetSegmentSize() {
+        SegmentedFile.resetSegmentSize();
+    }
+
+    private static void deleteOnExit(File f) {
+        for (int n = 1; n < 100; n++) {
+            SegmentedFile.segment(f, n).deleteOnExit();
+        }
+    }
+
+    @Test public void heapFile() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10000, null, tuples);
+        deleteOnExit(table.getFile());
+        int pages = table.numPages();
+        assertTrue(pages > 3 * PAGES_PER_SEGMENT);
+        assertEquals((long) PAGES_PER_SEGMENT * BufferPool.getPageSize(), table.getFile().length());
+        assertTrue(SegmentedFile.segment(table.getFile(), pages / PAGES_PER_SEGMENT - 1).exists());
+        SystemTestUtil.matchTuples(table, tuples);
+
+        // reads through memory mappings of the segments see the same pages
+        HeapFile mapped = new HeapFile(table.getFile(), table.getTupleDesc(), true);
+        for (int p = 0; p < pages; p++) {
+            HeapPageId pid = new HeapPageId(table.getId(), p);
+            assertArrayEquals(table.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+        }
+
+        // inserts grow the file into new segments
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 5000; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{i, i}));
+            tuples.add(Arrays.asList(i, i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(table.numPages() > pages);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = Utility.openHeapFile(2, table.getFile());
+        assertEquals(table.numPages(), reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+        table.close();
+        reopened.close();
+    }
+
+    @Test public void bTreeFile() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, 10000, null, tuples, 0);
+        deleteOnExit(tree.getFile());
+        assertTrue(tree.numPages() > 3 * PAGES_PER_SEGMENT);
+        assertTrue(SegmentedFile.segment(tree.getFile(), 2).exists());
+
+        // walk the tree, whose pages do not line up with the segments
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) tree.readPage(BTreeRootPtrPage.getId(tree.getId()));
+        Deque<BTreePageId> pending = new ArrayDeque<>();
+        pending.add(rootPtr.getRootId());
+        int count = 0;
+        while (!pending.isEmpty()) {
+            BTreePageId pid = pending.poll();
+            if (pid.pgcateg() == BTreePageId.LEAF) {
+                count += ((BTreeLeafPage) tree.readPage(pid)).getNumTuples();
+            } else {
+                BTreeInternalPage page = (BTreeInternalPage) tree.readPage(pid);
+                Iterator<BTreeEntry> entries = page.iterator();
+                BTreeEntry e = entries.next();
+                pending.add(e.getLeftChild());
+                pending.add(e.getRightChild());
+                while (entries.hasNext()) {
+                    pending.add(entries.next().getRightChild());
+                }
+            }
+        }
+        assertEquals(tuples.size(), count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SegmentedTableTest.class);
+    }
+}
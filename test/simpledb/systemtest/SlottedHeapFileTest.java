@@ -0,0 +1,135 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.BatchSeqScan;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+
+    private static final TupleDesc STRING_DESC =
+            new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+
+    private SlottedHeapFile open(File f, TupleDesc td) {
+        SlottedHeapFile hf = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(STRING_DESC);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("name" + i, Type.STRING_LEN));
+        return t;
+    }
+
+    /** @return the number of tuples a scan of the file returns */
+    private int count(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    @Test public void encodedIntegers() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        SystemTestUtil.createRandomHeapFileUnopened(3, 5000, 1000, null, tuples);
+        File temp = File.createTempFile("slotted", ".dat");
+        temp.deleteOnExit();
+        HeapFileEncoder.convertToSlotted(tuples, temp, BufferPool.getPageSize(), 3);
+        SlottedHeapFile hf = open(temp, Utility.getTupleDesc(3));
+        // 12 bytes of record and 4 of slot per tuple
+        assertEquals(5000 * 16 / BufferPool.getPageSize() + 1, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        BatchSeqScan scan = new BatchSeqScan(tid, hf.getId(), "");
+        scan.open();
+        int n = 0;
+        for (TupleBatch b = scan.nextBatch(); b != null; b = scan.nextBatch()) {
+            n += b.numSelected();
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(tuples.size(), n);
+    }
+
+    @Test public void shortStrings() throws Exception {
+        File temp = File.createTempFile("slotted", ".dat");
+        temp.deleteOnExit();
+        SlottedHeapFile hf = open(temp, STRING_DESC);
+
+        final int rows = 3000;
+        TransactionId tid = new TransactionId();
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = tuple(i);
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // fixed slots of 136 bytes would need 100 pages
+        int heapPageSlots = BufferPool.getPageSize() * 8 / (STRING_DESC.getSize() * 8 + 1);
+        assertTrue(hf.numPages() * 5 < rows / heapPageSlots);
+        assertEquals(rows, count(hf));
+
+        tid = new TransactionId();
+        for (int i = 0; i < rows; i += 2) {
+            Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(rows / 2, count(hf));
+
+        // the freed space is used again before the file grows
+        int pages = hf.numPages();
+        tid = new TransactionId();
+        for (int i = 0; i < rows; i += 2) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages, hf.numPages());
+        assertEquals(rows, count(hf));
+
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.open();
+        Set<Integer> seen = new HashSet<>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals("name" + i, ((StringField) t.getField(1)).getValue());
+            seen.add(i);
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(rows, seen.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SortTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+
+    private List<List<Integer>> tuples;
+    private HeapFile table;
+
+    private void createTable(int rows) throws Exception {
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null, tuples);
+    }
+
+    /** Checks that the sort returns the expected tuples, in order. */
+    private void checkSorted(OpIterator sort, boolean asc, int limit) throws Exception {
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        Comparator<List<Integer>> byKey = Comparator.comparing(t -> t.get(1));
+        expected.sort(asc ? byKey : byKey.reversed());
+        if (limit != OrderBy.NO_LIMIT) {
+            expected = expected.subList(0, Math.min(limit, expected.size()));
+        }
+
+        List<List<Integer>> actual = new ArrayList<>();
+        while (sort.hasNext()) {
+            actual.add(SystemTestUtil.tupleToList(sort.next()));
+        }
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(expected.get(i).get(1), actual.get(i).get(1));
+        }
+        // the sort is stable and so is the expected list: same tuples too
+        assertEquals(expected, actual);
+    }
+
+    private OrderBy sort(TransactionId tid, boolean asc, int limit, int memoryPages) {
+        return new OrderBy(1, asc, new SeqScan(tid, table.getId(), ""), limit, memoryPages);
+    }
+
+    @Test public void inMemory() throws Exception {
+        createTable(ROWS);
+        TransactionId tid = new TransactionId();
+        OrderBy sort = sort(tid, true, OrderBy.NO_LIMIT, OrderBy.DEFAULT_MEMORY_PAGES);
+        sort.open();
+        assertEquals(0, sort.numRuns());
+        checkSorted(sort, true, OrderBy.NO_LIMIT);
+        sort.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void external() throws Exception {
+        createTable(ROWS);
+        TransactionId tid = new TransactionId();
+        // 20000 tuples of 8 bytes take about 40 pages
+        OrderBy sort = sort(tid, false, OrderBy.NO_LIMIT, 8);
+        sort.open();
+        assertTrue(sort.numRuns() > 1);
+        checkSorted(sort, false, OrderBy.NO_LIMIT);
+        sort.rewind();
+        checkSorted(sort, false, OrderBy.NO_LIMIT);
+        sort.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** More runs than pages of memory need more than one merge pass. */
+    @Test public void multiPassMerge() throws Exception {
+        createTable(ROWS);
+        TransactionId tid = new TransactionId();
+        OrderBy sort = sort(tid, true, OrderBy.NO_LIMIT, 3);
+        sort.open();
+        assertTrue(sort.numRuns() <= 2);
+        checkSorted(sort, true, OrderBy.NO_LIMIT);
+        sort.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void topN() throws Exception {
+        createTable(ROWS);
+        TransactionId tid = new TransactionId();
+        OrderBy sort = sort(tid, true, 10, 3);
+        sort.open();
+        assertEquals(0, sort.numRuns());
+        checkSorted(sort, true, 10);
+        sort.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A limit larger than memory falls back to the external sort. */
+    @Test public void limitLargerThanMemory() throws Exception {
+        createTable(ROWS);
+        TransactionId tid = new TransactionId();
+        OrderBy sort = sort(tid, false, 5000, 4);
+        sort.open();
+        assertTrue(sort.numRuns() > 0);
+        checkSorted(sort, false, 5000);
+        sort.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortTest.class);
+    }
+}
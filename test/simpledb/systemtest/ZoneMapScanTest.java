@@ -0,0 +1,146 @@
+package simpledb.systemtest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapScanTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private HeapFile table;
+    private String tableName;
+    private List<List<Integer>> tuples;
+
+    /** Creates a table whose column 0 is sorted, as in an append-only log. */
+    @Before public void createTable() throws Exception {
+        Random r = new Random(7);
+        tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(Arrays.asList(i, r.nextInt(1000)));
+        }
+        File f = File.createTempFile("zones", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        table = new HeapFile(f, Utility.getTupleDesc(2, "field"));
+        tableName = UUID.randomUUID().toString();
+        Database.getCatalog().addTable(table, tableName);
+    }
+
+    private List<List<Integer>> select(int below) {
+        List<List<Integer>> selected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < below) {
+                selected.add(t);
+            }
+        }
+        return selected;
+    }
+
+    /** @return the number of pages of the table a transaction read */
+    private int pagesRead(TransactionId tid) {
+        int n = 0;
+        for (int p = 0; p < table.numPages(); p++) {
+            if (Database.getBufferPool().holdsLock(tid, new HeapPageId(table.getId(), p))) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Test public void skipsPages() throws Exception {
+        assertTrue(table.numPages() > 2);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t")
+                .withPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)));
+        SystemTestUtil.matchTuples(scan, select(100));
+        assertEquals(1, pagesRead(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Inserted and deleted tuples are found or not found by later scans. */
+    @Test public void insertAndDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(0)).getValue() < 50) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+        }
+        scan.close();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{10, -1}));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        List<List<Integer>> expected = new ArrayList<>(select(100).subList(50, 100));
+        expected.add(Arrays.asList(10, -1));
+        tid = new TransactionId();
+        scan = new SeqScan(tid, table.getId(), "t")
+                .withPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)));
+        SystemTestUtil.matchTuples(scan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the deleted tuples freed room on the first page, so it took the insert
+        tid = new TransactionId();
+        scan = new SeqScan(tid, table.getId(), "t")
+                .withPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)));
+        SystemTestUtil.matchTuples(scan, Collections.singletonList(Arrays.asList(10, -1)));
+        assertEquals(1, pagesRead(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The plan of a query checks its filters in the scan of the table. */
+    @Test public void planPushesFilters() throws Exception {
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(tableName, new TableStats(table.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.field0", Predicate.Op.LESS_THAN, "100");
+        lp.addFilter("t.field1", Predicate.Op.GREATER_THAN_OR_EQ, "500");
+        lp.addProjectField("t.field1", null);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OpIterator node = plan;
+        while (!(node instanceof SeqScan)) {
+            node = ((Operator) node).getChildren()[0];
+        }
+        assertEquals(2, ((SeqScan) node).getPredicates().length);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : select(100)) {
+            if (t.get(1) >= 500) {
+                expected.add(Collections.singletonList(t.get(1)));
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        assertEquals(1, pagesRead(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapScanTest.class);
+    }
+}